@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.benchmark;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DOC_TYPE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_INACLTXID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_READER;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_VERSION;
+import static org.alfresco.service.namespace.NamespaceService.CONTENT_MODEL_1_0_URI;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.solr.AbstractAlfrescoSolrTests;
+import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.alfresco.solr.AlfrescoSolrUtils;
+import org.alfresco.solr.SolrInformationServer;
+import org.alfresco.solr.client.ContentPropertyValue;
+import org.alfresco.solr.client.PropertyValue;
+import org.alfresco.solr.client.StringPropertyValue;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.CommitUpdateCommand;
+import org.apache.solr.util.RefCounted;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An in-memory Alfresco core with a synthetic repository in it, shared by the query benchmarks.
+ * <p>
+ * The core is built by the alfresco-search test harness, from its test-files. Group membership of ACLs and
+ * the ACLs of nodes are skewed, so a few groups read most of the repository and most nodes share a few
+ * inherited ACLs, as in real repositories. Nodes live in a folder tree of the given depth and most of them
+ * have content with a mimetype.
+ *
+ * @author Andy
+ */
+@State(Scope.Benchmark)
+public class SyntheticIndex extends AbstractAlfrescoSolrTests
+{
+    public static final String[] MIMETYPES = { "application/pdf", "text/plain", "application/msword",
+                "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "image/jpeg", "image/png",
+                "text/html", "application/vnd.ms-excel", "video/mp4", "application/zip" };
+
+    @Param("50000")
+    public int nodes;
+
+    @Param("5000")
+    public int acls;
+
+    @Param("500")
+    public int groups;
+
+    @Param("6")
+    public int maxReadersPerAcl;
+
+    @Param("6")
+    public int pathDepth;
+
+    /** Sub folders per folder. */
+    @Param("4")
+    public int fanOut;
+
+    private final Random random = new Random(42L);
+
+    private final Map<String, NodeRef> folders = new HashMap<>();
+
+    private RefCounted<SolrIndexSearcher> searcher;
+
+    private int nextDbid = 2;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        initAlfrescoCore("schema.xml");
+        dataModel.getNamespaceDAO().removePrefix("");
+        dataModel.setCMDefaultUri();
+
+        SolrCore core = h.getCore();
+        NodeRef root = newNodeRef();
+        AlfrescoSolrUtils.addStoreRoot(core, dataModel, root, 1, 1, 1, 1);
+        folders.put("", root);
+
+        try (SolrServletRequest request = new SolrServletRequest(core, null))
+        {
+            for (int acl = 0; acl < acls; acl++)
+            {
+                addAcl(core, request, acl);
+            }
+            for (int i = 0; i < nodes; i++)
+            {
+                addContent(core, i);
+            }
+            core.getUpdateHandler().commit(new CommitUpdateCommand(request, false));
+        }
+        searcher = core.getSearcher();
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        if (searcher != null)
+        {
+            searcher.decref();
+        }
+        tearDown();
+    }
+
+    public SolrCore getSolrCore()
+    {
+        return h.getCore();
+    }
+
+    public SolrIndexSearcher getSearcher()
+    {
+        return searcher.get();
+    }
+
+    public AlfrescoSolrDataModel getDataModel()
+    {
+        return dataModel;
+    }
+
+    public static String group(int index)
+    {
+        return "GROUP_G" + index;
+    }
+
+    public static String user(int index)
+    {
+        return "user" + index;
+    }
+
+    /**
+     * @return the authorities of a user in the given number of groups, as an AUTHSET query value
+     */
+    public String authoritySet(int userGroups, long seed)
+    {
+        Random userRandom = new Random(seed);
+        StringBuilder authorities = new StringBuilder("|").append(user(userRandom.nextInt(nodes)));
+        authorities.append("|GROUP_EVERYONE");
+        for (int i = 0; i < userGroups; i++)
+        {
+            authorities.append('|').append(group(skewed(userRandom, groups)));
+        }
+        return authorities.toString();
+    }
+
+    /**
+     * @return the path of a folder at the given depth, in prefix form
+     */
+    public String folderPath(int depth)
+    {
+        StringBuilder path = new StringBuilder();
+        for (int level = 0; level < depth; level++)
+        {
+            path.append("/cm:f").append(level).append('_').append(0);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Small indexes pick from the low end more often, so a few values are very common.
+     */
+    private static int skewed(Random random, int bound)
+    {
+        return (int) (bound * Math.pow(random.nextDouble(), 3));
+    }
+
+    private void addAcl(SolrCore core, SolrServletRequest request, int acl) throws IOException
+    {
+        SolrInputDocument aclDoc = new SolrInputDocument();
+        aclDoc.addField(FIELD_SOLR4_ID, AlfrescoSolrDataModel.getAclDocumentId(AlfrescoSolrDataModel.DEFAULT_TENANT, (long) acl));
+        aclDoc.addField(FIELD_VERSION, "0");
+        aclDoc.addField(FIELD_ACLID, acl);
+        aclDoc.addField(FIELD_INACLTXID, "1");
+        int readers = 1 + random.nextInt(maxReadersPerAcl);
+        for (int i = 0; i < readers; i++)
+        {
+            aclDoc.addField(FIELD_READER, group(skewed(random, groups)));
+        }
+        if (random.nextInt(10) < 3)
+        {
+            aclDoc.addField(FIELD_READER, user(random.nextInt(nodes)));
+        }
+        aclDoc.addField(FIELD_DOC_TYPE, SolrInformationServer.DOC_TYPE_ACL);
+
+        AddUpdateCommand addAcl = new AddUpdateCommand(request);
+        addAcl.overwrite = true;
+        addAcl.solrDoc = aclDoc;
+        core.getUpdateHandler().addDoc(addAcl);
+    }
+
+    private void addContent(SolrCore core, int index)
+    {
+        // Spread the nodes over the folder tree, deeper levels holding more of them
+        int depth = 1 + Math.min(pathDepth - 1, (int) (pathDepth * Math.sqrt(random.nextDouble())));
+        List<String> path = new ArrayList<>(depth);
+        for (int level = 0; level < depth; level++)
+        {
+            path.add("f" + level + "_" + random.nextInt(fanOut));
+        }
+        NodeRef parent = getFolder(core, path);
+        NodeRef[] ancestors = getAncestors(path);
+
+        QName name = QName.createQName(CONTENT_MODEL_1_0_URI, "n" + index);
+        NodeRef nodeRef = newNodeRef();
+        Map<QName, PropertyValue> properties = new HashMap<>();
+        properties.put(ContentModel.PROP_NAME, new StringPropertyValue("n" + index));
+        Map<QName, String> content = new HashMap<>();
+        QName type = ContentModel.TYPE_CONTENT;
+        if (random.nextInt(10) < 8)
+        {
+            String mimetype = MIMETYPES[skewed(random, MIMETYPES.length)];
+            properties.put(ContentModel.PROP_CONTENT, new ContentPropertyValue(Locale.UK, 1024L, "UTF-8", mimetype, null));
+            content.put(ContentModel.PROP_CONTENT, "benchmark content " + index);
+        }
+        else
+        {
+            type = ContentModel.TYPE_CMOBJECT;
+        }
+        ChildAssociationRef assoc = new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, parent, name, nodeRef, true, 0);
+        AlfrescoSolrUtils.addNode(core, dataModel, 1, nextDbid++, skewed(random, acls), type, null, properties, content,
+                    user(random.nextInt(nodes)), new ChildAssociationRef[] { assoc }, ancestors,
+                    new String[] { toPath(path) + "/" + name }, nodeRef, false);
+    }
+
+    /**
+     * @return the folder, indexed on first use
+     */
+    private NodeRef getFolder(SolrCore core, List<String> path)
+    {
+        String key = toPath(path);
+        NodeRef folder = folders.get(key);
+        if (folder == null)
+        {
+            List<String> parentPath = path.subList(0, path.size() - 1);
+            NodeRef parent = getFolder(core, parentPath);
+            folder = newNodeRef();
+            QName name = QName.createQName(CONTENT_MODEL_1_0_URI, path.get(path.size() - 1));
+            Map<QName, PropertyValue> properties = new HashMap<>();
+            properties.put(ContentModel.PROP_NAME, new StringPropertyValue(name.getLocalName()));
+            ChildAssociationRef assoc = new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, parent, name, folder, true, 0);
+            AlfrescoSolrUtils.addNode(core, dataModel, 1, nextDbid++, 0, ContentModel.TYPE_FOLDER, null, properties,
+                        null, "admin", new ChildAssociationRef[] { assoc }, getAncestors(parentPath),
+                        new String[] { key }, folder, false);
+            folders.put(key, folder);
+        }
+        return folder;
+    }
+
+    private NodeRef[] getAncestors(List<String> path)
+    {
+        NodeRef[] ancestors = new NodeRef[path.size() + 1];
+        for (int i = 0; i <= path.size(); i++)
+        {
+            ancestors[i] = folders.get(toPath(path.subList(0, i)));
+        }
+        return ancestors;
+    }
+
+    private static String toPath(List<String> path)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (String element : path)
+        {
+            builder.append('/').append(QName.createQName(CONTENT_MODEL_1_0_URI, element));
+        }
+        return builder.toString();
+    }
+
+    private static NodeRef newNodeRef()
+    {
+        return new NodeRef(new StoreRef("workspace", "SpacesStore"), AlfrescoSolrUtils.createGUID());
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.benchmark;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_FTSSTATUS;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.solr.AbstractAlfrescoSolrTests;
+import org.alfresco.solr.AlfrescoCoreAdminHandler;
+import org.alfresco.solr.AlfrescoSolrUtils;
+import org.alfresco.solr.InformationServer;
+import org.alfresco.solr.client.Acl;
+import org.alfresco.solr.client.AclChangeSet;
+import org.alfresco.solr.client.AclReaders;
+import org.alfresco.solr.client.Node;
+import org.alfresco.solr.client.NodeMetaData;
+import org.alfresco.solr.client.SOLRAPIQueueClient;
+import org.alfresco.solr.client.StringPropertyValue;
+import org.alfresco.solr.client.Transaction;
+import org.alfresco.solr.tracker.AclTracker;
+import org.alfresco.solr.tracker.CascadeTracker;
+import org.alfresco.solr.tracker.ContentTracker;
+import org.alfresco.solr.tracker.MetadataTracker;
+import org.alfresco.solr.tracker.ModelTracker;
+import org.alfresco.solr.tracker.TrackerRegistry;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An embedded Alfresco core tracking a repository simulated by the {@link SOLRAPIQueueClient}, for the
+ * indexing benchmarks.
+ * <p>
+ * The tracker schedule is paused and the trackers are run synchronously, in the order the schedule would
+ * normally run them, until everything queued has been indexed. Transactions and ACL change sets get commit
+ * times from a clock that starts well in the past, so they are never held back by <code>alfresco.lag</code>.
+ * Queues are emptied once indexed, so the cost of scanning them does not grow with the length of a run.
+ *
+ * @author Andy
+ */
+@State(Scope.Benchmark)
+public class TrackedCore extends AbstractAlfrescoSolrTests
+{
+    private static final long TRACKING_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /** How far in the past the commit time clock starts, which bounds the number of transactions in a trial. */
+    private static final long CLOCK_START_MS = TimeUnit.HOURS.toMillis(1);
+
+    /** Documents indexed before the benchmarks start, to edit. */
+    @Param("10000")
+    public int documents;
+
+    @Param("1000")
+    public int acls;
+
+    @Param("200")
+    public int groups;
+
+    /** Folders indexed before the benchmarks start, to move. */
+    @Param("20")
+    public int folders;
+
+    /** Documents in each of the folders to move. */
+    @Param("500")
+    public int folderSize;
+
+    private final Random random = new Random(42L);
+
+    private final List<Acl> aclList = new ArrayList<>();
+
+    private final List<NodeMetaData> documentList = new ArrayList<>();
+
+    private final List<NodeMetaData> folderList = new ArrayList<>();
+
+    private final Map<Long, List<NodeMetaData>> folderContents = new HashMap<>();
+
+    private final NodeRef[] parents = { newNodeRef(), newNodeRef() };
+
+    private SolrCore core;
+
+    private InformationServer infoSrv;
+
+    private ModelTracker modelTracker;
+
+    private AclTracker aclTracker;
+
+    private MetadataTracker metadataTracker;
+
+    private ContentTracker contentTracker;
+
+    private CascadeTracker cascadeTracker;
+
+    private long clock;
+
+    private long lastTxId;
+
+    private long lastChangeSetId;
+
+    private int nextFolder;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        initAlfrescoCore("schema.xml");
+        core = h.getCore();
+        AlfrescoCoreAdminHandler adminHandler = AlfrescoSolrUtils.coreAdminHandler(core);
+        adminHandler.getScheduler().pauseAll();
+
+        TrackerRegistry registry = adminHandler.getTrackerRegistry();
+        String coreName = core.getName();
+        infoSrv = adminHandler.getInformationServers().get(coreName);
+        modelTracker = registry.getModelTracker();
+        aclTracker = registry.getTrackerForCore(coreName, AclTracker.class);
+        metadataTracker = registry.getTrackerForCore(coreName, MetadataTracker.class);
+        contentTracker = registry.getTrackerForCore(coreName, ContentTracker.class);
+        cascadeTracker = registry.getTrackerForCore(coreName, CascadeTracker.class);
+        clock = System.currentTimeMillis() - CLOCK_START_MS;
+
+        long deadline = System.currentTimeMillis() + TRACKING_TIMEOUT_MS;
+        while (!modelTracker.hasModels())
+        {
+            checkDeadline(deadline, "models");
+            modelTracker.track();
+        }
+
+        AclChangeSet changeSet = newAclChangeSet(acls);
+        List<AclReaders> readers = new ArrayList<>(acls);
+        for (int i = 0; i < acls; i++)
+        {
+            Acl acl = AlfrescoSolrUtils.getAcl(changeSet);
+            aclList.add(acl);
+            readers.add(newAclReaders(changeSet, acl));
+        }
+        AlfrescoSolrUtils.indexAclChangeSet(changeSet, aclList, readers);
+
+        documentList.addAll(addTransaction(documents, null));
+        for (int i = 0; i < folders; i++)
+        {
+            NodeMetaData folder = addTransaction(1, null).get(0);
+            folder.getProperties().remove(ContentModel.PROP_CONTENT);
+            folder.setAncestors(AlfrescoSolrUtils.ancestors(parents[0]));
+            folderList.add(folder);
+            folderContents.put(folder.getId(), addTransaction(folderSize, folder.getNodeRef()));
+        }
+        track();
+    }
+
+    @TearDown(Level.Trial)
+    public void close()
+    {
+        SOLRAPIQueueClient.aclChangeSetQueue.clear();
+        SOLRAPIQueueClient.aclMap.clear();
+        SOLRAPIQueueClient.aclReadersMap.clear();
+        SOLRAPIQueueClient.transactionQueue.clear();
+        SOLRAPIQueueClient.nodeMap.clear();
+        SOLRAPIQueueClient.nodeMetaDataMap.clear();
+        SOLRAPIQueueClient.nodeContentMap.clear();
+        tearDown();
+    }
+
+    /**
+     * Queues a transaction of new documents, with content.
+     *
+     * @param parent the folder of the documents, or null
+     * @return the metadata of the documents
+     */
+    public List<NodeMetaData> addTransaction(int size, NodeRef parent)
+    {
+        Transaction txn = newTransaction(size);
+        List<Node> nodes = new ArrayList<>(size);
+        List<NodeMetaData> metaData = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+        {
+            Acl acl = aclList.get(skewed(random, aclList.size()));
+            Node node = AlfrescoSolrUtils.getNode(txn, acl, Node.SolrApiNodeStatus.UPDATED);
+            NodeMetaData nodeMetaData = AlfrescoSolrUtils.getNodeMetaData(node, txn, acl, "admin",
+                        parent == null ? null : AlfrescoSolrUtils.ancestors(parent), false);
+            nodeMetaData.getProperties().put(ContentModel.PROP_NAME, new StringPropertyValue("n" + node.getId()));
+            SOLRAPIQueueClient.nodeContentMap.put(node.getId(), "benchmark content " + node.getId());
+            nodes.add(node);
+            metaData.add(nodeMetaData);
+        }
+        queue(txn, nodes, metaData);
+        return metaData;
+    }
+
+    /**
+     * Queues transactions of one to three updates of documents indexed during set up.
+     *
+     * @return the number of documents updated
+     */
+    public int editDocuments(int transactions)
+    {
+        int updated = 0;
+        for (int t = 0; t < transactions; t++)
+        {
+            int size = 1 + random.nextInt(3);
+            Transaction txn = newTransaction(size);
+            List<Node> nodes = new ArrayList<>(size);
+            List<NodeMetaData> metaData = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+            {
+                NodeMetaData document = documentList.get(random.nextInt(documentList.size()));
+                nodes.add(update(txn, document));
+                metaData.add(document);
+            }
+            queue(txn, nodes, metaData);
+            updated += size;
+        }
+        return updated;
+    }
+
+    /**
+     * Queues a change set giving new readers to ACLs indexed during set up.
+     */
+    public void changePermissions(int count)
+    {
+        AclChangeSet changeSet = newAclChangeSet(count);
+        List<Acl> changed = new ArrayList<>(count);
+        List<AclReaders> readers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+        {
+            Acl acl = AlfrescoSolrUtils.getAcl(changeSet, aclList.get(random.nextInt(aclList.size())).getId());
+            changed.add(acl);
+            readers.add(newAclReaders(changeSet, acl));
+        }
+        AlfrescoSolrUtils.indexAclChangeSet(changeSet, changed, readers);
+    }
+
+    /**
+     * Queues a transaction moving the next folder between the two parents, which the cascade tracker has to
+     * push down to every document in it.
+     *
+     * @return the number of documents in the folder
+     */
+    public int moveFolder()
+    {
+        NodeMetaData folder = folderList.get(nextFolder++ % folderList.size());
+        NodeRef from = folder.getAncestors().iterator().next();
+        NodeRef to = from.equals(parents[0]) ? parents[1] : parents[0];
+
+        Transaction txn = newTransaction(1);
+        Node node = update(txn, folder);
+        folder.setAncestors(AlfrescoSolrUtils.ancestors(to));
+        folder.getProperties().put(ContentModel.PROP_CASCADE_TX, new StringPropertyValue(Long.toString(txn.getId())));
+        List<NodeMetaData> contents = folderContents.get(folder.getId());
+        for (NodeMetaData document : contents)
+        {
+            document.setAncestors(AlfrescoSolrUtils.ancestors(to, folder.getNodeRef()));
+        }
+        queue(txn, Collections.singletonList(node), Collections.singletonList(folder));
+        return contents.size();
+    }
+
+    /**
+     * Runs the trackers until everything queued has been indexed and committed.
+     *
+     * @return the number of documents the content tracker fetched content for
+     */
+    public int track() throws IOException
+    {
+        long deadline = System.currentTimeMillis() + TRACKING_TIMEOUT_MS;
+        while (aclTracker.getTrackerState().getLastIndexedChangeSetId() < lastChangeSetId)
+        {
+            checkDeadline(deadline, "ACL change set " + lastChangeSetId);
+            aclTracker.track();
+        }
+        while (metadataTracker.getTrackerState().getLastIndexedTxId() < lastTxId)
+        {
+            checkDeadline(deadline, "transaction " + lastTxId);
+            metadataTracker.track();
+        }
+        infoSrv.commit(true);
+
+        int uncleanContent = countUncleanContent();
+        contentTracker.track();
+        cascadeTracker.track();
+        infoSrv.commit(true);
+
+        SOLRAPIQueueClient.aclChangeSetQueue.clear();
+        SOLRAPIQueueClient.aclMap.clear();
+        SOLRAPIQueueClient.transactionQueue.clear();
+        SOLRAPIQueueClient.nodeMap.clear();
+        return uncleanContent;
+    }
+
+    private int countUncleanContent() throws IOException
+    {
+        BooleanQuery.Builder unclean = new BooleanQuery.Builder();
+        unclean.add(new TermQuery(new Term(FIELD_FTSSTATUS, "New")), Occur.SHOULD);
+        unclean.add(new TermQuery(new Term(FIELD_FTSSTATUS, "Dirty")), Occur.SHOULD);
+        RefCounted<SolrIndexSearcher> searcher = core.getSearcher();
+        try
+        {
+            return searcher.get().count(unclean.build());
+        }
+        finally
+        {
+            searcher.decref();
+        }
+    }
+
+    private Node update(Transaction txn, NodeMetaData nodeMetaData)
+    {
+        Acl acl = aclList.get(skewed(random, aclList.size()));
+        nodeMetaData.setTxnId(txn.getId());
+        nodeMetaData.setAclId(acl.getId());
+        return AlfrescoSolrUtils.getNode(nodeMetaData.getId(), txn, acl, Node.SolrApiNodeStatus.UPDATED);
+    }
+
+    private void queue(Transaction txn, List<Node> nodes, List<NodeMetaData> metaData)
+    {
+        SOLRAPIQueueClient.nodeMap.put(txn.getId(), nodes);
+        for (NodeMetaData nodeMetaData : metaData)
+        {
+            SOLRAPIQueueClient.nodeMetaDataMap.put(nodeMetaData.getId(), nodeMetaData);
+        }
+        SOLRAPIQueueClient.transactionQueue.add(txn);
+        lastTxId = txn.getId();
+    }
+
+    private Transaction newTransaction(int updates)
+    {
+        Transaction txn = AlfrescoSolrUtils.getTransaction(0, updates);
+        txn.setCommitTimeMs(tick());
+        return txn;
+    }
+
+    private AclChangeSet newAclChangeSet(int aclCount)
+    {
+        AclChangeSet changeSet = new AclChangeSet(AlfrescoSolrUtils.getAclChangeSet(aclCount).getId(), tick(), aclCount);
+        lastChangeSetId = changeSet.getId();
+        return changeSet;
+    }
+
+    private AclReaders newAclReaders(AclChangeSet changeSet, Acl acl)
+    {
+        List<String> readers = new ArrayList<>();
+        int count = 1 + random.nextInt(6);
+        for (int i = 0; i < count; i++)
+        {
+            readers.add("GROUP_G" + skewed(random, groups));
+        }
+        return AlfrescoSolrUtils.getAclReaders(changeSet, acl, readers, Collections.singletonList("GROUP_DENIED"), null);
+    }
+
+    /**
+     * Commit times are strictly increasing, as the trackers page through the repository by commit time.
+     */
+    private long tick()
+    {
+        clock++;
+        if (clock > System.currentTimeMillis() - CLOCK_START_MS / 2)
+        {
+            throw new IllegalStateException("Too many transactions for the commit time clock");
+        }
+        return clock;
+    }
+
+    private static void checkDeadline(long deadline, String waitingFor)
+    {
+        if (System.currentTimeMillis() > deadline)
+        {
+            throw new IllegalStateException("Tracking did not reach " + waitingFor + " in " + TRACKING_TIMEOUT_MS + "ms");
+        }
+    }
+
+    private static int skewed(Random random, int bound)
+    {
+        return (int) (bound * Math.pow(random.nextDouble(), 3));
+    }
+
+    private static NodeRef newNodeRef()
+    {
+        return new NodeRef(new StoreRef("workspace", "SpacesStore"), AlfrescoSolrUtils.createGUID());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.solr.SolrInformationServer;
+import org.alfresco.solr.benchmark.SyntheticIndex;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.solr.search.DelegatingCollector;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Permission checks of a user in a given number of groups with {@link SolrAuthoritySetQuery}, as a query
+ * (filter) and as a post filter over all nodes.
+ *
+ * @author Andy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthoritySetQueryBenchmark
+{
+    @Param({ "5", "50", "500" })
+    public int userGroups;
+
+    private SolrAuthoritySetQuery query;
+
+    private TermQuery allNodes;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticIndex index)
+    {
+        query = new SolrAuthoritySetQuery(index.authoritySet(userGroups, 7L));
+        allNodes = new TermQuery(new Term(QueryConstants.FIELD_DOC_TYPE, SolrInformationServer.DOC_TYPE_NODE));
+    }
+
+    @Benchmark
+    public int filter(SyntheticIndex index) throws IOException
+    {
+        TotalHitCountCollector hits = new TotalHitCountCollector();
+        index.getSearcher().search(query, hits);
+        return hits.getTotalHits();
+    }
+
+    @Benchmark
+    public int postFilter(SyntheticIndex index) throws IOException
+    {
+        SolrIndexSearcher searcher = index.getSearcher();
+        TotalHitCountCollector hits = new TotalHitCountCollector();
+        DelegatingCollector filter = query.getFilterCollector(searcher);
+        filter.setLastDelegate(hits);
+        searcher.search(allNodes, filter);
+        filter.finish();
+        return hits.getTotalHits();
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading ACLID doc values of every document of an index, through the {@link DocValuesCache} and straight
+ * from the codec, and loading the cache for a new reader.
+ *
+ * @author Andy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocValuesCacheBenchmark
+{
+    @Param({ "1000000" })
+    public int documents;
+
+    @Param({ "10000" })
+    public int aclIds;
+
+    /** Flushes every this many documents, for several segments. */
+    @Param({ "100000" })
+    public int segmentSize;
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        Random random = new Random(42L);
+        directory = new RAMDirectory();
+        IndexWriterConfig config = new IndexWriterConfig(new KeywordAnalyzer());
+        config.setMaxBufferedDocs(segmentSize);
+        try (IndexWriter writer = new IndexWriter(directory, config))
+        {
+            for (int i = 0; i < documents; i++)
+            {
+                Document document = new Document();
+                document.add(new NumericDocValuesField(QueryConstants.FIELD_ACLID, (long) (aclIds * Math.pow(random.nextDouble(), 3))));
+                writer.addDocument(document);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        reader.close();
+        directory.close();
+    }
+
+    @Benchmark
+    public long cached() throws IOException
+    {
+        long sum = 0;
+        for (LeafReaderContext context : reader.leaves())
+        {
+            LeafReader leaf = context.reader();
+            NumericDocValues values = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, leaf);
+            for (int doc = 0; doc < leaf.maxDoc(); doc++)
+            {
+                sum += values.get(doc);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long uncached() throws IOException
+    {
+        long sum = 0;
+        for (LeafReaderContext context : reader.leaves())
+        {
+            LeafReader leaf = context.reader();
+            NumericDocValues values = leaf.getNumericDocValues(QueryConstants.FIELD_ACLID);
+            for (int doc = 0; doc < leaf.maxDoc(); doc++)
+            {
+                sum += values.get(doc);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * The cost of the first query after a new searcher is opened.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2, batchSize = 1)
+    @Measurement(iterations = 10, batchSize = 1)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int load(Reopened reopened) throws IOException
+    {
+        int loaded = 0;
+        for (LeafReaderContext context : reopened.reader.leaves())
+        {
+            if (DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, context.reader()) != null)
+            {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * A reader of the index that has not been seen by the cache yet.
+     */
+    @State(Scope.Thread)
+    public static class Reopened
+    {
+        DirectoryReader reader;
+
+        @Setup(Level.Invocation)
+        public void open(DocValuesCacheBenchmark benchmark) throws IOException
+        {
+            // Every reader opened on the directory has new core cache keys
+            reader = DirectoryReader.open(benchmark.directory);
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() throws IOException
+        {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups of ACL ids in a {@link HybridBitSet}, as done for every candidate document by the ACL post filter.
+ * <p>
+ * The readable ACL ids are a fraction of all ACL ids; those below <code>maxBit</code> go in the bit set and
+ * the rest in the hash set, so <code>maxBit</code> 0 is the all hash set case.
+ *
+ * @author Andy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HybridBitSetBenchmark
+{
+    private static final int LOOKUPS = 4096;
+
+    @Param({ "1000000" })
+    public int aclIds;
+
+    /** Percentage of the ACL ids that are readable. */
+    @Param({ "1", "20" })
+    public int readablePercent;
+
+    @Param({ "0", "1000000" })
+    public int maxBit;
+
+    private HybridBitSet readable;
+
+    private long[] lookups;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Random random = new Random(42L);
+        readable = maxBit == 0 ? new HybridBitSet() : new HybridBitSet(maxBit);
+        for (long aclId = 0; aclId < aclIds; aclId++)
+        {
+            if (random.nextInt(100) < readablePercent)
+            {
+                readable.set(aclId);
+            }
+        }
+        // Documents mostly carry a few popular (inherited) ACLs
+        lookups = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            lookups[i] = (long) (aclIds * Math.pow(random.nextDouble(), 3));
+        }
+    }
+
+    @Benchmark
+    public boolean get()
+    {
+        next = (next + 1) & (LOOKUPS - 1);
+        return readable.get(lookups[next]);
+    }
+
+    @Benchmark
+    public HybridBitSet build()
+    {
+        HybridBitSet set = maxBit == 0 ? new HybridBitSet() : new HybridBitSet(maxBit);
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            set.set(lookups[i]);
+        }
+        return set;
+    }
+}
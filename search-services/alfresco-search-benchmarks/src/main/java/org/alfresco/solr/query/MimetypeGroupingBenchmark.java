@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.solr.AbstractAlfrescoSolrTests.SolrServletRequest;
+import org.alfresco.solr.SolrInformationServer;
+import org.alfresco.solr.benchmark.SyntheticIndex;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.response.SolrQueryResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Counting the mimetypes (or mimetype groups) of all nodes with {@link MimetypeGroupingCollector}.
+ *
+ * @author Andy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MimetypeGroupingBenchmark
+{
+    @Param({ "true", "false" })
+    public boolean group;
+
+    private SolrServletRequest request;
+
+    private HashMap<String, String> mappings;
+
+    private TermQuery allNodes;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticIndex index)
+    {
+        request = new SolrServletRequest(index.getSolrCore(), null);
+        mappings = new HashMap<>();
+        for (String mimetype : SyntheticIndex.MIMETYPES)
+        {
+            mappings.put(mimetype, mimetype.substring(0, mimetype.indexOf('/')));
+        }
+        allNodes = new TermQuery(new Term(QueryConstants.FIELD_DOC_TYPE, SolrInformationServer.DOC_TYPE_NODE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        request.close();
+    }
+
+    @Benchmark
+    public int count(SyntheticIndex index) throws IOException
+    {
+        ResponseBuilder rb = new ResponseBuilder(request, new SolrQueryResponse(), new ArrayList<SearchComponent>());
+        TotalHitCountCollector hits = new TotalHitCountCollector();
+        MimetypeGroupingCollector collector = new MimetypeGroupingCollector(rb, mappings, group);
+        collector.setLastDelegate(hits);
+        index.getSearcher().search(allNodes, collector);
+        collector.finish();
+        return hits.getTotalHits();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.impl.parsers.FTSQueryParser;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.solr.AbstractAlfrescoSolrTests.SolrServletRequest;
+import org.alfresco.solr.benchmark.SyntheticIndex;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PATH queries at several depths, executed by {@link SolrPathQuery} (and so {@link SolrContainerScorer})
+ * and through the path cache of {@link SolrCachingPathQuery}.
+ *
+ * @author Andy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathQueryBenchmark
+{
+    /** The depth of the folder the query starts from. */
+    @Param({ "1", "3", "5" })
+    public int depth;
+
+    /** children, all descendants, or a name anywhere below the folder. */
+    @Param({ "/*", "//*", "//cm:n1" })
+    public String selection;
+
+    private SolrCachingPathQuery cachingPathQuery;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticIndex index) throws Exception
+    {
+        String queryString = "PATH:\"" + index.folderPath(depth) + selection + "\"";
+        try (SolrServletRequest request = new SolrServletRequest(index.getSolrCore(), null))
+        {
+            SearchParameters searchParameters = new SearchParameters();
+            searchParameters.setQuery(queryString);
+            Query query = index.getDataModel().getLuceneQueryParser(searchParameters, request,
+                        FTSQueryParser.RerankPhase.SINGLE_PASS).parse(queryString);
+            cachingPathQuery = findPathQuery(query);
+        }
+        if (cachingPathQuery == null)
+        {
+            throw new IllegalStateException("Not a path query: " + queryString);
+        }
+    }
+
+    @Benchmark
+    public int uncached(SyntheticIndex index) throws IOException
+    {
+        TotalHitCountCollector hits = new TotalHitCountCollector();
+        index.getSearcher().search(cachingPathQuery.pathQuery, hits);
+        return hits.getTotalHits();
+    }
+
+    @Benchmark
+    public int cached(SyntheticIndex index) throws IOException
+    {
+        TotalHitCountCollector hits = new TotalHitCountCollector();
+        index.getSearcher().search(cachingPathQuery, hits);
+        return hits.getTotalHits();
+    }
+
+    private static SolrCachingPathQuery findPathQuery(Query query)
+    {
+        if (query instanceof SolrCachingPathQuery)
+        {
+            return (SolrCachingPathQuery) query;
+        }
+        else if (query instanceof BoostQuery)
+        {
+            return findPathQuery(((BoostQuery) query).getQuery());
+        }
+        else if (query instanceof ConstantScoreQuery)
+        {
+            return findPathQuery(((ConstantScoreQuery) query).getQuery());
+        }
+        else if (query instanceof BooleanQuery)
+        {
+            for (BooleanClause clause : ((BooleanQuery) query).clauses())
+            {
+                SolrCachingPathQuery found = findPathQuery(clause.getQuery());
+                if (found != null)
+                {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.search.impl.parsers.FTSQueryParser;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.solr.AbstractAlfrescoSolrTests.SolrServletRequest;
+import org.alfresco.solr.benchmark.SyntheticIndex;
+import org.apache.lucene.search.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing queries into Lucene queries with {@link Solr4QueryParser}, without executing them.
+ *
+ * @author Andy
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryParserBenchmark
+{
+    @Param({
+        "TEXT:benchmark",
+        "@cm\\:name:n1*",
+        "TYPE:\"cm:content\" AND ASPECT:\"cm:titled\"",
+        "PATH:\"/cm:f0_0/cm:f1_0//*\"",
+        "cm:content.mimetype:\"text/plain\" OR cm:content.mimetype:\"application/pdf\"",
+        "(TEXT:benchmark OR cm:name:n1*) AND TYPE:\"cm:content\" AND NOT ASPECT:\"cm:workingcopy\"" })
+    public String queryString;
+
+    private SolrServletRequest request;
+
+    private SearchParameters searchParameters;
+
+    @Setup(Level.Trial)
+    public void setUp(SyntheticIndex index)
+    {
+        request = new SolrServletRequest(index.getSolrCore(), null);
+        searchParameters = new SearchParameters();
+        searchParameters.setQuery(queryString);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        request.close();
+    }
+
+    @Benchmark
+    public Query parse(SyntheticIndex index) throws Exception
+    {
+        return index.getDataModel().getLuceneQueryParser(searchParameters, request,
+                    FTSQueryParser.RerankPhase.SINGLE_PASS).parse(queryString);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.repo.index.shard.ShardMethodEnum;
+import org.alfresco.solr.client.Node;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.solr.common.util.Hash;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Routing a worker's batch of nodes with the {@link DocRouter}s, node by node and as a batch, against the
+ * routing functions as they were before they stopped allocating: a string per id hash, a calendar per date and
+ * a matcher and substring per property. Run with <code>-prof gc</code> to see the allocation rates.
+ *
+ * @author Andy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(RoutingBenchmark.NODES)
+public class RoutingBenchmark
+{
+    static final int NODES = 100;
+
+    private static final String REGEX = "^\\d{4}-(\\d{2})";
+
+    @Param({ "DB_ID", "ACL_ID", "DATE", "PROPERTY" })
+    public String method;
+
+    @Param({ "8" })
+    public int shardCount;
+
+    private final List<Node> nodes = new ArrayList<>(NODES);
+
+    private DocRouter router;
+
+    private Pattern pattern;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("shard.date.grouping", "1");
+        properties.setProperty("shard.regex", REGEX);
+        router = DocRouterFactory.getRouter(properties, ShardMethodEnum.getShardMethod(method));
+        pattern = Pattern.compile(REGEX);
+
+        Random random = new Random(42L);
+        for (int i = 0; i < NODES; i++)
+        {
+            Node node = new Node();
+            node.setId(1000000L + random.nextInt(100000000));
+            node.setAclId(1000L + random.nextInt(100000));
+            node.setShardPropertyValue(String.format("%04d-%02d-%02dT%02d:%02d:%02d.000Z", 2000 + random.nextInt(20),
+                        1 + random.nextInt(12), 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60),
+                        random.nextInt(60)));
+            nodes.add(node);
+        }
+    }
+
+    /** Routing per node, as the trackers did before the batch API. */
+    @Benchmark
+    public void nodeByNode(Blackhole blackhole)
+    {
+        for (Node node : nodes)
+        {
+            blackhole.consume(router.routeNode(shardCount, 0, node));
+        }
+    }
+
+    @Benchmark
+    public BitSet batch()
+    {
+        return router.routeNodes(shardCount, 0, nodes);
+    }
+
+    /** The allocating routing functions. */
+    @Benchmark
+    public void legacy(Blackhole blackhole)
+    {
+        for (Node node : nodes)
+        {
+            blackhole.consume(legacyRoute(node));
+        }
+    }
+
+    private boolean legacyRoute(Node node)
+    {
+        switch (method)
+        {
+            case "DB_ID":
+                return legacyHash(Long.toString(node.getId()), 77);
+            case "ACL_ID":
+                return legacyHash(Long.toString(node.getAclId()), 77);
+            case "DATE":
+                Date date = ISO8601DateFormat.parse(node.getShardPropertyValue());
+                GregorianCalendar cal = new GregorianCalendar();
+                cal.setTime(date);
+                return (cal.get(GregorianCalendar.YEAR) * 12 + cal.get(GregorianCalendar.MONTH)) % shardCount == 0;
+            default:
+                Matcher matcher = pattern.matcher(node.getShardPropertyValue());
+                return matcher.find() && legacyHash(matcher.group(1), 66);
+        }
+    }
+
+    private boolean legacyHash(String s, int seed)
+    {
+        return (Math.abs(Hash.murmurhash3_x86_32(s, 0, s.length(), seed)) % shardCount) == 0;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.solr.SolrInformationServer;
+import org.alfresco.solr.benchmark.TrackedCore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the tracking pipeline, from the repository to a committed index, for the common shapes of
+ * repository transactions: bulk imports, many small edits, permission changes and folder moves.
+ * <p>
+ * Each operation queues one batch of work in the {@link TrackedCore} and tracks it until it is committed.
+ * Besides operations per second, the throughput modes report indexed nodes, ACLs and content documents per
+ * second as secondary results. Folder moves are measured as the latency from the move being visible in the
+ * repository to its cascade being committed. Use these to compare changes to the {@link SolrInformationServer}.
+ *
+ * @author Andy
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class TrackingPipelineBenchmark
+{
+    /** Documents in a bulk import transaction. */
+    @Param("1000")
+    public int importSize;
+
+    /** Transactions of one to three updates in a batch of small edits. */
+    @Param("100")
+    public int edits;
+
+    /** ACLs changed by a permission change set. */
+    @Param("100")
+    public int permissionChanges;
+
+    /**
+     * What has been indexed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Indexed
+    {
+        public long nodes;
+
+        public long acls;
+
+        public long contentDocs;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            nodes = 0;
+            acls = 0;
+            contentDocs = 0;
+        }
+    }
+
+    @Benchmark
+    public void bulkImport(TrackedCore core, Indexed indexed) throws IOException
+    {
+        core.addTransaction(importSize, null);
+        indexed.contentDocs += core.track();
+        indexed.nodes += importSize;
+    }
+
+    @Benchmark
+    public void smallEdits(TrackedCore core, Indexed indexed) throws IOException
+    {
+        indexed.nodes += core.editDocuments(edits);
+        indexed.contentDocs += core.track();
+    }
+
+    @Benchmark
+    public void permissionChanges(TrackedCore core, Indexed indexed) throws IOException
+    {
+        core.changePermissions(permissionChanges);
+        core.track();
+        indexed.acls += permissionChanges;
+    }
+
+    /**
+     * Cascade latency: the folder and every document in it are reindexed.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int folderMove(TrackedCore core) throws IOException
+    {
+        int moved = core.moveFolder();
+        core.track();
+        return moved;
+    }
+}
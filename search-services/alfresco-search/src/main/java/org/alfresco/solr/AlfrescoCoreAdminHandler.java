@@ -43,18 +43,23 @@ import java.io.InputStream;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.httpclient.AuthenticationException;
+import org.alfresco.repo.index.shard.ShardMethodEnum;
 import org.alfresco.service.cmr.repository.StoreRef;
-import org.alfresco.solr.adapters.IOpenBitSet;
 import org.alfresco.solr.client.SOLRAPIClientFactory;
 import org.alfresco.solr.config.ConfigUtil;
+import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.tracker.AbstractTracker;
 import org.alfresco.solr.tracker.AclTracker;
+import org.alfresco.solr.tracker.CascadeTracker;
+import org.alfresco.solr.tracker.ContentTracker;
 import org.alfresco.solr.tracker.DBIDRangeRouter;
 import org.alfresco.solr.tracker.DocRouter;
-import org.alfresco.solr.tracker.IndexHealthReport;
+import org.alfresco.solr.tracker.DocRouterFactory;
 import org.alfresco.solr.tracker.MetadataTracker;
 import org.alfresco.solr.tracker.SolrTrackerScheduler;
 import org.alfresco.solr.tracker.Tracker;
@@ -63,8 +68,13 @@ import org.alfresco.util.shard.ExplicitShardingPolicy;
 import org.apache.commons.codec.EncoderException;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CoreAdminParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -73,6 +83,7 @@ import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.admin.CoreAdminHandler;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.util.RefCounted;
 import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,6 +97,7 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
     private static final String ARG_ACLID = "aclid";
     private static final String ARG_NODEID = "nodeid";
     private static final String ARG_QUERY = "query";
+    private static final String ARG_INCREMENTAL = "incremental";
     public static final String DATA_DIR_ROOT = "data.dir.root";
     public static final String ALFRESCO_DEFAULTS = "create.alfresco.defaults";
     public static final String DEFAULT_TEMPLATE = "rerank";
@@ -292,6 +304,9 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                 case "EXPAND":
                     expand(rsp, params, cname);
                     break;
+                case "SPLIT":
+                    split(rsp, params, cname);
+                    break;
                 case "REPORT":
                     actionREPORT(rsp, params, cname);
                     break;
@@ -332,11 +347,12 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                     }
                     break;
                 case "FIX":
+                    boolean incremental = params.getBool(ARG_INCREMENTAL, false);
                     if (cname != null) {
-                        actionFIX(cname);
+                        actionFIX(cname, incremental);
                     } else {
                         for (String coreName : getTrackerRegistry().getCoreNames()) {
-                            actionFIX(coreName);
+                            actionFIX(coreName, incremental);
                         }
                     }
                     break;
@@ -401,7 +417,7 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
         String shardIds = params.get("shardIds");
 
         Properties properties = extractCustomProperties(params);
-        return newCore(coreName, numShards, storeRef, templateName, replicationFactor, nodeInstance, numNodes, shardIds, properties, rsp);
+        return newCore(coreName, numShards, storeRef, templateName, replicationFactor, nodeInstance, numNodes, shardIds, properties, params, rsp);
     }
 
     private boolean newDefaultCore(SolrQueryRequest req, SolrQueryResponse rsp) {
@@ -426,6 +442,15 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
     }
 
     protected boolean newCore(String coreName, int numShards, StoreRef storeRef, String templateName, int replicationFactor, int nodeInstance, int numNodes, String shardIds, Properties extraProperties, SolrQueryResponse rsp)
+    {
+        return newCore(coreName, numShards, storeRef, templateName, replicationFactor, nodeInstance, numNodes, shardIds, extraProperties, null, rsp);
+    }
+
+    /**
+     * @param seed the parameters naming the index to seed the new cores from (<code>seedCore</code> or
+     *             <code>seedPath</code>, and <code>seedContentStore</code>), or null to track from the start
+     */
+    protected boolean newCore(String coreName, int numShards, StoreRef storeRef, String templateName, int replicationFactor, int nodeInstance, int numNodes, String shardIds, Properties extraProperties, SolrParams seed, SolrQueryResponse rsp)
     {
         try
         {
@@ -483,7 +508,7 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                             solrCoreName = "archive-"+shard;
                         }
                     }
-                    createAndRegisterNewCore(rsp, extraProperties, storeRef, template, solrCoreName, newCore, numShards, shard, templateName);
+                    createAndRegisterNewCore(rsp, extraProperties, storeRef, template, solrCoreName, newCore, numShards, shard, templateName, seed);
                 }
                        
                 return true;
@@ -495,7 +520,7 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                     coreName = storeRef.getProtocol() + "-" + storeRef.getIdentifier();
                 }
                 File newCore = new File(solrHome, coreName);
-                createAndRegisterNewCore(rsp, extraProperties, storeRef, template, coreName, newCore, 0, 0, templateName);
+                createAndRegisterNewCore(rsp, extraProperties, storeRef, template, coreName, newCore, 0, 0, templateName, seed);
 
                 return true;
             }
@@ -542,7 +567,7 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
      * @throws IOException
      * @throws FileNotFoundException
      */
-    private void createAndRegisterNewCore(SolrQueryResponse rsp, Properties extraProperties, StoreRef storeRef, File template, String coreName, File newCore, int shardCount, int shardInstance, String templateName) throws IOException,
+    private void createAndRegisterNewCore(SolrQueryResponse rsp, Properties extraProperties, StoreRef storeRef, File template, String coreName, File newCore, int shardCount, int shardInstance, String templateName, SolrParams seed) throws IOException,
             FileNotFoundException
     {
         if (coreContainer.getLoadedCoreNames().contains(coreName))
@@ -553,6 +578,55 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
             return;
         }
 
+        Properties properties = copyTemplate(extraProperties, storeRef, template, coreName, newCore, shardCount, shardInstance, templateName);
+        boolean seedFromPath = seed != null && seed.get("seedCore") == null && seed.get("seedPath") != null;
+        if(seed != null && seed.get("seedCore") != null)
+        {
+            try
+            {
+                rsp.add("seeded", seed(seed, properties));
+            }
+            catch(IOException | RuntimeException e)
+            {
+                FileUtils.deleteQuietly(newCore);
+                throw e;
+            }
+        }
+
+        String tracking = properties.getProperty("enable.alfresco.tracking", "false");
+        if(seedFromPath)
+        {
+            // The snapshot is copied in by the new core itself, which must not track until it is seeded
+            properties.setProperty("enable.alfresco.tracking", "false");
+            storeProperties(newCore, properties);
+        }
+
+        SolrCore core = coreContainer.create(coreName, newCore.toPath(), new HashMap<String, String>(), false);
+        if(seedFromPath)
+        {
+            try
+            {
+                rsp.add("seeded", seed(seed, properties, core));
+            }
+            catch(IOException | RuntimeException e)
+            {
+                coreContainer.unload(coreName, true, true, true);
+                throw e;
+            }
+            properties.setProperty("enable.alfresco.tracking", tracking);
+            storeProperties(newCore, properties);
+            coreContainer.reload(coreName);
+        }
+        rsp.add("core", core.getName());
+    }
+
+    /**
+     * Copies the template to the directory of a new core and writes its properties.
+     *
+     * @return the properties of the new core
+     */
+    private Properties copyTemplate(Properties extraProperties, StoreRef storeRef, File template, String coreName, File newCore, int shardCount, int shardInstance, String templateName) throws IOException
+    {
         FileUtils.copyDirectory(template, newCore, false);
 
         // fix configuration properties
@@ -589,13 +663,166 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
             properties.putAll(extraProperties);
         }
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(config))
+        storeProperties(newCore, properties);
+        return properties;
+    }
+
+    private static void storeProperties(File newCore, Properties properties) throws IOException
+    {
+        try (FileOutputStream fileOutputStream = new FileOutputStream(new File(newCore, "conf/solrcore.properties")))
         {
             properties.store(fileOutputStream, null);
         }
+    }
 
-        SolrCore core = coreContainer.create(coreName, newCore.toPath(), new HashMap<String, String>(), false);
-        rsp.add("core", core.getName());
+    /**
+     * Seeds the index of a new core, before it is created, so that it resumes tracking from a copy of the index of
+     * an Alfresco core of this node (<code>seedCore</code>) rather than from the first transaction. The tracking of
+     * the seed is held while the copy is taken. Unless the new core is a replica of the seed, only the nodes and ACLs
+     * its shard owns are copied, which needs a seed that owns all of them and a router that can route by DBID or ACL id.
+     * <p>
+     * The cores of a node share its content store, so the cached documents of the seed are already there.
+     *
+     * @return the number of documents the new core was seeded with
+     */
+    private long seed(SolrParams seed, Properties properties) throws IOException
+    {
+        File indexDirectory = new File(new File(properties.getProperty(DATA_DIR_ROOT), properties.getProperty("data.dir.store")), "index");
+        int shardCount = Integer.parseInt(properties.getProperty("shard.count", "1"));
+        int shardInstance = Integer.parseInt(properties.getProperty("shard.instance", "0"));
+        DocRouter docRouter = DocRouterFactory.getRouter(properties, shardMethod(properties));
+
+        String seedCore = seed.get("seedCore");
+        InformationServer informationServer = informationServers.get(seedCore);
+        MetadataTracker metadataTracker = trackerRegistry.getTrackerForCore(seedCore, MetadataTracker.class);
+        if(informationServer == null || metadataTracker == null)
+        {
+            throw new IOException("No Alfresco core " + seedCore + " to seed from.");
+        }
+
+        Properties seedProperties = metadataTracker.getProps();
+        if(!seedProperties.getProperty("alfresco.stores", "").equals(properties.getProperty("alfresco.stores")))
+        {
+            throw new IOException("The core " + seedCore + " tracks another store.");
+        }
+        boolean replica = routing(seedProperties).equals(routing(properties));
+        if(!replica && !(owns(seedProperties, properties) && IndexCopier.canRoute(docRouter)))
+        {
+            throw new IOException("The core " + seedCore + " does not own all the documents of the new core, or they cannot be routed from its index.");
+        }
+
+        // Nothing may change the index of the seed while it is copied
+        List<Semaphore> runLocks = new ArrayList<>();
+        try
+        {
+            for(Class<? extends AbstractTracker> trackerClass : asList(AclTracker.class, MetadataTracker.class, ContentTracker.class, CascadeTracker.class))
+            {
+                AbstractTracker tracker = trackerRegistry.getTrackerForCore(seedCore, trackerClass);
+                if(tracker != null)
+                {
+                    tracker.getRunLock().acquire();
+                    runLocks.add(tracker.getRunLock());
+                }
+            }
+            return informationServer.seedIndex(indexDirectory, replica ? null : docRouter, shardCount, shardInstance);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the trackers of " + seedCore + ".", e);
+        }
+        finally
+        {
+            for(Semaphore runLock : runLocks)
+            {
+                runLock.release();
+            }
+        }
+    }
+
+    /**
+     * Seeds the index of a new core from a committed index in a local directory, such as a snapshot
+     * (<code>seedPath</code>). The copy is written by the new core's own index writer, so it has the codec of the
+     * new core's schema; the core must not be tracking yet. The snapshot is trusted to own the documents of the
+     * new core, and they are routed when its router can.
+     * <p>
+     * The cached documents of a snapshot from another node are brought over from its content store
+     * (<code>seedContentStore</code>).
+     *
+     * @return the number of documents the new core was seeded with
+     */
+    private long seed(SolrParams seed, Properties properties, SolrCore core) throws IOException
+    {
+        int shardCount = Integer.parseInt(properties.getProperty("shard.count", "1"));
+        int shardInstance = Integer.parseInt(properties.getProperty("shard.instance", "0"));
+        DocRouter docRouter = DocRouterFactory.getRouter(properties, shardMethod(properties));
+
+        File seedPath = new File(seed.get("seedPath"));
+        long seeded;
+        RefCounted<IndexWriter> writer = core.getSolrCoreState().getIndexWriter(core);
+        try (Directory directory = FSDirectory.open(seedPath.toPath());
+             DirectoryReader reader = DirectoryReader.open(directory))
+        {
+            IndexCopier.Filter filter = IndexCopier.canRoute(docRouter) ? IndexCopier.routing(docRouter, shardCount, shardInstance) : null;
+            seeded = IndexCopier.copy(reader, writer.get(), filter);
+        }
+        finally
+        {
+            writer.decref();
+        }
+
+        String seedContentStore = seed.get("seedContentStore");
+        if(seedContentStore != null)
+        {
+            SolrContentStore contentStore = new SolrContentStore(coreContainer.getSolrHome());
+            IndexCopier.forEachNode(new File(core.getIndexDir()), (tenant, dbid) -> contentStore.linkDocFromContentStore(seedContentStore, tenant, dbid));
+        }
+        return seeded;
+    }
+
+    /**
+     * The properties that decide which documents a shard owns.
+     */
+    private static Map<String, String> routing(Properties properties)
+    {
+        Map<String, String> routing = new HashMap<>();
+        for(String name : properties.stringPropertyNames())
+        {
+            if(name.startsWith("shard."))
+            {
+                routing.put(name, properties.getProperty(name));
+            }
+        }
+        routing.putIfAbsent("shard.method", AbstractTracker.SHARD_METHOD_DBID);
+        routing.putIfAbsent("shard.count", "1");
+        routing.putIfAbsent("shard.instance", "0");
+        return routing;
+    }
+
+    /**
+     * Tests if a shard owns all the documents of another: an unsharded core owns every document, and a DBID range
+     * the documents of the ranges inside it.
+     */
+    private static boolean owns(Properties owner, Properties owned)
+    {
+        String ownerRange = owner.getProperty("shard.range");
+        if(shardMethod(owner) == ShardMethodEnum.DB_ID_RANGE && ownerRange != null)
+        {
+            String ownedRange = owned.getProperty("shard.range");
+            if(shardMethod(owned) != ShardMethodEnum.DB_ID_RANGE || ownedRange == null)
+            {
+                return false;
+            }
+            String[] outer = ownerRange.split("-");
+            String[] inner = ownedRange.split("-");
+            return Long.parseLong(inner[0]) >= Long.parseLong(outer[0]) && Long.parseLong(inner[1]) <= Long.parseLong(outer[1]);
+        }
+        return Integer.parseInt(owner.getProperty("shard.count", "1")) <= 1;
+    }
+
+    private static ShardMethodEnum shardMethod(Properties properties)
+    {
+        return ShardMethodEnum.getShardMethod(properties.getProperty("shard.method", AbstractTracker.SHARD_METHOD_DBID));
     }
 
     /**
@@ -697,33 +924,15 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
 
 
 
-    private void actionFIX(String coreName) throws AuthenticationException, IOException, JSONException, EncoderException
+    private void actionFIX(String coreName, boolean incremental) throws AuthenticationException, IOException, JSONException, EncoderException
     {
-        // Gets Metadata health and fixes any problems
+        // Gets Metadata health and queues each problem for reindexing as soon as it is found
         MetadataTracker metadataTracker = trackerRegistry.getTrackerForCore(coreName, MetadataTracker.class);
-        IndexHealthReport indexHealthReport = metadataTracker.checkIndex(null, null, null, null);
-        IOpenBitSet toReindex = indexHealthReport.getTxInIndexButNotInDb();
-        toReindex.or(indexHealthReport.getDuplicatedTxInIndex());
-        toReindex.or(indexHealthReport.getMissingTxFromIndex());
-        long current = -1;
-        // Goes through problems in the index
-        while ((current = toReindex.nextSetBit(current + 1)) != -1)
-        {
-            metadataTracker.addTransactionToReindex(current);
-        }
-        
-        // Gets the Acl health and fixes any problems
+        metadataTracker.checkIndexByIdRange(null, incremental, metadataTracker::addTransactionToReindex);
+
+        // Gets the Acl health and fixes any problems the same way
         AclTracker aclTracker = trackerRegistry.getTrackerForCore(coreName, AclTracker.class);
-        indexHealthReport = aclTracker.checkIndex(null, null, null, null);
-        toReindex = indexHealthReport.getAclTxInIndexButNotInDb();
-        toReindex.or(indexHealthReport.getDuplicatedAclTxInIndex());
-        toReindex.or(indexHealthReport.getMissingAclTxFromIndex());
-        current = -1;
-        // Goes through the problems in the index
-        while ((current = toReindex.nextSetBit(current + 1)) != -1)
-        {
-            aclTracker.addAclChangeSetToReindex(current);
-        }
+        aclTracker.checkIndexByIdRange(null, incremental, aclTracker::addAclChangeSetToReindex);
     }
 
     private void actionCHECK(String cname)
@@ -1029,6 +1238,213 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
         }
     }
 
+    /**
+     * Splits a DBID range shard in two without reindexing: a new core takes the upper part of the range,
+     * starting at the <code>at</code> DBID (by default the middle of the range), with a copy of the documents of
+     * that part. The range of the shard is then narrowed to the lower part.
+     * <p>
+     * The new core keeps the shard count of its group, so it needs a <code>shardInstance</code> below that count
+     * which no other core of the group uses; a group meant to be split is created with spare instances.
+     * <p>
+     * Tracking of the shard is held while the index is copied, the new core is created and the range narrowed,
+     * and the new core resumes tracking from where the copy was taken. The range is only narrowed once the new
+     * core is loaded, and restored (with its end fixed) if narrowing fails before the upper part is removed from
+     * the shard, so the nodes of the upper part are never left without a core. A failure after that keeps the
+     * new core.
+     * <p>
+     * The content store is shared by the cores of a node and keyed by DBID, so the new core finds the cached
+     * documents of its nodes without copying them. As the end of the narrowed range then borders the new core,
+     * it cannot be expanded; the new core can.
+     */
+    private synchronized void split(SolrQueryResponse rsp, SolrParams params, String cname)
+        throws IOException
+    {
+        InformationServer informationServer = informationServers.get(cname);
+        DocRouter docRouter = getDocRouter(cname);
+
+        if(!(docRouter instanceof DBIDRangeRouter))
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", "Wrong document router type:"+docRouter.getClass().getSimpleName());
+            return;
+        }
+
+        DBIDRangeRouter dbidRangeRouter = (DBIDRangeRouter)docRouter;
+        if(!dbidRangeRouter.getInitialized())
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", "DBIDRangeRouter not initialized yet.");
+            return;
+        }
+
+        String newCoreName = params.get("coreName");
+        if(newCoreName == null || newCoreName.isEmpty() || coreContainer.getLoadedCoreNames().contains(newCoreName))
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", "A coreName that is not in use is required for the new core.");
+            return;
+        }
+
+        long startRange = dbidRangeRouter.getStartRange();
+        long endRange = dbidRangeRouter.getEndRange();
+        long at = params.getLong("at", startRange + (endRange - startRange) / 2);
+        if(at <= startRange || at >= endRange)
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", "The split must be inside the range " + startRange + "-" + endRange + ".");
+            return;
+        }
+
+        MetadataTracker metadataTracker = trackerRegistry.getTrackerForCore(cname, MetadataTracker.class);
+        Properties coreProperties = metadataTracker.getProps();
+        Properties extraProperties = new Properties();
+        for(String name : coreProperties.stringPropertyNames())
+        {
+            if((name.startsWith("alfresco.") || name.startsWith("shard.")) && !name.equals("alfresco.template"))
+            {
+                extraProperties.setProperty(name, coreProperties.getProperty(name));
+            }
+        }
+        int shardCount = Integer.parseInt(coreProperties.getProperty("shard.count", "1"));
+        int shardInstance = params.getInt("shardInstance", -1);
+        if(shardInstance < 0 || shardInstance >= shardCount || isShardInstanceInUse(coreProperties, shardInstance))
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", "A shardInstance below the shard.count of " + shardCount
+                        + " that no other core of the shard group uses is required for the new core.");
+            return;
+        }
+        extraProperties.setProperty("shard.range", at + "-" + endRange);
+        extraProperties.setProperty("shard.instance", Integer.toString(shardInstance));
+
+        String templateName = coreProperties.getProperty("alfresco.template", DEFAULT_TEMPLATE);
+        File template = new File(new File(new File(coreContainer.getSolrHome()), "templates"), templateName);
+        File newCore = new File(coreContainer.getSolrHome(), newCoreName);
+        StoreRef storeRef = new StoreRef(coreProperties.getProperty("alfresco.stores"));
+
+        // Nothing may index the nodes of the shard until its range is narrowed
+        List<Semaphore> runLocks = new ArrayList<>();
+        boolean expanded = dbidRangeRouter.getExpanded();
+        SolrCore created = null;
+        boolean capped = false;
+        boolean trimmed = false;
+        long copied;
+        try
+        {
+            for(Class<? extends AbstractTracker> trackerClass : asList(MetadataTracker.class, ContentTracker.class, CascadeTracker.class))
+            {
+                AbstractTracker tracker = trackerRegistry.getTrackerForCore(cname, trackerClass);
+                if(tracker != null)
+                {
+                    tracker.getRunLock().acquire();
+                    runLocks.add(tracker.getRunLock());
+                }
+            }
+
+            Properties properties = copyTemplate(extraProperties, storeRef, template, newCoreName, newCore, 0, 0, templateName);
+            File dataDir = new File(properties.getProperty(DATA_DIR_ROOT), properties.getProperty("data.dir.store"));
+            copied = informationServer.splitIndex(at, new File(dataDir, "index"));
+
+            // The upper part is on both cores until the range is narrowed, rather than on neither
+            created = coreContainer.create(newCoreName, newCore.toPath(), new HashMap<String, String>(), false);
+
+            dbidRangeRouter.setEndRange(at);
+            dbidRangeRouter.setExpanded(true);
+            capped = true;
+            informationServer.capIndex(at);
+            // From here on the upper part is being removed from the shard, so the new core has to stay
+            trimmed = true;
+            informationServer.maintainCap(at - 1);
+            informationServer.hardCommit();
+
+            SolrCore core = coreContainer.getCore(cname);
+            try
+            {
+                ModifiableSolrParams range = new ModifiableSolrParams().set("property.shard.range", startRange + "-" + at);
+                updatePropertiesFile(range, new File(core.getResourceLoader().getConfigDir(), "solrcore.properties"), null);
+            }
+            finally
+            {
+                core.close();
+            }
+        }
+        catch(Throwable t)
+        {
+            rsp.add("split", -1);
+            rsp.add("exception", t.getMessage());
+            LOGGER.error("exception splitting", t);
+            if(trimmed)
+            {
+                rsp.add("core", created.getName());
+                return;
+            }
+            restoreRange(informationServer, dbidRangeRouter, endRange, expanded, capped);
+            if(created != null)
+            {
+                coreContainer.unload(newCoreName, true, true, true);
+            }
+            FileUtils.deleteQuietly(newCore);
+            return;
+        }
+        finally
+        {
+            for(Semaphore runLock : runLocks)
+            {
+                runLock.release();
+            }
+        }
+
+        rsp.add("split", at);
+        rsp.add("core", created.getName());
+        rsp.add("copied", copied);
+    }
+
+    /**
+     * Gives a shard back the range it had before a failed split. A cap cannot be removed, so once the index has
+     * been capped it is capped again at the old end, which fixes that end as an expansion would.
+     */
+    private void restoreRange(InformationServer informationServer, DBIDRangeRouter dbidRangeRouter, long endRange,
+                boolean expanded, boolean capped)
+    {
+        dbidRangeRouter.setEndRange(endRange);
+        dbidRangeRouter.setExpanded(expanded || capped);
+        if(capped)
+        {
+            try
+            {
+                informationServer.capIndex(endRange);
+                informationServer.hardCommit();
+            }
+            catch(Throwable t)
+            {
+                LOGGER.error("exception restoring the range after a failed split", t);
+            }
+        }
+    }
+
+    /**
+     * @return true if a core of this node in the same shard group as the given core properties has the instance
+     */
+    private boolean isShardInstanceInUse(Properties coreProperties, int shardInstance)
+    {
+        String stores = coreProperties.getProperty("alfresco.stores");
+        for(String coreName : trackerRegistry.getCoreNames())
+        {
+            MetadataTracker tracker = trackerRegistry.getTrackerForCore(coreName, MetadataTracker.class);
+            if(tracker == null)
+            {
+                continue;
+            }
+            Properties properties = tracker.getProps();
+            if(Objects.equals(stores, properties.getProperty("alfresco.stores"))
+                        && Integer.toString(shardInstance).equals(properties.getProperty("shard.instance", "0").trim()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void actionNODEREPORTS(SolrQueryResponse rsp, SolrParams params, String cname) throws IOException,
                 JSONException
     {
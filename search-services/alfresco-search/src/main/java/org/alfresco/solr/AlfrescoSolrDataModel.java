@@ -34,6 +34,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.stream.Collectors;
 
@@ -177,6 +178,12 @@ public class AlfrescoSolrDataModel implements QueryConstants
     private Set<QName> crossLocaleSearchProperties = new HashSet<>();
 
     private Set<QName> identifierProperties = new HashSet<>();
+
+    /*
+     * Field mappings derived from the current models, replaced whenever a model is added or removed
+     */
+    private volatile IndexingPlans indexingPlans = new IndexingPlans();
+
     private ThreadPoolExecutor threadPool;
 
     public void close() {
@@ -380,6 +387,11 @@ public class AlfrescoSolrDataModel implements QueryConstants
     }
 
     public String getAlfrescoPropertyFromSchemaField(String schemaField)
+    {
+        return indexingPlans.alfrescoProperties.computeIfAbsent(schemaField, this::buildAlfrescoPropertyFromSchemaField);
+    }
+
+    private String buildAlfrescoPropertyFromSchemaField(String schemaField)
     {
         int index = schemaField.lastIndexOf("@{");
         if(index == -1)
@@ -937,8 +949,15 @@ public class AlfrescoSolrDataModel implements QueryConstants
      */
     public IndexedField getIndexedFieldNamesForProperty(QName propertyQName)
     {
-        // TODO: Cache and throw on model refresh
+        if(propertyQName == null)
+        {
+            return buildIndexedFieldNamesForProperty(propertyQName);
+        }
+        return indexingPlans.indexedFields.computeIfAbsent(propertyQName, qName -> buildIndexedFieldNamesForProperty(qName).toImmutable());
+    }
 
+    private IndexedField buildIndexedFieldNamesForProperty(QName propertyQName)
+    {
         IndexedField indexedField = new IndexedField();
         PropertyDefinition propertyDefinition = getPropertyDefinition(propertyQName);
         if((propertyDefinition == null))
@@ -1180,6 +1199,7 @@ public class AlfrescoSolrDataModel implements QueryConstants
         {
             modelErrors.remove(model.getName());
             dictionaryDAO.putModelIgnoringConstraints(model);
+            indexingPlans = new IndexingPlans();
             return true;
         }
         else
@@ -1198,6 +1218,7 @@ public class AlfrescoSolrDataModel implements QueryConstants
         // FIXME: this has no effect. The method should be changed (SEARCH-1482)
         modelErrors.remove(modelQName);
         dictionaryDAO.removeModel(modelQName);
+        indexingPlans = new IndexingPlans();
     }
 
     private Set<String> validateModel(M2Model model)
@@ -1231,6 +1252,7 @@ public class AlfrescoSolrDataModel implements QueryConstants
 
     public void afterInitModels()
     {
+        indexingPlans = new IndexingPlans();
         for (CMISAbstractDictionaryService cds : cmisDictionaryServices.values())
         {
             cds.afterDictionaryInit();
@@ -1334,6 +1356,17 @@ public class AlfrescoSolrDataModel implements QueryConstants
         return modelErrors;
     }
 
+    /**
+     * The field mappings computed for one version of the models. Entries are built on first use and never
+     * change; a model change replaces the whole set.
+     */
+    private static class IndexingPlans
+    {
+        final Map<QName, IndexedField> indexedFields = new ConcurrentHashMap<>();
+
+        final Map<String, String> alfrescoProperties = new ConcurrentHashMap<>();
+    }
+
     public static class IndexedField
     {
         private List<FieldInstance> fields = new LinkedList<>();
@@ -1347,6 +1380,16 @@ public class AlfrescoSolrDataModel implements QueryConstants
         {
             fields.add(new FieldInstance(prefix, localised, sort));
         }
+
+        /**
+         * @return a copy that can be shared between threads; adding fields to it fails
+         */
+        IndexedField toImmutable()
+        {
+            IndexedField immutable = new IndexedField();
+            immutable.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+            return immutable;
+        }
     }
 
     public static class FieldInstance
@@ -290,6 +290,11 @@ public class HandlerReportBuilder {
         Date lastTxDate = new Date(metaState.getLastIndexedTxCommitTime());
         ihr.add("Last indexed transaction commit date", CachingDateFormat.getDateFormat().format(lastTxDate));
         ihr.add("Last TX id before holes", metaState.getLastIndexedTxIdBeforeHoles());
+        ReindexProgress reindexProgress = metadataTracker.getReindexProgress();
+        if (reindexProgress != null)
+        {
+            ihr.add("Reindex by query", reindexProgress.getNamedList());
+        }
 
         srv.addFTSStatusCounts(ihr);
 
@@ -453,12 +458,19 @@ public class HandlerReportBuilder {
         coreSummary.add("Approx content indexing time remaining",
                 remainingContent.largestComponentformattedString());
 
+        ReindexProgress reindexProgress = metaTrkr.getReindexProgress();
+        if (reindexProgress != null)
+        {
+            coreSummary.add("Reindex by query", reindexProgress.getNamedList());
+        }
+
         // Stats
 
         coreSummary.add("Model sync times (ms)",
                 srv.getTrackerStats().getModelTimes().getNamedList(detail, hist, values));
         coreSummary.add("Acl index time (ms)",
                 srv.getTrackerStats().getAclTimes().getNamedList(detail, hist, values));
+        coreSummary.add("Acl docs/sec", srv.getTrackerStats().getAclDocsPerSecond());
         coreSummary.add("Node index time (ms)",
                 srv.getTrackerStats().getNodeTimes().getNamedList(detail, hist, values));
         coreSummary.add("Docs/Tx", srv.getTrackerStats().getTxDocs().getNamedList(detail, hist, values));
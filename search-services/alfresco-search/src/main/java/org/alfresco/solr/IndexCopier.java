@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DBID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DOC_TYPE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TENANT;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.alfresco.solr.client.Acl;
+import org.alfresco.solr.client.Node;
+import org.alfresco.solr.tracker.ACLIDModRouter;
+import org.alfresco.solr.tracker.ACLIDMurmurRouter;
+import org.alfresco.solr.tracker.DBIDRangeRouter;
+import org.alfresco.solr.tracker.DBIDRouter;
+import org.alfresco.solr.tracker.DocRouter;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.FilterCodecReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SlowCodecReaderWrapper;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Copies an index, or the part of it a shard owns, into the index directory of another core, segment by segment
+ * rather than document by document. This is how a core is seeded without reindexing from the repository.
+ *
+ * @author Andy
+ */
+final class IndexCopier
+{
+    /**
+     * Removes the documents that are not copied from the live documents of a segment.
+     */
+    interface Filter
+    {
+        void exclude(LeafReaderContext context, FixedBitSet liveDocs) throws IOException;
+    }
+
+    /**
+     * Called for each node of a copied index.
+     */
+    interface NodeVisitor
+    {
+        void visit(String tenant, long dbid) throws IOException;
+    }
+
+    private static final String[] NODE_DOC_TYPES = {
+        SolrInformationServer.DOC_TYPE_NODE,
+        SolrInformationServer.DOC_TYPE_UNINDEXED_NODE
+    };
+
+    private IndexCopier()
+    {
+    }
+
+    /**
+     * Writes the documents of the reader that the filter keeps into a new index in the directory.
+     *
+     * @return the number of documents copied
+     */
+    static long copy(DirectoryReader reader, Codec codec, File indexDirectory, Filter filter) throws IOException
+    {
+        IndexWriterConfig config = new IndexWriterConfig(null);
+        config.setCodec(codec);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        try (Directory directory = FSDirectory.open(indexDirectory.toPath());
+             IndexWriter writer = new IndexWriter(directory, config))
+        {
+            return copy(reader, writer, filter);
+        }
+    }
+
+    /**
+     * Adds the documents of the reader that the filter keeps to the index of the writer, with the writer's codec,
+     * and commits them.
+     *
+     * @return the number of documents copied
+     */
+    static long copy(DirectoryReader reader, IndexWriter writer, Filter filter) throws IOException
+    {
+        List<LeafReaderContext> leaves = reader.leaves();
+        CodecReader[] kept = new CodecReader[leaves.size()];
+        long count = 0;
+        for (int i = 0; i < leaves.size(); i++)
+        {
+            LeafReaderContext context = leaves.get(i);
+            LeafReader leaf = context.reader();
+            FixedBitSet liveDocs = new FixedBitSet(leaf.maxDoc());
+            Bits current = leaf.getLiveDocs();
+            if (current == null)
+            {
+                liveDocs.set(0, leaf.maxDoc());
+            }
+            else
+            {
+                for (int doc = 0; doc < leaf.maxDoc(); doc++)
+                {
+                    if (current.get(doc))
+                    {
+                        liveDocs.set(doc);
+                    }
+                }
+            }
+            if (filter != null)
+            {
+                filter.exclude(context, liveDocs);
+            }
+
+            kept[i] = new LiveDocsReader(SlowCodecReaderWrapper.wrap(leaf), liveDocs);
+            count += kept[i].numDocs();
+        }
+
+        writer.addIndexes(kept);
+        writer.commit();
+        return count;
+    }
+
+    /**
+     * Excludes the documents that match a query.
+     */
+    static Filter excluding(Weight weight)
+    {
+        return (context, liveDocs) -> {
+            Scorer scorer = weight.scorer(context);
+            if (scorer != null)
+            {
+                DocIdSetIterator it = scorer.iterator();
+                for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc())
+                {
+                    liveDocs.clear(doc);
+                }
+            }
+        };
+    }
+
+    /**
+     * Only the routers that route by DBID or ACL id can route the documents of an index, as the property values
+     * other routers need are not kept in a form they can read back.
+     */
+    static boolean canRoute(DocRouter docRouter)
+    {
+        return docRouter instanceof DBIDRouter
+            || docRouter instanceof DBIDRangeRouter
+            || docRouter instanceof ACLIDMurmurRouter
+            || docRouter instanceof ACLIDModRouter;
+    }
+
+    /**
+     * Excludes the nodes and ACLs the router does not give to a shard, and the index cap, which belongs to the range
+     * of the shard the index was taken from. Transactions and the other tracker state are kept, so the shard resumes
+     * tracking from where the index was taken.
+     */
+    static Filter routing(DocRouter docRouter, int shardCount, int shardInstance)
+    {
+        return (context, liveDocs) -> {
+            LeafReader reader = context.reader();
+            NumericDocValues dbids = DocValues.getNumeric(reader, FIELD_DBID);
+            NumericDocValues aclids = DocValues.getNumeric(reader, FIELD_ACLID);
+
+            Node node = new Node();
+            for (String docType : NODE_DOC_TYPES)
+            {
+                PostingsEnum postings = reader.postings(new Term(FIELD_DOC_TYPE, docType), PostingsEnum.NONE);
+                if (postings != null)
+                {
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+                    {
+                        node.setId(dbids.get(doc));
+                        node.setAclId(aclids.get(doc));
+                        if (!docRouter.routeNode(shardCount, shardInstance, node))
+                        {
+                            liveDocs.clear(doc);
+                        }
+                    }
+                }
+            }
+
+            PostingsEnum acls = reader.postings(new Term(FIELD_DOC_TYPE, SolrInformationServer.DOC_TYPE_ACL), PostingsEnum.NONE);
+            if (acls != null)
+            {
+                for (int doc = acls.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = acls.nextDoc())
+                {
+                    if (!docRouter.routeAcl(shardCount, shardInstance, new Acl(0, aclids.get(doc))))
+                    {
+                        liveDocs.clear(doc);
+                    }
+                }
+            }
+
+            PostingsEnum cap = reader.postings(new Term(FIELD_SOLR4_ID, SolrInformationServer.INDEX_CAP_ID), PostingsEnum.NONE);
+            if (cap != null)
+            {
+                for (int doc = cap.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = cap.nextDoc())
+                {
+                    liveDocs.clear(doc);
+                }
+            }
+        };
+    }
+
+    /**
+     * Visits the live nodes of the index in a directory.
+     */
+    static void forEachNode(File indexDirectory, NodeVisitor visitor) throws IOException
+    {
+        try (Directory directory = FSDirectory.open(indexDirectory.toPath());
+             DirectoryReader reader = DirectoryReader.open(directory))
+        {
+            for (LeafReaderContext context : reader.leaves())
+            {
+                LeafReader leaf = context.reader();
+                Bits liveDocs = leaf.getLiveDocs();
+                NumericDocValues dbids = DocValues.getNumeric(leaf, FIELD_DBID);
+                SortedDocValues tenants = DocValues.getSorted(leaf, FIELD_TENANT);
+                for (String docType : NODE_DOC_TYPES)
+                {
+                    PostingsEnum postings = leaf.postings(new Term(FIELD_DOC_TYPE, docType), PostingsEnum.NONE);
+                    if (postings != null)
+                    {
+                        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+                        {
+                            if (liveDocs == null || liveDocs.get(doc))
+                            {
+                                String tenant = tenants.get(doc).utf8ToString();
+                                visitor.visit(tenant.isEmpty() ? AlfrescoSolrDataModel.DEFAULT_TENANT : tenant, dbids.get(doc));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static class LiveDocsReader extends FilterCodecReader
+    {
+        private final FixedBitSet liveDocs;
+        private final int numDocs;
+
+        LiveDocsReader(CodecReader in, FixedBitSet liveDocs)
+        {
+            super(in);
+            this.liveDocs = liveDocs;
+            this.numDocs = liveDocs.cardinality();
+        }
+
+        @Override
+        public int numDocs()
+        {
+            return numDocs;
+        }
+
+        @Override
+        public Bits getLiveDocs()
+        {
+            return liveDocs;
+        }
+    }
+}
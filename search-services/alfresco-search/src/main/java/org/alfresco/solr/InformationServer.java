@@ -18,10 +18,13 @@
  */
 package org.alfresco.solr;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.alfresco.httpclient.AuthenticationException;
 import org.alfresco.repo.dictionary.DictionaryComponent;
@@ -36,7 +39,9 @@ import org.alfresco.solr.client.AlfrescoModel;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.NodeMetaData;
 import org.alfresco.solr.client.Transaction;
+import org.alfresco.solr.tracker.DocRouter;
 import org.alfresco.solr.tracker.IndexHealthReport;
+import org.alfresco.solr.tracker.ReindexProgress;
 import org.alfresco.solr.tracker.TrackerStats;
 import org.apache.solr.common.util.NamedList;
 import org.json.JSONException;
@@ -66,6 +71,18 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void indexTransaction(Transaction info, boolean overwrite) throws IOException;
 
+    /**
+     * Index the marker documents for a batch of ACL change sets and move the tracker state on once, to the latest
+     * change set in the batch.
+     */
+    void indexAclTransactions(Collection<AclChangeSet> changeSets, boolean overwrite) throws IOException;
+
+    /**
+     * Index the marker documents for a batch of transactions and move the tracker state on once, to the latest
+     * transaction in the batch.
+     */
+    void indexTransactions(Collection<Transaction> txs, boolean overwrite) throws IOException;
+
     void deleteByTransactionId(Long transactionId) throws IOException;
 
     void deleteByAclChangeSetId(Long aclChangeSetId) throws IOException;
@@ -86,6 +103,23 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void maintainCap(long nodeId) throws Exception;
 
+    /**
+     * Writes the part of the index a DBID range shard split off at the given DBID keeps to a new index: the
+     * nodes from that DBID up, and the ACL, transaction and tracker state documents.
+     *
+     * @return the number of documents written
+     */
+    long splitIndex(long nodeId, File indexDirectory) throws IOException;
+
+    /**
+     * Writes the part of the index another shard owns to a new index, to seed a core for that shard: the nodes and
+     * ACLs the router gives to it, and the transaction and tracker state documents. Without a router the whole
+     * index is written, as for a replica.
+     *
+     * @return the number of documents written
+     */
+    long seedIndex(File indexDirectory, DocRouter docRouter, int shardCount, int shardInstance) throws IOException;
+
     void indexNode(Node node, boolean overwrite) throws IOException, AuthenticationException, JSONException;
     
     void indexNodes(List<Node> nodes, boolean overwrite, boolean cascade) throws IOException, AuthenticationException, JSONException;
@@ -148,6 +182,13 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId) throws IOException;
 
+    /**
+     * As {@link #reportIndexTransactions(Long, IOpenBitSet, long)}, with the transaction ids already collected by
+     * {@link #collectTransactionIdsInIndex(IOpenBitSet, IOpenBitSet)} so the index is not scanned again.
+     */
+    IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId, IOpenBitSet txIdsInIndex,
+                                              IOpenBitSet duplicatedTxIdsInIndex) throws IOException;
+
     List<TenantAclIdDbId> getDocsWithUncleanContent(int start, int rows) throws IOException;
 
     void updateContentToIndexAndCache(long dbId, String tenant) throws Exception;
@@ -156,7 +197,37 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void addFTSStatusCounts(NamedList<Object> ihr);
 
-    IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId);
+    IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId) throws IOException;
+
+    /**
+     * As {@link #reportAclTransactionsInIndex(Long, IOpenBitSet, long)}, with the ACL change set ids already collected by
+     * {@link #collectAclTransactionIdsInIndex(IOpenBitSet, IOpenBitSet)} so the index is not scanned again.
+     */
+    IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId,
+                                                   IOpenBitSet aclTxIdsInIndex, IOpenBitSet duplicatedAclTxIdsInIndex) throws IOException;
+
+    /**
+     * Collects the ids of the transaction documents in the index.
+     *
+     * @param ids set for every transaction id in the index
+     * @param duplicates set for every transaction id indexed more than once
+     */
+    void collectTransactionIdsInIndex(IOpenBitSet ids, IOpenBitSet duplicates) throws IOException;
+
+    /**
+     * Collects the ids of the ACL change set documents in the index.
+     *
+     * @param ids set for every ACL change set id in the index
+     * @param duplicates set for every ACL change set id indexed more than once
+     */
+    void collectAclTransactionIdsInIndex(IOpenBitSet ids, IOpenBitSet duplicates) throws IOException;
+
+    /**
+     * @return the id below which the last health check of the given name found no problems, or -1
+     */
+    long getHealthCheckpoint(String name);
+
+    void setHealthCheckpoint(String name, long id);
 
     int getAclTxDocsSize(String aclTxId, String aclTxCommitTime) throws IOException;
     
@@ -172,7 +243,11 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void unregisterTrackerThread();
 
-    void reindexNodeByQuery(String query) throws IOException, AuthenticationException, JSONException;
+    /**
+     * Stream the nodes that match a query to the consumer in batches, reading the DBIDs segment by segment.
+     * The total is set on the progress before the first batch is passed on.
+     */
+    void streamNodesByQuery(String query, int batchSize, ReindexProgress progress, Consumer<List<Node>> consumer) throws IOException;
 
     int getPort();
     
@@ -70,8 +70,11 @@ import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TYPE;
 import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_VERSION;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
@@ -79,6 +82,7 @@ import java.text.DecimalFormat;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -125,7 +129,10 @@ import org.alfresco.solr.client.Transaction;
 import org.alfresco.solr.config.ConfigUtil;
 import org.alfresco.solr.content.SolrContentStore;
 import org.alfresco.solr.logging.Log;
+import org.alfresco.solr.query.MinHashSignature;
+import org.alfresco.solr.tracker.DocRouter;
 import org.alfresco.solr.tracker.IndexHealthReport;
+import org.alfresco.solr.tracker.ReindexProgress;
 import org.alfresco.solr.tracker.TrackerStats;
 import org.alfresco.util.ISO9075;
 import org.alfresco.util.Pair;
@@ -134,13 +141,16 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRefBuilder;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
@@ -162,10 +172,12 @@ import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DelegatingCollector;
-import org.apache.solr.search.DocIterator;
-import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.DocSetCollector;
+import org.apache.solr.search.QParser;
 import org.apache.solr.search.QueryWrapperFilter;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.search.SyntaxError;
 import org.apache.solr.update.AddUpdateCommand;
 import org.apache.solr.update.CommitUpdateCommand;
 import org.apache.solr.update.DeleteUpdateCommand;
@@ -192,7 +204,7 @@ public class SolrInformationServer implements InformationServer
 
     private static final Set<String> REQUEST_ONLY_ID_FIELD = new HashSet<>(Collections.singletonList(FIELD_SOLR4_ID));
 
-    private static final String INDEX_CAP_ID = "TRACKER!STATE!CAP";
+    static final String INDEX_CAP_ID = "TRACKER!STATE!CAP";
 
     private static final Pattern CAPTURE_SITE = Pattern.compile("^/\\{http\\://www\\.alfresco\\.org/model/application/1\\.0\\}company\\_home/\\{http\\://www\\.alfresco\\.org/model/site/1\\.0\\}sites/\\{http\\://www\\.alfresco\\.org/model/content/1\\.0}([^/]*)/.*" );
     private static final Pattern CAPTURE_TAG = Pattern.compile("^/\\{http\\://www\\.alfresco\\.org/model/content/1\\.0\\}taggable/\\{http\\://www\\.alfresco\\.org/model/content/1\\.0\\}([^/]*)/\\{\\}member");
@@ -225,7 +237,7 @@ public class SolrInformationServer implements InformationServer
     /* 4096 is 2 to the power of (6*2), and we do this because the precision step for the long is 6,
      * and the transactions are long
      */
-    private static final int BATCH_FACET_TXS = 4096;
+    private static final String HEALTH_CHECKPOINT_FILE = "health-checkpoint.properties";
     private static final String FINGERPRINT_FIELD = "MINHASH";
 
     private final AlfrescoCoreAdminHandler adminHandler;
@@ -528,7 +540,20 @@ public class SolrInformationServer implements InformationServer
     }
 
     @Override
-    public IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId)
+    public IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId) throws IOException
+    {
+        IOpenBitSet txIdsInIndex = getOpenBitSetInstance();
+        IOpenBitSet duplicatedTxIdsInIndex = getOpenBitSetInstance();
+        if (minTxId != null)
+        {
+            collectTransactionIdsInIndex(txIdsInIndex, duplicatedTxIdsInIndex);
+        }
+        return reportIndexTransactions(minTxId, txIdsInDb, maxTxId, txIdsInIndex, duplicatedTxIdsInIndex);
+    }
+
+    @Override
+    public IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId, IOpenBitSet txIdsInIndex,
+                                                     IOpenBitSet duplicatedTxIdsInIndex)
     {
         try (SolrQueryRequest request = newSolrQueryRequest())
         {
@@ -562,7 +587,7 @@ public class SolrInformationServer implements InformationServer
                     report.setUniqueTransactionDocsInIndex(count);
                 }
             };
-            reportTransactionInfo(txReporter, minTxId, maxTxId, txIdsInDb, request, FIELD_TXID);
+            reportTransactionInfo(txReporter, minTxId, maxTxId, txIdsInDb, txIdsInIndex, duplicatedTxIdsInIndex);
             long transactionDocsInIndex = getSafeCount(docTypeCounts, DOC_TYPE_TX);
             report.setTransactionDocsInIndex(transactionDocsInIndex);
             report.setDbTransactionCount(txIdsInDb.cardinality());
@@ -586,7 +611,20 @@ public class SolrInformationServer implements InformationServer
     }
 
     @Override
-    public IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId)
+    public IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId) throws IOException
+    {
+        IOpenBitSet aclTxIdsInIndex = getOpenBitSetInstance();
+        IOpenBitSet duplicatedAclTxIdsInIndex = getOpenBitSetInstance();
+        if (minAclTxId != null)
+        {
+            collectAclTransactionIdsInIndex(aclTxIdsInIndex, duplicatedAclTxIdsInIndex);
+        }
+        return reportAclTransactionsInIndex(minAclTxId, aclTxIdsInDb, maxAclTxId, aclTxIdsInIndex, duplicatedAclTxIdsInIndex);
+    }
+
+    @Override
+    public IndexHealthReport reportAclTransactionsInIndex(Long minAclTxId, IOpenBitSet aclTxIdsInDb, long maxAclTxId,
+                                                          IOpenBitSet aclTxIdsInIndex, IOpenBitSet duplicatedAclTxIdsInIndex)
     {
         try (SolrQueryRequest request = newSolrQueryRequest())
         {
@@ -618,7 +656,7 @@ public class SolrInformationServer implements InformationServer
                     report.setUniqueAclTransactionDocsInIndex(count);
                 }
             };
-            reportTransactionInfo(aclTxReporter, minAclTxId, maxAclTxId, aclTxIdsInDb, request, FIELD_ACLTXID);
+            reportTransactionInfo(aclTxReporter, minAclTxId, maxAclTxId, aclTxIdsInDb, aclTxIdsInIndex, duplicatedAclTxIdsInIndex);
             long aclTransactionDocsInIndex = getSafeCount(docTypeCounts, DOC_TYPE_ACL_TX);
             report.setAclTransactionDocsInIndex(aclTransactionDocsInIndex);
             report.setDbAclTransactionCount(aclTxIdsInDb.cardinality());
@@ -1271,6 +1309,9 @@ public class SolrInformationServer implements InformationServer
     {
         long start = System.nanoTime();
 
+        // ACLs inheriting the same permissions share reader lists, so each distinct list is rewritten once per batch
+        Map<Pair<String, List<String>>, List<String>> authorityLists = new HashMap<>();
+
         UpdateRequestProcessor processor = null;
         try (SolrQueryRequest request = newSolrQueryRequest())
         {
@@ -1288,16 +1329,16 @@ public class SolrInformationServer implements InformationServer
                 input.addField(FIELD_INACLTXID, aclReaders.getAclChangeSetId());
                 String tenant = aclReaders.getTenantDomain();
 
-                for (String reader : aclReaders.getReaders())
+                List<String> readers = addTenantToAuthorities(aclReaders.getReaders(), tenant, authorityLists);
+                if (!readers.isEmpty())
                 {
-                    reader = addTenantToAuthority(reader, tenant);
-                    input.addField(FIELD_READER, reader);
+                    input.setField(FIELD_READER, readers);
                 }
 
-                for (String denied : aclReaders.getDenied())
+                List<String> denied = addTenantToAuthorities(aclReaders.getDenied(), tenant, authorityLists);
+                if (!denied.isEmpty())
                 {
-                    denied = addTenantToAuthority(denied, tenant);
-                    input.addField(FIELD_DENIED, denied);
+                    input.setField(FIELD_DENIED, denied);
                 }
                 input.addField(FIELD_DOC_TYPE, DOC_TYPE_ACL);
                 cmd.solrDoc = input;
@@ -1319,23 +1360,46 @@ public class SolrInformationServer implements InformationServer
     @Override
     public void indexAclTransaction(AclChangeSet changeSet, boolean overwrite) throws IOException
     {
+        indexAclTransactions(Collections.singletonList(changeSet), overwrite);
+    }
+
+    @Override
+    public void indexAclTransactions(Collection<AclChangeSet> changeSets, boolean overwrite) throws IOException
+    {
+        if (changeSets.isEmpty())
+        {
+            return;
+        }
+
         canUpdate();
         UpdateRequestProcessor processor = null;
         try (SolrQueryRequest request = newSolrQueryRequest())
         {
             processor = this.core.getUpdateProcessingChain(null).createProcessor(request, newSolrQueryResponse());
-            AddUpdateCommand cmd = new AddUpdateCommand(request);
-            cmd.overwrite = overwrite;
-            SolrInputDocument input = new SolrInputDocument();
-            input.addField(FIELD_SOLR4_ID, AlfrescoSolrDataModel.getAclChangeSetDocumentId(changeSet.getId()));
-            input.addField(FIELD_VERSION, "0");
-            input.addField(FIELD_ACLTXID, changeSet.getId());
-            input.addField(FIELD_INACLTXID, changeSet.getId());
-            input.addField(FIELD_ACLTXCOMMITTIME, changeSet.getCommitTimeMs());
-            input.addField(FIELD_DOC_TYPE, DOC_TYPE_ACL_TX);
-            cmd.solrDoc = input;
-            processor.processAdd(cmd);
-            putAclTransactionState(processor, request, changeSet);
+            AclChangeSet latest = null;
+            for (AclChangeSet changeSet : changeSets)
+            {
+                AddUpdateCommand cmd = new AddUpdateCommand(request);
+                cmd.overwrite = overwrite;
+                SolrInputDocument input = new SolrInputDocument();
+                input.addField(FIELD_SOLR4_ID, AlfrescoSolrDataModel.getAclChangeSetDocumentId(changeSet.getId()));
+                input.addField(FIELD_VERSION, "0");
+                input.addField(FIELD_ACLTXID, changeSet.getId());
+                input.addField(FIELD_INACLTXID, changeSet.getId());
+                input.addField(FIELD_ACLTXCOMMITTIME, changeSet.getCommitTimeMs());
+                input.addField(FIELD_DOC_TYPE, DOC_TYPE_ACL_TX);
+                cmd.solrDoc = input;
+                processor.processAdd(cmd);
+
+                // Acl change sets are ordered by commit time and tie-broken by id
+                if (latest == null
+                        || changeSet.getCommitTimeMs() > latest.getCommitTimeMs()
+                        || changeSet.getCommitTimeMs() == latest.getCommitTimeMs() && changeSet.getId() > latest.getId())
+                {
+                    latest = changeSet;
+                }
+            }
+            putAclTransactionState(processor, request, latest);
         }
         finally
         {
@@ -1410,6 +1474,40 @@ public class SolrInformationServer implements InformationServer
         deleteByQuery(deleteByQuery);
     }
 
+    @Override
+    public long splitIndex(long dbid, File indexDirectory) throws IOException
+    {
+        // Read through the index writer, so the copy has everything indexed so far, committed or not
+        RefCounted<IndexWriter> writer = core.getSolrCoreState().getIndexWriter(core);
+        try (DirectoryReader reader = DirectoryReader.open(writer.get()))
+        {
+            // The nodes below the split, and the index cap, which is stored as a negative DBID
+            SchemaField dbidField = core.getLatestSchema().getField(FIELD_DBID);
+            Query below = dbidField.getType().getRangeQuery(null, dbidField, null, Long.toString(dbid), true, false);
+            Weight weight = new IndexSearcher(reader).createNormalizedWeight(below, false);
+            return IndexCopier.copy(reader, core.getCodec(), indexDirectory, IndexCopier.excluding(weight));
+        }
+        finally
+        {
+            writer.decref();
+        }
+    }
+
+    @Override
+    public long seedIndex(File indexDirectory, DocRouter docRouter, int shardCount, int shardInstance) throws IOException
+    {
+        RefCounted<IndexWriter> writer = core.getSolrCoreState().getIndexWriter(core);
+        try (DirectoryReader reader = DirectoryReader.open(writer.get()))
+        {
+            IndexCopier.Filter filter = docRouter == null ? null : IndexCopier.routing(docRouter, shardCount, shardInstance);
+            return IndexCopier.copy(reader, core.getCodec(), indexDirectory, filter);
+        }
+        finally
+        {
+            writer.decref();
+        }
+    }
+
     @Override
     public long nodeCount()
     {
@@ -1851,14 +1949,18 @@ public class SolrInformationServer implements InformationServer
                 processor.processDelete(delDocCmd);
             }
 
-            if (!updatedNodeIds.isEmpty() || !unknownNodeIds.isEmpty() || !shardUpdatedNodeIds.isEmpty())
+            if (!shardUpdatedNodeIds.isEmpty())
+            {
+                indexNonShardCascades(nodeIdsToNodes, shardUpdatedNodeIds);
+            }
+
+            if (!updatedNodeIds.isEmpty() || !unknownNodeIds.isEmpty())
             {
                 LOGGER.info("Updating");
                 NodeMetaDataParameters nmdp = new NodeMetaDataParameters();
                 List<Long> nodeIds = new LinkedList<>();
                 nodeIds.addAll(updatedNodeIds);
                 nodeIds.addAll(unknownNodeIds);
-                nodeIds.addAll(shardUpdatedNodeIds);
                 nmdp.setNodeIds(nodeIds);
 
                 // Fetches bulk metadata
@@ -1882,17 +1984,6 @@ public class SolrInformationServer implements InformationServer
                             continue;
                         }
 
-                        if (nodeIdsToNodes.get(nodeMetaData.getId()).getStatus() == SolrApiNodeStatus.NON_SHARD_UPDATED)
-                        {
-                            if (nodeMetaData.getProperties().get(ContentModel.PROP_CASCADE_TX) != null)
-                            {
-                                indexNonShardCascade(nodeMetaData);
-                            }
-
-                            continue;
-                        }
-
-
                         AddUpdateCommand addDocCmd = new AddUpdateCommand(request);
                         addDocCmd.overwrite = overwrite;
 
@@ -2358,6 +2449,14 @@ public class SolrInformationServer implements InformationServer
             ofNullable(cachedDoc.getField("MINHASH"))
                     .map(SolrInputField::getValue)
                     .ifPresent(minHash -> newDoc.setField("MINHASH", minHash));
+            // Rebuilt from the tokens so that documents cached with the older binary signature are upgraded
+            ofNullable(cachedDoc.getFieldValues("MINHASH"))
+                    .filter(minHashes -> !minHashes.isEmpty())
+                    .map(MinHashSignature::hash)
+                    .ifPresent(signature -> {
+                        newDoc.setField(MinHashSignature.FIELD_MINHASH_SIGNATURE, MinHashSignature.encode(signature));
+                        newDoc.setField(MinHashSignature.FIELD_MINHASH_BAND, MinHashSignature.bands(signature));
+                    });
 
             // Builds up the new solr doc from the cached content regardless of whether or not it is current
             List<FieldInstance> fields = AlfrescoSolrDataModel.getInstance().getIndexedFieldNamesForProperty(
@@ -2500,6 +2599,7 @@ public class SolrInformationServer implements InformationServer
             Analyzer analyzer = core.getLatestSchema().getFieldType("min_hash").getIndexAnalyzer();
             TokenStream ts = analyzer.tokenStream("min_hash", textContent);
             CharTermAttribute termAttribute = ts.getAttribute(CharTermAttribute.class);
+            List<String> minHashes = new ArrayList<>();
             ts.reset();
             while (ts.incrementToken())
             {
@@ -2511,10 +2611,19 @@ public class SolrInformationServer implements InformationServer
                     tokenBuff.append(Integer.toHexString(buff[i]));
                 }
                 doc.addField(FINGERPRINT_FIELD, tokenBuff.toString());
+                minHashes.add(tokenBuff.toString());
 
             }
             ts.end();
             ts.close();
+
+            if (!minHashes.isEmpty())
+            {
+                // Compact signature and LSH bands for similarity queries
+                long[] signature = MinHashSignature.hash(minHashes);
+                doc.setField(MinHashSignature.FIELD_MINHASH_SIGNATURE, MinHashSignature.encode(signature));
+                doc.setField(MinHashSignature.FIELD_MINHASH_BAND, MinHashSignature.bands(signature));
+            }
         }
 
         long end = System.nanoTime();
@@ -2619,38 +2728,62 @@ public class SolrInformationServer implements InformationServer
     @Override
     public void indexTransaction(Transaction info, boolean overwrite) throws IOException
     {
+        indexTransactions(Collections.singletonList(info), overwrite);
+    }
+
+    @Override
+    public void indexTransactions(Collection<Transaction> txs, boolean overwrite) throws IOException
+    {
+        if (txs.isEmpty())
+        {
+            return;
+        }
+
         canUpdate();
         UpdateRequestProcessor processor = null;
         try (SolrQueryRequest request = newSolrQueryRequest())
         {
             processor = this.core.getUpdateProcessingChain(null).createProcessor(request, newSolrQueryResponse());
 
-            AddUpdateCommand cmd = new AddUpdateCommand(request);
-            cmd.overwrite = overwrite;
-            SolrInputDocument input = new SolrInputDocument();
-            input.addField(FIELD_SOLR4_ID, AlfrescoSolrDataModel.getTransactionDocumentId(info.getId()));
-            input.addField(FIELD_VERSION, 0);
-            input.addField(FIELD_TXID, info.getId());
-            input.addField(FIELD_INTXID, info.getId());
-            input.addField(FIELD_TXCOMMITTIME, info.getCommitTimeMs());
-            input.addField(FIELD_DOC_TYPE, DOC_TYPE_TX);
-
-            /*
-                For backwards compat reasons adding 3 new stored fields. 2 of these fields are duplicate data but there are needed so that
-                we can properly update the transaction record for ACE-4284.
-            */
-            //This fields will be used to update the transaction record
-            //They will only be on the record until the cascading updates for this transaction are processed
-            input.addField(FIELD_S_TXID, info.getId());
-            input.addField(FIELD_S_TXCOMMITTIME, info.getCommitTimeMs());
+            Transaction latest = null;
+            for (Transaction info : txs)
+            {
+                AddUpdateCommand cmd = new AddUpdateCommand(request);
+                cmd.overwrite = overwrite;
+                SolrInputDocument input = new SolrInputDocument();
+                input.addField(FIELD_SOLR4_ID, AlfrescoSolrDataModel.getTransactionDocumentId(info.getId()));
+                input.addField(FIELD_VERSION, 0);
+                input.addField(FIELD_TXID, info.getId());
+                input.addField(FIELD_INTXID, info.getId());
+                input.addField(FIELD_TXCOMMITTIME, info.getCommitTimeMs());
+                input.addField(FIELD_DOC_TYPE, DOC_TYPE_TX);
+
+                /*
+                    For backwards compat reasons adding 3 new stored fields. 2 of these fields are duplicate data but there are needed so that
+                    we can properly update the transaction record for ACE-4284.
+                */
+                //This fields will be used to update the transaction record
+                //They will only be on the record until the cascading updates for this transaction are processed
+                input.addField(FIELD_S_TXID, info.getId());
+                input.addField(FIELD_S_TXCOMMITTIME, info.getCommitTimeMs());
+
+                //Set the cascade flag to 1. This means cascading updates have not been done yet.
+                input.addField(FIELD_CASCADE_FLAG, 1);
 
-            //Set the cascade flag to 1. This means cascading updates have not been done yet.
-            input.addField(FIELD_CASCADE_FLAG, 1);
+                cmd.solrDoc = input;
+                processor.processAdd(cmd);
 
-            cmd.solrDoc = input;
-            processor.processAdd(cmd);
+                // Transactions are ordered by commit time and tie-broken by tx id
+                if (latest == null
+                        || info.getCommitTimeMs() > latest.getCommitTimeMs()
+                        || info.getCommitTimeMs() == latest.getCommitTimeMs() && info.getId() > latest.getId())
+                {
+                    latest = info;
+                }
+            }
 
-            putTransactionState(processor, request, info);
+            // One state update for the whole batch
+            putTransactionState(processor, request, latest);
         }
         finally
         {
@@ -2662,6 +2795,47 @@ public class SolrInformationServer implements InformationServer
     }
 
 
+    /**
+     * Cascade detection for nodes owned by other shards only needs the cascade tx property,
+     * so their metadata is fetched without paths, associations, aspects or owner.
+     */
+    private void indexNonShardCascades(Map<Long, Node> nodeIdsToNodes, List<Long> nodeIds) throws AuthenticationException, IOException, JSONException
+    {
+        NodeMetaDataParameters nmdp = new NodeMetaDataParameters();
+        nmdp.setNodeIds(nodeIds);
+        nmdp.setIncludeAspects(false);
+        nmdp.setIncludeChildAssociations(false);
+        nmdp.setIncludeChildIds(false);
+        nmdp.setIncludeParentAssociations(false);
+        nmdp.setIncludePaths(false);
+        nmdp.setIncludeOwner(false);
+        nmdp.setIncludeType(false);
+
+        for (NodeMetaData nodeMetaData : repositoryClient.getNodesMetaData(nmdp, Integer.MAX_VALUE))
+        {
+            Node node = nodeIdsToNodes.get(nodeMetaData.getId());
+            if (node == null || nodeMetaData.getTxnId() > node.getTxnId())
+            {
+                // the node has moved on to a later transaction
+                continue;
+            }
+
+            Map<QName, PropertyValue> properties = nodeMetaData.getProperties();
+            if (properties != null && properties.get(ContentModel.PROP_CASCADE_TX) != null)
+            {
+                try
+                {
+                    lock(node.getId());
+                    indexNonShardCascade(nodeMetaData);
+                }
+                finally
+                {
+                    unlock(node.getId());
+                }
+            }
+        }
+    }
+
     /**
      * Index information of a node that does not belong to the current shard.
      * These information are necessary for cascade tracker to work properly.
@@ -2890,7 +3064,7 @@ public class SolrInformationServer implements InformationServer
     }
 
     @Override
-    public void reindexNodeByQuery(String query) throws IOException, JSONException
+    public void streamNodesByQuery(String query, int batchSize, ReindexProgress progress, Consumer<List<Node>> consumer) throws IOException
     {
         RefCounted<SolrIndexSearcher> refCounted = null;
         try (SolrQueryRequest request = newSolrQueryRequest())
@@ -2898,33 +3072,57 @@ public class SolrInformationServer implements InformationServer
             refCounted = core.getSearcher(false, true, null);
             SolrIndexSearcher solrIndexSearcher = refCounted.get();
 
-            NumericDocValues dbidDocValues = solrIndexSearcher.getSlowAtomicReader().getNumericDocValues(QueryConstants.FIELD_DBID);
-            
-            List<Node> batch = new ArrayList<>(200);
-            DocList docList = cloud.getDocList(nativeRequestHandler, request, query.startsWith("{") ? query : "{!afts}"+query);
-            for (DocIterator it = docList.iterator(); it.hasNext(); /**/)
+            Query luceneQuery;
+            try
+            {
+                luceneQuery = QParser.getParser(query.startsWith("{") ? query : "{!afts}" + query, request).getQuery();
+            }
+            catch (SyntaxError e)
             {
-                int docID = it.nextDoc();
-                // Obtain the ACL ID for this ACL doc.
-                long dbid = dbidDocValues.get(docID);
+                throw new IOException("Failed to parse reindex query " + query, e);
+            }
 
-                Node node = new Node();
-                node.setId(dbid);
-                node.setStatus(SolrApiNodeStatus.UNKNOWN);
-                node.setTxnId(Long.MAX_VALUE);
+            // Only a bit set is held for the matches, the DBIDs are read per segment as the batches are built
+            DocSetCollector collector = new DocSetCollector(solrIndexSearcher.maxDoc());
+            solrIndexSearcher.search(luceneQuery, collector);
+            DocSet docSet = collector.getDocSet();
+            progress.setTotal(docSet.size());
 
-                batch.add(node);
-                
-                if(batch.size() >= 200)
+            List<Node> batch = new ArrayList<>(batchSize);
+            for (LeafReaderContext leaf : solrIndexSearcher.getTopReaderContext().leaves())
+            {
+                NumericDocValues dbidDocValues = leaf.reader().getNumericDocValues(QueryConstants.FIELD_DBID);
+                Bits hasDbid = leaf.reader().getDocsWithField(QueryConstants.FIELD_DBID);
+                DocIdSet matches = docSet.getTopFilter().getDocIdSet(leaf, null);
+                DocIdSetIterator it = (matches == null) ? null : matches.iterator();
+                if (dbidDocValues == null || hasDbid == null || it == null)
                 {
-                    indexNodes(batch, true, true);
-                    batch.clear();
+                    continue;
+                }
+
+                for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc())
+                {
+                    if (!hasDbid.get(doc))
+                    {
+                        continue;
+                    }
+
+                    Node node = new Node();
+                    node.setId(dbidDocValues.get(doc));
+                    node.setStatus(SolrApiNodeStatus.UNKNOWN);
+                    node.setTxnId(Long.MAX_VALUE);
+                    batch.add(node);
+
+                    if (batch.size() >= batchSize)
+                    {
+                        consumer.accept(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
                 }
             }
-            if(batch.size() > 0)
+            if (batch.size() > 0)
             {
-                indexNodes(batch, true, true);
-                batch.clear();
+                consumer.accept(batch);
             }
         }
         finally
@@ -3144,6 +3342,31 @@ public class SolrInformationServer implements InformationServer
         return authority;
     }
 
+    /**
+     * Adds the tenant to a list of authorities, sharing the result between identical lists.
+     *
+     * @param authorities The authorities to mutate.
+     * @param tenant      The tenant that will be added to the authorities.
+     * @param interned    The lists already rewritten, keyed by tenant and original list.
+     * @return The shared list of authorities, which must not be modified.
+     */
+    private List<String> addTenantToAuthorities(List<String> authorities, String tenant,
+                                                Map<Pair<String, List<String>>, List<String>> interned)
+    {
+        if (authorities == null || authorities.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        return interned.computeIfAbsent(new Pair<>(tenant, authorities), key -> {
+            List<String> answer = new ArrayList<>(authorities.size());
+            for (String authority : authorities)
+            {
+                answer.add(addTenantToAuthority(authority, tenant));
+            }
+            return answer;
+        });
+    }
+
     private NodeMetaData createDeletedNodeMetaData(Node node)
     {
         NodeMetaData nodeMetaData = new NodeMetaData();
@@ -3560,65 +3783,133 @@ public class SolrInformationServer implements InformationServer
     }
 
     private void reportTransactionInfo(TransactionInfoReporter reporter, Long minId, long maxId, IOpenBitSet idsInDb,
-                                       SolrQueryRequest request, String field)
+                                       IOpenBitSet idsInIndex, IOpenBitSet duplicatesInIndex)
     {
         if (minId != null)
         {
-            IOpenBitSet idsInIndex = this.getOpenBitSetInstance();
-            long batchStartId = minId;
-            long batchEndId = Math.min(batchStartId + BATCH_FACET_TXS, maxId);
-
-            // Continues as long as the batch does not pass the maximum
-            while (batchStartId <= maxId)
+            long uniqueIdsInIndex = 0;
+            for (long id = minId; id <= maxId; id++)
             {
-                long iterationStart = batchStartId;
-                NamedList<Integer> idCounts = this.getFacets(request,
-                        field + ":[" + batchStartId + " TO " + batchEndId + "]",
-                        field, 1); // Min count of 1 ensures that the id returned is in the index
-                for (Map.Entry<String, Integer> idCount : idCounts)
+                boolean inIndex = idsInIndex.get(id);
+                boolean inDb = idsInDb.get(id);
+                if (inIndex)
                 {
-                    long idInIndex = Long.valueOf(idCount.getKey());
-
-                    // Only looks at facet values that fit the query
-                    if (batchStartId <= idInIndex && idInIndex <= batchEndId)
+                    uniqueIdsInIndex++;
+                    if (!inDb)
+                    {
+                        reporter.reportIdInIndexButNotInDb(id);
+                    }
+                    if (duplicatesInIndex.get(id))
                     {
-                        idsInIndex.set(idInIndex);
+                        reporter.reportDuplicatedIdInIndex(id);
+                    }
+                }
+                else if (inDb)
+                {
+                    reporter.reportIdInDbButNotInIndex(id);
+                }
+            }
 
-                        // The sequence of ids in the index could look like this: 1, 2, 5, 7...
-                        for (long id = iterationStart; id <= idInIndex; id++)
-                        {
-                            if (id == idInIndex)
-                            {
-                                iterationStart = idInIndex + 1;
+            reporter.reportUniqueIdsInIndex(uniqueIdsInIndex);
+        }
+    }
 
-                                if (!idsInDb.get(id))
-                                {
-                                    reporter.reportIdInIndexButNotInDb(id);
-                                }
-                            }
-                            else if (idsInDb.get(id))
-                            {
-                                reporter.reportIdInDbButNotInIndex(id);
-                            }
-                        }
+    /**
+     * Reads the ids straight from the doc values of the live documents, which is much cheaper than faceting
+     * on the field in windows.
+     */
+    private void collectIdsInIndex(String field, IOpenBitSet ids, IOpenBitSet duplicates) throws IOException
+    {
+        RefCounted<SolrIndexSearcher> refCounted = null;
+        try
+        {
+            refCounted = core.getSearcher();
+            SolrIndexSearcher searcher = refCounted.get();
+            for (LeafReaderContext leaf : searcher.getTopReaderContext().leaves())
+            {
+                NumericDocValues values = leaf.reader().getNumericDocValues(field);
+                Bits hasValue = leaf.reader().getDocsWithField(field);
+                if (values == null || hasValue == null)
+                {
+                    continue;
+                }
 
-                        if (idCount.getValue() > 1)
-                        {
-                            reporter.reportDuplicatedIdInIndex(idInIndex);
-                        }
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                int maxDoc = leaf.reader().maxDoc();
+                for (int doc = 0; doc < maxDoc; doc++)
+                {
+                    if ((liveDocs != null && !liveDocs.get(doc)) || !hasValue.get(doc))
+                    {
+                        continue;
+                    }
+
+                    long id = values.get(doc);
+                    if (ids.get(id))
+                    {
+                        duplicates.set(id);
                     }
                     else
                     {
-                        break;
+                        ids.set(id);
                     }
                 }
-
-                batchStartId = batchEndId + 1;
-                batchEndId = Math.min(batchStartId + BATCH_FACET_TXS, maxId);
             }
+        }
+        finally
+        {
+            ofNullable(refCounted).ifPresent(RefCounted::decref);
+        }
+    }
 
-            reporter.reportUniqueIdsInIndex(idsInIndex.cardinality());
+    @Override
+    public void collectTransactionIdsInIndex(IOpenBitSet ids, IOpenBitSet duplicates) throws IOException
+    {
+        collectIdsInIndex(FIELD_TXID, ids, duplicates);
+    }
+
+    @Override
+    public void collectAclTransactionIdsInIndex(IOpenBitSet ids, IOpenBitSet duplicates) throws IOException
+    {
+        collectIdsInIndex(FIELD_ACLTXID, ids, duplicates);
+    }
+
+    @Override
+    public synchronized long getHealthCheckpoint(String name)
+    {
+        return Long.parseLong(loadHealthCheckpoints().getProperty(name, "-1"));
+    }
+
+    @Override
+    public synchronized void setHealthCheckpoint(String name, long id)
+    {
+        Properties checkpoints = loadHealthCheckpoints();
+        checkpoints.setProperty(name, Long.toString(id));
+        try (OutputStream out = new FileOutputStream(new File(core.getDataDir(), HEALTH_CHECKPOINT_FILE)))
+        {
+            checkpoints.store(out, "Index health check checkpoints");
+        }
+        catch (IOException e)
+        {
+            LOGGER.warn("Failed to save the index health checkpoint for " + name, e);
+        }
+    }
+
+    private Properties loadHealthCheckpoints()
+    {
+        Properties checkpoints = new Properties();
+        File file = new File(core.getDataDir(), HEALTH_CHECKPOINT_FILE);
+        if (file.exists())
+        {
+            try (InputStream in = new FileInputStream(file))
+            {
+                checkpoints.load(in);
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("Failed to read the index health checkpoints, checking everything", e);
+            }
         }
+        return checkpoints;
     }
 
     private void setDuplicates(IndexHealthReport report, SolrQueryRequest request, String docType,
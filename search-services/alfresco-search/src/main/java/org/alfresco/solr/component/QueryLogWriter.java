@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CoreContainer;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.processor.UpdateRequestProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes query log documents to the query log core off the request thread.
+ * <p>
+ * Documents are put on a bounded queue and a single daemon thread adds them to the log core in batches, using one
+ * update processor per batch. When the queue is full new documents are dropped (and counted) rather than blocking
+ * the search. The thread is only started once the first query is logged, so cores that do not log queries have
+ * none. {@link #close()} stops the writer thread and flushes whatever is still queued.
+ * 
+ * @author Andy
+ */
+public class QueryLogWriter implements Runnable
+{
+    protected final static Logger log = LoggerFactory.getLogger(QueryLogWriter.class);
+
+    private final BlockingQueue<SolrInputDocument> queue;
+
+    private final int batchSize;
+
+    private final long flushIntervalMs;
+
+    private final CoreContainer coreContainer;
+
+    private final String logCoreName;
+
+    private static final long CLOSE_TIMEOUT_MS = 30000L;
+
+    private final AtomicLong queued = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private volatile boolean started;
+
+    private Thread thread;
+
+    public QueryLogWriter(CoreContainer coreContainer, String logCoreName, int queueSize, int batchSize, long flushIntervalMs)
+    {
+        this.coreContainer = coreContainer;
+        this.logCoreName = logCoreName;
+        this.queue = new ArrayBlockingQueue<SolrInputDocument>(queueSize);
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * Start the writer thread, unless it was already started or the writer is closed.
+     */
+    public void start()
+    {
+        if (started)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            if (!started && running)
+            {
+                thread = new Thread(this, "QueryLogWriter-" + logCoreName);
+                thread.setDaemon(true);
+                thread.start();
+                started = true;
+            }
+        }
+    }
+
+    public boolean isStarted()
+    {
+        return started && running;
+    }
+
+    /**
+     * Queue a document for the log core without blocking.
+     * 
+     * @param doc the query log document
+     * @return false if the document was dropped because the writer is overloaded or closed
+     */
+    public boolean offer(SolrInputDocument doc)
+    {
+        if (running && queue.offer(doc))
+        {
+            queued.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    @Override
+    public void run()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        while (running)
+        {
+            try
+            {
+                SolrInputDocument first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeBatch(batch);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stop the writer thread and synchronously write everything still on the queue.
+     */
+    public void close()
+    {
+        running = false;
+        Thread current;
+        synchronized (this)
+        {
+            current = thread;
+            thread = null;
+        }
+        if (current != null)
+        {
+            // Do not interrupt: the writer may be inside the index writer
+            try
+            {
+                current.join(flushIntervalMs + CLOSE_TIMEOUT_MS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write everything currently on the queue on the calling thread.
+     */
+    public void flush()
+    {
+        List<SolrInputDocument> batch = new ArrayList<SolrInputDocument>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0)
+        {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<SolrInputDocument> batch)
+    {
+        try
+        {
+            if (addToLogCore(batch))
+            {
+                written.addAndGet(batch.size());
+                batches.incrementAndGet();
+            }
+            else
+            {
+                dropped.addAndGet(batch.size());
+            }
+        }
+        catch (Exception e)
+        {
+            failed.addAndGet(batch.size());
+            log.warn("Failed to write " + batch.size() + " query log entries to " + logCoreName, e);
+        }
+    }
+
+    /**
+     * Add a batch of documents to the log core with a single update processor.
+     * 
+     * @param batch the documents to add
+     * @return false if the log core is not available
+     */
+    protected boolean addToLogCore(List<SolrInputDocument> batch) throws Exception
+    {
+        SolrCore logCore = coreContainer.getCore(logCoreName);
+        if (logCore == null)
+        {
+            return false;
+        }
+
+        SolrQueryRequest request = null;
+        UpdateRequestProcessor processor = null;
+        try
+        {
+            request = new LocalSolrQueryRequest(logCore, new NamedList<>());
+            processor = logCore.getUpdateProcessingChain(null).createProcessor(request, new SolrQueryResponse());
+            for (SolrInputDocument doc : batch)
+            {
+                AddUpdateCommand cmd = new AddUpdateCommand(request);
+                cmd.overwrite = true;
+                cmd.solrDoc = doc;
+                processor.processAdd(cmd);
+            }
+            return true;
+        }
+        finally
+        {
+            if (processor != null)
+            {
+                processor.finish();
+            }
+            if (request != null)
+            {
+                request.close();
+            }
+            logCore.close();
+        }
+    }
+
+    public NamedList<Object> getStatistics()
+    {
+        NamedList<Object> stats = new SimpleOrderedMap<>();
+        stats.add("queued", queued.get());
+        stats.add("pending", queue.size());
+        stats.add("written", written.get());
+        stats.add("batches", batches.get());
+        stats.add("dropped", dropped.get());
+        stats.add("failed", failed.get());
+        return stats;
+    }
+
+    public String getLogCoreName()
+    {
+        return logCoreName;
+    }
+
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    public long getWritten()
+    {
+        return written.get();
+    }
+}
@@ -30,27 +30,78 @@ import org.apache.lucene.search.Query;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ShardParams;
+import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.params.SpellingParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
-import org.apache.solr.request.LocalSolrQueryRequest;
-import org.apache.solr.request.SolrQueryRequest;
-import org.apache.solr.response.SolrQueryResponse;
-import org.apache.solr.update.AddUpdateCommand;
-import org.apache.solr.update.processor.UpdateRequestProcessor;
+import org.apache.solr.util.plugin.SolrCoreAware;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
+ * Logs top level queries to the <code>&lt;core&gt;_qlog</code> core, if there is one.
+ * The log documents are written asynchronously in batches by a {@link QueryLogWriter}.
+ *
  * @author Andy
  */
-public class QueryLoggingComponent extends SearchComponent
+public class QueryLoggingComponent extends SearchComponent implements SolrCoreAware
 {
+    protected final static Logger log = LoggerFactory.getLogger(QueryLoggingComponent.class);
+
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000L;
+
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private long flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+
+    private QueryLogWriter writer;
+
+    @Override
+    public void init(NamedList args)
+    {
+        super.init(args);
+        SolrParams params = SolrParams.toSolrParams(args);
+        queueSize = params.getInt("queueSize", DEFAULT_QUEUE_SIZE);
+        batchSize = params.getInt("batchSize", DEFAULT_BATCH_SIZE);
+        flushIntervalMs = params.getLong("flushIntervalMs", DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    @Override
+    public void inform(SolrCore core)
+    {
+        // The writer thread is started by the first query logged, so cores without a log core have none
+        writer = new QueryLogWriter(core.getCoreContainer(), core.getName() + "_qlog", queueSize, batchSize, flushIntervalMs);
+
+        // Flush pending entries on core close
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core)
+            {
+                writer.close();
+            }
+
+            @Override
+            public void postClose(SolrCore core)
+            {
+
+            }
+        });
+    }
 
     @Override
     public void finishStage(ResponseBuilder rb)
@@ -64,7 +115,7 @@ public class QueryLoggingComponent extends SearchComponent
         }
         catch (IOException e)
         {
-            e.printStackTrace();
+            log.warn("Failed to log query", e);
         }
     }
 
@@ -92,112 +143,96 @@ public class QueryLoggingComponent extends SearchComponent
     private void log(ResponseBuilder rb) throws IOException
     {
         boolean isShard = rb.req.getParams().getBool(ShardParams.IS_SHARD, false);
-        if (!isShard)
+        if (!isShard && (writer != null))
         {
             CoreContainer container = rb.req.getCore().getCoreContainer();
-            SolrCore logCore = container.getCore(rb.req.getCore().getName() + "_qlog");
-            if (logCore != null)
+            if (container.isLoaded(writer.getLogCoreName()))
             {
+                writer.start();
                 JSONObject json = (JSONObject) rb.req.getContext().get(AbstractQParser.ALFRESCO_JSON);
 
-                SolrQueryRequest request = null;
-                UpdateRequestProcessor processor = null;
-                try
-                {
-                    request = new LocalSolrQueryRequest(logCore, new NamedList<>());
-                    processor = logCore.getUpdateProcessingChain(null).createProcessor(request, new SolrQueryResponse());
-
-                    AddUpdateCommand cmd = new AddUpdateCommand(request);
-                    cmd.overwrite = true;
-                    SolrInputDocument input = new SolrInputDocument();
-                    input.addField("id", GUID.generate());
-                    input.addField("_version_", "1");
+                SolrInputDocument input = new SolrInputDocument();
+                input.addField("id", GUID.generate());
+                input.addField("_version_", "1");
 
-                    input.addField("timestamp", DateTimeFormatter.ISO_INSTANT.format(Instant.now()));
+                input.addField("timestamp", DateTimeFormatter.ISO_INSTANT.format(Instant.now()));
 
-                    if (json != null)
+                if (json != null)
+                {
+                    try
                     {
-                        try
+                        ArrayList<String> authorityList = new ArrayList<String>(1);
+                        JSONArray authorities = json.getJSONArray("authorities");
+                        for (int i = 0; i < authorities.length(); i++)
                         {
-                            ArrayList<String> authorityList = new ArrayList<String>(1);
-                            JSONArray authorities = json.getJSONArray("authorities");
-                            for (int i = 0; i < authorities.length(); i++)
-                            {
-                                String authorityString = authorities.getString(i);
-                                authorityList.add(authorityString);
-                            }
+                            String authorityString = authorities.getString(i);
+                            authorityList.add(authorityString);
+                        }
 
-                            for (String authority : authorityList)
+                        for (String authority : authorityList)
+                        {
+                            if (AuthorityType.getAuthorityType(authority) == AuthorityType.USER)
                             {
-                                if (AuthorityType.getAuthorityType(authority) == AuthorityType.USER)
-                                {
-                                    input.addField("user", authority);
-                                    break;
-                                }
+                                input.addField("user", authority);
+                                break;
                             }
                         }
-                        catch (JSONException e)
-                        {
-                            input.addField("user", "<UNKNOWN>");
-                        }
                     }
-                    else
+                    catch (JSONException e)
                     {
                         input.addField("user", "<UNKNOWN>");
                     }
+                }
+                else
+                {
+                    input.addField("user", "<UNKNOWN>");
+                }
 
-                    String userQuery = rb.req.getParams().get(SpellingParams.SPELLCHECK_Q);
-                    if (userQuery == null)
+                String userQuery = rb.req.getParams().get(SpellingParams.SPELLCHECK_Q);
+                if (userQuery == null)
+                {
+                    if (json != null)
                     {
-                        if (json != null)
+                        try
+                        {
+                            userQuery = json.getString("query");
+                        }
+                        catch (JSONException e)
                         {
-                            try
-                            {
-                                userQuery = json.getString("query");
-                            }
-                            catch (JSONException e)
-                            {
-                            }
                         }
                     }
-                    if (userQuery == null)
-                    {
-                        userQuery = rb.req.getParams().get(CommonParams.Q);
-                    }
-
-                    if (userQuery != null)
-                    {
-                        input.addField("user_query", userQuery);
-                    }
-
-                    Query query = rb.getQuery();
-                    input.addField("query", query.toString());
-
-                    if (rb.getResults().docList != null)
-                    {
-                        input.addField("found", rb.getResults().docList.matches());
-                    }
-                    input.addField("time", rb.req.getRequestTimer().getTime());
+                }
+                if (userQuery == null)
+                {
+                    userQuery = rb.req.getParams().get(CommonParams.Q);
+                }
 
-                    cmd.solrDoc = input;
-                    processor.processAdd(cmd);
+                if (userQuery != null)
+                {
+                    input.addField("user_query", userQuery);
                 }
 
-                finally
+                Query query = rb.getQuery();
+                input.addField("query", query.toString());
+
+                if (rb.getResults().docList != null)
                 {
-                    if (processor != null)
-                    {
-                        processor.finish();
-                    }
-                    if (request != null)
-                    {
-                        request.close();
-                    }
+                    input.addField("found", rb.getResults().docList.matches());
                 }
+                input.addField("time", rb.req.getRequestTimer().getTime());
+
+                // Written in batches by the writer thread, dropped if the writer cannot keep up
+                writer.offer(input);
             }
         }
     }
 
+    @Override
+    public NamedList getStatistics()
+    {
+        return (writer == null) ? new SimpleOrderedMap<>() : writer.getStatistics();
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.solr.handler.component.SearchComponent#getDescription()
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -289,4 +290,37 @@ public class SolrContentStore implements ContentStore
         this.delete(contentUrl);
     }
 
+    /**
+     * Brings the cached document of a node over from the content store of another Solr node, as a hard link where
+     * both stores share a file system and as a copy otherwise.
+     *
+     * @param sourceRoot the root location of the other content store
+     * @return true if the other store had the document
+     */
+    public boolean linkDocFromContentStore(String sourceRoot, String tenant, long dbId) throws IOException
+    {
+        String contentUrl = SolrContentUrlBuilder
+                    .start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                    .get();
+        File source = new File(contentUrl.replace(SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX, sourceRoot + "/"));
+        if (!source.exists())
+        {
+            return false;
+        }
+
+        File target = getFileFromUrl(contentUrl);
+        FileUtils.forceMkdir(target.getParentFile());
+        Files.deleteIfExists(target.toPath());
+        try
+        {
+            Files.createLink(target.toPath(), source.toPath());
+        }
+        catch (IOException | UnsupportedOperationException e)
+        {
+            Files.copy(source.toPath(), target.toPath());
+        }
+        return true;
+    }
 }
@@ -41,6 +41,7 @@ import org.alfresco.solr.tracker.ModelTracker;
 import org.alfresco.solr.tracker.SolrTrackerScheduler;
 import org.alfresco.solr.tracker.Tracker;
 import org.alfresco.solr.tracker.TrackerRegistry;
+import org.alfresco.solr.tracker.TrackerStatsInfoMBean;
 import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.CoreDescriptorDecorator;
@@ -78,6 +79,7 @@ public class SolrCoreLoadRegistration {
         SolrInformationServer srv = new SolrInformationServer(adminHandler, core, repositoryClient, contentStore);
         props.putAll(srv.getProps());
         adminHandler.getInformationServers().put(coreName, srv);
+        core.getInfoRegistry().put(TrackerStatsInfoMBean.NAME, new TrackerStatsInfoMBean(srv.getTrackerStats(), core));
 
         log.info("Starting to track " + coreName);
         if (Boolean.parseBoolean(props.getProperty("enable.alfresco.tracking", "false")))
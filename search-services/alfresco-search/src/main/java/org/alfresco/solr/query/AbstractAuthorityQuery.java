@@ -44,6 +44,11 @@ public abstract class AbstractAuthorityQuery extends Query
 
     @Override
     public abstract Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException;
+
+    public String getAuthority()
+    {
+        return authority;
+    }
     
     public String toString(String field)
     {
@@ -21,6 +21,7 @@ package org.alfresco.solr.query;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.regex.Pattern;
 
 import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
 import org.apache.lucene.index.LeafReader;
@@ -59,6 +60,18 @@ public abstract class AbstractAuthoritySetQuery extends Query
 
     @Override
     public abstract Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException;
+
+    /**
+     * @return the authorities, split on the separator that starts the authority string
+     */
+    public String[] getAuthorities()
+    {
+        if (authorities.isEmpty())
+        {
+            return new String[0];
+        }
+        return authorities.substring(1).split(Pattern.quote(authorities.substring(0, 1)));
+    }
     
     @Override
     public String toString(String field)
@@ -41,6 +41,7 @@ import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
+import org.alfresco.solr.query.AuthoritySetCache.AuthoritySet;
 import org.alfresco.util.Pair;
 import org.apache.commons.io.IOUtils;
 import org.apache.solr.common.params.CommonParams;
@@ -236,118 +237,32 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
                             tenantList.add(tenantString);
                         }
 
-                        ArrayList<String> authorityList = new ArrayList<String>(1);
-                        JSONArray authorities = json.getJSONArray("authorities");
-                        for (int i = 0; i < authorities.length(); i++)
+                        AuthoritySet authoritySet = getAuthoritySet(json);
+                        // Default to true for safety reasons.
+                        final boolean anyDenyDenies = json.optBoolean("anyDenyDenies", true);
+                        String filterKey = tenantList + ":" + anyDenyDenies;
+                        Pair<String, Boolean> authorityFilter = authoritySet == null ? null : authoritySet.getFilter(filterKey);
+                        if (authorityFilter == null)
                         {
-                            String authorityString = authorities.getString(i);
-                            authorityList.add(authorityString);
-                        }
-
-                        char separator = getSeparator(authorityList);
-
-                        StringBuilder authQuery = new StringBuilder();
-                        StringBuilder denyQuery = new StringBuilder();
-
-                        for (String tenant : tenantList)
-                        {
-                            for (String authority : authorityList)
+                            ArrayList<String> authorityList = authoritySet == null ? readAuthorities(json)
+                                        : new ArrayList<String>(authoritySet.getAuthorities());
+                            authorityFilter = buildAuthorityFilter(tenantList, authorityList, anyDenyDenies);
+                            if (authoritySet != null)
                             {
-                                if (separator == 0)
-                                {
-                                    if (authQuery.length() > 0)
-                                    {
-                                        authQuery.append(" ");
-                                        denyQuery.append(" ");                                        
-                                    }
-                                    switch (AuthorityType.getAuthorityType(authority))
-                                    {
-                                    case USER:
-                                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        break;
-                                    case GROUP:
-                                    case EVERYONE:
-                                    case GUEST:
-                                        if (tenant.length() == 0)
-                                        {
-                                            // Default tenant matches 4.0
-                                            authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                            denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        }
-                                        else
-                                        {
-                                            authQuery.append("|AUTHORITY:\"").append(authority).append("@").append(tenant).append("\"");
-                                            denyQuery.append("|DENIED:\"").append(authority).append("@").append(tenant).append("\"");
-                                        }
-                                        break;
-                                    default:
-                                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        break;
-                                    }
-                                }
-                                else
-                                {
-                                    if(authQuery.length() == 0)
-                                    {
-                                        authset = true;
-                                        authQuery.append("|AUTHSET:\"");
-                                        denyQuery.append("|DENYSET:\"");
-                                    }
-
-                                    switch (AuthorityType.getAuthorityType(authority))
-                                    {
-                                    case USER:
-                                        authQuery.append(separator).append(authority);
-                                        denyQuery.append(separator).append(authority);
-                                        break;
-                                    case GROUP:
-                                    case EVERYONE:
-                                    case GUEST:
-                                        if (tenant.length() == 0)
-                                        {
-                                            // Default tenant matches 4.0
-                                            authQuery.append(separator).append(authority);
-                                            denyQuery.append(separator).append(authority);
-                                        }
-                                        else
-                                        {
-                                            authQuery.append(separator).append(authority).append("@").append(tenant);
-                                            denyQuery.append(separator).append(authority).append("@").append(tenant);
-                                        }
-                                        break;
-                                    default:
-                                        authQuery.append(separator).append(authority);
-                                        denyQuery.append(separator).append(authority);
-                                        break;
-                                    }
-                                }
-
+                                authoritySet.putFilter(filterKey, authorityFilter);
                             }
                         }
-                        if(separator != 0)
-                        {
-                            authQuery.append("\"");
-                            denyQuery.append("\"");
-                        }
+                        authset = authorityFilter.getSecond();
 
-                        if (authQuery.length() > 0)
+                        if (authorityFilter.getFirst().length() > 0)
                         {
-                            // Default to true for safety reasons.
-                            final boolean anyDenyDenies = json.optBoolean("anyDenyDenies", true);
-                            
                             if (anyDenyDenies)
                             {
-                                authQuery.insert(0, "(").
-                                    append(") AND NOT (").
-                                    append(denyQuery).
-                                    append(")");
                                 // Record that the clause has been added.
                                 // We only ever set this to true for solr4+
                                 req.getContext().put("processedDenies", Boolean.TRUE);
                             }
-                            searchParameters.setQuery(authQuery.toString());
+                            searchParameters.setQuery(authorityFilter.getFirst());
                         }
                     }
                     else if (getString().equals(TENANT_FILTER_FROM_JSON))
@@ -526,6 +441,144 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
     }
 
 
+    /**
+     * Builds the AUTHORITY or AUTHSET filter, with its deny clause, for the authorities in every tenant.
+     *
+     * @return the filter, empty if there are no authorities, and whether it is an AUTHSET query
+     */
+    private Pair<String, Boolean> buildAuthorityFilter(ArrayList<String> tenantList, ArrayList<String> authorityList, boolean anyDenyDenies)
+    {
+        boolean isAuthset = false;
+        char separator = getSeparator(authorityList);
+
+        StringBuilder authQuery = new StringBuilder();
+        StringBuilder denyQuery = new StringBuilder();
+
+        for (String tenant : tenantList)
+        {
+            for (String authority : authorityList)
+            {
+                if (separator == 0)
+                {
+                    if (authQuery.length() > 0)
+                    {
+                        authQuery.append(" ");
+                        denyQuery.append(" ");                                        
+                    }
+                    switch (AuthorityType.getAuthorityType(authority))
+                    {
+                    case USER:
+                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
+                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
+                        break;
+                    case GROUP:
+                    case EVERYONE:
+                    case GUEST:
+                        if (tenant.length() == 0)
+                        {
+                            // Default tenant matches 4.0
+                            authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
+                            denyQuery.append("|DENIED:\"").append(authority).append("\"");
+                        }
+                        else
+                        {
+                            authQuery.append("|AUTHORITY:\"").append(authority).append("@").append(tenant).append("\"");
+                            denyQuery.append("|DENIED:\"").append(authority).append("@").append(tenant).append("\"");
+                        }
+                        break;
+                    default:
+                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
+                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
+                        break;
+                    }
+                }
+                else
+                {
+                    if(authQuery.length() == 0)
+                    {
+                        isAuthset = true;
+                        authQuery.append("|AUTHSET:\"");
+                        denyQuery.append("|DENYSET:\"");
+                    }
+
+                    switch (AuthorityType.getAuthorityType(authority))
+                    {
+                    case USER:
+                        authQuery.append(separator).append(authority);
+                        denyQuery.append(separator).append(authority);
+                        break;
+                    case GROUP:
+                    case EVERYONE:
+                    case GUEST:
+                        if (tenant.length() == 0)
+                        {
+                            // Default tenant matches 4.0
+                            authQuery.append(separator).append(authority);
+                            denyQuery.append(separator).append(authority);
+                        }
+                        else
+                        {
+                            authQuery.append(separator).append(authority).append("@").append(tenant);
+                            denyQuery.append(separator).append(authority).append("@").append(tenant);
+                        }
+                        break;
+                    default:
+                        authQuery.append(separator).append(authority);
+                        denyQuery.append(separator).append(authority);
+                        break;
+                    }
+                }
+
+            }
+        }
+        if(separator != 0)
+        {
+            authQuery.append("\"");
+            denyQuery.append("\"");
+        }
+
+        if (authQuery.length() > 0 && anyDenyDenies)
+        {
+            authQuery.insert(0, "(").
+                append(") AND NOT (").
+                append(denyQuery).
+                append(")");
+        }
+        return new Pair<String, Boolean>(authQuery.toString(), isAuthset);
+    }
+
+    private ArrayList<String> readAuthorities(JSONObject json) throws JSONException
+    {
+        ArrayList<String> authorityList = new ArrayList<String>(1);
+        JSONArray authorities = json.getJSONArray("authorities");
+        for (int i = 0; i < authorities.length(); i++)
+        {
+            String authorityString = authorities.getString(i);
+            authorityList.add(authorityString);
+        }
+        return authorityList;
+    }
+
+    /**
+     * The authority set of a distributed request that identifies its authorities by hash.
+     * The coordinator only leaves the authorities out once this shard has been sent them.
+     *
+     * @return the cached set, or null if the request does not use a hash
+     */
+    private AuthoritySet getAuthoritySet(JSONObject json) throws JSONException
+    {
+        String hash = req.getParams().get(AuthoritySetCache.HASH_PARAM);
+        if (hash == null)
+        {
+            return null;
+        }
+        if (json.has("authorities"))
+        {
+            return AuthoritySetCache.getInstance().put(readAuthorities(json));
+        }
+        return AuthoritySetCache.getInstance().get(hash);
+    }
+
     /**
      * @param authorityList ArrayList<String>
      * @return char
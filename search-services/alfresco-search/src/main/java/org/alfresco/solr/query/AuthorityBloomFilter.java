@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import org.apache.solr.common.util.Hash;
+
+/**
+ * A Bloom filter over authority names: a compact summary of the authorities that can appear on a shard.
+ * {@link #mightContain(String)} never answers false for an authority that was added.
+ *
+ * @author Andy
+ */
+public class AuthorityBloomFilter
+{
+    private static final int SEED = 0x5bd1e995;
+
+    private final long[] bits;
+
+    private final int hashes;
+
+    private AuthorityBloomFilter(long[] bits, int hashes)
+    {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    /**
+     * @param authorities the authorities to add
+     * @param falsePositiveRate the expected rate of false positives, e.g. 0.01
+     */
+    public static AuthorityBloomFilter create(Collection<String> authorities, double falsePositiveRate)
+    {
+        int count = Math.max(1, authorities.size());
+        long bitCount = (long) Math.ceil(-count * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bitCount + 63) / 64);
+        int hashes = (int) Math.max(1, Math.round((words * 64.0 / count) * Math.log(2)));
+        AuthorityBloomFilter filter = new AuthorityBloomFilter(new long[words], hashes);
+        for (String authority : authorities)
+        {
+            filter.add(authority);
+        }
+        return filter;
+    }
+
+    public void add(String authority)
+    {
+        int h1 = Hash.murmurhash3_x86_32(authority, 0, authority.length(), SEED);
+        int h2 = Hash.murmurhash3_x86_32(authority, 0, authority.length(), h1);
+        long size = bits.length * 64L;
+        for (int i = 0; i < hashes; i++)
+        {
+            long bit = Math.floorMod(h1 + (long) i * h2, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String authority)
+    {
+        int h1 = Hash.murmurhash3_x86_32(authority, 0, authority.length(), SEED);
+        int h2 = Hash.murmurhash3_x86_32(authority, 0, authority.length(), h1);
+        long size = bits.length * 64L;
+        for (int i = 0; i < hashes; i++)
+        {
+            long bit = Math.floorMod(h1 + (long) i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getHashes()
+    {
+        return hashes;
+    }
+
+    public byte[] toBytes()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(bits.length * 8);
+        buffer.asLongBuffer().put(bits);
+        return buffer.array();
+    }
+
+    /**
+     * @return the filter written by {@link #toBytes()}
+     */
+    public static AuthorityBloomFilter fromBytes(byte[] bytes, int hashes)
+    {
+        if (bytes.length == 0 || bytes.length % 8 != 0 || hashes < 1)
+        {
+            throw new IllegalArgumentException("Not a bloom filter: " + bytes.length + " bytes, " + hashes + " hashes");
+        }
+        long[] bits = new long[bytes.length / 8];
+        ByteBuffer.wrap(bytes).asLongBuffer().get(bits);
+        return new AuthorityBloomFilter(bits, hashes);
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.Pair;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.util.ConcurrentLRUCache;
+
+/**
+ * Authority sets of distributed requests, known by a hash of their canonical form.
+ * <p>
+ * The coordinator of a distributed search sends the authorities of a user to a shard once, together with their
+ * hash, and after that only the hash. The shard keeps the set, and the authority filters built from it, here.
+ * A shard that no longer has the set answers with {@link SolrException.ErrorCode#CONFLICT} and the coordinator
+ * sends the authorities again.
+ * <p>
+ * Sets are bounded by their size, the characters of their authorities and filters, as a few sets of a user in
+ * thousands of groups can outweigh a thousand ordinary ones. The sent markers all have about the same size, so
+ * they are bounded by count.
+ *
+ * @author Andy
+ */
+public class AuthoritySetCache
+{
+    /** Request parameter with the hash of the authority set of the request. */
+    public static final String HASH_PARAM = "alfresco.authoritySetHash";
+
+    /** Authority sets smaller than this are always sent in full. */
+    public static final int MIN_HASHED_AUTHORITIES = 32;
+
+    private static final String UNKNOWN_AUTHORITY_SET = "Unknown authority set ";
+
+    /** About 8MB of authority and filter characters. */
+    public static final long DEFAULT_MAX_WEIGHT = 4000000L;
+
+    public static final int DEFAULT_MAX_SENT = 10000;
+
+    private static final AuthoritySetCache INSTANCE = new AuthoritySetCache(DEFAULT_MAX_WEIGHT, DEFAULT_MAX_SENT);
+
+    /** Least recently used first. */
+    private final LinkedHashMap<String, AuthoritySet> sets = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long maxWeight;
+
+    /** Coordinator side: which shards have been sent which set. */
+    private final ConcurrentLRUCache<String, Boolean> sent;
+
+    /**
+     * @param maxWeight the characters of authorities and filters kept in all sets
+     * @param maxSent the number of shard and set pairs remembered as sent
+     */
+    AuthoritySetCache(long maxWeight, int maxSent)
+    {
+        this.maxWeight = maxWeight;
+        this.sent = new ConcurrentLRUCache<>(maxSent, maxSent * 9 / 10);
+    }
+
+    public static AuthoritySetCache getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the sorted authorities without duplicates
+     */
+    public static List<String> canonical(Collection<String> authorities)
+    {
+        return new ArrayList<>(new TreeSet<>(authorities));
+    }
+
+    /**
+     * @return the hex SHA-256 of the canonical form of the authorities
+     */
+    public static String hash(Collection<String> authorities)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String authority : canonical(authorities))
+            {
+                digest.update(authority.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest())
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new AlfrescoRuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Keeps the authorities under their hash.
+     */
+    public synchronized AuthoritySet put(Collection<String> authorities)
+    {
+        String hash = hash(authorities);
+        AuthoritySet known = sets.get(hash);
+        if (known != null)
+        {
+            return known;
+        }
+        AuthoritySet set = new AuthoritySet(hash, canonical(authorities));
+        sets.put(hash, set);
+        evict(set);
+        return set;
+    }
+
+    /**
+     * Drops the least recently used sets until the rest fit. Filters are added to sets after they are put,
+     * so the weights are summed again here rather than kept as a running total.
+     */
+    private void evict(AuthoritySet keep)
+    {
+        long weight = getWeight();
+        Iterator<AuthoritySet> eldest = sets.values().iterator();
+        while (weight > maxWeight && eldest.hasNext())
+        {
+            AuthoritySet set = eldest.next();
+            if (set != keep)
+            {
+                weight -= set.getWeight();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the characters of authorities and filters in all sets
+     */
+    public synchronized long getWeight()
+    {
+        long weight = 0;
+        for (AuthoritySet set : sets.values())
+        {
+            weight += set.getWeight();
+        }
+        return weight;
+    }
+
+    public synchronized int size()
+    {
+        return sets.size();
+    }
+
+    /**
+     * @throws SolrException CONFLICT if the set is not known (any more)
+     */
+    public synchronized AuthoritySet get(String hash)
+    {
+        AuthoritySet set = sets.get(hash);
+        if (set == null)
+        {
+            throw new SolrException(SolrException.ErrorCode.CONFLICT, UNKNOWN_AUTHORITY_SET + hash);
+        }
+        return set;
+    }
+
+    /**
+     * @return true if the exception is a shard asking for the authorities again
+     */
+    public static boolean isUnknownAuthoritySet(Throwable exception)
+    {
+        return exception instanceof SolrException
+                    && ((SolrException) exception).code() == SolrException.ErrorCode.CONFLICT.code
+                    && exception.getMessage() != null
+                    && exception.getMessage().contains(UNKNOWN_AUTHORITY_SET);
+    }
+
+    public boolean isSentTo(String shard, String hash)
+    {
+        return sent.get(shard + "#" + hash) != null;
+    }
+
+    public void setSentTo(String shard, String hash, boolean isSent)
+    {
+        if (isSent)
+        {
+            sent.put(shard + "#" + hash, Boolean.TRUE);
+        }
+        else
+        {
+            sent.remove(shard + "#" + hash);
+        }
+    }
+
+    /**
+     * An authority set and the authority filters built from it.
+     */
+    public static class AuthoritySet
+    {
+        private final String hash;
+
+        private final List<String> authorities;
+
+        private final Map<String, Pair<String, Boolean>> filters = new ConcurrentHashMap<>();
+
+        private final AtomicLong weight = new AtomicLong();
+
+        AuthoritySet(String hash, List<String> authorities)
+        {
+            this.hash = hash;
+            this.authorities = authorities;
+            for (String authority : authorities)
+            {
+                weight.addAndGet(authority.length());
+            }
+        }
+
+        public String getHash()
+        {
+            return hash;
+        }
+
+        public List<String> getAuthorities()
+        {
+            return authorities;
+        }
+
+        /**
+         * @param key the tenants and deny handling the filter was built for
+         * @return the filter query and whether it is an AUTHSET query, or null
+         */
+        public Pair<String, Boolean> getFilter(String key)
+        {
+            return filters.get(key);
+        }
+
+        public void putFilter(String key, Pair<String, Boolean> filter)
+        {
+            Pair<String, Boolean> previous = filters.put(key, filter);
+            weight.addAndGet(filter.getFirst().length() - (previous == null ? 0 : previous.getFirst().length()));
+        }
+
+        /**
+         * @return the characters of the authorities and filters of the set
+         */
+        public long getWeight()
+        {
+            return weight.get();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
+import org.apache.lucene.util.Counter;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+
+/**
+ * The limits a collector that looks at many more documents than it passes on checks as it goes, so that a query
+ * with a huge number of matches ends early rather than running to completion.
+ * <p>
+ * Solr only checks the time allowed for a request as documents get past the post filters, so a permission check
+ * that rejects most of a large match is never stopped. A budget checks it for every document looked at, from the
+ * start of the request. It also stops a search once {@link #ENOUGH_HITS} documents have been passed on, and puts
+ * an estimate of the total, from the part of the index looked at, in the response header.
+ * <p>
+ * Either limit ends the search with a {@link TimeExceededException}, which Solr reports as partial results and
+ * keeps out of the query result cache. Hits are counted on a {@link TimeLimitingCollector} clock of their own.
+ *
+ * @author Andy
+ */
+public class CollectionBudget
+{
+    /** The number of hits after which a search stops. */
+    public static final String ENOUGH_HITS = "alfresco.enoughHits";
+
+    /** The response header entry for the estimated number of hits of a search that stopped early. */
+    public static final String NUM_FOUND_ESTIMATE = "numFoundEstimate";
+
+    /** The request context entry that marks a search a budget stopped */
+    private static final String EXCEEDED = CollectionBudget.class.getName() + ".exceeded";
+
+    /** Documents looked at between reads of the clock */
+    private static final int CHECK_MASK = 0x3F;
+
+    private static final SimpleCollector NOTHING = new SimpleCollector()
+    {
+        @Override
+        public void collect(int doc)
+        {
+        }
+
+        @Override
+        public boolean needsScores()
+        {
+            return false;
+        }
+    };
+
+    private final SolrRequestInfo requestInfo;
+    private final TimeLimitingCollector timeLimit;
+    private final TimeLimitingCollector hitLimit;
+    private final Counter hits = Counter.newCounter();
+
+    private LeafCollector leafTimeLimit;
+    private LeafCollector leafHitLimit;
+    private int docBase;
+    private int maxDoc;
+    private int looked;
+
+    private CollectionBudget(SolrRequestInfo requestInfo, long timeAllowed, long enoughHits)
+    {
+        this.requestInfo = requestInfo;
+        if (timeAllowed > 0)
+        {
+            Counter clock = TimeLimitingCollector.getGlobalCounter();
+            long elapsed = System.currentTimeMillis() - requestInfo.getReq().getStartTime();
+            timeLimit = new TimeLimitingCollector(NOTHING, clock, timeAllowed);
+            timeLimit.setBaseline(clock.get() - elapsed);
+        }
+        else
+        {
+            timeLimit = null;
+        }
+        if (enoughHits > 0)
+        {
+            hitLimit = new TimeLimitingCollector(NOTHING, hits, enoughHits - 1);
+            hitLimit.setBaseline(0);
+        }
+        else
+        {
+            hitLimit = null;
+        }
+    }
+
+    /**
+     * The budget of the request being executed, which is unlimited outside of a request.
+     */
+    public static CollectionBudget forRequest()
+    {
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        if (requestInfo == null || requestInfo.getReq() == null)
+        {
+            return new CollectionBudget(null, -1, -1);
+        }
+        SolrQueryRequest req = requestInfo.getReq();
+        return new CollectionBudget(requestInfo,
+                    req.getParams().getLong(CommonParams.TIME_ALLOWED, -1L),
+                    req.getParams().getLong(ENOUGH_HITS, -1L));
+    }
+
+    public void setNextReader(LeafReaderContext context) throws IOException
+    {
+        docBase = context.docBase;
+        maxDoc = ReaderUtil.getTopLevelContext(context).reader().maxDoc();
+        try
+        {
+            leafTimeLimit = timeLimit == null ? null : timeLimit.getLeafCollector(context);
+            leafHitLimit = hitLimit == null ? null : hitLimit.getLeafCollector(context);
+        }
+        catch (TimeExceededException e)
+        {
+            throw exceeded(0, e);
+        }
+    }
+
+    /**
+     * Called for each document the collector looks at.
+     */
+    public void look(int doc) throws IOException
+    {
+        if (leafTimeLimit != null && (++looked & CHECK_MASK) == 0)
+        {
+            try
+            {
+                leafTimeLimit.collect(doc);
+            }
+            catch (TimeExceededException e)
+            {
+                throw exceeded(doc, e);
+            }
+        }
+    }
+
+    /**
+     * Called for each document the collector passes on.
+     */
+    public void hit(int doc) throws IOException
+    {
+        hits.addAndGet(1);
+        if (leafHitLimit != null)
+        {
+            try
+            {
+                leafHitLimit.collect(doc);
+            }
+            catch (TimeExceededException e)
+            {
+                throw exceeded(doc + 1, e);
+            }
+        }
+    }
+
+    /**
+     * @return true if the limits of this budget, or of another collector's, ended the search
+     */
+    public boolean isExceeded()
+    {
+        return requestInfo != null && requestInfo.getReq().getContext().containsKey(EXCEEDED);
+    }
+
+    private TimeExceededException exceeded(int doc, TimeExceededException e)
+    {
+        if (requestInfo != null)
+        {
+            requestInfo.getReq().getContext().put(EXCEEDED, Boolean.TRUE);
+            NamedList<Object> header = requestInfo.getRsp().getResponseHeader();
+            long lookedAt = docBase + doc;
+            if (header != null && header.get(NUM_FOUND_ESTIMATE) == null && lookedAt > 0)
+            {
+                header.add(NUM_FOUND_ESTIMATE, Math.max(hits.get(), hits.get() * maxDoc / lookedAt));
+            }
+        }
+        return e;
+    }
+}
@@ -44,6 +44,7 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
     String schemaFieldName;
     SchemaField schemaField;
     NumericDocValues numericDocValues;    
+    CollectionBudget budget = CollectionBudget.forRequest();
     /**
      * @param rb
      * @param buckets 
@@ -65,6 +66,7 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
     public void doSetNextReader(LeafReaderContext context) throws IOException
     {
         super.doSetNextReader(context);
+        budget.setNextReader(context);
         if(schemaField != null)
         {
             if(schemaField.getType().getNumericType() != null)
@@ -86,13 +88,14 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
 
     public void collect(int doc) throws IOException 
     {
-
+        budget.look(doc);
         if(numericDocValues != null)
         {
             long value = numericDocValues.get(doc);
             stats.add(value);
         }
         leafDelegate.collect(doc);
+        budget.hit(doc);
     }
 
     public void finish() throws IOException 
@@ -101,6 +104,11 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
         rb.rsp.add("analytics", analytics);
         NamedList<Object> fieldCounts = new NamedList<>(); 
         analytics.add("contentSize()", fieldCounts);
+        if(budget.isExceeded())
+        {
+            // Counts of the documents looked at before the search was stopped
+            analytics.add("approximate", true);
+        }
 
         for(Bucket bucket :stats.getHistogram())
         {
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.alfresco.solr.component.FingerPrintComponent;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.ShardHandler;
+import org.apache.solr.handler.component.ShardHandlerFactory;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.handler.component.ShardResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches the MINHASH fingerprint of a node from the shards of a distributed query.
+ * <p>
+ * The request is sent to every shard in parallel through the core container's shard handler, so the pooled HTTP
+ * client and executor are reused. The first shard that returns a fingerprint wins and the outstanding requests are
+ * cancelled. Recently fetched fingerprints are kept for a short time so that repeated similarity queries for the
+ * same node do not fan out again.
+ * 
+ * @author Andy
+ */
+public class FingerPrintFetcher
+{
+    protected final static Logger log = LoggerFactory.getLogger(FingerPrintFetcher.class);
+
+    static final int CACHE_SIZE = 1000;
+
+    static final long CACHE_TTL_MS = 60000L;
+
+    private static final Map<String, CachedFingerPrint> RECENT = new LinkedHashMap<String, CachedFingerPrint>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedFingerPrint> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private static class CachedFingerPrint
+    {
+        final Collection fingerPrint;
+
+        final long fetched;
+
+        CachedFingerPrint(Collection fingerPrint, long fetched)
+        {
+            this.fingerPrint = fingerPrint;
+            this.fetched = fetched;
+        }
+    }
+
+    private final ShardHandlerFactory shardHandlerFactory;
+
+    public FingerPrintFetcher(ShardHandlerFactory shardHandlerFactory)
+    {
+        this.shardHandlerFactory = shardHandlerFactory;
+    }
+
+    /**
+     * @param shards the comma separated shards of the request (replicas separated by |)
+     * @param nodeId the node UUID or DBID
+     * @return the MINHASH values or null if no shard has the node
+     */
+    public Collection fetch(String shards, String nodeId)
+    {
+        String key = shards + "#" + nodeId;
+        Collection fingerPrint = getRecent(key);
+        if (fingerPrint != null)
+        {
+            return fingerPrint;
+        }
+
+        fingerPrint = fetchFromShards(shards, nodeId);
+        if (fingerPrint != null)
+        {
+            synchronized (RECENT)
+            {
+                RECENT.put(key, new CachedFingerPrint(fingerPrint, System.currentTimeMillis()));
+            }
+        }
+        return fingerPrint;
+    }
+
+    private Collection getRecent(String key)
+    {
+        synchronized (RECENT)
+        {
+            CachedFingerPrint cached = RECENT.get(key);
+            if (cached == null)
+            {
+                return null;
+            }
+            if (System.currentTimeMillis() - cached.fetched > CACHE_TTL_MS)
+            {
+                RECENT.remove(key);
+                return null;
+            }
+            return cached.fingerPrint;
+        }
+    }
+
+    private Collection fetchFromShards(String shards, String nodeId)
+    {
+        ShardHandler shardHandler = shardHandlerFactory.getShardHandler();
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.add(FingerPrintComponent.COMPONENT_NAME, "true");
+        params.add("id", nodeId);
+        params.add(CommonParams.QT, "/fingerprint");
+
+        ShardRequest sreq = new ShardRequest();
+        sreq.purpose = ShardRequest.PURPOSE_PRIVATE;
+        sreq.shards = shards.split(",");
+        sreq.actualShards = sreq.shards;
+        sreq.params = params;
+
+        for (String shard : sreq.actualShards)
+        {
+            shardHandler.submit(sreq, shard, new ModifiableSolrParams(params));
+        }
+
+        ShardResponse srsp;
+        while ((srsp = shardHandler.takeCompletedIncludingErrors()) != null)
+        {
+            if (srsp.getException() != null)
+            {
+                log.warn("Failed to fetch fingerprint for " + nodeId + " from " + srsp.getShard(), srsp.getException());
+                continue;
+            }
+
+            NamedList fingerPrint = (NamedList) srsp.getSolrResponse().getResponse().get("fingerprint");
+            Collection values = (fingerPrint == null) ? null : (Collection) fingerPrint.get("MINHASH");
+            if (values != null)
+            {
+                // Only one shard owns the node
+                shardHandler.cancelAll();
+                return values;
+            }
+        }
+        return null;
+    }
+
+    static void clearRecent()
+    {
+        synchronized (RECENT)
+        {
+            RECENT.clear();
+        }
+    }
+}
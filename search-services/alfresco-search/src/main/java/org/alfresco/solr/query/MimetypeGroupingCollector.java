@@ -44,6 +44,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
     String schemaFieldName;
     SchemaField schemaField;
     SortedDocValues sortedDocValues;
+    CollectionBudget budget = CollectionBudget.forRequest();
     /**
      * @param rb
      * @param mappings 
@@ -63,6 +64,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
     public void doSetNextReader(LeafReaderContext context) throws IOException
     {
         super.doSetNextReader(context);
+        budget.setNextReader(context);
         if(schemaField != null)
         {
             try
@@ -79,6 +81,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
     @Override
     public void collect(int doc) throws IOException 
     {
+        budget.look(doc);
         if(sortedDocValues != null)
         {
             int ordinal = sortedDocValues.getOrd(doc);
@@ -103,6 +106,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
 
 
         leafDelegate.collect(doc);
+        budget.hit(doc);
     }
 
     public void finish() throws IOException 
@@ -111,6 +115,11 @@ public class MimetypeGroupingCollector extends DelegatingCollector
         rb.rsp.add("analytics", analytics);
         NamedList<Object> fieldCounts = new NamedList<>(); 
         analytics.add("mimetype()", fieldCounts);
+        if(budget.isExceeded())
+        {
+            // Counts of the documents looked at before the search was stopped
+            analytics.add("approximate", true);
+        }
         for(String key : counters.keySet())
         {
             Counter counter = counters.get(key);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.Hash;
+
+/**
+ * Compact form of a MINHASH fingerprint.
+ * <p>
+ * The MINHASH tokens of a document (one per bucket, in bucket order) are hashed to a fixed width
+ * <code>long[]</code> signature that is kept as a single hex encoded doc value. The signature is also cut into LSH bands of
+ * {@link #ROWS_PER_BAND} rows and each band is indexed as a single MINHASH_BAND term, so that finding documents
+ * above a similarity threshold needs one term lookup per band plus an exact comparison of the candidates'
+ * signatures.
+ * 
+ * @author Andy
+ */
+public final class MinHashSignature
+{
+    public static final String FIELD_MINHASH = "MINHASH";
+
+    public static final String FIELD_MINHASH_SIGNATURE = "MINHASH_SIG";
+
+    public static final String FIELD_MINHASH_BAND = "MINHASH_BAND";
+
+    /**
+     * The band widths that are indexed. Narrow bands find less similar documents, wide bands produce fewer false
+     * candidates.
+     */
+    public static final int[] ROWS_PER_BAND = { 4, 8 };
+
+    private static final int HASH_CHARS = 2 * Long.BYTES;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private MinHashSignature()
+    {
+    }
+
+    /**
+     * Hash MINHASH tokens, in their original order, to a signature.
+     */
+    public static long[] hash(Collection<?> tokens)
+    {
+        long[] signature = new long[tokens.size()];
+        Hash.LongPair pair = new Hash.LongPair();
+        int i = 0;
+        for (Object token : tokens)
+        {
+            byte[] bytes = token.toString().getBytes(StandardCharsets.UTF_8);
+            Hash.murmurhash3_x64_128(bytes, 0, bytes.length, 0, pair);
+            signature[i++] = pair.val1;
+        }
+        return signature;
+    }
+
+    /**
+     * Encode a signature as fixed width hex, one {@link #HASH_CHARS} run per hash, to index as a string doc value.
+     */
+    public static String encode(long[] signature)
+    {
+        char[] chars = new char[signature.length * HASH_CHARS];
+        int pos = 0;
+        for (long hash : signature)
+        {
+            for (int shift = 60; shift >= 0; shift -= 4)
+            {
+                chars[pos++] = HEX[(int) (hash >>> shift) & 0xF];
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decode the UTF-8 bytes of an encoded signature, as read from doc values.
+     */
+    public static long[] decode(BytesRef bytes)
+    {
+        long[] signature = new long[bytes.length / HASH_CHARS];
+        int pos = bytes.offset;
+        for (int i = 0; i < signature.length; i++)
+        {
+            long hash = 0;
+            for (int c = 0; c < HASH_CHARS; c++)
+            {
+                hash = (hash << 4) | Character.digit(bytes.bytes[pos++], 16);
+            }
+            signature[i] = hash;
+        }
+        return signature;
+    }
+
+    /**
+     * Get the band terms for every indexed band width. A trailing partial band is ignored.
+     */
+    public static List<String> bands(long[] signature)
+    {
+        List<String> bands = new ArrayList<String>();
+        for (int rows : ROWS_PER_BAND)
+        {
+            bands.addAll(bands(signature, rows));
+        }
+        return bands;
+    }
+
+    /**
+     * Get the band terms for one band width.
+     */
+    public static List<String> bands(long[] signature, int rows)
+    {
+        int count = signature.length / rows;
+        List<String> bands = new ArrayList<String>(count);
+        for (int band = 0; band < count; band++)
+        {
+            long hash = rows;
+            for (int row = band * rows; row < (band + 1) * rows; row++)
+            {
+                hash = Hash.fmix64(hash * 31 + signature[row]);
+            }
+            bands.add(rows + "_" + band + "_" + Long.toHexString(hash));
+        }
+        return bands;
+    }
+
+    /**
+     * Count the buckets two signatures agree on - the number of MINHASH tokens the documents share.
+     */
+    public static int matches(long[] one, long[] two)
+    {
+        int length = Math.min(one.length, two.length);
+        int matches = 0;
+        for (int i = 0; i < length; i++)
+        {
+            if (one[i] == two[i])
+            {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Choose the widest indexed band that finds documents of the given similarity with at least the given
+     * probability.
+     * 
+     * @return the rows per band or -1 if no indexed band width is good enough
+     */
+    public static int chooseRowsPerBand(int numHash, double similarity, double truePositive)
+    {
+        for (int i = ROWS_PER_BAND.length - 1; i >= 0; i--)
+        {
+            int rows = ROWS_PER_BAND[i];
+            int bands = numHash / rows;
+            if (bands == 0)
+            {
+                continue;
+            }
+            double found = 1 - Math.pow(1 - Math.pow(similarity, rows), bands);
+            if (found >= truePositive)
+            {
+                return rows;
+            }
+        }
+        return -1;
+    }
+}
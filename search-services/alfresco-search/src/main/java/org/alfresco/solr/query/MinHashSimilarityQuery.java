@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Find documents whose MINHASH signature shares at least a given number of buckets with a reference signature.
+ * <p>
+ * Candidates come from the indexed LSH bands, then the signature of each candidate is read from doc values and
+ * compared exactly. Banding is probabilistic: a document over the threshold is missed if none of its bands match,
+ * which the caller keeps very unlikely by its choice of band width, but it can happen.
+ * <p>
+ * Documents indexed before bands were added have MINHASH terms but no bands or signature. This is decided per
+ * segment: a segment without band terms or signature doc values uses the term based fallback query, and a segment
+ * where some MINHASH documents have no bands also takes the fallback candidates and matches the unsigned ones with it.
+ * <p>
+ * The fallback is expected to score one per matching MINHASH term, so every document scores the number of buckets it
+ * shares with the reference, times the query boost, whichever way it was matched.
+ * 
+ * @author Andy
+ */
+public class MinHashSimilarityQuery extends Query
+{
+    private final long[] signature;
+
+    private final int rowsPerBand;
+
+    private final int minMatches;
+
+    private final Query fallback;
+
+    public MinHashSimilarityQuery(long[] signature, int rowsPerBand, int minMatches, Query fallback)
+    {
+        this.signature = signature;
+        this.rowsPerBand = rowsPerBand;
+        this.minMatches = minMatches;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException
+    {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String band : MinHashSignature.bands(signature, rowsPerBand))
+        {
+            builder.add(new TermQuery(new Term(MinHashSignature.FIELD_MINHASH_BAND, band)), Occur.SHOULD);
+        }
+        Query bandQuery = builder.build();
+        Query mixedQuery = new BooleanQuery.Builder()
+                .add(bandQuery, Occur.SHOULD)
+                .add(fallback, Occur.SHOULD)
+                .build();
+
+        Weight bandWeight = new ConstantScoreQuery(bandQuery).createWeight(searcher, false);
+        Weight mixedWeight = new ConstantScoreQuery(mixedQuery).createWeight(searcher, false);
+        Weight fallbackWeight = fallback.createWeight(searcher, needsScores);
+        // Keep the fallback on the raw term count, the boost is applied here for all documents
+        fallbackWeight.normalize(1f, 1f);
+        return new MinHashSimilarityWeight(bandWeight, mixedWeight, fallbackWeight);
+    }
+
+    /**
+     * @return true if every document in the segment with MINHASH terms also has band terms (and so a signature)
+     */
+    private static boolean isFullyBanded(LeafReader reader, Terms bandTerms) throws IOException
+    {
+        Terms minHashTerms = reader.terms(MinHashSignature.FIELD_MINHASH);
+        if (minHashTerms == null)
+        {
+            return true;
+        }
+        int banded = bandTerms.getDocCount();
+        int total = minHashTerms.getDocCount();
+        return (banded != -1) && (total != -1) && (banded >= total);
+    }
+
+    /**
+     * @return true if the segment has band terms and signature doc values to compare the band candidates with
+     */
+    private static boolean isSigned(LeafReader reader, Terms bandTerms)
+    {
+        FieldInfo info = reader.getFieldInfos().fieldInfo(MinHashSignature.FIELD_MINHASH_SIGNATURE);
+        return (bandTerms != null) && (info != null) && (info.getDocValuesType() != DocValuesType.NONE);
+    }
+
+    private class MinHashSimilarityWeight extends Weight
+    {
+        private final Weight bandWeight;
+
+        private final Weight mixedWeight;
+
+        private final Weight fallbackWeight;
+
+        private float boost = 1f;
+
+        private float queryWeight = 1f;
+
+        MinHashSimilarityWeight(Weight bandWeight, Weight mixedWeight, Weight fallbackWeight)
+        {
+            super(MinHashSimilarityQuery.this);
+            this.bandWeight = bandWeight;
+            this.mixedWeight = mixedWeight;
+            this.fallbackWeight = fallbackWeight;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms)
+        {
+            bandWeight.extractTerms(terms);
+            fallbackWeight.extractTerms(terms);
+        }
+
+        @Override
+        public Explanation explain(LeafReaderContext context, int doc) throws IOException
+        {
+            LeafReader reader = context.reader();
+            Terms bandTerms = reader.terms(MinHashSignature.FIELD_MINHASH_BAND);
+            long[] other = null;
+            if (isSigned(reader, bandTerms))
+            {
+                other = signature(DocValues.getBinary(reader, MinHashSignature.FIELD_MINHASH_SIGNATURE), doc);
+            }
+            if (other == null)
+            {
+                Explanation fallbackExplanation = fallbackWeight.explain(context, doc);
+                if (!fallbackExplanation.isMatch())
+                {
+                    return fallbackExplanation;
+                }
+                return Explanation.match(fallbackExplanation.getValue() * queryWeight, "matched minhash terms, product of:",
+                        fallbackExplanation, Explanation.match(queryWeight, "queryWeight"));
+            }
+            int matches = MinHashSignature.matches(signature, other);
+            if (matches >= minMatches)
+            {
+                return Explanation.match(matches * queryWeight, "shared minhash buckets, product of:",
+                        Explanation.match(matches, "shared buckets"), Explanation.match(queryWeight, "queryWeight"));
+            }
+            return Explanation.noMatch("shared minhash buckets " + matches + " < " + minMatches);
+        }
+
+        @Override
+        public float getValueForNormalization() throws IOException
+        {
+            return boost * boost;
+        }
+
+        @Override
+        public void normalize(float norm, float topLevelBoost)
+        {
+            boost = topLevelBoost;
+            queryWeight = norm * topLevelBoost;
+        }
+
+        @Override
+        public Scorer scorer(LeafReaderContext context) throws IOException
+        {
+            final LeafReader reader = context.reader();
+            Terms bandTerms = reader.terms(MinHashSignature.FIELD_MINHASH_BAND);
+            if (!isSigned(reader, bandTerms))
+            {
+                Scorer fallbackScorer = fallbackWeight.scorer(context);
+                return (fallbackScorer == null) ? null : fallbackScorer(fallbackScorer);
+            }
+
+            final boolean mixed = !isFullyBanded(reader, bandTerms);
+            Scorer candidates = mixed ? mixedWeight.scorer(context) : bandWeight.scorer(context);
+            if (candidates == null)
+            {
+                return null;
+            }
+            final Scorer fallbackScorer = mixed ? fallbackWeight.scorer(context) : null;
+            final BinaryDocValues signatures = DocValues.getBinary(reader, MinHashSignature.FIELD_MINHASH_SIGNATURE);
+
+            final DocIdSetIterator approximation = candidates.iterator();
+            final float[] current = new float[1];
+            final TwoPhaseIterator twoPhase = new TwoPhaseIterator(approximation)
+            {
+                @Override
+                public boolean matches() throws IOException
+                {
+                    int doc = approximation.docID();
+                    long[] other = signature(signatures, doc);
+                    if (other != null)
+                    {
+                        int matches = MinHashSignature.matches(signature, other);
+                        current[0] = matches;
+                        return matches >= minMatches;
+                    }
+                    // Indexed before bands and signatures: the term query decides
+                    if (fallbackScorer == null)
+                    {
+                        return false;
+                    }
+                    DocIdSetIterator fallbackDocs = fallbackScorer.iterator();
+                    if (fallbackDocs.docID() < doc)
+                    {
+                        fallbackDocs.advance(doc);
+                    }
+                    if (fallbackDocs.docID() != doc)
+                    {
+                        return false;
+                    }
+                    current[0] = fallbackScorer.score();
+                    return true;
+                }
+
+                @Override
+                public float matchCost()
+                {
+                    // A doc values lookup, then decoding and comparing every hash of the signature
+                    float cost = 1 + 2 * signature.length;
+                    if (mixed)
+                    {
+                        // Unsigned candidates also advance each fallback term
+                        cost += signature.length;
+                    }
+                    return cost;
+                }
+            };
+
+            return new Scorer(this)
+            {
+                @Override
+                public int docID()
+                {
+                    return approximation.docID();
+                }
+
+                @Override
+                public float score() throws IOException
+                {
+                    return current[0] * queryWeight;
+                }
+
+                @Override
+                public int freq() throws IOException
+                {
+                    return 1;
+                }
+
+                @Override
+                public DocIdSetIterator iterator()
+                {
+                    return TwoPhaseIterator.asDocIdSetIterator(twoPhase);
+                }
+
+                @Override
+                public TwoPhaseIterator twoPhaseIterator()
+                {
+                    return twoPhase;
+                }
+            };
+        }
+
+        /**
+         * Score a segment without signatures by the fallback's count of matched MINHASH terms.
+         */
+        private Scorer fallbackScorer(final Scorer fallbackScorer)
+        {
+            return new Scorer(this)
+            {
+                @Override
+                public int docID()
+                {
+                    return fallbackScorer.docID();
+                }
+
+                @Override
+                public float score() throws IOException
+                {
+                    return fallbackScorer.score() * queryWeight;
+                }
+
+                @Override
+                public int freq() throws IOException
+                {
+                    return fallbackScorer.freq();
+                }
+
+                @Override
+                public DocIdSetIterator iterator()
+                {
+                    return fallbackScorer.iterator();
+                }
+
+                @Override
+                public TwoPhaseIterator twoPhaseIterator()
+                {
+                    return fallbackScorer.twoPhaseIterator();
+                }
+            };
+        }
+    }
+
+    private static long[] signature(BinaryDocValues signatures, int doc)
+    {
+        BytesRef bytes = signatures.get(doc);
+        return (bytes.length == 0) ? null : MinHashSignature.decode(bytes);
+    }
+
+    @Override
+    public String toString(String field)
+    {
+        return "MINHASH_BAND(" + rowsPerBand + ") >= " + minMatches + " of " + signature.length;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof MinHashSimilarityQuery)) return false;
+
+        MinHashSimilarityQuery that = (MinHashSimilarityQuery) o;
+        return (rowsPerBand == that.rowsPerBand) && (minMatches == that.minMatches)
+                && Arrays.equals(signature, that.signature) && Objects.equals(fallback, that.fallback);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = Arrays.hashCode(signature);
+        result = 31 * result + rowsPerBand;
+        result = 31 * result + minMatches;
+        result = 31 * result + Objects.hashCode(fallback);
+        return result;
+    }
+}
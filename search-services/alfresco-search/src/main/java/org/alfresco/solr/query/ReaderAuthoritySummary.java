@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * The authorities that can read something on a shard: every READER of its ACLs and every OWNER of its nodes,
+ * for one version of the index.
+ * <p>
+ * With ACL based sharding a user none of whose authorities is in the summary of a shard cannot get hits from it.
+ *
+ * @author Andy
+ */
+public class ReaderAuthoritySummary
+{
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final long version;
+
+    private final AuthorityBloomFilter authorities;
+
+    public ReaderAuthoritySummary(long version, AuthorityBloomFilter authorities)
+    {
+        this.version = version;
+        this.authorities = authorities;
+    }
+
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public AuthorityBloomFilter getAuthorities()
+    {
+        return authorities;
+    }
+
+    /**
+     * Collects the READER and OWNER terms of the index. Terms of deleted documents only add false positives.
+     */
+    public static ReaderAuthoritySummary build(IndexReader reader, long version) throws IOException
+    {
+        List<String> authorities = new ArrayList<>();
+        addTerms(reader, QueryConstants.FIELD_READER, authorities);
+        addTerms(reader, QueryConstants.FIELD_OWNER, authorities);
+        return new ReaderAuthoritySummary(version, AuthorityBloomFilter.create(authorities, FALSE_POSITIVE_RATE));
+    }
+
+    private static void addTerms(IndexReader reader, String field, List<String> authorities) throws IOException
+    {
+        Terms terms = MultiFields.getTerms(reader, field);
+        if (terms == null)
+        {
+            return;
+        }
+        TermsEnum termsEnum = terms.iterator();
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next())
+        {
+            authorities.add(term.utf8ToString());
+        }
+    }
+
+    /**
+     * @param knownVersion the version the receiver already has, the filter itself is only added if it differs
+     */
+    public NamedList<Object> toNamedList(long knownVersion)
+    {
+        NamedList<Object> list = new SimpleOrderedMap<>();
+        list.add("version", version);
+        if (knownVersion != version)
+        {
+            list.add("hashes", authorities.getHashes());
+            list.add("bits", authorities.toBytes());
+        }
+        return list;
+    }
+}
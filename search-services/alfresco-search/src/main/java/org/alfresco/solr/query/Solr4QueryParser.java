@@ -34,10 +34,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.alfresco.model.ContentModel;
@@ -71,7 +67,6 @@ import org.alfresco.solr.AlfrescoSolrDataModel.FieldInstance;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
 import org.alfresco.solr.AlfrescoSolrDataModel.IndexedField;
 import org.alfresco.solr.SolrInformationServer;
-import org.alfresco.solr.component.FingerPrintComponent;
 import org.alfresco.solr.content.SolrContentStore;
 import org.alfresco.solr.utils.ThrowingFunction;
 import org.alfresco.util.CachingDateFormat;
@@ -80,7 +75,6 @@ import org.alfresco.util.SearchLanguageConversion;
 import org.antlr.misc.OrderedHashSet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.commongrams.CommonGramsFilter;
@@ -120,25 +114,17 @@ import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.apache.solr.analysis.TokenizerChain;
-import org.apache.solr.client.solrj.SolrRequest;
-import org.apache.solr.client.solrj.impl.HttpClientUtil;
-import org.apache.solr.client.solrj.impl.HttpSolrClient;
-import org.apache.solr.client.solrj.request.QueryRequest;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.SolrInputField;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
-import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.CoreContainer;
 import org.apache.solr.core.SolrCore;
-import org.apache.solr.handler.component.HttpShardHandlerFactory;
 import org.apache.solr.handler.component.ShardHandlerFactory;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.SolrIndexSearcher;
-import org.apache.solr.update.UpdateShardHandlerConfig;
 import org.jaxen.saxpath.SAXPathException;
 import org.jaxen.saxpath.base.XPathReader;
 import org.json.JSONObject;
@@ -811,80 +797,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
     }
 
     private Collection fetchFingerPrint(String shards, String nodeId) {
-        shards = shards.replace(",", "|");
-        List<String> urls = ((HttpShardHandlerFactory)shardHandlerFactory).buildURLList(shards);
-        ExecutorService executorService =  null;
-        List<Future> futures = new ArrayList();
-        Collection fingerPrint = null;
-        try {
-            executorService = Executors.newCachedThreadPool();
-            for (String url : urls) {
-                futures.add(executorService.submit(new FingerPrintFetchTask(url, nodeId)));
-            }
-
-            for (Future<Collection> future : futures) {
-                Collection col = future.get();
-                if(col != null) {
-                    fingerPrint = col;
-                }
-            }
-
-        }catch(Exception e) {
-            logger.error(e);
-        } finally {
-            if (executorService != null)
-            {
-                executorService.shutdown();
-            }
-        }
-        return fingerPrint;
-    }
-
-
-
-
-    private class FingerPrintFetchTask implements Callable<Collection> {
-        private String url;
-        private String id;
-
-        public FingerPrintFetchTask(String url, String id) {
-            this.url = url;
-            this.id = id;
-        }
-
-        public Collection call() throws Exception {
-            HttpSolrClient solrClient = null;
-            CloseableHttpClient closeableHttpClient = null;
-            try {
-                ModifiableSolrParams params = new ModifiableSolrParams();
-                params.add(FingerPrintComponent.COMPONENT_NAME, "true");
-                params.add("id", id);
-                params.add("qt","/fingerprint");
-                closeableHttpClient = HttpClientUtil.createClient(getClientParams());
-                solrClient = new HttpSolrClient.Builder(url).withHttpClient(closeableHttpClient).build();;
-                QueryRequest request = new QueryRequest(params, SolrRequest.METHOD.POST);
-                QueryResponse response = request.process(solrClient);
-                NamedList dataResponse = response.getResponse();
-                NamedList fingerprint = (NamedList) dataResponse.get("fingerprint");
-                return (Collection)fingerprint.get("MINHASH");
-            } finally {
-                if (closeableHttpClient != null)
-                {
-                    closeableHttpClient.close();
-                }
-                if (solrClient != null)
-                {
-                    solrClient.close();
-                }
-            }
-        }
-
-        protected ModifiableSolrParams getClientParams() {
-            ModifiableSolrParams clientParams = new ModifiableSolrParams();
-            clientParams.set(HttpClientUtil.PROP_SO_TIMEOUT, UpdateShardHandlerConfig.DEFAULT_DISTRIBUPDATESOTIMEOUT);
-            clientParams.set(HttpClientUtil.PROP_CONNECTION_TIMEOUT, UpdateShardHandlerConfig.DEFAULT_DISTRIBUPDATECONNTIMEOUT);
-            return clientParams;
-        }
+        return new FingerPrintFetcher(shardHandlerFactory).fetch(shards, nodeId);
     }
 
     /**
@@ -970,7 +883,14 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
             builder.setDisableCoord(true);
             if (parts.length == 2)
             {
-                builder.setMinimumNumberShouldMatch((int) (Math.ceil(values.size() * fraction)));
+                int minMatches = (int) (Math.ceil(values.size() * fraction));
+                builder.setMinimumNumberShouldMatch(minMatches);
+                // Use the LSH bands if one of the indexed band widths is very unlikely to miss a match
+                int rowsPerBand = MinHashSignature.chooseRowsPerBand(values.size(), fraction, FINGERPRINT_BAND_TRUE_POSITIVE);
+                if (rowsPerBand > 0)
+                {
+                    return new MinHashSimilarityQuery(MinHashSignature.hash(values), rowsPerBand, minMatches, builder.build());
+                }
             }
             Query q = builder.build();
             return q;
@@ -980,6 +900,8 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
         }
     }
 
+    private static final double FINGERPRINT_BAND_TRUE_POSITIVE = 0.9999;
+
     private int computeBandSize(int numHash, double sim, double expectedTruePositive)
     {
         for (int bands = 1; bands <= numHash; bands++)
@@ -4735,6 +4657,11 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
         reader.parse(queryText);
         SolrPathQuery pathQuery = handler.getQuery();
         pathQuery.setRepeats(withRepeats);
+        SolrPathQuery prefixQuery = SolrAncestorPathQuery.getFixedPrefix(pathQuery);
+        if (prefixQuery != null)
+        {
+            return new SolrAncestorPathQuery(pathQuery, prefixQuery);
+        }
         return new SolrCachingPathQuery(pathQuery);
     }
 
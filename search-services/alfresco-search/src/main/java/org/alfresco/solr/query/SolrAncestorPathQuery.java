@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.solr.cache.CacheConstants;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.Weight;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Decorator for descendant path queries of the form <code>/a:b/c:d//*</code>.
+ * <p>
+ * The fixed prefix of the path is resolved to its node(s) once per searcher and the query is then executed as an
+ * ANCESTOR term query, avoiding the position walking done by the structured path scorers. If the prefix cannot be
+ * resolved in this index (no match, too many matches or no LID doc values) the full path query is executed as
+ * before. So is it on a sharded index, where the ancestors may live on other shards than their descendants.
+ * 
+ * @author Andy
+ */
+public class SolrAncestorPathQuery extends Query
+{
+    /**
+     * The maximum number of nodes the prefix may resolve to before falling back to the structured path query.
+     */
+    static final int MAX_RESOLVED_ANCESTORS = 64;
+
+    final SolrPathQuery pathQuery;
+
+    final SolrPathQuery prefixQuery;
+
+    public SolrAncestorPathQuery(SolrPathQuery pathQuery, SolrPathQuery prefixQuery)
+    {
+        if (pathQuery == null) throw new IllegalStateException("pathQuery cannot be null");
+        if (prefixQuery == null) throw new IllegalStateException("prefixQuery cannot be null");
+        this.pathQuery = pathQuery;
+        this.prefixQuery = prefixQuery;
+    }
+
+    /**
+     * Extract the fixed prefix of a "all descendants" path query.
+     * <p>
+     * Only paths made of fully specified child steps followed by a single trailing <code>//*</code> qualify. Wildcard
+     * steps, self or repeated descendant axes and queries against fields other than PATH return null.
+     * 
+     * @param pathQuery the parsed path query
+     * @return the prefix path query or null if the ANCESTOR rewrite does not apply
+     */
+    public static SolrPathQuery getFixedPrefix(SolrPathQuery pathQuery)
+    {
+        if (pathQuery.isRepeats() || !QueryConstants.FIELD_PATH.equals(pathQuery.getPathField()))
+        {
+            return null;
+        }
+
+        List<StructuredFieldPosition> positions = pathQuery.getPathStructuredFieldPositions();
+        int size = positions.size();
+        // At least one fixed step plus the trailing //* (each step is two positions)
+        if (size < 6)
+        {
+            return null;
+        }
+
+        if (!(positions.get(size - 4) instanceof DescendantAndSelfStructuredFieldPosition)
+                || !(positions.get(size - 3) instanceof DescendantAndSelfStructuredFieldPosition)
+                || !isWildcardChildStep(positions.get(size - 2))
+                || !isWildcardChildStep(positions.get(size - 1)))
+        {
+            return null;
+        }
+
+        List<StructuredFieldPosition> prefix = new ArrayList<StructuredFieldPosition>(size - 4);
+        for (int i = 0; i < size - 4; i++)
+        {
+            StructuredFieldPosition position = positions.get(i);
+            if (!(position instanceof RelativeStructuredFieldPosition) || (position.getTermText() == null))
+            {
+                return null;
+            }
+            prefix.add(position);
+        }
+
+        SolrPathQuery prefixQuery = new SolrPathQuery(pathQuery.getDictionaryService());
+        prefixQuery.setPathField(pathQuery.getPathField());
+        prefixQuery.setQuery(prefix);
+        return prefixQuery;
+    }
+
+    private static boolean isWildcardChildStep(StructuredFieldPosition position)
+    {
+        return (position instanceof RelativeStructuredFieldPosition) && (position.getTermText() == null);
+    }
+
+    /*
+     * @see org.apache.lucene.search.Query#createWeight(org.apache.lucene.search.Searcher)
+     */
+    public Weight createWeight(IndexSearcher indexSearcher, boolean requiresScore) throws IOException
+    {
+        SolrIndexSearcher searcher = null;
+        if(!(indexSearcher instanceof SolrIndexSearcher))
+        {
+            throw new IllegalStateException("Must have a SolrIndexSearcher");
+        }
+        else
+        {
+            searcher = (SolrIndexSearcher)indexSearcher;
+        }
+
+        List<String> ancestors = isSharded(searcher) ? Collections.<String>emptyList() : getAncestors(searcher);
+        if (ancestors.isEmpty())
+        {
+            return new SolrCachingPathQuery(pathQuery).createWeight(searcher, false);
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String ancestor : ancestors)
+        {
+            builder.add(new TermQuery(new Term(QueryConstants.FIELD_ANCESTOR, ancestor)), Occur.SHOULD);
+        }
+        return new ConstantScoreQuery(builder.build()).createWeight(searcher, false);
+    }
+
+    /**
+     * A shard only resolves the ancestors it holds, which would silently narrow the query.
+     */
+    private static boolean isSharded(SolrIndexSearcher searcher)
+    {
+        Properties properties = searcher.getSchema().getResourceLoader().getCoreProperties();
+        return Integer.parseInt(properties.getProperty("shard.count", "1")) > 1;
+    }
+
+    /**
+     * Get the node refs the prefix resolves to, using the per searcher prefix cache.
+     * An empty list means the prefix could not be resolved and the structured path query must be used.
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> getAncestors(SolrIndexSearcher searcher) throws IOException
+    {
+        List<String> ancestors = (List<String>) searcher.cacheLookup(CacheConstants.ALFRESCO_PATH_PREFIX_CACHE, prefixQuery);
+        if (ancestors == null)
+        {
+            ancestors = resolveAncestors(searcher);
+            searcher.cacheInsert(CacheConstants.ALFRESCO_PATH_PREFIX_CACHE, prefixQuery, ancestors);
+        }
+        return ancestors;
+    }
+
+    private List<String> resolveAncestors(SolrIndexSearcher searcher) throws IOException
+    {
+        DocSet prefixDocs = SolrCachingPathQuery.getDocSet(searcher, prefixQuery);
+        // No local match does not mean there is no such node - it may live on another shard.
+        if ((prefixDocs.size() == 0) || (prefixDocs.size() > MAX_RESOLVED_ANCESTORS))
+        {
+            return Collections.emptyList();
+        }
+
+        // Nodes indexed before LID had doc values have none, and leave the query to the path scorer
+        SortedDocValues lids = searcher.getSlowAtomicReader().getSortedDocValues(QueryConstants.FIELD_LID);
+        if (lids == null)
+        {
+            return Collections.emptyList();
+        }
+
+        List<String> ancestors = new ArrayList<String>(prefixDocs.size());
+        DocIterator it = prefixDocs.iterator();
+        while (it.hasNext())
+        {
+            int ord = lids.getOrd(it.nextDoc());
+            if (ord == -1)
+            {
+                return Collections.emptyList();
+            }
+            ancestors.add(lids.lookupOrd(ord).utf8ToString());
+        }
+        return Collections.unmodifiableList(ancestors);
+    }
+
+    /*
+     * @see org.apache.lucene.search.Query#toString(java.lang.String)
+     */
+    public String toString(String field)
+    {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("ANCESTOR -> :");
+        stringBuilder.append(pathQuery.toString());
+        return stringBuilder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SolrAncestorPathQuery)) return false;
+
+        SolrAncestorPathQuery that = (SolrAncestorPathQuery) o;
+        return pathQuery.equals(that.pathQuery);
+
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * pathQuery.hashCode() + 1;
+    }
+}
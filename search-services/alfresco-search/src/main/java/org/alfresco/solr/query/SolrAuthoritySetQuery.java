@@ -289,6 +289,7 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
         private NumericDocValues fieldValues;
         private BitsFilter ownerFilter;
         private FixedBitSet ownerDocs;
+        private final CollectionBudget budget = CollectionBudget.forRequest();
 
         public AccessControlCollector(HybridBitSet aclIds, BitsFilter ownerFilter)
         {
@@ -306,6 +307,7 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
         	super.doSetNextReader(context);
             this.fieldValues = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, context.reader());
             this.ownerDocs = ownerFilter.getBitSets().get(context.ord);
+            budget.setNextReader(context);
         }
 
         /*
@@ -316,11 +318,13 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
 
         public void collect(int doc) throws IOException
         {
+            budget.look(doc);
             long aclId = this.fieldValues.get(doc);
 
             if(aclIds.get(aclId) || ownerDocs.get(doc))
             {
                 super.collect(doc);
+                budget.hit(doc);
             }
         }
     }
@@ -332,6 +336,8 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
         private NumericDocValues fieldValues;
         private BitsFilter ownerFilter;
         private FixedBitSet ownerDocs;
+        private final CollectionBudget budget = CollectionBudget.forRequest();
+
         public AccessControlCollectorWithoutOwnerRead(HybridBitSet aclIds, HybridBitSet ownerAclIds, BitsFilter ownerFilter)
         {
             this.aclIds=aclIds;
@@ -349,14 +355,17 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
         	super.doSetNextReader(context);
             this.fieldValues = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, context.reader());
             this.ownerDocs = ownerFilter.getBitSets().get(context.ord);
+            budget.setNextReader(context);
         }
 
         public void collect(int doc) throws IOException
         {
+            budget.look(doc);
             long aclId = this.fieldValues.get(doc);
             if(aclIds.get(aclId) || (ownerDocs.get(doc) && ownerAclIds.get(aclId)))
             {
                 super.collect(doc);
+                budget.hit(doc);
             }
         }
     }
@@ -59,6 +59,20 @@ public class SolrCachingPathQuery extends Query
             searcher = (SolrIndexSearcher)indexSearcher;
         }
 
+        DocSet results = getDocSet(searcher, pathQuery);
+        return new ConstantScoreQuery(results.getTopFilter()).createWeight(searcher, false);
+    }
+
+    /**
+     * Get the results of a path query from the path cache, executing and caching them on a miss.
+     *
+     * @param searcher SolrIndexSearcher
+     * @param pathQuery the path query to execute
+     * @return the matching documents
+     * @throws IOException
+     */
+    static DocSet getDocSet(SolrIndexSearcher searcher, SolrPathQuery pathQuery) throws IOException
+    {
         DocSet results = (DocSet) searcher.cacheLookup(CacheConstants.ALFRESCO_PATH_CACHE, pathQuery);
         if (results == null)
         {
@@ -68,8 +82,7 @@ public class SolrCachingPathQuery extends Query
             results = searcher.getDocSet(wrapped);
             searcher.cacheInsert(CacheConstants.ALFRESCO_PATH_CACHE, pathQuery, results);
         }
-
-        return new ConstantScoreQuery(results.getTopFilter()).createWeight(searcher, false);
+        return results;
     }
 
     /*
@@ -117,6 +117,7 @@ public class SolrDenySetQuery extends AbstractAuthoritySetQuery implements PostF
     {
         private HybridBitSet aclIds;
         private NumericDocValues fieldValues;
+        private final CollectionBudget budget = CollectionBudget.forRequest();
 
         public AccessControlCollector(HybridBitSet aclIds)
         {
@@ -132,15 +133,18 @@ public class SolrDenySetQuery extends AbstractAuthoritySetQuery implements PostF
         {
         	super.doSetNextReader(context);
             this.fieldValues = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, context.reader());
+            budget.setNextReader(context);
         }
 
         public void collect(int doc) throws IOException{
         	
+        		budget.look(doc);
         		long aclId = this.fieldValues.get(doc);
 
         		if(!aclIds.get(aclId))
         		{
         			super.collect(doc);
+        			budget.hit(doc);
         		}
         	
         }
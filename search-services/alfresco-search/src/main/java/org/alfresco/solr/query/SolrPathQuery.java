@@ -285,6 +285,16 @@ public class SolrPathQuery extends Query
         this.repeats = repeats;
     }
 
+    public boolean isRepeats()
+    {
+        return repeats;
+    }
+
+    public DictionaryService getDictionaryService()
+    {
+        return dictionaryService;
+    }
+
     @Override
     public int hashCode() {
         int result = pathField != null ? pathField.hashCode() : 0;
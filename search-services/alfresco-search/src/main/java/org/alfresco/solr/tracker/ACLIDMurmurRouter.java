@@ -18,10 +18,12 @@
  */
 package org.alfresco.solr.tracker;
 
-import org.apache.solr.common.util.Hash;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
 
+import java.util.BitSet;
+import java.util.List;
+
 
 /*
  * @author Joel
@@ -35,8 +37,7 @@ public class ACLIDMurmurRouter implements DocRouter
             return true;
         }
 
-        String s = Long.toString(acl.getId());
-        return (Math.abs(Hash.murmurhash3_x86_32(s, 0, s.length(), 77)) % numShards) == shardInstance;
+        return RoutingKeys.routeByHash(acl.getId(), numShards, shardInstance);
     }
 
     @Override
@@ -46,7 +47,22 @@ public class ACLIDMurmurRouter implements DocRouter
         }
 
         //Route the node based on the murmur hash of the aclId
-        String s = Long.toString(node.getAclId());
-        return (Math.abs(Hash.murmurhash3_x86_32(s, 0, s.length(), 77)) % numShards) == shardInstance;
+        return RoutingKeys.routeByHash(node.getAclId(), numShards, shardInstance);
+    }
+
+    @Override
+    public BitSet routeNodes(int numShards, int shardInstance, List<Node> nodes) {
+        BitSet owned = new BitSet(nodes.size());
+        if(numShards <= 1) {
+            owned.set(0, nodes.size());
+            return owned;
+        }
+
+        for(int i = 0; i < nodes.size(); i++) {
+            if(RoutingKeys.routeByHash(nodes.get(i).getAclId(), numShards, shardInstance)) {
+                owned.set(i);
+            }
+        }
+        return owned;
     }
 }
\ No newline at end of file
@@ -26,6 +26,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.httpclient.AuthenticationException;
@@ -58,9 +59,15 @@ public class AclTracker extends AbstractTracker
 
     private static final int DEFAULT_CHANGE_SET_ACLS_BATCH_SIZE = 100;
     private static final int DEFAULT_ACL_BATCH_SIZE = 10;
+    private static final int DEFAULT_ACL_PAGE_SIZE = 1000;
+    private static final String HEALTH_CHECKPOINT = "acltx";
+    private static final String HEALTH_CHECKPOINT_COMMIT_TIME = "acltx.commitTime";
 
     private int changeSetAclsBatchSize = DEFAULT_CHANGE_SET_ACLS_BATCH_SIZE;
     private int aclBatchSize = DEFAULT_ACL_BATCH_SIZE;
+    private int aclPageSize = DEFAULT_ACL_PAGE_SIZE;
+    private AdaptiveBatchController batchController = new AdaptiveBatchController(new Properties(), DEFAULT_ACL_BATCH_SIZE);
+    private IndexHealthChecker healthChecker = new IndexHealthChecker(new Properties());
 
     private ConcurrentLinkedQueue<Long> aclChangeSetsToReindex = new ConcurrentLinkedQueue<Long>();
     private ConcurrentLinkedQueue<Long> aclChangeSetsToIndex = new ConcurrentLinkedQueue<Long>();
@@ -84,6 +91,9 @@ public class AclTracker extends AbstractTracker
         super(p, client, coreName, informationServer, Tracker.Type.ACL);
         changeSetAclsBatchSize = Integer.parseInt(p.getProperty("alfresco.changeSetAclsBatchSize", "100"));
         aclBatchSize = Integer.parseInt(p.getProperty("alfresco.aclBatchSize", "10"));
+        aclPageSize = Integer.parseInt(p.getProperty("alfresco.aclPageSize", "1000"));
+        batchController = new AdaptiveBatchController(p, aclBatchSize);
+        healthChecker = new IndexHealthChecker(p);
         shardMethod = p.getProperty("shard.method", SHARD_METHOD_DBID);
         docRouter = DocRouterFactory.getRouter(p, ShardMethodEnum.getShardMethod(shardMethod));
         threadHandler = new ThreadHandler(p, coreName, "AclTracker");
@@ -128,12 +138,7 @@ public class AclTracker extends AbstractTracker
                 if ((aclChangeSets.getAclChangeSets().size() > 0) && aclChangeSetId.equals(aclChangeSets.getAclChangeSets().get(0).getId()))
                 {
                     AclChangeSet changeSet = aclChangeSets.getAclChangeSets().get(0);
-                    List<Acl> acls = client.getAcls(Collections.singletonList(changeSet), null, Integer.MAX_VALUE);
-                    for (Acl acl : acls)
-                    {
-                        List<AclReaders> readers = client.getAclReaders(Collections.singletonList(acl));
-                        indexAcl(readers, false);
-                    }
+                    forEachAclPage(Collections.singletonList(changeSet), acls -> indexAclsInBatches(acls, false));
                     this.infoSrv.indexAclTransaction(changeSet, false);
                     requiresCommit = true;
                 }
@@ -179,12 +184,7 @@ public class AclTracker extends AbstractTracker
                 if ((aclChangeSets.getAclChangeSets().size() > 0) && aclChangeSetId.equals(aclChangeSets.getAclChangeSets().get(0).getId()))
                 {
                     AclChangeSet changeSet = aclChangeSets.getAclChangeSets().get(0);
-                    List<Acl> acls = client.getAcls(Collections.singletonList(changeSet), null, Integer.MAX_VALUE);
-                    for (Acl acl : acls)
-                    {
-                        List<AclReaders> readers = client.getAclReaders(Collections.singletonList(acl));
-                        indexAcl(readers, true);
-                    }
+                    forEachAclPage(Collections.singletonList(changeSet), acls -> indexAclsInBatches(acls, true));
 
                     this.infoSrv.indexAclTransaction(changeSet, true);
                     requiresCommit = true;
@@ -424,7 +424,9 @@ public class AclTracker extends AbstractTracker
         Long startTime = fromCommitTime == null ? Long.valueOf(0L) :fromCommitTime;
         do
         {
+            long start = System.currentTimeMillis();
             aclChangeSets = client.getAclChangeSets(startTime, null, startTime + actualTimeStep, null, maxResults);
+            batchController.fetched(aclChangeSets.getAclChangeSets().size(), maxResults, System.currentTimeMillis() - start);
             startTime += actualTimeStep;
             actualTimeStep *= 2;
             if(actualTimeStep > TIME_STEP_32_DAYS_IN_MS)
@@ -473,8 +475,169 @@ public class AclTracker extends AbstractTracker
         trackerStats.addAclTime(time);
     }
 
+    /**
+     * Receives one page of ACLs.
+     */
+    private interface AclPage
+    {
+        void accept(List<Acl> acls) throws AuthenticationException, IOException, JSONException;
+    }
+
+    /**
+     * Fetches the ACLs of the change sets by id, alfresco.aclPageSize at a time, so a large change set is never
+     * held in memory or fetched in one request.
+     * 
+     * @param changeSets List<AclChangeSet>
+     * @param page receives each page in id order
+     */
+    private void forEachAclPage(List<AclChangeSet> changeSets, AclPage page) throws AuthenticationException, IOException, JSONException
+    {
+        int pageSize = aclPageSize > 0 ? aclPageSize : Integer.MAX_VALUE;
+        Long fromId = null;
+        boolean morePages = true;
+        while (morePages)
+        {
+            List<Acl> acls = client.getAcls(changeSets, fromId, pageSize);
+            List<Acl> next = new ArrayList<Acl>(acls.size());
+            long maxId = -1;
+            for (Acl acl : acls)
+            {
+                if (fromId != null && acl.getId() < fromId)
+                {
+                    continue;
+                }
+                maxId = Math.max(maxId, acl.getId());
+                next.add(acl);
+            }
+            page.accept(next);
+            morePages = (pageSize != Integer.MAX_VALUE) && (acls.size() >= pageSize) && (maxId >= 0);
+            fromId = maxId + 1;
+            checkShutdown();
+        }
+    }
+
+    /**
+     * Fetches the readers and indexes the ACLs a batch at a time rather than one ACL per request and update.
+     * 
+     * @param acls List<Acl>
+     * @param overwrite boolean
+     */
+    private void indexAclsInBatches(List<Acl> acls, boolean overwrite) throws AuthenticationException, IOException, JSONException
+    {
+        int batchSize = Math.max(1, batchController.getBatchSize());
+        for (int i = 0; i < acls.size(); i += batchSize)
+        {
+            List<Acl> batch = acls.subList(i, Math.min(i + batchSize, acls.size()));
+            indexAcl(client.getAclReaders(batch), overwrite);
+        }
+    }
+
     public IndexHealthReport checkIndex(Long toTx, Long toAclTx, Long fromTime, Long toTime) 
                 throws AuthenticationException, IOException, JSONException
+    {
+        if (fromTime == null && toTime == null)
+        {
+            return checkIndexByIdRange(toAclTx, false, null);
+        }
+        return checkIndexByCommitTime(toAclTx, fromTime, toTime);
+    }
+
+    /**
+     * Checks the ACL change sets in the index against the repository by id range, fetching the ranges concurrently.
+     *
+     * @param toAclTx the last ACL change set to check, or null for all of them
+     * @param incremental only check the ACL change sets after the checkpoint left by the last fix, and those committed since
+     * @param onProblem receives each missing, duplicated or unknown ACL change set id as soon as it is found. A fix passes
+     *        one and moves the checkpoint on, a report passes null and leaves the checkpoint alone.
+     */
+    public IndexHealthReport checkIndexByIdRange(Long toAclTx, boolean incremental, LongConsumer onProblem)
+                throws AuthenticationException, IOException, JSONException
+    {
+        // Health checks read the repository directly, shared pages may be stale and would only crowd the feed
+        AclChangeSets firstChangeSets = client.getAclChangeSetsUnshared(null, 0L, null, Long.MAX_VALUE, 1);
+        if (firstChangeSets.getMaxChangeSetId() == null)
+        {
+            // Older repositories do not report the last change set id
+            return checkIndexByCommitTime(toAclTx, null, null);
+        }
+        IOpenBitSet aclTxIdsInDb = infoSrv.getOpenBitSetInstance();
+        if (firstChangeSets.getAclChangeSets().isEmpty())
+        {
+            return this.infoSrv.reportAclTransactionsInIndex(null, aclTxIdsInDb, 0);
+        }
+
+        long firstAclTxId = firstChangeSets.getAclChangeSets().get(0).getId();
+        long minAclTxId = firstAclTxId;
+        long maxAclTxId = firstChangeSets.getMaxChangeSetId();
+        if (toAclTx != null)
+        {
+            maxAclTxId = Math.min(maxAclTxId, toAclTx);
+        }
+        AclChangeSet maxInIndex = infoSrv.getMaxAclChangeSetIdAndCommitTimeInIndex();
+        if (incremental)
+        {
+            // The checkpoint is only trusted as far as this index goes, in case it has been rebuilt since
+            long checkpoint = Math.min(infoSrv.getHealthCheckpoint(HEALTH_CHECKPOINT), maxInIndex.getId());
+            minAclTxId = Math.max(minAclTxId, checkpoint + 1);
+            // Change sets below the checkpoint may have committed after it was taken
+            long checkpointTime = infoSrv.getHealthCheckpoint(HEALTH_CHECKPOINT_COMMIT_TIME);
+            minAclTxId = Math.min(minAclTxId, getMinAclChangeSetIdCommittedSince(checkpointTime - infoSrv.getHoleRetention(), firstAclTxId));
+        }
+
+        IOpenBitSet aclTxIdsInIndex = infoSrv.getOpenBitSetInstance();
+        IOpenBitSet duplicatedAclTxIdsInIndex = infoSrv.getOpenBitSetInstance();
+        infoSrv.collectAclTransactionIdsInIndex(aclTxIdsInIndex, duplicatedAclTxIdsInIndex);
+        long checkpoint = healthChecker.check(minAclTxId, maxAclTxId, this::getAclChangeSetIds, aclTxIdsInIndex,
+                                              duplicatedAclTxIdsInIndex, aclTxIdsInDb, onProblem);
+        if (onProblem != null)
+        {
+            infoSrv.setHealthCheckpoint(HEALTH_CHECKPOINT, checkpoint);
+            infoSrv.setHealthCheckpoint(HEALTH_CHECKPOINT_COMMIT_TIME, maxInIndex.getCommitTimeMs());
+        }
+
+        return this.infoSrv.reportAclTransactionsInIndex(minAclTxId, aclTxIdsInDb, maxAclTxId, aclTxIdsInIndex,
+                                                         duplicatedAclTxIdsInIndex);
+    }
+
+    /**
+     * @return the lowest id of the ACL change sets committed since the given time, or the first change set id if there
+     *         are too many to fetch in one page
+     */
+    private long getMinAclChangeSetIdCommittedSince(long fromCommitTime, long firstAclTxId)
+                throws AuthenticationException, IOException, JSONException
+    {
+        if (fromCommitTime < 0)
+        {
+            return firstAclTxId;
+        }
+        int pageSize = healthChecker.getRangeSize();
+        List<AclChangeSet> changeSets = client.getAclChangeSetsUnshared(fromCommitTime, null, null, null, pageSize).getAclChangeSets();
+        if (changeSets.size() >= pageSize)
+        {
+            return firstAclTxId;
+        }
+        long minAclTxId = Long.MAX_VALUE;
+        for (AclChangeSet changeSet : changeSets)
+        {
+            minAclTxId = Math.min(minAclTxId, changeSet.getId());
+        }
+        return minAclTxId;
+    }
+
+    private List<Long> getAclChangeSetIds(long fromAclTxId, long toAclTxId, int maxResults)
+                throws AuthenticationException, IOException, JSONException
+    {
+        List<AclChangeSet> changeSets = client.getAclChangeSetsUnshared(null, fromAclTxId, null, toAclTxId, maxResults).getAclChangeSets();
+        List<Long> ids = new ArrayList<>(changeSets.size());
+        for (AclChangeSet changeSet : changeSets)
+        {
+            ids.add(changeSet.getId());
+        }
+        return ids;
+    }
+
+    private IndexHealthReport checkIndexByCommitTime(Long toAclTx, Long fromTime, Long toTime)
+                throws AuthenticationException, IOException, JSONException
     {   
         // DB ACL TX Count
         long firstChangeSetCommitTimex = 0;
@@ -578,11 +741,12 @@ public class AclTracker extends AbstractTracker
         {
             ArrayList<Long> answer = new ArrayList<Long>();
             AclChangeSets changeSet = client.getAclChangeSets(null, acltxid, null, acltxid+1, 1);
-            List<Acl> acls = client.getAcls(changeSet.getAclChangeSets(), null, Integer.MAX_VALUE);
-            for (Acl acl : acls)
-            {
-                answer.add(acl.getId());
-            }
+            forEachAclPage(changeSet.getAclChangeSets(), acls -> {
+                for (Acl acl : acls)
+                {
+                    answer.add(acl.getId());
+                }
+            });
             return answer;
         }
         catch (IOException e)
@@ -652,7 +816,7 @@ public class AclTracker extends AbstractTracker
                 this.state = getTrackerState();
 
                 Long fromCommitTime = getChangeSetFromCommitTime(changeSetsFound, state.getLastGoodChangeSetCommitTimeInIndex());
-                aclChangeSets = getSomeAclChangeSets(changeSetsFound, fromCommitTime, TIME_STEP_1_HR_IN_MS, 2000,
+                aclChangeSets = getSomeAclChangeSets(changeSetsFound, fromCommitTime, batchController.getTimeStep(), batchController.getMaxResults(),
                         state.getTimeToStopIndexing());
 
 
@@ -761,9 +925,9 @@ public class AclTracker extends AbstractTracker
                 throws IOException
     {
         waitForAsynchronous();
+        super.infoSrv.indexAclTransactions(new ArrayList<>(changeSetsIndexed), true);
         for (AclChangeSet set : changeSetsIndexed)
         {
-            super.infoSrv.indexAclTransaction(set, true);
             // Acl change sets are ordered by commit time and tie-broken by id
             if (set.getCommitTimeMs() > state.getLastIndexedChangeSetCommitTime()
                     || set.getCommitTimeMs() == state.getLastIndexedChangeSetCommitTime()
@@ -800,23 +964,43 @@ public class AclTracker extends AbstractTracker
             }
         }
 
-        ArrayList<Acl> aclBatch = new ArrayList<Acl>();
-        List<Acl> acls = client.getAcls(nonEmptyChangeSets, null, Integer.MAX_VALUE);
+        if (nonEmptyChangeSets.isEmpty())
+        {
+            return 0;
+        }
 
-        for (Acl acl : acls)
+        // Page through the ACLs by id so workers start on the first page while later pages are fetched
+        ArrayList<Acl> aclBatch = new ArrayList<Acl>();
+        int batchSize = batchController.getBatchSize();
+        Long fromId = null;
+        boolean morePages = true;
+        while (morePages)
         {
-            if (log.isDebugEnabled())
-            {
-                log.debug(acl.toString());
-            }
-            aclBatch.add(acl);
-            if (aclBatch.size() > aclBatchSize)
+            List<Acl> acls = client.getAcls(nonEmptyChangeSets, fromId, aclPageSize);
+            long maxId = -1;
+            for (Acl acl : acls)
             {
-                aclCount += aclBatch.size();
-                AclIndexWorkerRunnable aiwr = new AclIndexWorkerRunnable(this.threadHandler, aclBatch);
-                this.threadHandler.scheduleTask(aiwr);
-                aclBatch = new ArrayList<Acl>();
+                if (fromId != null && acl.getId() < fromId)
+                {
+                    continue;
+                }
+                maxId = Math.max(maxId, acl.getId());
+                if (log.isDebugEnabled())
+                {
+                    log.debug(acl.toString());
+                }
+                aclBatch.add(acl);
+                if (aclBatch.size() > batchSize)
+                {
+                    aclCount += aclBatch.size();
+                    AclIndexWorkerRunnable aiwr = new AclIndexWorkerRunnable(this.threadHandler, aclBatch);
+                    this.threadHandler.scheduleTask(aiwr);
+                    aclBatch = new ArrayList<Acl>();
+                }
             }
+            morePages = (aclPageSize > 0) && (acls.size() >= aclPageSize) && (maxId >= 0);
+            fromId = maxId + 1;
+            checkShutdown();
         }
         if (aclBatch.size() > 0)
         {
@@ -825,6 +1009,12 @@ public class AclTracker extends AbstractTracker
             this.threadHandler.scheduleTask(aiwr);
             aclBatch = new ArrayList<Acl>();
         }
+        batchController.indexed(aclCount, nonEmptyChangeSets.size());
+        batchController.queueDepth(this.threadHandler.getQueueSize());
+        if (log.isDebugEnabled())
+        {
+            log.debug(batchController.toString());
+        }
         return aclCount;
     }
 
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.Properties;
+
+/**
+ * Sizes the repository fetches and the worker batches of a tracker from what it observes, instead of using fixed
+ * values.
+ * <ul>
+ * <li>The time window grows while windows come back empty and shrinks while they come back full.</li>
+ * <li>The maximum number of transactions per fetch backs off when the repository is slower than the target fetch
+ * time, grows again when it is fast, and is capped so one fetch does not pull in more than the target number of
+ * documents at the observed documents per transaction.</li>
+ * <li>The worker batch size grows when the worker queue is deeper than the target, so the repository is called less
+ * often, and shrinks when workers are idle so the work is spread over more of them.</li>
+ * </ul>
+ * When alfresco.adaptive.enabled is false the configured values are used unchanged.
+ * 
+ * @author Andy
+ */
+public class AdaptiveBatchController
+{
+    static final int MIN_MAX_RESULTS = 50;
+
+    static final int MAX_MAX_RESULTS = 10000;
+
+    static final long MIN_TIME_STEP = 60 * 1000L;
+
+    private final boolean enabled;
+
+    private final long targetFetchMs;
+
+    private final long targetDocsPerFetch;
+
+    private final int targetQueueDepth;
+
+    private final int initialBatchSize;
+
+    private long timeStep = AbstractTracker.TIME_STEP_1_HR_IN_MS;
+
+    private int maxResults = 2000;
+
+    private int batchSize;
+
+    private double docsPerTx = 1;
+
+    private long lastFetchMs;
+
+    public AdaptiveBatchController(Properties p, int batchSize)
+    {
+        this.enabled = Boolean.parseBoolean(p.getProperty("alfresco.adaptive.enabled", "true"));
+        this.targetFetchMs = Long.parseLong(p.getProperty("alfresco.adaptive.targetFetchMs", "1000"));
+        this.targetDocsPerFetch = Long.parseLong(p.getProperty("alfresco.adaptive.targetDocsPerFetch", "100000"));
+        this.targetQueueDepth = Integer.parseInt(p.getProperty("alfresco.adaptive.targetQueueDepth", "8"));
+        this.initialBatchSize = Math.max(1, batchSize);
+        this.batchSize = this.initialBatchSize;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public synchronized long getTimeStep()
+    {
+        return timeStep;
+    }
+
+    public synchronized int getMaxResults()
+    {
+        return maxResults;
+    }
+
+    public synchronized int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public synchronized double getDocsPerTx()
+    {
+        return docsPerTx;
+    }
+
+    public synchronized long getLastFetchMs()
+    {
+        return lastFetchMs;
+    }
+
+    /**
+     * @return the time step to use for the next window of a scan that found nothing in the current one
+     */
+    public synchronized long nextTimeStep(long current)
+    {
+        return enabled ? timeStep : current;
+    }
+
+    /**
+     * Record a fetch of transactions or change sets from the repository.
+     */
+    public synchronized void fetched(int results, int requested, long elapsedMs)
+    {
+        lastFetchMs = elapsedMs;
+        if (!enabled)
+        {
+            return;
+        }
+
+        if (results == 0)
+        {
+            timeStep = Math.min(AbstractTracker.TIME_STEP_32_DAYS_IN_MS, timeStep * 2);
+        }
+        else if (results >= requested)
+        {
+            timeStep = Math.max(MIN_TIME_STEP, timeStep / 2);
+        }
+
+        int next = maxResults;
+        if (elapsedMs > targetFetchMs)
+        {
+            next = next * 3 / 4;
+        }
+        else if (results >= requested && elapsedMs < targetFetchMs / 2)
+        {
+            next = next * 5 / 4;
+        }
+        maxResults = clampMaxResults(next);
+    }
+
+    /**
+     * Record the number of documents (nodes or acls) a batch of transactions (or change sets) produced.
+     */
+    public synchronized void indexed(long docs, int txs)
+    {
+        if (txs <= 0)
+        {
+            return;
+        }
+        // Exponential moving average
+        docsPerTx = 0.8 * docsPerTx + 0.2 * ((double) docs / txs);
+        if (enabled)
+        {
+            maxResults = clampMaxResults(maxResults);
+        }
+    }
+
+    /**
+     * Record the depth of the worker queue after a batch has been scheduled.
+     */
+    public synchronized void queueDepth(int depth)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        if (depth > targetQueueDepth * 2)
+        {
+            batchSize = Math.min(initialBatchSize * 4, batchSize * 2);
+        }
+        else if (depth < targetQueueDepth / 2)
+        {
+            batchSize = Math.max(Math.max(1, initialBatchSize / 4), batchSize / 2);
+        }
+    }
+
+    private int clampMaxResults(int value)
+    {
+        long docsCap = (long) (targetDocsPerFetch / Math.max(1, docsPerTx));
+        long capped = Math.min(value, docsCap);
+        return (int) Math.max(MIN_MAX_RESULTS, Math.min(MAX_MAX_RESULTS, capped));
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "AdaptiveBatchController[enabled=" + enabled + ", timeStep=" + timeStep + ", maxResults=" + maxResults
+                + ", batchSize=" + batchSize + ", docsPerTx=" + docsPerTx + ", lastFetchMs=" + lastFetchMs + "]";
+    }
+}
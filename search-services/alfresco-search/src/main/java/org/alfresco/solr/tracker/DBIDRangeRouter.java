@@ -18,10 +18,11 @@
  */
 package org.alfresco.solr.tracker;
 
-import org.apache.solr.common.util.Hash;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
 
+import java.util.BitSet;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -85,4 +86,18 @@ public class DBIDRangeRouter implements DocRouter
             return false;
         }
     }
+
+    @Override
+    public BitSet routeNodes(int shardCount, int shardInstance, List<Node> nodes) {
+        // The whole batch is routed against one reading of the range
+        long endRange = expandableRange.longValue();
+        BitSet owned = new BitSet(nodes.size());
+        for(int i = 0; i < nodes.size(); i++) {
+            long dbid = nodes.get(i).getId();
+            if(dbid >= startRange && dbid < endRange) {
+                owned.set(i);
+            }
+        }
+        return owned;
+    }
 }
\ No newline at end of file
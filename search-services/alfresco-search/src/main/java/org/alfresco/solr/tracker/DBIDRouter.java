@@ -18,10 +18,12 @@
  */
 package org.alfresco.solr.tracker;
 
-import org.apache.solr.common.util.Hash;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
 
+import java.util.BitSet;
+import java.util.List;
+
 
 /*
  * @author Joel
@@ -43,8 +45,22 @@ public class DBIDRouter implements DocRouter
         }
 
         //Route the node based on nodeId
+        return RoutingKeys.routeByHash(node.getId(), shardCount, shardInstance);
+    }
 
-        String s = Long.toString(node.getId());
-        return (Math.abs(Hash.murmurhash3_x86_32(s, 0, s.length(), 77)) % shardCount) == shardInstance;
+    @Override
+    public BitSet routeNodes(int shardCount, int shardInstance, List<Node> nodes) {
+        BitSet owned = new BitSet(nodes.size());
+        if(shardCount <= 1) {
+            owned.set(0, nodes.size());
+            return owned;
+        }
+
+        for(int i = 0; i < nodes.size(); i++) {
+            if(RoutingKeys.routeByHash(nodes.get(i).getId(), shardCount, shardInstance)) {
+                owned.set(i);
+            }
+        }
+        return owned;
     }
 }
\ No newline at end of file
@@ -18,15 +18,12 @@
  */
 package org.alfresco.solr.tracker;
 
-import org.alfresco.util.ISO8601DateFormat;
-import org.apache.solr.common.util.Hash;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 /*
 * @author Joel
@@ -38,6 +35,7 @@ public class DateMonthRouter implements DocRouter
 
     DBIDRouter dbidRouter = new DBIDRouter();
     private final int grouping;
+    private final TimeZone timeZone = TimeZone.getDefault();
 
     /**
      * Creates a date month router
@@ -69,12 +67,7 @@ public class DateMonthRouter implements DocRouter
             return dbidRouter.routeNode(numShards, shardInstance, node);
         }
 
-        Date date = ISO8601DateFormat.parse(ISO8601Date);
-        GregorianCalendar cal = new GregorianCalendar();
-        cal.setTime(date);
-        int month = cal.get(cal.MONTH);
-        int year  = cal.get(cal.YEAR);
-        return ((((year * 12) + month)/grouping) % numShards) == shardInstance;
+        return ((RoutingKeys.yearMonth(ISO8601Date, timeZone)/grouping) % numShards) == shardInstance;
 
     }
 }
\ No newline at end of file
@@ -18,12 +18,9 @@
  */
 package org.alfresco.solr.tracker;
 
-import org.alfresco.util.ISO8601DateFormat;
-import org.apache.solr.common.util.Hash;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
-import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 /*
 * @author Joel
@@ -31,6 +28,8 @@ import java.util.GregorianCalendar;
 
 public class DateQuarterRouter implements DocRouter
 {
+    private final TimeZone timeZone = TimeZone.getDefault();
+
     public boolean routeAcl(int numShards, int shardInstance, Acl acl) {
         return true;
     }
@@ -41,12 +40,6 @@ public class DateQuarterRouter implements DocRouter
         }
 
         String ISO8601Date = node.getShardPropertyValue();
-        //TODO: we can parse the string to make this more efficient rather then creating a calendar.
-        Date date = ISO8601DateFormat.parse(ISO8601Date);
-        GregorianCalendar cal = new GregorianCalendar();
-        cal.setTime(date);
-        int month = cal.get(cal.MONTH);
-        int year  = cal.get(cal.YEAR);
-        return Math.ceil(((year * 12) + (month+1)) / 3) % numShards == shardInstance;
+        return Math.ceil((RoutingKeys.yearMonth(ISO8601Date, timeZone) + 1) / 3) % numShards == shardInstance;
     }
 }
\ No newline at end of file
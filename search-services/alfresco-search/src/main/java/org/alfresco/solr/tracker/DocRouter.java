@@ -18,6 +18,8 @@
  */
 package org.alfresco.solr.tracker;
 
+import java.util.BitSet;
+import java.util.List;
 
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Acl;
@@ -30,4 +32,22 @@ public interface DocRouter
 {
     public boolean routeAcl(int shardCount, int shardInstance, Acl acl);
     public boolean routeNode(int shardCount, int shardInstance, Node node);
+
+    /**
+     * Routes a batch of nodes, as {@link #routeNode(int, int, Node)} would route each of them.
+     *
+     * @return the positions in the list of the nodes the shard owns; the clear bits are the nodes it does not
+     */
+    public default BitSet routeNodes(int shardCount, int shardInstance, List<Node> nodes)
+    {
+        BitSet owned = new BitSet(nodes.size());
+        for (int i = 0; i < nodes.size(); i++)
+        {
+            if (routeNode(shardCount, shardInstance, nodes.get(i)))
+            {
+                owned.set(i);
+            }
+        }
+        return owned;
+    }
 }
\ No newline at end of file
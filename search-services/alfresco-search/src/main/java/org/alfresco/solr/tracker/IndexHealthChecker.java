@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import org.alfresco.httpclient.AuthenticationException;
+import org.alfresco.solr.adapters.IOpenBitSet;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the transaction (or ACL change set) ids in the repository with those in the index.
+ * <p>
+ * The id space is split into ranges no larger than one repository page, so every range is a single
+ * call and no paging by commit time is needed. Ranges are fetched concurrently and each one is compared
+ * against the ids scanned from the index as soon as it arrives, so problems can be acted on while the
+ * rest of the check is still running. All checkers share one executor, sized by the largest alfresco.health.threads
+ * seen, whose idle threads time out.
+ * 
+ * @author Andy
+ */
+public class IndexHealthChecker
+{
+    protected final static Logger log = LoggerFactory.getLogger(IndexHealthChecker.class);
+
+    /**
+     * Fetches the repository ids in [fromId, toId).
+     */
+    @FunctionalInterface
+    public interface IdRangeSource
+    {
+        List<Long> getIds(long fromId, long toId, int maxResults) throws AuthenticationException, IOException, JSONException;
+    }
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread thread = new Thread(r, "IndexHealthChecker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+    static
+    {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final int rangeSize;
+
+    public IndexHealthChecker(Properties p)
+    {
+        this(Integer.parseInt(p.getProperty("alfresco.health.threads", "4")),
+             Integer.parseInt(p.getProperty("alfresco.health.rangeSize", "2000")));
+    }
+
+    public IndexHealthChecker(int threads, int rangeSize)
+    {
+        this.rangeSize = Math.max(1, rangeSize);
+        synchronized (EXECUTOR)
+        {
+            if (threads > EXECUTOR.getMaximumPoolSize())
+            {
+                EXECUTOR.setMaximumPoolSize(threads);
+                EXECUTOR.setCorePoolSize(threads);
+            }
+        }
+    }
+
+    public int getRangeSize()
+    {
+        return rangeSize;
+    }
+
+    /**
+     * @param minId the first id to check
+     * @param maxId the last id to check
+     * @param source the repository ids
+     * @param idsInIndex the ids found in the index
+     * @param duplicatesInIndex the ids found more than once in the index
+     * @param idsInDb receives the repository ids
+     * @param onProblem receives each id that is missing, duplicated or not in the repository, may be null
+     * @return the highest id below which no problem was found
+     */
+    public long check(long minId, long maxId, IdRangeSource source, IOpenBitSet idsInIndex, IOpenBitSet duplicatesInIndex,
+                      IOpenBitSet idsInDb, LongConsumer onProblem) throws AuthenticationException, IOException, JSONException
+    {
+        if (minId > maxId)
+        {
+            return maxId;
+        }
+
+        long start = System.currentTimeMillis();
+        long firstProblem = Long.MAX_VALUE;
+        List<Future<Range>> ranges = new ArrayList<>();
+        try
+        {
+            CompletionService<Range> completionService = new ExecutorCompletionService<>(EXECUTOR);
+            for (long fromId = minId; fromId <= maxId; fromId += rangeSize)
+            {
+                final long from = fromId;
+                final long to = Math.min(fromId + rangeSize, maxId + 1);
+                ranges.add(completionService.submit(() -> new Range(from, to, source.getIds(from, to, rangeSize))));
+            }
+
+            for (int i = 0; i < ranges.size(); i++)
+            {
+                Range range = take(completionService);
+                for (Long id : range.ids)
+                {
+                    if (id >= range.from && id < range.to)
+                    {
+                        idsInDb.set(id);
+                    }
+                }
+                for (long id = range.from; id < range.to; id++)
+                {
+                    boolean inDb = idsInDb.get(id);
+                    boolean inIndex = idsInIndex.get(id);
+                    if (inDb != inIndex || (inIndex && duplicatesInIndex.get(id)))
+                    {
+                        firstProblem = Math.min(firstProblem, id);
+                        if (onProblem != null)
+                        {
+                            onProblem.accept(id);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            // Nothing left to do if the check completed, otherwise stop the fetches still queued
+            for (Future<Range> range : ranges)
+            {
+                range.cancel(true);
+            }
+        }
+
+        log.info("Checked ids " + minId + " to " + maxId + " in " + (System.currentTimeMillis() - start) + " ms");
+        return firstProblem == Long.MAX_VALUE ? maxId : firstProblem - 1;
+    }
+
+    private Range take(CompletionService<Range> completionService) throws AuthenticationException, IOException, JSONException
+    {
+        try
+        {
+            return completionService.take().get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted checking the index", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof AuthenticationException)
+            {
+                throw (AuthenticationException) cause;
+            }
+            else if (cause instanceof JSONException)
+            {
+                throw (JSONException) cause;
+            }
+            else if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static class Range
+    {
+        final long from;
+        final long to;
+        final List<Long> ids;
+
+        Range(long from, long to, List<Long> ids)
+        {
+            this.from = from;
+            this.to = to;
+            this.ids = ids;
+        }
+    }
+}
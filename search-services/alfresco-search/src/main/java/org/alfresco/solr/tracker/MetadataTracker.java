@@ -20,11 +20,13 @@ package org.alfresco.solr.tracker;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongConsumer;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.httpclient.AuthenticationException;
@@ -48,6 +50,7 @@ import org.alfresco.solr.client.GetNodesParameters;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Node.SolrApiNodeStatus;
 import org.alfresco.solr.client.SOLRAPIClient;
+import org.alfresco.solr.client.SharedChangeFeed;
 import org.alfresco.solr.client.Transaction;
 import org.alfresco.solr.client.Transactions;
 import org.apache.commons.codec.EncoderException;
@@ -67,8 +70,15 @@ public class MetadataTracker extends AbstractTracker implements Tracker
     protected final static Logger log = LoggerFactory.getLogger(MetadataTracker.class);
     private static final int DEFAULT_TRANSACTION_DOCS_BATCH_SIZE = 100;
     private static final int DEFAULT_NODE_BATCH_SIZE = 10;
+    private static final String HEALTH_CHECKPOINT = "tx";
+    private static final String HEALTH_CHECKPOINT_COMMIT_TIME = "tx.commitTime";
+    private static final int DEFAULT_MAX_PENDING_REINDEX_BATCHES = 32;
     private int transactionDocsBatchSize = DEFAULT_TRANSACTION_DOCS_BATCH_SIZE;
     private int nodeBatchSize = DEFAULT_NODE_BATCH_SIZE;
+    private int maxPendingReindexBatches = DEFAULT_MAX_PENDING_REINDEX_BATCHES;
+    private volatile ReindexProgress reindexProgress;
+    private AdaptiveBatchController batchController = new AdaptiveBatchController(new Properties(), DEFAULT_NODE_BATCH_SIZE);
+    private IndexHealthChecker healthChecker = new IndexHealthChecker(new Properties());
     private ConcurrentLinkedQueue<Long> transactionsToReindex = new ConcurrentLinkedQueue<Long>();
     private ConcurrentLinkedQueue<Long> transactionsToIndex = new ConcurrentLinkedQueue<Long>();
     private ConcurrentLinkedQueue<Long> transactionsToPurge = new ConcurrentLinkedQueue<Long>();
@@ -78,6 +88,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
     private ConcurrentLinkedQueue<String> queriesToReindex = new ConcurrentLinkedQueue<String>();
     private DocRouter docRouter;
     private QName shardProperty;
+    private boolean routingPushdownSuspended;
 
     public MetadataTracker(Properties p, SOLRAPIClient client, String coreName,
                 InformationServer informationServer)
@@ -92,6 +103,9 @@ public class MetadataTracker extends AbstractTracker implements Tracker
 
         docRouter = DocRouterFactory.getRouter(p, ShardMethodEnum.getShardMethod(shardMethod));
         nodeBatchSize = Integer.parseInt(p.getProperty("alfresco.nodeBatchSize", "10"));
+        maxPendingReindexBatches = Integer.parseInt(p.getProperty("alfresco.reindexByQuery.maxPendingBatches", "32"));
+        batchController = new AdaptiveBatchController(p, nodeBatchSize);
+        healthChecker = new IndexHealthChecker(p);
         threadHandler = new ThreadHandler(p, coreName, "MetadataTracker");
     }
     
@@ -104,6 +118,29 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         return this.docRouter;
     }
 
+    /**
+     * @return how nodes are routed to this shard, with the current range of a DBID range shard and whether
+     *         its end can still be expanded
+     */
+    public ShardRouting getShardRouting()
+    {
+        long rangeStart = -1;
+        long rangeEnd = -1;
+        boolean rangeFixed = false;
+        if (docRouter instanceof DBIDRangeRouter)
+        {
+            DBIDRangeRouter rangeRouter = (DBIDRangeRouter) docRouter;
+            // The end is moved before the range is marked expanded, so read them the other way round
+            rangeFixed = rangeRouter.getInitialized() && rangeRouter.getExpanded();
+            rangeStart = rangeRouter.getStartRange();
+            rangeEnd = rangeRouter.getEndRange();
+        }
+        int dateGrouping = Integer.parseInt(props.getProperty("shard.date.grouping", "1"));
+        return new ShardRouting(ShardMethodEnum.getShardMethod(shardMethod), shardInstance, shardCount,
+                    rangeStart, rangeEnd, rangeFixed, dateGrouping, props.getProperty("shard.regex"),
+                    shardProperty == null ? null : shardProperty.toString());
+    }
+
     @Override
     protected void doTrack() throws AuthenticationException, IOException, JSONException, EncoderException
     {
@@ -182,9 +219,10 @@ public class MetadataTracker extends AbstractTracker implements Tracker
             long endRange = dbidRangeRouter.getEndRange();
             assert(indexCap == -1 || indexCap >= endRange);
 
-            if(indexCap > endRange) {
-                dbidRangeRouter.setExpanded(true);
+            // A cap at the end of the range was left by a split, which fixes the end like an expansion does
+            if(indexCap != -1 && indexCap >= endRange) {
                 dbidRangeRouter.setEndRange(indexCap);
+                dbidRangeRouter.setExpanded(true);
             }
 
             dbidRangeRouter.setInitialized(true);
@@ -528,7 +566,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
             String query = queriesToReindex.poll();
             if (query != null)
             {
-                this.infoSrv.reindexNodeByQuery(query);
+                reindexNodesByQuery(query);
                 requiresCommit = true;
             }
             checkShutdown();
@@ -542,6 +580,43 @@ public class MetadataTracker extends AbstractTracker implements Tracker
     }
 
 
+    private void reindexNodesByQuery(String query) throws IOException
+    {
+        ReindexProgress progress = new ReindexProgress(query);
+        reindexProgress = progress;
+        this.infoSrv.streamNodesByQuery(query, nodeBatchSize, progress, nodes -> {
+            // Back pressure: do not read ahead of the workers
+            waitForPendingBatches(maxPendingReindexBatches);
+            this.threadHandler.scheduleTask(new NodeReindexWorkerRunnable(this.threadHandler, nodes, this.infoSrv, progress));
+        });
+        waitForAsynchronous();
+        progress.setFinished();
+        log.info("Reindexed " + progress.getDone() + " nodes for query " + query);
+    }
+
+    private synchronized void waitForPendingBatches(int maxPending)
+    {
+        while (this.threadHandler.getQueueSize() >= maxPending)
+        {
+            checkShutdown();
+            try
+            {
+                wait(100);
+            }
+            catch (InterruptedException e)
+            {
+            }
+        }
+    }
+
+    /**
+     * @return the progress of the current or last reindex by query, or null if there has not been one
+     */
+    public ReindexProgress getReindexProgress()
+    {
+        return reindexProgress;
+    }
+
     private void purgeTransactions() throws IOException, AuthenticationException, JSONException
     {
         boolean requiresCommit = false;
@@ -635,8 +710,11 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         }
         do
         {
+            long start = System.currentTimeMillis();
             transactions = client.getTransactions(startTime, null, startTime + actualTimeStep, null, maxResults, shardstate);
+            batchController.fetched(transactions.getTransactions().size(), maxResults, System.currentTimeMillis() - start);
             startTime += actualTimeStep;
+            actualTimeStep = batchController.nextTimeStep(actualTimeStep);
 
         } while (((transactions.getTransactions().size() == 0) && (startTime < endTime))
                     || ((transactions.getTransactions().size() > 0) && alreadyFoundTransactions(txnsFound, transactions)));
@@ -701,8 +779,8 @@ public class MetadataTracker extends AbstractTracker implements Tracker
                 log.debug("======= fromCommitTime: " + fromCommitTime);
 
                 log.debug("#### Get txn from commit time: " + fromCommitTime);
-                transactions = getSomeTransactions(txnsFound, fromCommitTime, TIME_STEP_1_HR_IN_MS, 2000,
-                                                   state.getTimeToStopIndexing());
+                transactions = getSomeTransactions(txnsFound, fromCommitTime, batchController.getTimeStep(),
+                                                   batchController.getMaxResults(), state.getTimeToStopIndexing());
 
                 setLastTxCommitTimeAndTxIdInTrackerState(transactions, state);
 
@@ -831,9 +909,9 @@ public class MetadataTracker extends AbstractTracker implements Tracker
                 throws IOException
     {
         waitForAsynchronous();
+        super.infoSrv.indexTransactions(new ArrayList<>(txsIndexed), true);
         for (Transaction tx : txsIndexed)
         {
-            super.infoSrv.indexTransaction(tx, true);
             // Transactions are ordered by commit time and tie-broken by tx id
             if (tx.getCommitTimeMs() > state.getLastIndexedTxCommitTime()
                     || tx.getCommitTimeMs() == state.getLastIndexedTxCommitTime()
@@ -877,7 +955,10 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         gnp.setStoreProtocol(storeRef.getProtocol());
         gnp.setStoreIdentifier(storeRef.getIdentifier());
         gnp.setShardProperty(shardProperty);
+        setRoutingParameters(gnp);
         List<Node> nodes = client.getNodes(gnp, Integer.MAX_VALUE);
+        batchController.indexed(nodes.size(), nonEmptyTxs.size());
+        int batchSize = batchController.getBatchSize();
         
         ArrayList<Node> nodeBatch = new ArrayList<>();
         for (Node node : nodes)
@@ -887,7 +968,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
                 log.debug(node.toString());
             }
             nodeBatch.add(node);
-            if (nodeBatch.size() > nodeBatchSize)
+            if (nodeBatch.size() > batchSize)
             {
                 nodeCount += nodeBatch.size();
                 NodeIndexWorkerRunnable niwr = new NodeIndexWorkerRunnable(this.threadHandler, nodeBatch, this.infoSrv);
@@ -903,9 +984,113 @@ public class MetadataTracker extends AbstractTracker implements Tracker
             this.threadHandler.scheduleTask(niwr);
             nodeBatch = new ArrayList<>();
         }
+        batchController.queueDepth(this.threadHandler.getQueueSize());
+        if (log.isDebugEnabled())
+        {
+            log.debug(batchController.toString());
+        }
         return nodeCount;
     }
 
+    /**
+     * Push routing down to the repository for the shard methods it can evaluate from the node row
+     * alone (DBID, DBID range and ACL id), so nodes owned by other shards come back as bare
+     * non-shard entries. Property and date routing still need the full node and stay client side.
+     * <p>
+     * Pushdown is suspended while several cores share the repository change feed: the request takes a
+     * single shard instance or range, which cannot express the union of the sharing cores' shards, so
+     * the unrouted page is fetched once for all of them and each core routes it client side.
+     */
+    private void setRoutingParameters(GetNodesParameters gnp)
+    {
+        boolean pushdown = docRouter instanceof DBIDRangeRouter || (shardCount > 1 && (docRouter instanceof DBIDRouter
+                || docRouter instanceof ACLIDMurmurRouter || docRouter instanceof ACLIDModRouter));
+        if (!pushdown)
+        {
+            return;
+        }
+        SharedChangeFeed changeFeed = client.getChangeFeed();
+        boolean shared = changeFeed != null && changeFeed.isEnabled() && changeFeed.getCoreCount() > 1;
+        if (shared != routingPushdownSuspended)
+        {
+            routingPushdownSuspended = shared;
+            if (shared)
+            {
+                log.info("Routing pushdown for " + coreName + " is suspended while " + changeFeed.getCoreCount()
+                        + " cores share the change feed, nodes for other shards are filtered client side");
+            }
+            else
+            {
+                log.info("Routing pushdown for " + coreName + " is resumed");
+            }
+        }
+        if (shared)
+        {
+            return;
+        }
+
+        ShardMethodEnum method;
+        if (docRouter instanceof DBIDRangeRouter)
+        {
+            DBIDRangeRouter dbidRangeRouter = (DBIDRangeRouter) docRouter;
+            gnp.setShardDbIdRangeStart(dbidRangeRouter.getStartRange());
+            gnp.setShardDbIdRangeEnd(dbidRangeRouter.getEndRange());
+            method = ShardMethodEnum.DB_ID_RANGE;
+        }
+        else if (shardCount <= 1)
+        {
+            return;
+        }
+        else if (docRouter instanceof DBIDRouter)
+        {
+            method = ShardMethodEnum.DB_ID;
+        }
+        else if (docRouter instanceof ACLIDMurmurRouter)
+        {
+            method = ShardMethodEnum.ACL_ID;
+        }
+        else if (docRouter instanceof ACLIDModRouter)
+        {
+            method = ShardMethodEnum.MOD_ACL_ID;
+        }
+        else
+        {
+            return;
+        }
+        gnp.setShardMethod(method.name());
+        gnp.setShardCount(shardCount);
+        gnp.setShardInstance(shardInstance);
+    }
+
+    class NodeReindexWorkerRunnable extends AbstractWorkerRunnable
+    {
+        InformationServer infoServer;
+        List<Node> nodes;
+        ReindexProgress progress;
+
+        NodeReindexWorkerRunnable(QueueHandler queueHandler, List<Node> nodes, InformationServer infoServer, ReindexProgress progress)
+        {
+            super(queueHandler);
+            this.infoServer = infoServer;
+            this.nodes = nodes;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void doWork() throws IOException, AuthenticationException, JSONException
+        {
+            // The nodes came from this index, so they do not need routing
+            this.infoServer.indexNodes(nodes, true, true);
+            progress.addDone(nodes.size());
+        }
+
+        @Override
+        protected void onFail()
+        {
+            setRollback(true);
+        }
+    }
+
     class NodeIndexWorkerRunnable extends AbstractWorkerRunnable
     {
         InformationServer infoServer;
@@ -937,10 +1122,17 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         private List<Node> filterNodes(List<Node> nodes)
         {
             ArrayList<Node> filteredList = new ArrayList<Node>(nodes.size());
-            for(Node node : nodes)
+            BitSet owned = docRouter.routeNodes(shardCount, shardInstance, nodes);
+            for(int i = 0; i < nodes.size(); i++)
             {
-
-                if(docRouter.routeNode(shardCount, shardInstance, node))
+                Node node = nodes.get(i);
+                if(node.getStatus() == SolrApiNodeStatus.NON_SHARD_UPDATED
+                        || node.getStatus() == SolrApiNodeStatus.NON_SHARD_DELETED)
+                {
+                    // Already routed away by the repository
+                    filteredList.add(node);
+                }
+                else if(owned.get(i))
                 {
                     filteredList.add(node);
                 }
@@ -1068,6 +1260,109 @@ public class MetadataTracker extends AbstractTracker implements Tracker
 
     public IndexHealthReport checkIndex(Long toTx, Long toAclTx, Long fromTime, Long toTime)
                 throws IOException, AuthenticationException, JSONException, EncoderException
+    {
+        if (fromTime == null && toTime == null)
+        {
+            return checkIndexByIdRange(toTx, false, null);
+        }
+        return checkIndexByCommitTime(toTx, fromTime, toTime);
+    }
+
+    /**
+     * Checks the transactions in the index against the repository by id range, fetching the ranges concurrently.
+     *
+     * @param toTx the last transaction to check, or null for all of them
+     * @param incremental only check the transactions after the checkpoint left by the last fix, and those committed since
+     * @param onProblem receives each missing, duplicated or unknown transaction id as soon as it is found. A fix passes
+     *        one and moves the checkpoint on, a report passes null and leaves the checkpoint alone.
+     */
+    public IndexHealthReport checkIndexByIdRange(Long toTx, boolean incremental, LongConsumer onProblem)
+                throws IOException, AuthenticationException, JSONException, EncoderException
+    {
+        // Health checks read the repository directly, shared pages may be stale and would only crowd the feed
+        Transactions firstTransactions = client.getTransactionsUnshared(null, 0L, null, Long.MAX_VALUE, 1);
+        if (firstTransactions.getMaxTxnId() == null)
+        {
+            // Older repositories do not report the last transaction id
+            return checkIndexByCommitTime(toTx, null, null);
+        }
+        IOpenBitSet txIdsInDb = infoSrv.getOpenBitSetInstance();
+        if (firstTransactions.getTransactions().isEmpty())
+        {
+            return this.infoSrv.reportIndexTransactions(null, txIdsInDb, 0);
+        }
+
+        long firstTxId = firstTransactions.getTransactions().get(0).getId();
+        long minTxId = firstTxId;
+        long maxTxId = firstTransactions.getMaxTxnId();
+        if (toTx != null)
+        {
+            maxTxId = Math.min(maxTxId, toTx);
+        }
+        Transaction maxInIndex = infoSrv.getMaxTransactionIdAndCommitTimeInIndex();
+        if (incremental)
+        {
+            // The checkpoint is only trusted as far as this index goes, in case it has been rebuilt since
+            long checkpoint = Math.min(infoSrv.getHealthCheckpoint(HEALTH_CHECKPOINT), maxInIndex.getId());
+            minTxId = Math.max(minTxId, checkpoint + 1);
+            // Transactions below the checkpoint may have committed after it was taken
+            long checkpointTime = infoSrv.getHealthCheckpoint(HEALTH_CHECKPOINT_COMMIT_TIME);
+            minTxId = Math.min(minTxId, getMinTransactionIdCommittedSince(checkpointTime - infoSrv.getHoleRetention(), firstTxId));
+        }
+
+        IOpenBitSet txIdsInIndex = infoSrv.getOpenBitSetInstance();
+        IOpenBitSet duplicatedTxIdsInIndex = infoSrv.getOpenBitSetInstance();
+        infoSrv.collectTransactionIdsInIndex(txIdsInIndex, duplicatedTxIdsInIndex);
+        long checkpoint = healthChecker.check(minTxId, maxTxId, this::getTransactionIds, txIdsInIndex,
+                                              duplicatedTxIdsInIndex, txIdsInDb, onProblem);
+        if (onProblem != null)
+        {
+            infoSrv.setHealthCheckpoint(HEALTH_CHECKPOINT, checkpoint);
+            infoSrv.setHealthCheckpoint(HEALTH_CHECKPOINT_COMMIT_TIME, maxInIndex.getCommitTimeMs());
+        }
+
+        return this.infoSrv.reportIndexTransactions(minTxId, txIdsInDb, maxTxId, txIdsInIndex, duplicatedTxIdsInIndex);
+    }
+
+    /**
+     * @return the lowest id of the transactions committed since the given time, or the first transaction id if there
+     *         are too many to fetch in one page
+     */
+    private long getMinTransactionIdCommittedSince(long fromCommitTime, long firstTxId)
+                throws AuthenticationException, IOException, JSONException
+    {
+        if (fromCommitTime < 0)
+        {
+            return firstTxId;
+        }
+        int pageSize = healthChecker.getRangeSize();
+        List<Transaction> transactions = client.getTransactionsUnshared(fromCommitTime, null, null, null, pageSize).getTransactions();
+        if (transactions.size() >= pageSize)
+        {
+            return firstTxId;
+        }
+        long minTxId = Long.MAX_VALUE;
+        for (Transaction transaction : transactions)
+        {
+            minTxId = Math.min(minTxId, transaction.getId());
+        }
+        return minTxId;
+    }
+
+    private List<Long> getTransactionIds(long fromTxId, long toTxId, int maxResults)
+                throws AuthenticationException, IOException, JSONException
+    {
+        List<Transaction> transactions = client.getTransactionsUnshared(null, fromTxId, null, toTxId, maxResults).getTransactions();
+        List<Long> ids = new ArrayList<>(transactions.size());
+        for (Transaction transaction : transactions)
+        {
+            ids.add(transaction.getId());
+        }
+        return ids;
+    }
+
+    private IndexHealthReport checkIndexByCommitTime(Long toTx, Long fromTime, Long toTime)
+                throws IOException, AuthenticationException, JSONException, EncoderException
     {
         // DB TX Count
         long firstTransactionCommitTime = 0;
@@ -1166,6 +1461,14 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         infoSrv.clearProcessedTransactions();
     }
 
+    @Override
+    public void shutdown()
+    {
+        super.shutdown();
+        // The core no longer shares the change feed with the other cores on this node
+        client.unregisterShard(getShardState());
+    }
+
     /**
      * @param query
      */
@@ -39,6 +39,9 @@ public class PropertyRouter implements DocRouter
 
     Pattern pattern = null;
 
+    // Matchers are reset for each node rather than created, one per tracker thread
+    private final ThreadLocal<Matcher> matchers = new ThreadLocal<>();
+
     //Fallback to DB_ID routing
     private DocRouter fallback = DocRouterFactory.getRouter(null, ShardMethodEnum.DB_ID);
 
@@ -64,7 +67,58 @@ public class PropertyRouter implements DocRouter
             return true;
         }
         String shardBy = node.getShardPropertyValue();
+        int start = 0;
+        int end = shardBy == null ? 0 : shardBy.length();
+
+        if (shardBy != null && pattern != null)
+        {
+            // Hash the matched group where it is, rather than a copy of it
+            Matcher matcher = getMatcher(shardBy);
+            try
+            {
+                if (matcher.find() && matcher.start(1) >= 0)
+                {
+                    start = matcher.start(1);
+                    end = matcher.end(1);
+                }
+                else
+                {
+                    end = start;
+                }
+            }
+            catch (IndexOutOfBoundsException exc)
+            {
+                log.debug("Regex matched, but group 1 not found, so falling back to DBID sharding.");
+                end = start;
+            }
+        }
+
+        if (end == start)
+        {
+            log.debug("Property not found or regex not matched, so falling back to DBID sharding.");
+            return fallback.routeNode(shardCount,shardInstance,node);
+        }
+
+        return (Math.abs(Hash.murmurhash3_x86_32(shardBy, start, end - start, 66)) % shardCount) == shardInstance;
+    }
 
+    private Matcher getMatcher(String shardBy)
+    {
+        Matcher matcher = matchers.get();
+        if (matcher == null)
+        {
+            matcher = pattern.matcher(shardBy);
+            matchers.set(matcher);
+            return matcher;
+        }
+        return matcher.reset(shardBy);
+    }
+
+    /**
+     * @return the part of the property value the shard is chosen by, or null if the node falls back to DBID routing
+     */
+    public String getShardBy(String shardBy)
+    {
         if (shardBy !=null && pattern != null)
         {
             try
@@ -86,13 +140,6 @@ public class PropertyRouter implements DocRouter
                 shardBy = null;
             }
         }
-
-        if (shardBy == null || shardBy.isEmpty())
-        {
-            log.debug("Property not found or regex not matched, so falling back to DBID sharding.");
-            return fallback.routeNode(shardCount,shardInstance,node);
-        }
-
-        return (Math.abs(Hash.murmurhash3_x86_32(shardBy, 0, shardBy.length(), 66)) % shardCount) == shardInstance;
+        return shardBy;
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.service.cmr.repository.datatype.Duration;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Progress of a reindex by query, shared between the tracker thread that streams the matching nodes and the workers
+ * that index them.
+ * 
+ * @author Andy
+ */
+public class ReindexProgress
+{
+    private final String query;
+
+    private final long started = System.currentTimeMillis();
+
+    private volatile long total = -1;
+
+    private final AtomicLong done = new AtomicLong();
+
+    private volatile long finished = -1;
+
+    public ReindexProgress(String query)
+    {
+        this.query = query;
+    }
+
+    public String getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * @return the number of matching nodes, or -1 if the query has not been run yet
+     */
+    public long getTotal()
+    {
+        return total;
+    }
+
+    public void setTotal(long total)
+    {
+        this.total = total;
+    }
+
+    public long getDone()
+    {
+        return done.get();
+    }
+
+    public void addDone(int count)
+    {
+        done.addAndGet(count);
+    }
+
+    public boolean isFinished()
+    {
+        return finished != -1;
+    }
+
+    public void setFinished()
+    {
+        finished = System.currentTimeMillis();
+    }
+
+    /**
+     * @return nodes reindexed per second
+     */
+    public double getRate()
+    {
+        long end = isFinished() ? finished : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - started);
+        return getDone() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return the estimated time to finish in ms, or -1 if unknown
+     */
+    public long getRemainingMs()
+    {
+        if (isFinished())
+        {
+            return 0;
+        }
+        double rate = getRate();
+        if (total < 0 || rate <= 0)
+        {
+            return -1;
+        }
+        return (long) (Math.max(0, total - getDone()) * 1000 / rate);
+    }
+
+    public NamedList<Object> getNamedList()
+    {
+        NamedList<Object> progress = new SimpleOrderedMap<Object>();
+        progress.add("Query", query);
+        progress.add("Nodes", total);
+        progress.add("Nodes reindexed", getDone());
+        progress.add("Nodes/s", Math.round(getRate() * 100) / 100.0);
+        progress.add("Finished", isFinished());
+        long remaining = getRemainingMs();
+        if (remaining >= 0)
+        {
+            Date now = new Date();
+            progress.add("Approx time remaining", new Duration(now, new Date(now.getTime() + remaining)).largestComponentformattedString());
+        }
+        return progress;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.solr.common.util.Hash;
+
+/**
+ * Allocation free versions of the keys the {@link DocRouter}s route nodes by, which are computed for every node
+ * a shard tracks.
+ *
+ * @author Andy
+ */
+final class RoutingKeys
+{
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+    /** Dates before the Gregorian cutover are left to GregorianCalendar. */
+    private static final int FIRST_GREGORIAN_YEAR = 1583;
+
+    private RoutingKeys()
+    {
+    }
+
+    /**
+     * @return true if the murmur hash of the decimal form of the id picks the shard
+     */
+    static boolean routeByHash(long id, int shardCount, int shardInstance)
+    {
+        return (Math.abs(murmurhash3_x86_32(id, 77)) % shardCount) == shardInstance;
+    }
+
+    /**
+     * The same as <code>Hash.murmurhash3_x86_32(Long.toString(value), 0, length, seed)</code>, without
+     * creating the string. The digits are packed straight into the little endian blocks the hash consumes.
+     */
+    static int murmurhash3_x86_32(long value, int seed)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            String s = Long.toString(value);
+            return Hash.murmurhash3_x86_32(s, 0, s.length(), seed);
+        }
+
+        long remaining = Math.abs(value);
+        int length = (value < 0 ? 1 : 0) + digits(remaining);
+        int b0 = value < 0 ? '-' : 0;
+        int b1 = 0;
+        int b2 = 0;
+        int b3 = 0;
+        int b4 = 0;
+        int position = length;
+        do
+        {
+            position--;
+            int b = ('0' + (int) (remaining % 10)) << ((position & 3) << 3);
+            remaining /= 10;
+            switch (position >> 2)
+            {
+                case 0: b0 |= b; break;
+                case 1: b1 |= b; break;
+                case 2: b2 |= b; break;
+                case 3: b3 |= b; break;
+                default: b4 |= b; break;
+            }
+        }
+        while (remaining != 0);
+
+        int blocks = length >> 2;
+        int h1 = seed;
+        if (blocks > 0) h1 = mixBlock(h1, b0);
+        if (blocks > 1) h1 = mixBlock(h1, b1);
+        if (blocks > 2) h1 = mixBlock(h1, b2);
+        if (blocks > 3) h1 = mixBlock(h1, b3);
+        if (blocks > 4) h1 = mixBlock(h1, b4);
+        if ((length & 3) != 0)
+        {
+            int tail = blocks == 0 ? b0 : blocks == 1 ? b1 : blocks == 2 ? b2 : blocks == 3 ? b3 : b4;
+            h1 ^= mixK1(tail);
+        }
+
+        h1 ^= length;
+        h1 ^= h1 >>> 16;
+        h1 *= 0x85ebca6b;
+        h1 ^= h1 >>> 13;
+        h1 *= 0xc2b2ae35;
+        h1 ^= h1 >>> 16;
+        return h1;
+    }
+
+    private static int mixK1(int k1)
+    {
+        k1 *= 0xcc9e2d51;
+        k1 = Integer.rotateLeft(k1, 15);
+        return k1 * 0x1b873593;
+    }
+
+    private static int mixBlock(int h1, int k1)
+    {
+        h1 ^= mixK1(k1);
+        h1 = Integer.rotateLeft(h1, 13);
+        return h1 * 5 + 0xe6546b64;
+    }
+
+    private static int digits(long value)
+    {
+        int digits = 1;
+        for (long bound = 10; digits < 19 && value >= bound; bound *= 10)
+        {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * The year and month of an ISO8601 date, as <code>year * 12 + month</code> with a zero based month, in the
+     * given time zone. This is what parsing the date with {@link ISO8601DateFormat} and reading it through a
+     * {@link GregorianCalendar} in that zone gives. Dates in the form the repository sends,
+     * <code>yyyy-MM-ddTHH:mm:ss[.SSS](Z|+hh:mm|-hh:mm)</code>, are read in place; anything else is parsed.
+     */
+    static int yearMonth(String iso8601, TimeZone zone)
+    {
+        long utc = parseCanonical(iso8601);
+        if (utc != Long.MIN_VALUE)
+        {
+            long local = utc + zone.getOffset(utc);
+            long days = Math.floorDiv(local, MILLIS_PER_DAY);
+
+            // Civil from days, with years starting in March so leap days come last
+            long era = Math.floorDiv(days + 719468, 146097);
+            long dayOfEra = days + 719468 - era * 146097;
+            long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+            long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+            long shiftedMonth = (5 * dayOfYear + 2) / 153;
+            int month = (int) (shiftedMonth < 10 ? shiftedMonth + 2 : shiftedMonth - 10);
+            int year = (int) (yearOfEra + era * 400 + (month < 2 ? 1 : 0));
+            if (year >= FIRST_GREGORIAN_YEAR)
+            {
+                return year * 12 + month;
+            }
+        }
+
+        Date date = ISO8601DateFormat.parse(iso8601);
+        GregorianCalendar cal = new GregorianCalendar(zone);
+        cal.setTime(date);
+        return cal.get(GregorianCalendar.YEAR) * 12 + cal.get(GregorianCalendar.MONTH);
+    }
+
+    /**
+     * @return the UTC millis of a date in the canonical form, or Long.MIN_VALUE if it is not in that form
+     */
+    private static long parseCanonical(String s)
+    {
+        if (s == null || s.length() < 20
+                    || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                    || s.charAt(13) != ':' || s.charAt(16) != ':')
+        {
+            return Long.MIN_VALUE;
+        }
+        int year = number(s, 0, 4);
+        int month = number(s, 5, 2);
+        int day = number(s, 8, 2);
+        int hour = number(s, 11, 2);
+        int minute = number(s, 14, 2);
+        int second = number(s, 17, 2);
+        int millis = 0;
+        int zoneStart = 19;
+        if (s.charAt(19) == '.')
+        {
+            millis = s.length() < 24 ? -1 : number(s, 20, 3);
+            zoneStart = 23;
+        }
+        if (year < FIRST_GREGORIAN_YEAR || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                    || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0)
+        {
+            return Long.MIN_VALUE;
+        }
+
+        int offsetMinutes;
+        char sign = s.charAt(zoneStart);
+        if (sign == 'Z' && s.length() == zoneStart + 1)
+        {
+            offsetMinutes = 0;
+        }
+        else if ((sign == '+' || sign == '-') && s.length() == zoneStart + 6 && s.charAt(zoneStart + 3) == ':')
+        {
+            int offsetHours = number(s, zoneStart + 1, 2);
+            int offsetMins = number(s, zoneStart + 4, 2);
+            if (offsetHours < 0 || offsetHours > 23 || offsetMins < 0 || offsetMins > 59)
+            {
+                return Long.MIN_VALUE;
+            }
+            offsetMinutes = (sign == '-' ? -1 : 1) * (offsetHours * 60 + offsetMins);
+        }
+        else
+        {
+            return Long.MIN_VALUE;
+        }
+
+        // Days from civil
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+
+        return days * MILLIS_PER_DAY + ((hour * 60L + minute) * 60 + second) * 1000 + millis
+                    - offsetMinutes * 60 * 1000L;
+    }
+
+    /**
+     * @return the unsigned decimal number at the offset, or -1 if a character is not a digit
+     */
+    private static int number(String s, int offset, int length)
+    {
+        int n = 0;
+        for (int i = offset; i < offset + length; i++)
+        {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            n = n * 10 + (c - '0');
+        }
+        return n;
+    }
+
+    private static int daysInMonth(int year, int month)
+    {
+        switch (month)
+        {
+            case 2:
+                return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.GregorianCalendar;
+import java.util.Objects;
+import java.util.Properties;
+
+import org.alfresco.repo.index.shard.ShardMethodEnum;
+import org.alfresco.solr.client.Node;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * Describes how documents are routed to one shard, so that a coordinator can tell
+ * from a query whether the shard can possibly hold a match.
+ * <p>
+ * Each answer is conservative: anything the routing function cannot decide yields true.
+ *
+ * @author Andy
+ */
+public class ShardRouting
+{
+    /** Above this many ids a DBID range is not enumerated through a hashing router. */
+    static final int MAX_ENUMERATED_DBIDS = 256;
+
+    private final ShardMethodEnum method;
+    private final int instance;
+    private final int count;
+    private final long rangeStart;
+    private final long rangeEnd;
+    private final boolean rangeFixed;
+    private final int dateGrouping;
+    private final String regex;
+    private final String key;
+    private DocRouter docRouter;
+
+    /**
+     * @param method the shard method
+     * @param instance the shard instance
+     * @param count the number of shards
+     * @param rangeStart the first DBID of a DB_ID_RANGE shard, or -1
+     * @param rangeEnd the (exclusive) last DBID of a DB_ID_RANGE shard, or -1
+     * @param dateGrouping the months grouped together on a DATE shard
+     * @param regex the regex applied to the shard property, may be null
+     * @param key the shard property QName as a string, may be null
+     */
+    public ShardRouting(ShardMethodEnum method, int instance, int count, long rangeStart, long rangeEnd,
+                int dateGrouping, String regex, String key)
+    {
+        this(method, instance, count, rangeStart, rangeEnd, false, dateGrouping, regex, key);
+    }
+
+    /**
+     * @param rangeFixed true if the end of a DB_ID_RANGE shard can no longer grow, that is the range has been
+     *        expanded (or capped by a split). Until then only the start of the range is trusted.
+     */
+    public ShardRouting(ShardMethodEnum method, int instance, int count, long rangeStart, long rangeEnd,
+                boolean rangeFixed, int dateGrouping, String regex, String key)
+    {
+        this.method = method;
+        this.instance = instance;
+        this.count = count;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.rangeFixed = rangeFixed;
+        this.dateGrouping = dateGrouping < 1 ? 1 : dateGrouping;
+        this.regex = regex;
+        this.key = key;
+    }
+
+    private DocRouter getDocRouter()
+    {
+        if (docRouter == null)
+        {
+            docRouter = createDocRouter();
+        }
+        return docRouter;
+    }
+
+    private DocRouter createDocRouter()
+    {
+        Properties properties = new Properties();
+        properties.setProperty("shard.date.grouping", Integer.toString(dateGrouping));
+        properties.setProperty("shard.regex", regex == null ? "" : regex);
+        switch (method)
+        {
+            case DB_ID:
+            case DATE:
+            case PROPERTY:
+            case EXPLICIT_ID:
+                return DocRouterFactory.getRouter(properties, method);
+            default:
+                return null;
+        }
+    }
+
+    public ShardMethodEnum getMethod()
+    {
+        return method;
+    }
+
+    public int getInstance()
+    {
+        return instance;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return true if the given index field is built from the shard property
+     */
+    public boolean isShardKeyField(String field)
+    {
+        return key != null && field.endsWith("@" + key);
+    }
+
+    /**
+     * Can a node with this DBID be on the shard?
+     */
+    public boolean canHoldDbid(long dbid)
+    {
+        return canHoldDbids(dbid, dbid);
+    }
+
+    /**
+     * Can a node with a DBID between min and max (both inclusive) be on the shard?
+     */
+    public boolean canHoldDbids(long min, long max)
+    {
+        if (count <= 1 || min > max)
+        {
+            return count <= 1;
+        }
+        switch (method)
+        {
+            case DB_ID_RANGE:
+                if (rangeStart < 0 || rangeEnd < 0)
+                {
+                    return true;
+                }
+                // An expandable range may have grown since it was reported
+                return max >= rangeStart && (!rangeFixed || min < rangeEnd);
+            case DB_ID:
+                long span = max - min;
+                if (span < 0 || span >= MAX_ENUMERATED_DBIDS)
+                {
+                    return true;
+                }
+                Node node = new Node();
+                for (long i = 0; i <= span; i++)
+                {
+                    node.setId(min + i);
+                    if (getDocRouter().routeNode(count, instance, node))
+                    {
+                        return true;
+                    }
+                }
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Can a node whose shard property has this value be on the shard?
+     */
+    public boolean canHoldPropertyValue(String value)
+    {
+        if (count <= 1 || value == null || value.isEmpty())
+        {
+            return true;
+        }
+        switch (method)
+        {
+            case PROPERTY:
+            case EXPLICIT_ID:
+                // Routing by an unmatched regex or unparseable id falls back to the DBID, which we do not know
+                if (method == ShardMethodEnum.EXPLICIT_ID && !isInteger(value))
+                {
+                    return true;
+                }
+                if (method == ShardMethodEnum.PROPERTY && ((PropertyRouter) getDocRouter()).getShardBy(value) == null)
+                {
+                    return true;
+                }
+                Node node = new Node();
+                node.setShardPropertyValue(value);
+                return getDocRouter().routeNode(count, instance, node);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Can a node whose shard date lies between min and max (ms, both inclusive) be on the shard?
+     */
+    public boolean canHoldDates(long min, long max)
+    {
+        if (count <= 1 || method != ShardMethodEnum.DATE)
+        {
+            return true;
+        }
+        if (min > max)
+        {
+            return false;
+        }
+        if (min == Long.MIN_VALUE || max == Long.MAX_VALUE)
+        {
+            return true;
+        }
+        // Same calendar as the DateMonthRouter
+        GregorianCalendar cal = new GregorianCalendar();
+        cal.setTimeInMillis(min);
+        long first = (cal.get(GregorianCalendar.YEAR) * 12L) + cal.get(GregorianCalendar.MONTH);
+        cal.setTimeInMillis(max);
+        long last = (cal.get(GregorianCalendar.YEAR) * 12L) + cal.get(GregorianCalendar.MONTH);
+        if (last - first + 1 >= (long) dateGrouping * count)
+        {
+            return true;
+        }
+        for (long month = first; month <= last; month++)
+        {
+            if (((month / dateGrouping) % count) == instance)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isInteger(String value)
+    {
+        try
+        {
+            Integer.parseInt(value);
+            return true;
+        }
+        catch (NumberFormatException e)
+        {
+            return false;
+        }
+    }
+
+    public NamedList<Object> toNamedList()
+    {
+        NamedList<Object> list = new SimpleOrderedMap<>();
+        list.add("method", method.name());
+        list.add("instance", instance);
+        list.add("count", count);
+        list.add("rangeStart", rangeStart);
+        list.add("rangeEnd", rangeEnd);
+        list.add("rangeFixed", rangeFixed);
+        list.add("dateGrouping", dateGrouping);
+        if (regex != null)
+        {
+            list.add("regex", regex);
+        }
+        if (key != null)
+        {
+            list.add("key", key);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof ShardRouting))
+        {
+            return false;
+        }
+        ShardRouting that = (ShardRouting) o;
+        return method == that.method && instance == that.instance && count == that.count
+                    && rangeStart == that.rangeStart && rangeEnd == that.rangeEnd && rangeFixed == that.rangeFixed
+                    && dateGrouping == that.dateGrouping && Objects.equals(regex, that.regex)
+                    && Objects.equals(key, that.key);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(method, instance, count, rangeStart, rangeEnd, rangeFixed, dateGrouping, regex, key);
+    }
+
+    /**
+     * @return the routing read back from {@link #toNamedList()}, or null if it cannot be read
+     */
+    public static ShardRouting fromNamedList(NamedList<?> list)
+    {
+        try
+        {
+            ShardMethodEnum method = ShardMethodEnum.getShardMethod((String) list.get("method"));
+            return new ShardRouting(method,
+                        ((Number) list.get("instance")).intValue(),
+                        ((Number) list.get("count")).intValue(),
+                        ((Number) list.get("rangeStart")).longValue(),
+                        ((Number) list.get("rangeEnd")).longValue(),
+                        Boolean.TRUE.equals(list.get("rangeFixed")),
+                        ((Number) list.get("dateGrouping")).intValue(),
+                        (String) list.get("regex"),
+                        (String) list.get("key"));
+        }
+        catch (RuntimeException e)
+        {
+            return null;
+        }
+    }
+}
@@ -94,6 +94,22 @@ public class ThreadHandler implements QueueHandler
         }
     }
     
+    /**
+     * @return the number of scheduled tasks that have not finished
+     */
+    public int getQueueSize()
+    {
+        try
+        {
+            threadLock.readLock().lock();
+            return threadQueue.size();
+        }
+        finally
+        {
+            threadLock.readLock().unlock();
+        }
+    }
+
     public void shutDownThreadPool()
     { 
         if (threadPool != null)
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import java.net.URL;
+
+import org.alfresco.solr.tracker.TrackerStats.SimpleStats;
+import org.apache.lucene.analysis.minhash.ContextAccumulatingFilterFactory;
+import org.apache.lucene.analysis.minhash.ContextStore;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
+
+/**
+ * Exposes the {@link TrackerStats} of a core, and the size of its word {@link ContextStore}s, through the core info
+ * registry, and so through JMX when it is enabled.
+ * 
+ * @author Andy
+ */
+public class TrackerStatsInfoMBean implements SolrInfoMBean
+{
+    public static final String NAME = "alfrescoTrackerStats";
+
+    private final TrackerStats trackerStats;
+
+    private final SolrCore core;
+
+    public TrackerStatsInfoMBean(TrackerStats trackerStats, SolrCore core)
+    {
+        this.trackerStats = trackerStats;
+        this.core = core;
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return "1.0";
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Alfresco tracker indexing statistics";
+    }
+
+    @Override
+    public Category getCategory()
+    {
+        return Category.OTHER;
+    }
+
+    @Override
+    public String getSource()
+    {
+        return null;
+    }
+
+    @Override
+    public URL[] getDocs()
+    {
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public NamedList getStatistics()
+    {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        add(stats, "modelTime", trackerStats.getModelTimes());
+        add(stats, "aclTime", trackerStats.getAclTimes());
+        add(stats, "nodeTime", trackerStats.getNodeTimes());
+        add(stats, "docsPerTx", trackerStats.getTxDocs());
+        add(stats, "aclsPerChangeSet", trackerStats.getChangeSetAcls());
+        add(stats, "docTransformationTime", trackerStats.getDocTransformationTimes());
+        stats.add("nodeIndexingThreads", trackerStats.getNodeIndexingThreadCount());
+        stats.add("aclDocsPerSecond", trackerStats.getAclDocsPerSecond());
+
+        int words = 0;
+        long evictions = 0;
+        long ramBytes = 0;
+        for (ContextStore contextStore : ContextAccumulatingFilterFactory.getContextStores(core.getLatestSchema()))
+        {
+            words += contextStore.getWordCount();
+            evictions += contextStore.getEvictions();
+            ramBytes += contextStore.ramBytesUsed();
+        }
+        stats.add("contextStoreWords", words);
+        stats.add("contextStoreEvictions", evictions);
+        stats.add("contextStoreRamBytes", ramBytes);
+        return stats;
+    }
+
+    private void add(NamedList<Object> stats, String prefix, SimpleStats simpleStats)
+    {
+        stats.add(prefix + "Count", simpleStats.getN());
+        stats.add(prefix + "Mean", simpleStats.getMean());
+        stats.add(prefix + "Max", simpleStats.getMax());
+        stats.add(prefix + "P50", simpleStats.getPercentile(50));
+        stats.add(prefix + "P99", simpleStats.getPercentile(99));
+    }
+}
@@ -19,25 +19,29 @@
 package org.apache.lucene.analysis.minhash;
 
 import java.io.IOException;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.minhash.MinHashFilter.LongPair;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ContextAccumulatingFilter extends TokenFilter
 {   
+    protected final static Logger log = LoggerFactory.getLogger(ContextAccumulatingFilter.class);
 
     private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
     
-    private static  Map<String, Set<LongPair> > contexts = new ConcurrentHashMap<String, Set<LongPair> >(128);
+    private final ContextAccumulatingFilterFactory factory;
+
+    private final ContextStore contexts;
  
-    protected ContextAccumulatingFilter(TokenStream input)
+    protected ContextAccumulatingFilter(TokenStream input, ContextAccumulatingFilterFactory factory)
     {
         super(input);
+        this.factory = factory;
+        this.contexts = factory.getContextStore();
     }
   
 
@@ -80,16 +84,10 @@ public class ContextAccumulatingFilter extends TokenFilter
             String word = wordBuilder.toString();
             String context = contextBuilder.toString();
             
-            Set<LongPair> wordContexts = contexts.get(word);
-            if(wordContexts == null)
-            {
-                wordContexts = ConcurrentHashMap.<LongPair>newKeySet(128);
-                contexts.put(word, wordContexts);
-            }
             byte[] bytes = context.getBytes("UTF-16LE");
             LongPair contextHash = new LongPair();
             MinHashFilter.murmurhash3_x64_128(bytes, 0, bytes.length, 0, contextHash);
-            wordContexts.add(contextHash);
+            contexts.add(word, contextHash);
         }
         
         return incremented;
@@ -100,13 +98,11 @@ public class ContextAccumulatingFilter extends TokenFilter
     public void end() throws IOException
     {
         super.end();
-        long count = 0;
-        for(Set<LongPair> thing : contexts.values())
+        if(log.isDebugEnabled())
         {
-            count += thing.size();
+            log.debug(contexts.toString());
         }
-        
-        System.out.println("Words = "+contexts.size() + "     contexts = "+count);
+        factory.persistIfDue();
     } 
     
     
@@ -1,50 +1,221 @@
-/*
- * Copyright (C) 2005-2016 Alfresco Software Limited.
- *
- * This file is part of Alfresco
- *
- * Alfresco is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * Alfresco is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Lesser General Public License for more details.
- *
- * You should have received a copy of the GNU Lesser General Public License
- * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
- */
-package org.apache.lucene.analysis.minhash;
-
-import java.util.Map;
-
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.util.TokenFilterFactory;
-
-/**
- * @author Andy
- */
-public class ContextAccumulatingFilterFactory extends TokenFilterFactory
-{
-    /**
-     * @param args
-     */
-    public ContextAccumulatingFilterFactory(Map<String, String> args)
-    {
-        super(args);
-    }
-
-    /*
-     * (non-Javadoc)
-     * @see org.apache.lucene.analysis.util.TokenFilterFactory#create(org.apache.lucene.analysis.TokenStream)
-     */
-    @Override
-    public TokenStream create(TokenStream input)
-    {
-        ContextAccumulatingFilter filter = new ContextAccumulatingFilter(input);
-        return filter;
-    }
-
-}
+/*
+ * Copyright (C) 2005-2016 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.lucene.analysis.minhash;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.ResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.solr.analysis.TokenizerChain;
+import org.apache.solr.core.SolrResourceLoader;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates {@link ContextAccumulatingFilter}s that share one bounded {@link ContextStore}. The factory is created
+ * for each schema, so each core has its own store.
+ * <p>
+ * Arguments: maxWords (default 100000), maxContextsPerWord (default 64), storeFile (optional, the store is loaded
+ * from and saved to this file, relative paths are resolved against the core data directory) and persistIntervalMs
+ * (default 60000, the minimum time between saves). Saves write a snapshot of the store on a background thread.
+ * 
+ * @author Andy
+ */
+public class ContextAccumulatingFilterFactory extends TokenFilterFactory implements ResourceLoaderAware
+{
+    protected final static Logger log = LoggerFactory.getLogger(ContextAccumulatingFilterFactory.class);
+
+    private static final ThreadPoolExecutor SAVER = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), r -> {
+                Thread thread = new Thread(r, "ContextStoreSaver");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    static
+    {
+        SAVER.allowCoreThreadTimeOut(true);
+    }
+
+    private final ContextStore contextStore;
+
+    private final String storeFileName;
+
+    private final long persistIntervalMs;
+
+    private final AtomicBoolean saving = new AtomicBoolean();
+
+    private volatile File storeFile;
+
+    private volatile long lastPersisted;
+
+    /**
+     * @param args
+     */
+    public ContextAccumulatingFilterFactory(Map<String, String> args)
+    {
+        super(args);
+        int maxWords = getInt(args, "maxWords", 100000);
+        int maxContextsPerWord = getInt(args, "maxContextsPerWord", 64);
+        storeFileName = get(args, "storeFile");
+        persistIntervalMs = getInt(args, "persistIntervalMs", 60000);
+        if (!args.isEmpty())
+        {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+
+        contextStore = new ContextStore(maxWords, maxContextsPerWord);
+        lastPersisted = System.currentTimeMillis();
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.lucene.analysis.util.ResourceLoaderAware#inform(org.apache.lucene.analysis.util.ResourceLoader)
+     */
+    @Override
+    public void inform(ResourceLoader loader) throws IOException
+    {
+        if (storeFileName == null)
+        {
+            return;
+        }
+        File file = new File(storeFileName);
+        if (!file.isAbsolute() && (loader instanceof SolrResourceLoader))
+        {
+            file = new File(getDataDir((SolrResourceLoader) loader), storeFileName);
+        }
+        if (file.exists())
+        {
+            try
+            {
+                contextStore.load(file);
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to load word contexts from " + file, e);
+            }
+        }
+        storeFile = file;
+    }
+
+    /**
+     * The data directory as configured in solrconfig.xml (${data.dir.root}/${data.dir.store}), or the data directory
+     * under the instance directory if the core does not set them.
+     */
+    private static File getDataDir(SolrResourceLoader loader)
+    {
+        Properties properties = loader.getCoreProperties();
+        String root = properties.getProperty("data.dir.root");
+        String store = properties.getProperty("data.dir.store");
+        if (root != null && store != null)
+        {
+            return new File(root, store);
+        }
+        return loader.getInstancePath().resolve("data").toFile();
+    }
+
+    public ContextStore getContextStore()
+    {
+        return contextStore;
+    }
+
+    /**
+     * @return the context stores used by the index analyzers of the schema
+     */
+    public static List<ContextStore> getContextStores(IndexSchema schema)
+    {
+        List<ContextStore> stores = new ArrayList<>();
+        for (FieldType fieldType : schema.getFieldTypes().values())
+        {
+            if (fieldType.getIndexAnalyzer() instanceof TokenizerChain)
+            {
+                for (TokenFilterFactory factory : ((TokenizerChain) fieldType.getIndexAnalyzer()).getTokenFilterFactories())
+                {
+                    if (factory instanceof ContextAccumulatingFilterFactory)
+                    {
+                        stores.add(((ContextAccumulatingFilterFactory) factory).getContextStore());
+                    }
+                }
+            }
+        }
+        return stores;
+    }
+
+    /**
+     * Save the store if persistence is configured and the persist interval has passed. A snapshot is taken and
+     * written on a background thread, at most one save per store is in progress.
+     */
+    void persistIfDue()
+    {
+        final File file = storeFile;
+        if (file == null)
+        {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastPersisted < persistIntervalMs)
+        {
+            return;
+        }
+        if (!saving.compareAndSet(false, true))
+        {
+            return;
+        }
+        lastPersisted = now;
+        SAVER.execute(() -> {
+            try
+            {
+                contextStore.snapshot().save(file);
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to save word contexts to " + file, e);
+            }
+            finally
+            {
+                saving.set(false);
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.apache.lucene.analysis.util.TokenFilterFactory#create(org.apache.lucene.analysis.TokenStream)
+     */
+    @Override
+    public TokenStream create(TokenStream input)
+    {
+        ContextAccumulatingFilter filter = new ContextAccumulatingFilter(input, this);
+        return filter;
+    }
+
+}
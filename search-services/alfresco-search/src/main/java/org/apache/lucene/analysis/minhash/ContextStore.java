@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.lucene.analysis.minhash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Bounded store of the contexts seen for each word.
+ * <p>
+ * At most maxWords words are kept, the least recently used word is evicted first. For each word only the
+ * maxContextsPerWord smallest context hashes are kept (a k minimum values sketch), which is enough to estimate the
+ * number of distinct contexts and the context overlap between two words.
+ * 
+ * @author Andy
+ */
+public class ContextStore implements Accountable
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long BASE_RAM_BYTES = RamUsageEstimator.shallowSizeOfInstance(ContextStore.class);
+
+    private static final long ENTRY_RAM_BYTES = RamUsageEstimator.NUM_BYTES_OBJECT_HEADER * 3
+            + RamUsageEstimator.NUM_BYTES_OBJECT_REF * 6 + RamUsageEstimator.NUM_BYTES_ARRAY_HEADER;
+
+    private final int maxWords;
+
+    private final int maxContextsPerWord;
+
+    private final Map<String, Contexts> words;
+
+    private long ramBytesUsed = 0;
+
+    private long evictions = 0;
+
+    /**
+     * The k smallest context hashes seen for a word, kept sorted.
+     */
+    static class Contexts
+    {
+        long[] hashes;
+
+        int size;
+
+        long seen;
+
+        Contexts(int initialSize)
+        {
+            hashes = new long[initialSize];
+        }
+
+        /**
+         * @return the change in bytes used
+         */
+        long add(long hash, int max)
+        {
+            seen++;
+            int index = Arrays.binarySearch(hashes, 0, size, hash);
+            if (index >= 0)
+            {
+                return 0;
+            }
+            int insert = -index - 1;
+            if (size == max)
+            {
+                if (insert == max)
+                {
+                    return 0;
+                }
+                System.arraycopy(hashes, insert, hashes, insert + 1, size - insert - 1);
+                hashes[insert] = hash;
+                return 0;
+            }
+            long grown = 0;
+            if (size == hashes.length)
+            {
+                int length = Math.min(max, Math.max(4, hashes.length * 2));
+                grown = (long) (length - hashes.length) * Long.BYTES;
+                hashes = Arrays.copyOf(hashes, length);
+            }
+            System.arraycopy(hashes, insert, hashes, insert + 1, size - insert);
+            hashes[insert] = hash;
+            size++;
+            return grown;
+        }
+
+        double estimate(int max)
+        {
+            if (size < max)
+            {
+                return size;
+            }
+            // hashes are uniform in [0, Long.MAX_VALUE]
+            double kth = (double) hashes[size - 1] / Long.MAX_VALUE;
+            return (size - 1) / kth;
+        }
+    }
+
+    public ContextStore(int maxWords, int maxContextsPerWord)
+    {
+        if (maxWords < 1 || maxContextsPerWord < 1)
+        {
+            throw new IllegalArgumentException("maxWords and maxContextsPerWord must be positive");
+        }
+        this.maxWords = maxWords;
+        this.maxContextsPerWord = maxContextsPerWord;
+        this.words = new LinkedHashMap<String, Contexts>(128, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Contexts> eldest)
+            {
+                if (size() > ContextStore.this.maxWords)
+                {
+                    ramBytesUsed -= ramBytesUsed(eldest.getKey(), eldest.getValue());
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Record that a word was seen in a context
+     */
+    public synchronized void add(String word, LongPair contextHash)
+    {
+        // Drop the sign bit so the hashes are uniform over the positive longs
+        long hash = contextHash.val1 >>> 1;
+        Contexts contexts = words.get(word);
+        if (contexts == null)
+        {
+            contexts = new Contexts(Math.min(4, maxContextsPerWord));
+            ramBytesUsed += ramBytesUsed(word, contexts);
+            words.put(word, contexts);
+        }
+        ramBytesUsed += contexts.add(hash, maxContextsPerWord);
+    }
+
+    /**
+     * @return the estimated number of distinct contexts for the word (0 if unknown or evicted)
+     */
+    public synchronized double getContextCount(String word)
+    {
+        Contexts contexts = words.get(word);
+        return contexts == null ? 0 : contexts.estimate(maxContextsPerWord);
+    }
+
+    /**
+     * @return the sketch of context hashes for the word, sorted ascending
+     */
+    public synchronized long[] getContexts(String word)
+    {
+        Contexts contexts = words.get(word);
+        return contexts == null ? new long[0] : Arrays.copyOf(contexts.hashes, contexts.size);
+    }
+
+    public synchronized int getWordCount()
+    {
+        return words.size();
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public int getMaxWords()
+    {
+        return maxWords;
+    }
+
+    public int getMaxContextsPerWord()
+    {
+        return maxContextsPerWord;
+    }
+
+    @Override
+    public synchronized long ramBytesUsed()
+    {
+        return BASE_RAM_BYTES + ramBytesUsed;
+    }
+
+    private static long ramBytesUsed(String word, Contexts contexts)
+    {
+        return ENTRY_RAM_BYTES + (long) word.length() * Character.BYTES + (long) contexts.hashes.length * Long.BYTES;
+    }
+
+    /**
+     * Copy of the store contents at one point in time, so it can be written without holding the store lock.
+     */
+    public static class Snapshot
+    {
+        private final String[] words;
+
+        private final long[] seen;
+
+        private final long[][] hashes;
+
+        private Snapshot(int size)
+        {
+            words = new String[size];
+            seen = new long[size];
+            hashes = new long[size][];
+        }
+
+        public int getWordCount()
+        {
+            return words.length;
+        }
+
+        /**
+         * Write the snapshot to a file. The file is replaced atomically.
+         */
+        public void save(File file) throws IOException
+        {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+            {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(words.length);
+                for (int i = 0; i < words.length; i++)
+                {
+                    out.writeUTF(words[i]);
+                    out.writeLong(seen[i]);
+                    out.writeInt(hashes[i].length);
+                    for (long hash : hashes[i])
+                    {
+                        out.writeLong(hash);
+                    }
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * @return a copy of the current contents, in least recently used order
+     */
+    public synchronized Snapshot snapshot()
+    {
+        Snapshot snapshot = new Snapshot(words.size());
+        int i = 0;
+        // Least recently used first, so that a load preserves the eviction order
+        for (Map.Entry<String, Contexts> entry : words.entrySet())
+        {
+            Contexts contexts = entry.getValue();
+            snapshot.words[i] = entry.getKey();
+            snapshot.seen[i] = contexts.seen;
+            snapshot.hashes[i] = Arrays.copyOf(contexts.hashes, contexts.size);
+            i++;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Write the store to a file. The file is replaced atomically.
+     */
+    public void save(File file) throws IOException
+    {
+        snapshot().save(file);
+    }
+
+    /**
+     * Add the contents of a file written by {@link #save(File)}, applying the limits of this store.
+     */
+    public synchronized void load(File file) throws IOException
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+            {
+                throw new IOException("Unsupported context store version " + version + " in " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++)
+            {
+                String word = in.readUTF();
+                long seen = in.readLong();
+                int size = in.readInt();
+                Contexts contexts = new Contexts(Math.max(1, Math.min(size, maxContextsPerWord)));
+                for (int j = 0; j < size; j++)
+                {
+                    long hash = in.readLong();
+                    if (j < maxContextsPerWord)
+                    {
+                        contexts.hashes[j] = hash;
+                        contexts.size++;
+                    }
+                }
+                contexts.seen = seen;
+                Contexts previous = words.remove(word);
+                if (previous != null)
+                {
+                    ramBytesUsed -= ramBytesUsed(word, previous);
+                }
+                ramBytesUsed += ramBytesUsed(word, contexts);
+                words.put(word, contexts);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ContextStore[words=" + words.size() + ", maxWords=" + maxWords + ", maxContextsPerWord="
+                + maxContextsPerWord + ", evictions=" + evictions + ", ramBytesUsed=" + ramBytesUsed() + "]";
+    }
+}
@@ -19,24 +19,320 @@
 package org.apache.solr.handler.component;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.util.TraceableThreadFactory;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrClient;
+import org.apache.solr.client.solrj.impl.LBHttpSolrClient;
+import org.apache.solr.client.solrj.request.QueryRequest;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.PluginInfo;
 
 
 
 /**
+ * Shard handler factory for Alfresco searches.
+ * <p>
+ * With <code>replicaSelection</code> set to <code>latency</code> the replicas of a shard are ordered by a
+ * {@link ReplicaLatencyTracker} instead of at random. A replica Solr put first for
+ * <code>preferLocalShards</code> stays first. When <code>hedgePercentile</code> is also set, a request still
+ * running after that percentile of the recent response times of its replica (but at least
+ * <code>hedgeMinDelay</code> ms) is sent to the next replica too; the first answer wins and the HTTP request
+ * of the other is aborted. At most <code>hedgeMaxThreads</code> requests are raced at once, the others are
+ * sent without a hedge.
+ *
  * @author Andy
  *
  */
 
 public class AlfrescoHttpShardHandlerFactory extends HttpShardHandlerFactory {
- 
+
+  public static final String REPLICA_SELECTION = "replicaSelection";
+  public static final String HEDGE_PERCENTILE = "hedgePercentile";
+  public static final String HEDGE_MIN_DELAY = "hedgeMinDelay";
+  public static final String HEDGE_MAX_THREADS = "hedgeMaxThreads";
+
+  public static final String LATENCY_REPLICA_SELECTION = "latency";
+
+  /** Status codes on which the next replica is tried, as by the load balancer. */
+  private static final Set<Integer> RETRY_CODES = new HashSet<>(Arrays.asList(404, 403, 503, 500));
+
+  private final ReplicaLatencyTracker replicaLatencies = new ReplicaLatencyTracker();
+
+  private boolean latencyAware;
+  private double hedgePercentile;
+  private long hedgeMinDelay = 20L;
+  private int hedgeMaxThreads = 64;
+  private ThreadPoolExecutor hedgeExecutor;
+  private volatile HttpClient httpClient;
+
+  @Override
+  public void init(PluginInfo info) {
+    super.init(info);
+    NamedList args = info.initArgs;
+    if (args == null) {
+      return;
+    }
+    latencyAware = LATENCY_REPLICA_SELECTION.equals(getArg(args, REPLICA_SELECTION));
+    String percentile = getArg(args, HEDGE_PERCENTILE);
+    if (percentile != null && !percentile.isEmpty()) {
+      hedgePercentile = Double.parseDouble(percentile);
+    }
+    String minDelay = getArg(args, HEDGE_MIN_DELAY);
+    if (minDelay != null && !minDelay.isEmpty()) {
+      hedgeMinDelay = Long.parseLong(minDelay);
+    }
+    String maxThreads = getArg(args, HEDGE_MAX_THREADS);
+    if (maxThreads != null && !maxThreads.isEmpty()) {
+      hedgeMaxThreads = Integer.parseInt(maxThreads);
+    }
+    if (latencyAware && hedgePercentile > 0 && hedgeMaxThreads > 0) {
+      TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+      threadFactory.setThreadDaemon(true);
+      threadFactory.setNamePrefix("HedgedShardRequest");
+      // No queue: when all threads are racing, requests go out without a hedge
+      hedgeExecutor = new ThreadPoolExecutor(0, hedgeMaxThreads, 60L, TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(), threadFactory);
+    }
+  }
+
+  private static String getArg(NamedList args, String name) {
+    Object value = args.get(name);
+    return value == null ? null : value.toString().trim();
+  }
 
   /**
    * Get {@link ShardHandler} that uses custom http client.
    */
   public ShardHandler getShardHandler(final HttpClient httpClient){
+    this.httpClient = httpClient;
     return new AlfrescoHttpShardHandler(this, httpClient);
   }
 
-}
+  public ReplicaLatencyTracker getReplicaLatencies() {
+    return replicaLatencies;
+  }
+
+  /**
+   * Called for shards with more than one replica.
+   */
+  @Override
+  public LBHttpSolrClient.Rsp makeLoadBalancedRequest(final QueryRequest req, List<String> urls)
+      throws SolrServerException, IOException {
+    if (!latencyAware) {
+      return super.makeLoadBalancedRequest(req, urls);
+    }
+    List<String> ordered = order(req, urls);
+    long hedgeDelay = hedgeExecutor == null || httpClient == null ? -1L
+        : replicaLatencies.getPercentile(ordered.get(0), hedgePercentile);
+    if (hedgeDelay < 0) {
+      return timedRequest(req, ordered);
+    }
+    return hedgedRequest(req, ordered, Math.max(hedgeDelay, hedgeMinDelay));
+  }
+
+  /**
+   * With preferLocalShards Solr has already moved a local replica to the front, and there it stays.
+   */
+  private List<String> order(QueryRequest req, List<String> urls) {
+    SolrParams params = req.getParams();
+    if (params != null && params.getBool(CommonParams.PREFER_LOCAL_SHARDS, false)) {
+      List<String> ordered = new ArrayList<>(urls.size());
+      ordered.add(urls.get(0));
+      ordered.addAll(replicaLatencies.order(urls.subList(1, urls.size())));
+      return ordered;
+    }
+    return replicaLatencies.order(urls);
+  }
+
+  private LBHttpSolrClient.Rsp hedgedRequest(final QueryRequest req, List<String> ordered, long hedgeDelay)
+      throws SolrServerException, IOException {
+    // The hedge starts with the second replica and falls back to the first
+    List<String> hedgeOrder = new ArrayList<>(ordered.subList(1, ordered.size()));
+    hedgeOrder.add(ordered.get(0));
+
+    CompletionService<LBHttpSolrClient.Rsp> completion = new ExecutorCompletionService<>(hedgeExecutor);
+    List<AbortableRequest> running = new ArrayList<>(2);
+    try {
+      AbortableRequest request = new AbortableRequest(req, ordered);
+      try {
+        completion.submit(request);
+      } catch (RejectedExecutionException e) {
+        // Every hedging thread is busy
+        return timedRequest(req, ordered);
+      }
+      running.add(request);
+      Future<LBHttpSolrClient.Rsp> first = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+      if (first == null) {
+        AbortableRequest hedge = new AbortableRequest(req, hedgeOrder);
+        try {
+          completion.submit(hedge);
+          running.add(hedge);
+        } catch (RejectedExecutionException e) {
+          // Every hedging thread is busy, so the first request goes on alone
+        }
+        first = completion.take();
+      }
+      try {
+        return first.get();
+      } catch (ExecutionException e) {
+        if (running.size() == 1) {
+          throw e;
+        }
+        // The other one may still make it
+        return completion.take().get();
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof SolrServerException) {
+        throw (SolrServerException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SolrServerException(cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SolrServerException(e);
+    } finally {
+      // Abort the loser, if there is one; interrupting its thread would not stop the HTTP request
+      for (AbortableRequest request : running) {
+        request.abort();
+      }
+    }
+  }
+
+  private LBHttpSolrClient.Rsp timedRequest(QueryRequest req, List<String> urls)
+      throws SolrServerException, IOException {
+    long start = System.nanoTime();
+    try {
+      LBHttpSolrClient.Rsp rsp = super.makeLoadBalancedRequest(req, urls);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (!urls.get(0).equals(rsp.getServer())) {
+        // The preferred replica was skipped or failed over
+        replicaLatencies.recordFailure(urls.get(0));
+      }
+      replicaLatencies.recordSuccess(rsp.getServer(), elapsed);
+      return rsp;
+    } catch (SolrServerException | IOException | RuntimeException e) {
+      replicaLatencies.recordFailure(urls.get(0));
+      throw e;
+    }
+  }
+
+  @Override
+  public void close() {
+    try {
+      super.close();
+    } finally {
+      if (hedgeExecutor != null) {
+        hedgeExecutor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Tries the replicas in turn, as the load balancer does, but can be aborted part way. A thread blocked
+   * reading a response does not notice an interrupt, so the HTTP request itself is aborted.
+   */
+  private class AbortableRequest implements Callable<LBHttpSolrClient.Rsp> {
+    private final QueryRequest req;
+    private final List<String> urls;
+    private volatile boolean aborted;
+    private volatile HttpRequestBase method;
+
+    AbortableRequest(QueryRequest req, List<String> urls) {
+      this.req = req;
+      this.urls = urls;
+    }
+
+    @Override
+    public LBHttpSolrClient.Rsp call() throws SolrServerException, IOException {
+      Exception last = null;
+      for (String url : urls) {
+        if (aborted) {
+          throw new SolrServerException("Aborted request to " + url);
+        }
+        long start = System.nanoTime();
+        try (HttpSolrClient client = new AbortableClient(url)) {
+          NamedList<Object> rsp = client.request(req);
+          replicaLatencies.recordSuccess(url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+          return new HedgedRsp(url, rsp);
+        } catch (SolrException e) {
+          failed(url);
+          if (!RETRY_CODES.contains(e.code())) {
+            throw e;
+          }
+          last = e;
+        } catch (SolrServerException | IOException e) {
+          failed(url);
+          last = e;
+        }
+      }
+      throw new SolrServerException("No live SolrServers available to handle this request", last);
+    }
+
+    private void failed(String url) {
+      if (!aborted) {
+        replicaLatencies.recordFailure(url);
+      }
+    }
+
+    void abort() {
+      aborted = true;
+      HttpRequestBase current = method;
+      if (current != null) {
+        current.abort();
+      }
+    }
 
+    /**
+     * Keeps hold of the HTTP request it sends, so that it can be aborted.
+     */
+    private class AbortableClient extends HttpSolrClient {
+      AbortableClient(String url) {
+        super(url, httpClient);
+      }
+
+      @Override
+      protected HttpRequestBase createMethod(SolrRequest request, String collection)
+          throws IOException, SolrServerException {
+        HttpRequestBase created = super.createMethod(request, collection);
+        method = created;
+        if (aborted) {
+          created.abort();
+        }
+        return created;
+      }
+    }
+  }
+
+  private static class HedgedRsp extends LBHttpSolrClient.Rsp {
+    HedgedRsp(String server, NamedList<Object> rsp) {
+      this.server = server;
+      this.rsp = rsp;
+    }
+  }
+}
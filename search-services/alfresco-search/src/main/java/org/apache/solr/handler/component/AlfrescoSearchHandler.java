@@ -30,10 +30,19 @@ import java.lang.invoke.MethodHandles;
 import java.util.*;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.index.shard.ShardMethodEnum;
+import org.alfresco.solr.AlfrescoCoreAdminHandler;
 import org.alfresco.solr.query.AbstractQParser;
+import org.alfresco.solr.query.AuthoritySetCache;
+import org.alfresco.solr.query.CollectionBudget;
+import org.alfresco.solr.query.ReaderAuthoritySummary;
+import org.alfresco.solr.tracker.MetadataTracker;
+import org.alfresco.solr.tracker.ShardRouting;
+import org.alfresco.solr.tracker.TrackerRegistry;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.ExitableDirectoryReader;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.util.Version;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
@@ -49,7 +58,9 @@ import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrEventListener;
 import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.handler.admin.CoreAdminHandler;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
@@ -57,12 +68,14 @@ import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.SolrQueryTimeoutImpl;
 import org.apache.solr.search.facet.FacetModule;
 import org.apache.solr.util.RTimerTree;
 import org.apache.solr.util.SolrPluginUtils;
 import org.apache.solr.util.plugin.PluginInfoInitialized;
 import org.apache.solr.util.plugin.SolrCoreAware;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONTokener;
@@ -79,6 +92,7 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 	static final String INIT_COMPONENTS = "components";
 	static final String INIT_FIRST_COMPONENTS = "first-components";
 	static final String INIT_LAST_COMPONENTS = "last-components";
+	private static final String JSON_WITHOUT_AUTHORITIES = "ALFRESCO_JSON_WITHOUT_AUTHORITIES";
 
 	private static final Logger log = LoggerFactory.getLogger(MethodHandles
 			.lookup().lookupClass());
@@ -87,6 +101,8 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 	private ShardHandlerFactory shardHandlerFactory;
 	private PluginInfo shfInfo;
 	private SolrCore core;
+	private final ShardPruner shardPruner = new ShardPruner();
+	private volatile ReaderAuthoritySummary readerSummary;
 
 	protected List<String> getDefaultComponents() {
 		ArrayList<String> names = new ArrayList<>(8);
@@ -137,6 +153,10 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 			throw new SolrException(SolrException.ErrorCode.SERVER_ERROR,
 					"First/Last components only valid if you do not declare 'components'");
 
+		// The reader summary is built while a searcher warms, never by a request
+		core.registerFirstSearcherListener(new ReaderSummaryListener());
+		core.registerNewSearcherListener(new ReaderSummaryListener());
+
 		if (shfInfo == null) {
 			shardHandlerFactory = core.getCoreContainer().getShardHandlerFactory();
 		} else {
@@ -335,6 +355,7 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 
 		if (!rb.isDistrib) {
 			// a normal non-distributed request
+			addShardRouting(req, rsp);
 
 			long timeAllowed = req.getParams().getLong(
 					CommonParams.TIME_ALLOWED, -1L);
@@ -365,7 +386,10 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 						rb.addDebugInfo("timing", timer.asNamedList());
 					}
 				}
-			} catch (ExitableDirectoryReader.ExitingReaderException ex) {
+			} catch (ExitableDirectoryReader.ExitingReaderException
+					| TimeLimitingCollector.TimeExceededException ex) {
+				// Collection budgets also stop the searches Solr runs
+				// outside of its own collector chain, such as for doc sets
 				log.warn("Query: " + req.getParamString() + "; "
 						+ ex.getMessage());
 				SolrDocumentList r = (SolrDocumentList) rb.rsp.getValues().get(
@@ -403,6 +427,10 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 				rb.outgoing = new LinkedList<>();
 			}
 			rb.finished = new ArrayList<>();
+			shardPruner.prune(rb);
+			// How far the shards that stopped early estimate their totals
+			// to be above the hits they found
+			Long numFoundExcess = null;
 
 			int nextStage = 0;
 			do {
@@ -434,63 +462,8 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 
 						// TODO: map from shard to address[]
 						for (String shard : sreq.actualShards) {
-							ModifiableSolrParams params = new ModifiableSolrParams(
-									sreq.params);
-							params.remove(ShardParams.SHARDS); // not a
-																// top-level
-																// request
-							params.set(CommonParams.DISTRIB, "false"); // not a
-																		// top-level
-																		// request
-							params.remove("indent");
-							params.remove(CommonParams.HEADER_ECHO_PARAMS);
-							params.set(ShardParams.IS_SHARD, true); // a sub
-																	// (shard)
-																	// request
-							params.set(ShardParams.SHARDS_PURPOSE, sreq.purpose);
-							params.set(ShardParams.SHARD_URL, shard); // so the
-																		// shard
-																		// knows
-																		// what
-																		// was
-																		// asked
-							if (req.getContext().get(AbstractQParser.ALFRESCO_JSON) != null) {
-								//This will add the Alfresco JSON as a parameter, overwriting the parameter if it already exists.
-								params.set(AbstractQParser.ALFRESCO_JSON,
-									req.getContext().get(AbstractQParser.ALFRESCO_JSON).toString());
-							}
-							if (rb.requestInfo != null) {
-								// we could try and detect when this is needed,
-								// but it could be tricky
-								params.set("NOW", Long.toString(rb.requestInfo
-										.getNOW().getTime()));
-							}
-							String shardQt = params.get(ShardParams.SHARDS_QT);
-							if (shardQt != null) {
-								params.set(CommonParams.QT, shardQt);
-							} else {
-								// for distributed queries that don't include
-								// shards.qt, use the original path
-								// as the default but operators need to update
-								// their luceneMatchVersion to enable
-								// this behavior since it did not work this way
-								// prior to 5.1
-								if (req.getCore().getSolrConfig().luceneMatchVersion
-										.onOrAfter(Version.LUCENE_5_1_0)) {
-									String reqPath = (String) req.getContext()
-											.get(PATH);
-									if (!"/select".equals(reqPath)) {
-										params.set(CommonParams.QT, reqPath);
-									} // else if path is /select, then the qt
-										// gets passed thru if set
-								} else {
-									// this is the pre-5.1 behavior, which
-									// translates to sending the shard request
-									// to /select
-									params.remove(CommonParams.QT);
-								}
-							}
-							shardHandler1.submit(sreq, shard, params);
+							shardHandler1.submit(sreq, shard,
+									makeShardParams(req, rb, sreq, shard));
 						}
 					}
 
@@ -506,6 +479,21 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 						if (srsp == null)
 							break; // no more requests to wait for
 
+						// Shards that have lost the authority set are sent it
+						// again, before any tolerance of errors
+						List<String> lost = takeLostAuthoritySets(srsp,
+								(String) req.getContext().get(
+										AuthoritySetCache.HASH_PARAM),
+								AuthoritySetCache.getInstance());
+						if (!lost.isEmpty()) {
+							ShardRequest sreq = srsp.getShardRequest();
+							for (String shard : lost) {
+								shardHandler1.submit(sreq, shard,
+										makeShardParams(req, rb, sreq, shard));
+							}
+							continue;
+						}
+
 						// Was there an exception?
 						if (srsp.getException() != null) {
 							// If things are not tolerant, abort everything and
@@ -529,6 +517,19 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 						}
 
 						rb.finished.add(srsp.getShardRequest());
+						if (srsp.getSolrResponse() != null
+								&& srsp.getSolrResponse().getResponse() != null) {
+							shardPruner.learn(srsp.getShard(),
+									(NamedList<?>) srsp.getSolrResponse()
+											.getResponse().get("responseHeader"),
+									System.currentTimeMillis());
+							Long excess = numFoundExcess(srsp.getSolrResponse()
+									.getResponse());
+							if (excess != null) {
+								numFoundExcess = (numFoundExcess == null ? 0L
+										: numFoundExcess) + excess;
+							}
+						}
 
 						// let the components see the responses to the request
 						for (SearchComponent c : components) {
@@ -543,6 +544,12 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 
 				// we are done when the next stage is MAX_VALUE
 			} while (nextStage != Integer.MAX_VALUE);
+
+			if (numFoundExcess != null && rb.getResponseDocs() != null) {
+				rsp.getResponseHeader().add(
+						CollectionBudget.NUM_FOUND_ESTIMATE,
+						rb.getResponseDocs().getNumFound() + numFoundExcess);
+			}
 		}
 
 		// SOLR-5550: still provide shards.info if requested even for a short
@@ -582,6 +589,267 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements
 		}
 	}
 
+	/**
+	 * How far the estimated total of a shard that stopped its search early is
+	 * above the hits it found, or null if it did not stop early.
+	 */
+	private static Long numFoundExcess(NamedList<?> response) {
+		NamedList<?> header = (NamedList<?>) response.get("responseHeader");
+		Object estimate = header == null ? null : header
+				.get(CollectionBudget.NUM_FOUND_ESTIMATE);
+		Object docs = response.get("response");
+		if (!(estimate instanceof Number)
+				|| !(docs instanceof SolrDocumentList)) {
+			return null;
+		}
+		return ((Number) estimate).longValue()
+				- ((SolrDocumentList) docs).getNumFound();
+	}
+
+	/**
+	 * The parameters of the request to one shard.
+	 */
+	private ModifiableSolrParams makeShardParams(SolrQueryRequest req,
+			ResponseBuilder rb, ShardRequest sreq, String shard) {
+		ModifiableSolrParams params = new ModifiableSolrParams(
+				sreq.params);
+		params.remove(ShardParams.SHARDS); // not a top-level request
+		params.set(CommonParams.DISTRIB, "false"); // not a top-level request
+		params.remove("indent");
+		params.remove(CommonParams.HEADER_ECHO_PARAMS);
+		params.set(ShardParams.IS_SHARD, true); // a sub (shard) request
+		params.set(ShardParams.SHARDS_PURPOSE, sreq.purpose);
+		params.set(ShardParams.SHARD_URL, shard); // so the shard knows what
+													// was asked
+		if (req.getParams().getBool(ShardPruner.PRUNE_READERS_PARAM, false)) {
+			// Asks ACL sharded shards for their readers as well
+			params.set(ShardPruner.READERS_VERSION_PARAM,
+					Long.toString(shardPruner.getReadersVersion(shard)));
+		}
+		if (req.getContext().get(AbstractQParser.ALFRESCO_JSON) != null) {
+			//This will add the Alfresco JSON as a parameter, overwriting the parameter if it already exists.
+			setAlfrescoJson(req, params, shard);
+		}
+		if (rb.requestInfo != null) {
+			// we could try and detect when this is needed,
+			// but it could be tricky
+			params.set("NOW", Long.toString(rb.requestInfo
+					.getNOW().getTime()));
+		}
+		String shardQt = params.get(ShardParams.SHARDS_QT);
+		if (shardQt != null) {
+			params.set(CommonParams.QT, shardQt);
+		} else {
+			// for distributed queries that don't include
+			// shards.qt, use the original path
+			// as the default but operators need to update
+			// their luceneMatchVersion to enable
+			// this behavior since it did not work this way
+			// prior to 5.1
+			if (req.getCore().getSolrConfig().luceneMatchVersion
+					.onOrAfter(Version.LUCENE_5_1_0)) {
+				String reqPath = (String) req.getContext()
+						.get(PATH);
+				if (!"/select".equals(reqPath)) {
+					params.set(CommonParams.QT, reqPath);
+				} // else if path is /select, then the qt
+					// gets passed thru if set
+			} else {
+				// this is the pre-5.1 behavior, which
+				// translates to sending the shard request
+				// to /select
+				params.remove(CommonParams.QT);
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Adds the Alfresco JSON. A large authority set is identified by its hash,
+	 * and the authorities themselves are left out once the shard has them.
+	 */
+	private void setAlfrescoJson(SolrQueryRequest req,
+			ModifiableSolrParams params, String shard) {
+		JSONObject json = (JSONObject) req.getContext().get(
+				AbstractQParser.ALFRESCO_JSON);
+		String hash = getAuthoritySetHash(req, json);
+		if (hash == null) {
+			params.set(AbstractQParser.ALFRESCO_JSON, json.toString());
+			return;
+		}
+		params.set(AuthoritySetCache.HASH_PARAM, hash);
+		AuthoritySetCache authoritySets = AuthoritySetCache.getInstance();
+		if (authoritySets.isSentTo(shard, hash)) {
+			String withoutAuthorities = (String) req.getContext().get(
+					JSON_WITHOUT_AUTHORITIES);
+			if (withoutAuthorities == null) {
+				JSONObject copy = new JSONObject(json, JSONObject.getNames(json));
+				copy.remove("authorities");
+				withoutAuthorities = copy.toString();
+				req.getContext().put(JSON_WITHOUT_AUTHORITIES, withoutAuthorities);
+			}
+			params.set(AbstractQParser.ALFRESCO_JSON, withoutAuthorities);
+		} else {
+			params.set(AbstractQParser.ALFRESCO_JSON, json.toString());
+			authoritySets.setSentTo(shard, hash, true);
+		}
+	}
+
+	/**
+	 * Finds the shards of a request that no longer have its authority set and
+	 * takes their failed responses out of the request, so they can be asked
+	 * again. Without shards.tolerant a failed response comes back on its own;
+	 * with it, failures are only collected with the other responses of their
+	 * request, so all of those are looked at.
+	 *
+	 * @return the shards to send the authority set to again
+	 */
+	static List<String> takeLostAuthoritySets(ShardResponse srsp, String hash,
+			AuthoritySetCache authoritySets) {
+		List<String> lost = new ArrayList<>();
+		if (hash == null) {
+			return lost;
+		}
+		List<ShardResponse> responses = srsp.getShardRequest().responses;
+		if (AuthoritySetCache.isUnknownAuthoritySet(srsp.getException())) {
+			responses.remove(srsp);
+			lost.add(srsp.getShard());
+		}
+		for (Iterator<ShardResponse> it = responses.iterator(); it.hasNext();) {
+			ShardResponse response = it.next();
+			if (AuthoritySetCache.isUnknownAuthoritySet(response.getException())) {
+				it.remove();
+				lost.add(response.getShard());
+			}
+		}
+		for (String shard : lost) {
+			authoritySets.setSentTo(shard, hash, false);
+		}
+		return lost;
+	}
+
+	/**
+	 * @return the hash of the authority set of the request, null if there is
+	 *         none or it is too small to be worth it
+	 */
+	private String getAuthoritySetHash(SolrQueryRequest req, JSONObject json) {
+		if (req.getContext().containsKey(AuthoritySetCache.HASH_PARAM)) {
+			return (String) req.getContext().get(AuthoritySetCache.HASH_PARAM);
+		}
+		String hash = null;
+		JSONArray authorities = json.optJSONArray("authorities");
+		if (authorities != null
+				&& authorities.length() >= AuthoritySetCache.MIN_HASHED_AUTHORITIES) {
+			List<String> authorityList = new ArrayList<>(authorities.length());
+			for (int i = 0; i < authorities.length(); i++) {
+				authorityList.add(authorities.getString(i));
+			}
+			hash = AuthoritySetCache.hash(authorityList);
+		}
+		req.getContext().put(AuthoritySetCache.HASH_PARAM, hash);
+		return hash;
+	}
+
+	/**
+	 * Tells the coordinator of a distributed request how documents are routed
+	 * to this shard, so later requests can skip it when it cannot match.
+	 */
+	private void addShardRouting(SolrQueryRequest req, SolrQueryResponse rsp) {
+		if (!req.getParams().getBool(ShardParams.IS_SHARD, false)
+				|| rsp.getResponseHeader() == null) {
+			return;
+		}
+		CoreAdminHandler coreAdminHandler = req.getCore().getCoreContainer()
+				.getMultiCoreHandler();
+		if (coreAdminHandler instanceof AlfrescoCoreAdminHandler) {
+			TrackerRegistry trackerRegistry = ((AlfrescoCoreAdminHandler) coreAdminHandler)
+					.getTrackerRegistry();
+			MetadataTracker metadataTracker = trackerRegistry == null ? null
+					: trackerRegistry.getTrackerForCore(req.getCore().getName(),
+							MetadataTracker.class);
+			if (metadataTracker != null) {
+				ShardRouting routing = metadataTracker.getShardRouting();
+				rsp.getResponseHeader().add(ShardPruner.ROUTING_HEADER,
+						routing.toNamedList());
+				ReaderAuthoritySummary summary = req.getParams().get(
+						ShardPruner.READERS_VERSION_PARAM) == null ? null
+						: getReaderSummary(req, routing);
+				if (summary != null) {
+					rsp.getResponseHeader().add(ShardPruner.READERS_HEADER,
+							summary.toNamedList(req.getParams().getLong(
+									ShardPruner.READERS_VERSION_PARAM, -1L)));
+				}
+			}
+		}
+	}
+
+	/**
+	 * The readers and owners of a shard sharded by ACL id, for the searcher of
+	 * the request. Null unless the summary built for that searcher is there;
+	 * a stale summary could miss newly granted readers.
+	 */
+	private ReaderAuthoritySummary getReaderSummary(SolrQueryRequest req,
+			ShardRouting routing) {
+		if (routing.getMethod() != ShardMethodEnum.ACL_ID
+				&& routing.getMethod() != ShardMethodEnum.MOD_ACL_ID) {
+			return null;
+		}
+		ReaderAuthoritySummary summary = readerSummary;
+		if (summary != null
+				&& summary.getVersion() == req.getSearcher().getIndexReader()
+						.getVersion()) {
+			return summary;
+		}
+		return null;
+	}
+
+	private static boolean isReaderSummarised(SolrCore core) {
+		Properties p = core.getResourceLoader().getCoreProperties();
+		ShardMethodEnum method = ShardMethodEnum.getShardMethod(p.getProperty(
+				"shard.method", "DB_ID"));
+		return (method == ShardMethodEnum.ACL_ID || method == ShardMethodEnum.MOD_ACL_ID)
+				&& Boolean.parseBoolean(p.getProperty(
+						"alfresco.doPermissionChecks", "true"));
+	}
+
+	/**
+	 * Builds the reader summary of each new searcher of an ACL sharded core
+	 * while the searcher warms.
+	 */
+	private class ReaderSummaryListener implements SolrEventListener {
+		@Override
+		public void init(NamedList args) {
+		}
+
+		@Override
+		public void newSearcher(SolrIndexSearcher newSearcher,
+				SolrIndexSearcher currentSearcher) {
+			if (!isReaderSummarised(newSearcher.getCore())) {
+				return;
+			}
+			long version = newSearcher.getIndexReader().getVersion();
+			ReaderAuthoritySummary summary = readerSummary;
+			if (summary != null && summary.getVersion() == version) {
+				return;
+			}
+			try {
+				readerSummary = ReaderAuthoritySummary.build(
+						newSearcher.getIndexReader(), version);
+			} catch (IOException e) {
+				log.warn("Could not summarise the readers of "
+						+ newSearcher.getCore().getName(), e);
+			}
+		}
+
+		@Override
+		public void postCommit() {
+		}
+
+		@Override
+		public void postSoftCommit() {
+		}
+	}
+
 	// ////////////////////// SolrInfoMBeans methods //////////////////////
 
 	@Override
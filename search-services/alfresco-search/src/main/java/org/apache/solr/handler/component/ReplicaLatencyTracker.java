@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Latency and error rates of the replicas of shards, as seen by the coordinator of distributed requests.
+ * <p>
+ * Each replica keeps an exponentially weighted moving average of its response time and of its error rate,
+ * and the most recent response times for percentiles. A replica is scored by its average response time
+ * scaled up by its error rate, so one that is pausing or failing drops to the back. The score halves every
+ * half-life the replica goes unmeasured, so a replica that was slow or failing is tried again in time.
+ * <p>
+ * The first replica is picked by the power of two choices, the better of two at random, so that coordinators
+ * do not all pile onto the single fastest replica.
+ *
+ * @author Andy
+ */
+public class ReplicaLatencyTracker
+{
+    public static final double DEFAULT_ALPHA = 0.2;
+
+    /** A replica that always fails looks this many times slower than its average response time. */
+    public static final double ERROR_PENALTY = 10.0;
+
+    /** The response time a replica that has only failed so far is scored with. */
+    public static final double FAILURE_LATENCY = 1000.0;
+
+    public static final long DEFAULT_HALF_LIFE = 30000L;
+
+    /** Percentiles are only given once a replica has answered this many times. */
+    public static final int MIN_SAMPLES = 16;
+
+    private static final int SAMPLES = 128;
+
+    private final Map<String, ReplicaStats> replicas = new ConcurrentHashMap<>();
+
+    private final double alpha;
+
+    private final long halfLife;
+
+    public ReplicaLatencyTracker()
+    {
+        this(DEFAULT_ALPHA);
+    }
+
+    public ReplicaLatencyTracker(double alpha)
+    {
+        this(alpha, DEFAULT_HALF_LIFE);
+    }
+
+    /**
+     * @param halfLife the ms after which the score of a replica that has not been measured since is halved
+     */
+    public ReplicaLatencyTracker(double alpha, long halfLife)
+    {
+        this.alpha = alpha;
+        this.halfLife = halfLife;
+    }
+
+    public void recordSuccess(String replica, long elapsedMillis)
+    {
+        recordSuccess(replica, elapsedMillis, System.currentTimeMillis());
+    }
+
+    void recordSuccess(String replica, long elapsedMillis, long now)
+    {
+        getStats(replica).record(elapsedMillis, false, now);
+    }
+
+    public void recordFailure(String replica)
+    {
+        recordFailure(replica, System.currentTimeMillis());
+    }
+
+    void recordFailure(String replica, long now)
+    {
+        getStats(replica).record(-1L, true, now);
+    }
+
+    /**
+     * @return the replicas to try in turn: the better of two at random first, then the others best first.
+     *         Replicas not seen yet score best, so they get measured.
+     */
+    public List<String> order(List<String> replicas)
+    {
+        return order(replicas, System.currentTimeMillis(), ThreadLocalRandom.current());
+    }
+
+    List<String> order(List<String> replicas, long now, Random random)
+    {
+        List<String> ordered = new ArrayList<>(replicas);
+        if (ordered.size() > 1)
+        {
+            Map<String, Double> scores = new HashMap<>();
+            for (String replica : ordered)
+            {
+                scores.put(replica, getScore(replica, now));
+            }
+            // Stable, so replicas with the same score keep their (shuffled) order
+            Collections.sort(ordered, (r1, r2) -> Double.compare(scores.get(r1), scores.get(r2)));
+            if (ordered.size() > 2)
+            {
+                int first = random.nextInt(ordered.size());
+                int second = random.nextInt(ordered.size() - 1);
+                if (second >= first)
+                {
+                    second++;
+                }
+                // Sorted, so the lower index is the better choice
+                ordered.add(0, ordered.remove(Math.min(first, second)));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * @return the average response time scaled by the error rate and decayed by age, 0 for a replica not seen yet
+     */
+    public double getScore(String replica)
+    {
+        return getScore(replica, System.currentTimeMillis());
+    }
+
+    double getScore(String replica, long now)
+    {
+        ReplicaStats stats = this.replicas.get(replica);
+        return stats == null ? 0.0 : stats.getScore(now);
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the percentile of the recent response times of the replica, or -1 if there are too few of them
+     */
+    public long getPercentile(String replica, double percentile)
+    {
+        ReplicaStats stats = this.replicas.get(replica);
+        return stats == null ? -1L : stats.getPercentile(percentile);
+    }
+
+    public double getAverageLatency(String replica)
+    {
+        ReplicaStats stats = this.replicas.get(replica);
+        return stats == null ? Double.NaN : stats.getAverageLatency();
+    }
+
+    public double getErrorRate(String replica)
+    {
+        ReplicaStats stats = this.replicas.get(replica);
+        return stats == null ? 0.0 : stats.getErrorRate();
+    }
+
+    private ReplicaStats getStats(String replica)
+    {
+        return this.replicas.computeIfAbsent(replica, r -> new ReplicaStats());
+    }
+
+    private class ReplicaStats
+    {
+        private double averageLatency = Double.NaN;
+
+        private double errorRate;
+
+        private final long[] samples = new long[SAMPLES];
+
+        private int sampleCount;
+
+        private int next;
+
+        private long updated;
+
+        synchronized void record(long elapsedMillis, boolean error, long now)
+        {
+            updated = now;
+            errorRate = errorRate + alpha * ((error ? 1.0 : 0.0) - errorRate);
+            if (!error)
+            {
+                averageLatency = Double.isNaN(averageLatency)
+                            ? elapsedMillis : averageLatency + alpha * (elapsedMillis - averageLatency);
+                samples[next] = elapsedMillis;
+                next = (next + 1) % SAMPLES;
+                sampleCount = Math.min(sampleCount + 1, SAMPLES);
+            }
+        }
+
+        synchronized double getScore(long now)
+        {
+            // Only failures so far, so there is no response time to go by
+            double latency = Double.isNaN(averageLatency) ? FAILURE_LATENCY : averageLatency;
+            double age = Math.max(0L, now - updated);
+            return latency * (1.0 + ERROR_PENALTY * errorRate) * Math.pow(0.5, age / halfLife);
+        }
+
+        synchronized long getPercentile(double percentile)
+        {
+            if (sampleCount < MIN_SAMPLES)
+            {
+                return -1L;
+            }
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sampleCount) - 1;
+            return sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+        }
+
+        synchronized double getAverageLatency()
+        {
+            return averageLatency;
+        }
+
+        synchronized double getErrorRate()
+        {
+            return errorRate;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.solr.handler.component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.solr.ContextAwareQuery;
+import org.alfresco.solr.data.GlobalReaders;
+import org.alfresco.solr.query.AbstractAuthorityQuery;
+import org.alfresco.solr.query.AbstractAuthoritySetQuery;
+import org.alfresco.solr.query.AuthorityBloomFilter;
+import org.alfresco.solr.query.ReaderAuthoritySummary;
+import org.alfresco.solr.query.SolrAuthorityQuery;
+import org.alfresco.solr.query.SolrAuthoritySetQuery;
+import org.alfresco.solr.query.SolrReaderQuery;
+import org.alfresco.solr.query.SolrReaderSetQuery;
+import org.alfresco.solr.tracker.ShardRouting;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.legacy.LegacyNumericRangeQuery;
+import org.apache.lucene.legacy.LegacyNumericUtils;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.WrappedQuery;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops shards from a distributed request when their routing function cannot place a match on them.
+ * <p>
+ * Each shard reports its {@link ShardRouting} in the header of its responses. The coordinator remembers it
+ * for a while and then checks the DBID, shard date and shard property constraints of the query against it.
+ * Shards whose routing is not (or no longer) known are always asked.
+ * <p>
+ * Shards sharded by ACL id can also report a summary of the authorities that can read something on them,
+ * so an authority filter without any of those authorities skips the shard. The summary is only as fresh as
+ * the routing, so it can miss readers granted since; requests opt in to it with {@link #PRUNE_READERS_PARAM}.
+ *
+ * @author Andy
+ */
+public class ShardPruner
+{
+    protected final static Logger log = LoggerFactory.getLogger(ShardPruner.class);
+
+    /** The response header entry holding the routing of a shard. */
+    public static final String ROUTING_HEADER = "shardRouting";
+
+    /** The response header entry holding the {@link ReaderAuthoritySummary} of a shard sharded by ACL. */
+    public static final String READERS_HEADER = "shardReaders";
+
+    /** Shard request parameter with the version of the reader summary the coordinator already has. */
+    public static final String READERS_VERSION_PARAM = "shards.readersVersion";
+
+    /** Request parameter to switch pruning off. */
+    public static final String PRUNE_PARAM = "shards.prune";
+
+    /** Request parameter to also prune by the readers of ACL sharded shards, off by default. */
+    public static final String PRUNE_READERS_PARAM = "shards.pruneReaders";
+
+    public static final long DEFAULT_ROUTING_TTL = 60000L;
+
+    private static final String FIELD_DBID = "DBID";
+
+    private static final String[] DATE_FIELD_PREFIXES = { "date@s_@", "date@sd@", "datetime@s_@", "datetime@sd@" };
+
+    private static final String[] TEXT_FIELD_PREFIXES = { "text@s____@", "text@sd___@" };
+
+    private static final String[] INT_FIELD_PREFIXES = { "int@s_@", "int@sd@" };
+
+    private static final String[] LONG_FIELD_PREFIXES = { "long@s_@", "long@sd@" };
+
+    private final Map<String, KnownShard> shards = new ConcurrentHashMap<>();
+
+    private final long routingTTL;
+
+    public ShardPruner()
+    {
+        this(DEFAULT_ROUTING_TTL);
+    }
+
+    public ShardPruner(long routingTTL)
+    {
+        this.routingTTL = routingTTL;
+    }
+
+    /**
+     * Remembers the routing a shard reported in its response header.
+     */
+    public void learn(String shard, NamedList<?> responseHeader, long now)
+    {
+        if (shard == null || responseHeader == null)
+        {
+            return;
+        }
+        Object reported = responseHeader.get(ROUTING_HEADER);
+        if (!(reported instanceof NamedList))
+        {
+            return;
+        }
+        ShardRouting routing = ShardRouting.fromNamedList((NamedList<?>) reported);
+        if (routing == null)
+        {
+            return;
+        }
+
+        AuthorityBloomFilter readers = null;
+        long readersVersion = -1;
+        reported = responseHeader.get(READERS_HEADER);
+        if (reported instanceof NamedList)
+        {
+            NamedList<?> summary = (NamedList<?>) reported;
+            readersVersion = ((Number) summary.get("version")).longValue();
+            byte[] bits = (byte[]) summary.get("bits");
+            if (bits != null)
+            {
+                readers = AuthorityBloomFilter.fromBytes(bits, ((Number) summary.get("hashes")).intValue());
+            }
+            else
+            {
+                // The shard left the filter out as we already have this version
+                KnownShard known = known(shard);
+                if (known != null && known.readersVersion == readersVersion)
+                {
+                    readers = known.readers;
+                }
+            }
+        }
+        learn(shard, routing, readers, readersVersion, now);
+    }
+
+    public void learn(String shard, ShardRouting routing, long now)
+    {
+        learn(shard, routing, null, -1, now);
+    }
+
+    /**
+     * @param readers the authorities that can read something on the shard, null if unknown
+     * @param readersVersion the index version the readers were taken from
+     */
+    public void learn(String shard, ShardRouting routing, AuthorityBloomFilter readers, long readersVersion, long now)
+    {
+        KnownShard known = known(shard);
+        // Keep the instance we have so its router is not built again
+        ShardRouting knownRouting = known != null && known.routing.equals(routing) ? known.routing : routing;
+        shards.put(shard, new KnownShard(knownRouting, readers, readers == null ? -1 : readersVersion, now));
+    }
+
+    private KnownShard known(String shard)
+    {
+        return shards.get(shard);
+    }
+
+    private KnownShard known(String shard, long now)
+    {
+        KnownShard known = shards.get(shard);
+        if (known == null || now - known.learnt > routingTTL)
+        {
+            return null;
+        }
+        return known;
+    }
+
+    /**
+     * @return the routing of the shard, or null if it is unknown or out of date
+     */
+    public ShardRouting getRouting(String shard, long now)
+    {
+        KnownShard known = known(shard, now);
+        return known == null ? null : known.routing;
+    }
+
+    /**
+     * @return the version of the reader summary we hold for the shard, or -1
+     */
+    public long getReadersVersion(String shard)
+    {
+        KnownShard known = known(shard);
+        return known == null ? -1 : known.readersVersion;
+    }
+
+    /**
+     * Removes the shards that cannot match the query and filters of the request from {@link ResponseBuilder#shards}.
+     */
+    public void prune(ResponseBuilder rb)
+    {
+        if (rb.shards == null || rb.shards.length <= 1 || !rb.req.getParams().getBool(PRUNE_PARAM, true))
+        {
+            return;
+        }
+
+        List<Query> queries = new ArrayList<>();
+        if (rb.getQuery() != null)
+        {
+            queries.add(rb.getQuery());
+        }
+        if (rb.getFilters() != null)
+        {
+            queries.addAll(rb.getFilters());
+        }
+
+        NamedList<Object> debug = new SimpleOrderedMap<>();
+        boolean pruneReaders = rb.req.getParams().getBool(PRUNE_READERS_PARAM, false);
+        int[] selected = selectShards(rb.shards, queries, System.currentTimeMillis(), pruneReaders, debug);
+        if (selected.length < rb.shards.length)
+        {
+            String[] shards = new String[selected.length];
+            String[] slices = rb.slices != null && rb.slices.length == rb.shards.length ? new String[selected.length] : null;
+            for (int i = 0; i < selected.length; i++)
+            {
+                shards[i] = rb.shards[selected[i]];
+                if (slices != null)
+                {
+                    slices[i] = rb.slices[selected[i]];
+                }
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug("Pruned shards " + debug.get("pruned") + " for " + queries);
+            }
+            rb.shards = shards;
+            if (slices != null)
+            {
+                rb.slices = slices;
+            }
+        }
+        if (rb.isDebug())
+        {
+            rb.addDebugInfo("shardPruning", debug);
+        }
+    }
+
+    int[] selectShards(String[] shards, List<Query> queries, long now, NamedList<Object> debug)
+    {
+        return selectShards(shards, queries, now, false, debug);
+    }
+
+    /**
+     * @param pruneReaders true to also use the reader summaries of the shards
+     * @return the indexes of the shards that have to be asked; never empty
+     */
+    int[] selectShards(String[] shards, List<Query> queries, long now, boolean pruneReaders, NamedList<Object> debug)
+    {
+        int[] selected = new int[shards.length];
+        int count = 0;
+        List<String> pruned = new ArrayList<>();
+        List<String> unknown = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++)
+        {
+            KnownShard known = known(shards[i], now);
+            if (known == null)
+            {
+                unknown.add(shards[i]);
+                selected[count++] = i;
+            }
+            else if (canMatch(queries, known.routing, pruneReaders ? known.readers : null))
+            {
+                selected[count++] = i;
+            }
+            else
+            {
+                pruned.add(shards[i]);
+            }
+        }
+        if (count == 0)
+        {
+            // Nothing can match, but one shard still has to build the (empty) response
+            selected[count++] = 0;
+            pruned.remove(0);
+        }
+
+        debug.add("shards", shards.length);
+        debug.add("queried", count);
+        debug.add("pruned", pruned);
+        debug.add("unknownRouting", unknown);
+
+        int[] result = new int[count];
+        System.arraycopy(selected, 0, result, 0, count);
+        return result;
+    }
+
+    static boolean canMatch(List<Query> queries, ShardRouting routing, AuthorityBloomFilter readers)
+    {
+        for (Query query : queries)
+        {
+            if (!canMatch(query, routing, readers))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Can any document matching the query be routed to the shard? Anything not understood can match.
+     */
+    static boolean canMatch(Query query, ShardRouting routing, AuthorityBloomFilter readers)
+    {
+        if (query instanceof BoostQuery)
+        {
+            return canMatch(((BoostQuery) query).getQuery(), routing, readers);
+        }
+        else if (query instanceof ConstantScoreQuery)
+        {
+            return canMatch(((ConstantScoreQuery) query).getQuery(), routing, readers);
+        }
+        else if (query instanceof ContextAwareQuery)
+        {
+            return canMatch(((ContextAwareQuery) query).getLuceneQuery(), routing, readers);
+        }
+        else if (query instanceof WrappedQuery)
+        {
+            return canMatch(((WrappedQuery) query).getWrappedQuery(), routing, readers);
+        }
+        else if (query instanceof BooleanQuery)
+        {
+            return canMatch((BooleanQuery) query, routing, readers);
+        }
+        else if (query instanceof MatchNoDocsQuery)
+        {
+            return false;
+        }
+        else if (query instanceof TermQuery)
+        {
+            return canMatch(((TermQuery) query).getTerm(), routing);
+        }
+        else if (query instanceof LegacyNumericRangeQuery)
+        {
+            return canMatch((LegacyNumericRangeQuery<?>) query, routing);
+        }
+        else if (query instanceof SolrAuthoritySetQuery || query instanceof SolrReaderSetQuery)
+        {
+            return canRead(((AbstractAuthoritySetQuery) query).getAuthorities(), readers);
+        }
+        else if (query instanceof SolrAuthorityQuery || query instanceof SolrReaderQuery)
+        {
+            return canRead(new String[] { ((AbstractAuthorityQuery) query).getAuthority() }, readers);
+        }
+        return true;
+    }
+
+    /**
+     * Can any of the authorities read something on a shard with these readers and owners?
+     * Owners are in the summary, so reading as an owner is covered as well.
+     */
+    private static boolean canRead(String[] authorities, AuthorityBloomFilter readers)
+    {
+        if (readers == null)
+        {
+            return true;
+        }
+        Set<String> globalReaders = GlobalReaders.getReaders();
+        for (String authority : authorities)
+        {
+            if (globalReaders.contains(authority) || readers.mightContain(authority))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean canMatch(BooleanQuery query, ShardRouting routing, AuthorityBloomFilter readers)
+    {
+        boolean required = false;
+        boolean optional = false;
+        boolean optionalCanMatch = false;
+        for (BooleanClause clause : query.clauses())
+        {
+            switch (clause.getOccur())
+            {
+                case MUST:
+                case FILTER:
+                    required = true;
+                    if (!canMatch(clause.getQuery(), routing, readers))
+                    {
+                        return false;
+                    }
+                    break;
+                case SHOULD:
+                    optional = true;
+                    optionalCanMatch = optionalCanMatch || canMatch(clause.getQuery(), routing, readers);
+                    break;
+                default:
+                    // A MUST_NOT clause only removes documents
+                    break;
+            }
+        }
+        if (optional && (!required || query.getMinimumNumberShouldMatch() > 0))
+        {
+            return optionalCanMatch;
+        }
+        return true;
+    }
+
+    private static boolean canMatch(Term term, ShardRouting routing)
+    {
+        String field = term.field();
+        try
+        {
+            if (field.equals(FIELD_DBID))
+            {
+                if (LegacyNumericUtils.getPrefixCodedLongShift(term.bytes()) == 0)
+                {
+                    return routing.canHoldDbid(LegacyNumericUtils.prefixCodedToLong(term.bytes()));
+                }
+            }
+            else if (routing.isShardKeyField(field))
+            {
+                if (hasPrefix(field, DATE_FIELD_PREFIXES))
+                {
+                    if (LegacyNumericUtils.getPrefixCodedLongShift(term.bytes()) == 0)
+                    {
+                        long date = LegacyNumericUtils.prefixCodedToLong(term.bytes());
+                        return routing.canHoldDates(date, date);
+                    }
+                }
+                else if (hasPrefix(field, TEXT_FIELD_PREFIXES))
+                {
+                    return routing.canHoldPropertyValue(term.text());
+                }
+                else if (hasPrefix(field, INT_FIELD_PREFIXES))
+                {
+                    if (LegacyNumericUtils.getPrefixCodedIntShift(term.bytes()) == 0)
+                    {
+                        return routing.canHoldPropertyValue(Integer.toString(LegacyNumericUtils.prefixCodedToInt(term.bytes())));
+                    }
+                }
+                else if (hasPrefix(field, LONG_FIELD_PREFIXES))
+                {
+                    if (LegacyNumericUtils.getPrefixCodedLongShift(term.bytes()) == 0)
+                    {
+                        return routing.canHoldPropertyValue(Long.toString(LegacyNumericUtils.prefixCodedToLong(term.bytes())));
+                    }
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // Not a trie encoded term after all
+        }
+        return true;
+    }
+
+    private static boolean canMatch(LegacyNumericRangeQuery<?> query, ShardRouting routing)
+    {
+        String field = query.getField();
+        Number min = query.getMin();
+        Number max = query.getMax();
+        if (!(min == null || min instanceof Long || min instanceof Integer)
+                    || !(max == null || max instanceof Long || max instanceof Integer))
+        {
+            return true;
+        }
+
+        long from = min == null ? Long.MIN_VALUE : min.longValue();
+        long to = max == null ? Long.MAX_VALUE : max.longValue();
+        if (min != null && !query.includesMin())
+        {
+            if (from == Long.MAX_VALUE)
+            {
+                return false;
+            }
+            from++;
+        }
+        if (max != null && !query.includesMax())
+        {
+            if (to == Long.MIN_VALUE)
+            {
+                return false;
+            }
+            to--;
+        }
+
+        if (field.equals(FIELD_DBID))
+        {
+            return routing.canHoldDbids(from, to);
+        }
+        else if (routing.isShardKeyField(field))
+        {
+            if (hasPrefix(field, DATE_FIELD_PREFIXES))
+            {
+                return routing.canHoldDates(from, to);
+            }
+            else if (from == to && (hasPrefix(field, INT_FIELD_PREFIXES) || hasPrefix(field, LONG_FIELD_PREFIXES)))
+            {
+                return routing.canHoldPropertyValue(Long.toString(from));
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasPrefix(String field, String[] prefixes)
+    {
+        for (String prefix : prefixes)
+        {
+            if (field.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class KnownShard
+    {
+        final ShardRouting routing;
+        final AuthorityBloomFilter readers;
+        final long readersVersion;
+        final long learnt;
+
+        KnownShard(ShardRouting routing, AuthorityBloomFilter readers, long readersVersion, long learnt)
+        {
+            this.routing = routing;
+            this.readers = readers;
+            this.readersVersion = readersVersion;
+            this.learnt = learnt;
+        }
+    }
+}
@@ -20,12 +20,15 @@ package org.alfresco.solr;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.InputStream;
 
 import org.alfresco.repo.dictionary.M2Model;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
+import org.alfresco.solr.AlfrescoSolrDataModel.IndexedField;
 import org.alfresco.solr.AlfrescoSolrDataModel.TenantAclIdDbId;
 import org.junit.Test;
 
@@ -147,4 +150,37 @@ public class SolrDataModelTest
         
         
     }
+
+    @Test
+    public void indexedFieldsAreCachedUntilTheModelChanges()
+    {
+        AlfrescoSolrDataModel dataModel = new AlfrescoSolrDataModel();
+        ClassLoader cl = SolrDataModelTest.class.getClassLoader();
+        dataModel.putModel(M2Model.createModel(cl.getResourceAsStream("alfresco/model/dictionaryModel.xml")));
+        M2Model cmisModel = M2Model.createModel(cl.getResourceAsStream("alfresco/model/cmisModel.xml"));
+        dataModel.putModel(cmisModel);
+
+        IndexedField name = dataModel.getIndexedFieldNamesForProperty(NAME);
+        assertSame(name, dataModel.getIndexedFieldNamesForProperty(NAME));
+        String schemaField = name.getFields().get(0).getField();
+        String property = dataModel.getAlfrescoPropertyFromSchemaField(schemaField);
+        assertSame(property, dataModel.getAlfrescoPropertyFromSchemaField(schemaField));
+
+        dataModel.putModel(cmisModel);
+        IndexedField reloaded = dataModel.getIndexedFieldNamesForProperty(NAME);
+        assertNotSame(name, reloaded);
+        assertEquals(4, reloaded.getFields().size());
+        assertEquals(property, dataModel.getAlfrescoPropertyFromSchemaField(schemaField));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cachedIndexedFieldsAreImmutable()
+    {
+        AlfrescoSolrDataModel dataModel = new AlfrescoSolrDataModel();
+        ClassLoader cl = SolrDataModelTest.class.getClassLoader();
+        dataModel.putModel(M2Model.createModel(cl.getResourceAsStream("alfresco/model/dictionaryModel.xml")));
+        dataModel.putModel(M2Model.createModel(cl.getResourceAsStream("alfresco/model/cmisModel.xml")));
+
+        dataModel.getIndexedFieldNamesForProperty(NAME).addField("other", false, false);
+    }
 }
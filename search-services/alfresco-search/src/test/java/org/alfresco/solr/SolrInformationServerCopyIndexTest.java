@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DBID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DOC_TYPE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_VERSION;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.alfresco.solr.client.Node;
+import org.alfresco.solr.tracker.DBIDRouter;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.LegacyNumericRangeQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.update.AddUpdateCommand;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the copies of a core's index that split a DBID range shard and seed new cores.
+ *
+ * @author Andy
+ */
+public class SolrInformationServerCopyIndexTest extends AbstractAlfrescoSolrTests
+{
+    private static InformationServer informationServer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        initAlfrescoCore("schema.xml");
+        SolrCore core = getCore();
+        informationServer = admin.getInformationServers().get(core.getName());
+        try (SolrServletRequest request = new SolrServletRequest(core, null))
+        {
+            for (long dbid = 1000; dbid < 1020; dbid++)
+            {
+                add(core, request, "copy-node-" + dbid, SolrInformationServer.DOC_TYPE_NODE, dbid);
+            }
+            add(core, request, "copy-acl", SolrInformationServer.DOC_TYPE_ACL, null);
+        }
+        informationServer.capIndex(2000);
+    }
+
+    @Test
+    public void splitKeepsNodesFromTheSplitAndSharedDocuments() throws Exception
+    {
+        File indexDirectory = folder.newFolder();
+        long copied = informationServer.splitIndex(1010, indexDirectory);
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDirectory.toPath())))
+        {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(copied, reader.numDocs());
+            assertEquals(0, searcher.count(LegacyNumericRangeQuery.newLongRange(FIELD_DBID, 6, null, 1010L, true, false)));
+            assertEquals(10, searcher.count(LegacyNumericRangeQuery.newLongRange(FIELD_DBID, 6, 1010L, 1020L, true, false)));
+            assertEquals(1, searcher.count(new TermQuery(new Term(FIELD_SOLR4_ID, "copy-acl"))));
+            assertEquals(0, searcher.count(new TermQuery(new Term(FIELD_SOLR4_ID, SolrInformationServer.INDEX_CAP_ID))));
+        }
+    }
+
+    @Test
+    public void seedKeepsNodesTheShardOwnsAndSharedDocuments() throws Exception
+    {
+        DBIDRouter router = new DBIDRouter();
+        Node node = new Node();
+        int owned = 0;
+        for (long dbid = 1000; dbid < 1020; dbid++)
+        {
+            node.setId(dbid);
+            owned += router.routeNode(2, 1, node) ? 1 : 0;
+        }
+
+        File indexDirectory = folder.newFolder();
+        long copied = informationServer.seedIndex(indexDirectory, router, 2, 1);
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDirectory.toPath())))
+        {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(copied, reader.numDocs());
+            assertEquals(owned, searcher.count(LegacyNumericRangeQuery.newLongRange(FIELD_DBID, 6, 1000L, 1020L, true, false)));
+            assertEquals(1, searcher.count(new TermQuery(new Term(FIELD_SOLR4_ID, "copy-acl"))));
+            assertEquals(0, searcher.count(new TermQuery(new Term(FIELD_SOLR4_ID, SolrInformationServer.INDEX_CAP_ID))));
+        }
+    }
+
+    @Test
+    public void seedOfAReplicaKeepsEverything() throws Exception
+    {
+        File indexDirectory = folder.newFolder();
+        informationServer.seedIndex(indexDirectory, null, 1, 0);
+
+        try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDirectory.toPath())))
+        {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(20, searcher.count(LegacyNumericRangeQuery.newLongRange(FIELD_DBID, 6, 1000L, 1020L, true, false)));
+            assertEquals(1, searcher.count(new TermQuery(new Term(FIELD_SOLR4_ID, SolrInformationServer.INDEX_CAP_ID))));
+        }
+    }
+
+    private static void add(SolrCore core, SolrServletRequest request, String id, String docType, Long dbid) throws Exception
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(FIELD_SOLR4_ID, id);
+        doc.addField(FIELD_VERSION, "0");
+        doc.addField(FIELD_DOC_TYPE, docType);
+        if (dbid != null)
+        {
+            doc.addField(FIELD_DBID, dbid);
+        }
+        else
+        {
+            doc.addField(FIELD_ACLID, 1010L);
+        }
+
+        AddUpdateCommand add = new AddUpdateCommand(request);
+        add.overwrite = true;
+        add.solrDoc = doc;
+        core.getUpdateHandler().addDoc(add);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+public class QueryLogWriterTest
+{
+    /**
+     * Collects batches instead of writing them to a core.
+     */
+    private static class CollectingQueryLogWriter extends QueryLogWriter
+    {
+        private final List<Integer> batchSizes = new ArrayList<Integer>();
+
+        CollectingQueryLogWriter(int queueSize, int batchSize)
+        {
+            super(null, "test_qlog", queueSize, batchSize, 10L);
+        }
+
+        @Override
+        protected synchronized boolean addToLogCore(List<SolrInputDocument> batch)
+        {
+            batchSizes.add(batch.size());
+            return true;
+        }
+    }
+
+    private SolrInputDocument doc(int i)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", Integer.toString(i));
+        return doc;
+    }
+
+    @Test
+    public void dropsWhenQueueIsFull()
+    {
+        CollectingQueryLogWriter writer = new CollectingQueryLogWriter(2, 10);
+        assertTrue(writer.offer(doc(1)));
+        assertTrue(writer.offer(doc(2)));
+        assertFalse(writer.offer(doc(3)));
+        assertEquals(1, writer.getDropped());
+    }
+
+    @Test
+    public void flushWritesInBatches()
+    {
+        CollectingQueryLogWriter writer = new CollectingQueryLogWriter(10, 4);
+        for (int i = 0; i < 10; i++)
+        {
+            writer.offer(doc(i));
+        }
+        writer.flush();
+        assertEquals(10, writer.getWritten());
+        assertEquals(3, writer.batchSizes.size());
+        assertEquals(Integer.valueOf(4), writer.batchSizes.get(0));
+        assertEquals(Integer.valueOf(2), writer.batchSizes.get(2));
+    }
+
+    @Test
+    public void threadStartsOnceAndNotAfterClose()
+    {
+        CollectingQueryLogWriter writer = new CollectingQueryLogWriter(10, 4);
+        assertFalse(writer.isStarted());
+        writer.start();
+        writer.start();
+        assertTrue(writer.isStarted());
+        writer.close();
+        writer.start();
+        assertFalse(writer.isStarted());
+    }
+
+    @Test
+    public void closeFlushesAndRejectsNewEntries()
+    {
+        CollectingQueryLogWriter writer = new CollectingQueryLogWriter(100, 10);
+        writer.start();
+        for (int i = 0; i < 25; i++)
+        {
+            writer.offer(doc(i));
+        }
+        writer.close();
+        assertEquals(25, writer.getWritten());
+        assertFalse(writer.offer(doc(26)));
+    }
+}
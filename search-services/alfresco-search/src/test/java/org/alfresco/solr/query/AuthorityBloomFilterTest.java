@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AuthorityBloomFilterTest
+{
+    private static List<String> authorities(String prefix, int count)
+    {
+        List<String> authorities = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            authorities.add(prefix + i);
+        }
+        return authorities;
+    }
+
+    @Test
+    public void addedAuthoritiesAreAlwaysFound()
+    {
+        List<String> added = authorities("GROUP_site_", 5000);
+        AuthorityBloomFilter filter = AuthorityBloomFilter.create(added, 0.01);
+        for (String authority : added)
+        {
+            assertTrue(authority, filter.mightContain(authority));
+        }
+    }
+
+    @Test
+    public void falsePositivesStayNearTheRequestedRate()
+    {
+        AuthorityBloomFilter filter = AuthorityBloomFilter.create(authorities("GROUP_site_", 5000), 0.01);
+        int falsePositives = 0;
+        for (String authority : authorities("user", 10000))
+        {
+            if (filter.mightContain(authority))
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives " + falsePositives, falsePositives < 300);
+    }
+
+    @Test
+    public void emptyFilterFindsNothing()
+    {
+        AuthorityBloomFilter filter = AuthorityBloomFilter.create(Collections.emptyList(), 0.01);
+        assertFalse(filter.mightContain("GROUP_EVERYONE"));
+    }
+
+    @Test
+    public void filterRoundTripsThroughBytes()
+    {
+        AuthorityBloomFilter filter = AuthorityBloomFilter.create(authorities("GROUP_site_", 100), 0.01);
+        AuthorityBloomFilter copy = AuthorityBloomFilter.fromBytes(filter.toBytes(), filter.getHashes());
+        assertEquals(filter.getHashes(), copy.getHashes());
+        for (String authority : authorities("GROUP_site_", 100))
+        {
+            assertTrue(copy.mightContain(authority));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.alfresco.solr.query.AuthoritySetCache.AuthoritySet;
+import org.alfresco.util.Pair;
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+public class AuthoritySetCacheTest
+{
+    @Test
+    public void hashIgnoresOrderAndDuplicates()
+    {
+        String hash = AuthoritySetCache.hash(Arrays.asList("GROUP_EVERYONE", "andy", "GROUP_A"));
+        assertEquals(hash, AuthoritySetCache.hash(Arrays.asList("GROUP_A", "andy", "GROUP_EVERYONE", "andy")));
+        assertNotEquals(hash, AuthoritySetCache.hash(Arrays.asList("GROUP_A", "andy")));
+        // The separator keeps "ab" + "c" apart from "a" + "bc"
+        assertNotEquals(AuthoritySetCache.hash(Arrays.asList("ab", "c")), AuthoritySetCache.hash(Arrays.asList("a", "bc")));
+    }
+
+    @Test
+    public void putThenGet()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(1000L, 10);
+        AuthoritySet set = cache.put(Arrays.asList("b", "a", "b"));
+        assertEquals(Arrays.asList("a", "b"), set.getAuthorities());
+        assertSame(set, cache.get(set.getHash()));
+        assertSame(set, cache.put(Arrays.asList("a", "b")));
+    }
+
+    @Test
+    public void setsAreBoundedByWeight()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(160L, 10);
+        AuthoritySet small = cache.put(Arrays.asList("a", "b"));
+        AuthoritySet other = cache.put(Arrays.asList("c", "d"));
+        assertEquals(4L, cache.getWeight());
+
+        small.putFilter("key", new Pair<>("|a|b", true));
+        assertEquals(6L, small.getWeight());
+
+        // Touch the small set, so the other one is the least recently used
+        cache.get(small.getHash());
+        List<String> group = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            group.add("GROUP_" + i);
+        }
+        AuthoritySet large = cache.put(group);
+        assertEquals(70L, large.getWeight());
+        assertEquals(3, cache.size());
+
+        large.putFilter("key", new Pair<>(String.join("|", group), true));
+        assertEquals(157L, cache.getWeight());
+        cache.put(Arrays.asList("e", "f", "g", "h"));
+        assertEquals(159L, cache.getWeight());
+        assertSame(small, cache.get(small.getHash()));
+        assertSame(large, cache.get(large.getHash()));
+        try
+        {
+            cache.get(other.getHash());
+            fail();
+        }
+        catch (SolrException e)
+        {
+            assertTrue(AuthoritySetCache.isUnknownAuthoritySet(e));
+        }
+    }
+
+    @Test
+    public void unknownSetIsAConflict()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(1000L, 10);
+        try
+        {
+            cache.get(AuthoritySetCache.hash(Arrays.asList("a")));
+            fail();
+        }
+        catch (SolrException e)
+        {
+            assertEquals(SolrException.ErrorCode.CONFLICT.code, e.code());
+            assertTrue(AuthoritySetCache.isUnknownAuthoritySet(e));
+        }
+        assertFalse(AuthoritySetCache.isUnknownAuthoritySet(new SolrException(SolrException.ErrorCode.CONFLICT, "version conflict")));
+    }
+
+    @Test
+    public void sentToShards()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(1000L, 10);
+        String hash = AuthoritySetCache.hash(Arrays.asList("a"));
+        assertFalse(cache.isSentTo("shard1", hash));
+        cache.setSentTo("shard1", hash, true);
+        assertTrue(cache.isSentTo("shard1", hash));
+        assertFalse(cache.isSentTo("shard2", hash));
+        cache.setSentTo("shard1", hash, false);
+        assertFalse(cache.isSentTo("shard1", hash));
+    }
+}
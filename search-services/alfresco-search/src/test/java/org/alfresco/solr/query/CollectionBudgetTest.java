@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.TimeLimitingCollector.TimeExceededException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CollectionBudgetTest
+{
+    private static final int DOCS = 1000;
+
+    private static Directory directory;
+    private static DirectoryReader reader;
+
+    private SolrQueryResponse rsp;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException
+    {
+        directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer())))
+        {
+            for (int i = 0; i < DOCS; i++)
+            {
+                writer.addDocument(new Document());
+            }
+            writer.forceMerge(1);
+        }
+        reader = DirectoryReader.open(directory);
+    }
+
+    @AfterClass
+    public static void afterClass() throws IOException
+    {
+        reader.close();
+        directory.close();
+    }
+
+    @After
+    public void clearRequest()
+    {
+        SolrRequestInfo.clearRequestInfo();
+    }
+
+    private void request(String name, String value)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        if (name != null)
+        {
+            params.set(name, value);
+        }
+        rsp = new SolrQueryResponse();
+        rsp.addResponseHeader(new SimpleOrderedMap<>());
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(new LocalSolrQueryRequest(null, params), rsp));
+    }
+
+    /**
+     * Passes every other document on, like a permission check that lets half of them through.
+     */
+    private static class HalfCollector extends SimpleCollector
+    {
+        final CollectionBudget budget = CollectionBudget.forRequest();
+        int hits;
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException
+        {
+            budget.setNextReader(context);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException
+        {
+            budget.look(doc);
+            if (doc % 2 == 0)
+            {
+                hits++;
+                budget.hit(doc);
+            }
+        }
+
+        @Override
+        public boolean needsScores()
+        {
+            return false;
+        }
+    }
+
+    @Test
+    public void withoutLimitsEverythingIsCollected() throws IOException
+    {
+        request(null, null);
+        HalfCollector collector = new HalfCollector();
+        new IndexSearcher(reader).search(new MatchAllDocsQuery(), collector);
+
+        assertEquals(DOCS / 2, collector.hits);
+        assertFalse(collector.budget.isExceeded());
+        assertEquals(null, rsp.getResponseHeader().get(CollectionBudget.NUM_FOUND_ESTIMATE));
+    }
+
+    @Test
+    public void enoughHitsStopsTheSearchWithAnEstimate() throws IOException
+    {
+        request(CollectionBudget.ENOUGH_HITS, "10");
+        HalfCollector collector = new HalfCollector();
+        try
+        {
+            new IndexSearcher(reader).search(new MatchAllDocsQuery(), collector);
+            fail("The search should stop after 10 hits");
+        }
+        catch (TimeExceededException e)
+        {
+            // expected
+        }
+
+        assertEquals(10, collector.hits);
+        assertTrue(collector.budget.isExceeded());
+        // The tenth hit is document 18, so 19 documents were looked at
+        assertEquals(10L * DOCS / 19, rsp.getResponseHeader().get(CollectionBudget.NUM_FOUND_ESTIMATE));
+    }
+
+    @Test
+    public void budgetOutsideOfARequestIsUnlimited() throws IOException
+    {
+        HalfCollector collector = new HalfCollector();
+        new IndexSearcher(reader).search(new MatchAllDocsQuery(), collector);
+
+        assertEquals(DOCS / 2, collector.hits);
+        assertFalse(collector.budget.isExceeded());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.solr.client.solrj.SolrResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.ShardHandler;
+import org.apache.solr.handler.component.ShardHandlerFactory;
+import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.handler.component.ShardResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FingerPrintFetcherTest
+{
+    private ShardHandlerFactory shardHandlerFactory;
+
+    private ShardHandler shardHandler;
+
+    @Before
+    public void setUp()
+    {
+        FingerPrintFetcher.clearRecent();
+        shardHandlerFactory = mock(ShardHandlerFactory.class);
+        shardHandler = mock(ShardHandler.class);
+        when(shardHandlerFactory.getShardHandler()).thenReturn(shardHandler);
+    }
+
+    private ShardResponse response(Collection minHash)
+    {
+        NamedList<Object> fingerPrint = new NamedList<Object>();
+        if (minHash != null)
+        {
+            fingerPrint.add("MINHASH", minHash);
+        }
+        NamedList<Object> values = new NamedList<Object>();
+        values.add("fingerprint", fingerPrint);
+
+        SolrResponse solrResponse = mock(SolrResponse.class);
+        when(solrResponse.getResponse()).thenReturn(values);
+        ShardResponse response = mock(ShardResponse.class);
+        when(response.getSolrResponse()).thenReturn(solrResponse);
+        return response;
+    }
+
+    @Test
+    public void firstShardWithFingerPrintWins()
+    {
+        Collection minHash = Arrays.asList("a", "b");
+        ShardResponse empty = response(null);
+        ShardResponse owner = response(minHash);
+        when(shardHandler.takeCompletedIncludingErrors()).thenReturn(empty, owner, null);
+
+        assertSame(minHash, new FingerPrintFetcher(shardHandlerFactory).fetch("s1,s2,s3", "node"));
+        verify(shardHandler, times(3)).submit(any(ShardRequest.class), anyString(), any(ModifiableSolrParams.class));
+        verify(shardHandler).cancelAll();
+    }
+
+    @Test
+    public void fingerPrintsAreReusedAndMissesAreNot()
+    {
+        Collection minHash = Arrays.asList("a");
+        when(shardHandler.takeCompletedIncludingErrors()).thenReturn(response(minHash), (ShardResponse) null);
+
+        FingerPrintFetcher fetcher = new FingerPrintFetcher(shardHandlerFactory);
+        assertSame(minHash, fetcher.fetch("s1", "node"));
+        assertSame(minHash, fetcher.fetch("s1", "node"));
+        verify(shardHandlerFactory, times(1)).getShardHandler();
+
+        assertNull(fetcher.fetch("s1", "other"));
+        assertNull(fetcher.fetch("s1", "other"));
+        verify(shardHandlerFactory, times(3)).getShardHandler();
+    }
+
+    @Test
+    public void failedShardsAreSkipped()
+    {
+        ShardResponse failed = mock(ShardResponse.class);
+        when(failed.getException()).thenReturn(new RuntimeException("down"));
+        when(failed.getShard()).thenReturn("s1");
+        when(shardHandler.takeCompletedIncludingErrors()).thenReturn(failed, (ShardResponse) null);
+
+        assertNull(new FingerPrintFetcher(shardHandlerFactory).fetch("s1", "node"));
+    }
+}
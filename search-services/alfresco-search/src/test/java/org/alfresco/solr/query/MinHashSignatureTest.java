@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+public class MinHashSignatureTest
+{
+    private List<String> tokens(int count, String prefix)
+    {
+        List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < count; i++)
+        {
+            tokens.add(prefix + i);
+        }
+        return tokens;
+    }
+
+    @Test
+    public void signatureRoundTrips()
+    {
+        long[] signature = MinHashSignature.hash(tokens(512, "a"));
+        assertEquals(512, signature.length);
+        assertEquals(512 * 16, MinHashSignature.encode(signature).length());
+        assertArrayEquals(signature, MinHashSignature.decode(new BytesRef(MinHashSignature.encode(signature))));
+    }
+
+    @Test
+    public void matchesCountsSharedBuckets()
+    {
+        List<String> one = tokens(16, "a");
+        List<String> two = tokens(16, "a");
+        for (int i = 0; i < 4; i++)
+        {
+            two.set(i, "b" + i);
+        }
+        assertEquals(12, MinHashSignature.matches(MinHashSignature.hash(one), MinHashSignature.hash(two)));
+    }
+
+    @Test
+    public void bandsDependOnlyOnTheirRows()
+    {
+        List<String> one = tokens(16, "a");
+        List<String> two = tokens(16, "a");
+        two.set(0, "b");
+
+        List<String> bandsOne = MinHashSignature.bands(MinHashSignature.hash(one), 4);
+        List<String> bandsTwo = MinHashSignature.bands(MinHashSignature.hash(two), 4);
+        assertEquals(4, bandsOne.size());
+        assertNotEquals(bandsOne.get(0), bandsTwo.get(0));
+        assertEquals(bandsOne.subList(1, 4), bandsTwo.subList(1, 4));
+    }
+
+    @Test
+    public void allIndexedBandWidthsAreProduced()
+    {
+        long[] signature = MinHashSignature.hash(tokens(512, "a"));
+        assertEquals(128 + 64, MinHashSignature.bands(signature).size());
+    }
+
+    @Test
+    public void widestSafeBandIsChosen()
+    {
+        assertEquals(8, MinHashSignature.chooseRowsPerBand(512, 0.9, 0.9999));
+        assertEquals(4, MinHashSignature.chooseRowsPerBand(512, 0.7, 0.9999));
+        assertEquals(-1, MinHashSignature.chooseRowsPerBand(512, 0.3, 0.9999));
+    }
+}
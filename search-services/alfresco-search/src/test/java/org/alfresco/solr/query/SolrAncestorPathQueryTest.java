@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.junit.Test;
+
+public class SolrAncestorPathQueryTest
+{
+    private static final String CM = "http://www.alfresco.org/model/content/1.0";
+
+    private List<StructuredFieldPosition> positions = new ArrayList<StructuredFieldPosition>();
+
+    private void child(String namespace, String localName)
+    {
+        positions.add(new RelativeStructuredFieldPosition(namespace));
+        positions.add(new RelativeStructuredFieldPosition(localName));
+    }
+
+    private void descendants()
+    {
+        positions.add(new DescendantAndSelfStructuredFieldPosition());
+        positions.add(new DescendantAndSelfStructuredFieldPosition());
+    }
+
+    private SolrPathQuery build()
+    {
+        SolrPathQuery pathQuery = new SolrPathQuery(null);
+        pathQuery.setQuery(positions);
+        return pathQuery;
+    }
+
+    @Test
+    public void fixedPrefixIsExtractedForAllDescendants()
+    {
+        child(CM, "company_home");
+        child(CM, "sites");
+        descendants();
+        child("*", "*");
+
+        SolrPathQuery prefix = SolrAncestorPathQuery.getFixedPrefix(build());
+        assertNotNull(prefix);
+        assertEquals(4, prefix.getPathStructuredFieldPositions().size());
+        assertEquals("company_home", prefix.getPathStructuredFieldPositions().get(1).getTermText());
+        assertEquals(QueryConstants.FIELD_PATH, prefix.getPathField());
+    }
+
+    @Test
+    public void wildcardPrefixStepIsNotRewritten()
+    {
+        child(CM, "company_home");
+        child(CM, "*");
+        descendants();
+        child("*", "*");
+
+        assertNull(SolrAncestorPathQuery.getFixedPrefix(build()));
+    }
+
+    @Test
+    public void repeatedDescendantAxisIsNotRewritten()
+    {
+        child(CM, "company_home");
+        descendants();
+        child(CM, "sites");
+        descendants();
+        child("*", "*");
+
+        assertNull(SolrAncestorPathQuery.getFixedPrefix(build()));
+    }
+
+    @Test
+    public void namedDescendantIsNotRewritten()
+    {
+        child(CM, "company_home");
+        descendants();
+        child(CM, "sites");
+
+        assertNull(SolrAncestorPathQuery.getFixedPrefix(build()));
+    }
+
+    @Test
+    public void pathWithRepeatsIsNotRewritten()
+    {
+        child(CM, "company_home");
+        descendants();
+        child("*", "*");
+
+        SolrPathQuery pathQuery = build();
+        pathQuery.setRepeats(true);
+        assertNull(SolrAncestorPathQuery.getFixedPrefix(pathQuery));
+    }
+
+    @Test
+    public void otherPathFieldsAreNotRewritten()
+    {
+        child(CM, "company_home");
+        descendants();
+        child("*", "*");
+
+        SolrPathQuery pathQuery = build();
+        pathQuery.setPathField(QueryConstants.FIELD_PRIMARYASSOCQNAME);
+        assertNull(SolrAncestorPathQuery.getFixedPrefix(pathQuery));
+    }
+}
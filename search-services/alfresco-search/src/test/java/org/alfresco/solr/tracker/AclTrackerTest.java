@@ -22,7 +22,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyListOf;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
@@ -30,6 +33,8 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
@@ -38,8 +43,10 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import org.alfresco.solr.IndexTrackingShutdownException;
 import org.alfresco.solr.InformationServer;
 import org.alfresco.solr.TrackerState;
+import org.alfresco.solr.client.Acl;
 import org.alfresco.solr.client.AclChangeSet;
 import org.alfresco.solr.client.AclChangeSets;
+import org.alfresco.solr.client.AclReaders;
 import org.alfresco.solr.client.SOLRAPIClient;
 import org.apache.commons.lang.reflect.FieldUtils;
 import org.junit.Before;
@@ -195,6 +202,61 @@ public class AclTrackerTest
         verify(informationServer).commit();
     }*/
     
+    @Test
+    public void aclsOfAChangeSetAreIndexedInOneBatch() throws Exception
+    {
+        FieldUtils.writeField(tracker, "trackerStats", new TrackerStats(null), true);
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<Long> aclChangeSetsToIndex = (ConcurrentLinkedQueue<Long>)
+        FieldUtils.readField(tracker, "aclChangeSetsToIndex", true);
+        aclChangeSetsToIndex.add(101L);
+
+        AclChangeSets changeSets = mockChangeSets(101L);
+        List<AclChangeSet> changeSetList = changeSets.getAclChangeSets();
+        when(client.getAclChangeSets(null, 101L, null, 102L, 1)).thenReturn(changeSets);
+        List<Acl> acls = Arrays.asList(new Acl(101L, 1L), new Acl(101L, 2L), new Acl(101L, 3L));
+        when(client.getAcls(changeSetList, null, 1000)).thenReturn(acls);
+        List<AclReaders> readers = new ArrayList<AclReaders>();
+        when(client.getAclReaders(acls)).thenReturn(readers);
+
+        tracker.indexAclChangeSets();
+
+        // One readers request and one update for the whole change set rather than one per ACL
+        verify(client).getAclReaders(acls);
+        verify(informationServer).indexAcl(readers, false);
+        verify(informationServer).indexAclTransaction(changeSetList.get(0), false);
+    }
+
+    @Test
+    public void aclsOfAChangeSetAreFetchedInPages() throws Exception
+    {
+        Properties props = createProperties();
+        props.put("alfresco.aclPageSize", "2");
+        tracker = spy(new AclTracker(props, client, "core-name", informationServer));
+        FieldUtils.writeField(tracker, "trackerStats", new TrackerStats(null), true);
+        @SuppressWarnings("unchecked")
+        ConcurrentLinkedQueue<Long> aclChangeSetsToIndex = (ConcurrentLinkedQueue<Long>)
+        FieldUtils.readField(tracker, "aclChangeSetsToIndex", true);
+        aclChangeSetsToIndex.add(101L);
+
+        AclChangeSets changeSets = mockChangeSets(101L);
+        List<AclChangeSet> changeSetList = changeSets.getAclChangeSets();
+        when(client.getAclChangeSets(null, 101L, null, 102L, 1)).thenReturn(changeSets);
+        List<Acl> firstPage = Arrays.asList(new Acl(101L, 1L), new Acl(101L, 2L));
+        List<Acl> secondPage = Arrays.asList(new Acl(101L, 3L));
+        when(client.getAcls(changeSetList, null, 2)).thenReturn(firstPage);
+        when(client.getAcls(changeSetList, 3L, 2)).thenReturn(secondPage);
+        when(client.getAclReaders(anyListOf(Acl.class))).thenReturn(new ArrayList<AclReaders>());
+
+        tracker.indexAclChangeSets();
+
+        verify(client).getAcls(changeSetList, null, 2);
+        verify(client).getAcls(changeSetList, 3L, 2);
+        verify(client).getAclReaders(firstPage);
+        verify(client).getAclReaders(secondPage);
+        verify(client, never()).getAcls(anyListOf(AclChangeSet.class), any(Long.class), eq(Integer.MAX_VALUE));
+    }
+
     private AclChangeSets mockChangeSets(long id)
     {
         List<AclChangeSet> changeSets = Collections.singletonList(new AclChangeSet(id, 0L, 1));
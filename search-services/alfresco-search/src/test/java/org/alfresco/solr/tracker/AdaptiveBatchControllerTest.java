@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class AdaptiveBatchControllerTest
+{
+    private AdaptiveBatchController controller(boolean enabled)
+    {
+        Properties p = new Properties();
+        p.setProperty("alfresco.adaptive.enabled", Boolean.toString(enabled));
+        p.setProperty("alfresco.adaptive.targetFetchMs", "1000");
+        p.setProperty("alfresco.adaptive.targetDocsPerFetch", "100000");
+        p.setProperty("alfresco.adaptive.targetQueueDepth", "8");
+        return new AdaptiveBatchController(p, 100);
+    }
+
+    @Test
+    public void disabledControllerKeepsConfiguredValues()
+    {
+        AdaptiveBatchController controller = controller(false);
+        controller.fetched(0, 2000, 5000);
+        controller.indexed(1000000, 1);
+        controller.queueDepth(100);
+        assertEquals(AbstractTracker.TIME_STEP_1_HR_IN_MS, controller.getTimeStep());
+        assertEquals(2000, controller.getMaxResults());
+        assertEquals(100, controller.getBatchSize());
+        assertEquals(123L, controller.nextTimeStep(123L));
+    }
+
+    @Test
+    public void timeStepFollowsTransactionDensity()
+    {
+        AdaptiveBatchController controller = controller(true);
+        controller.fetched(0, 2000, 10);
+        controller.fetched(0, 2000, 10);
+        assertEquals(AbstractTracker.TIME_STEP_1_HR_IN_MS * 4, controller.getTimeStep());
+
+        for (int i = 0; i < 20; i++)
+        {
+            controller.fetched(0, 2000, 10);
+        }
+        assertEquals(AbstractTracker.TIME_STEP_32_DAYS_IN_MS, controller.getTimeStep());
+
+        for (int i = 0; i < 40; i++)
+        {
+            controller.fetched(controller.getMaxResults(), controller.getMaxResults(), 10);
+        }
+        assertEquals(AdaptiveBatchController.MIN_TIME_STEP, controller.getTimeStep());
+    }
+
+    @Test
+    public void maxResultsBacksOffWhenTheRepositoryIsSlow()
+    {
+        AdaptiveBatchController controller = controller(true);
+        controller.fetched(2000, 2000, 4000);
+        assertEquals(1500, controller.getMaxResults());
+        for (int i = 0; i < 50; i++)
+        {
+            controller.fetched(10, controller.getMaxResults(), 4000);
+        }
+        assertEquals(AdaptiveBatchController.MIN_MAX_RESULTS, controller.getMaxResults());
+
+        for (int i = 0; i < 50; i++)
+        {
+            controller.fetched(controller.getMaxResults(), controller.getMaxResults(), 10);
+        }
+        assertEquals(AdaptiveBatchController.MAX_MAX_RESULTS, controller.getMaxResults());
+    }
+
+    @Test
+    public void largeTransactionsLimitTheFetchSize()
+    {
+        AdaptiveBatchController controller = controller(true);
+        for (int i = 0; i < 50; i++)
+        {
+            controller.indexed(500, 1);
+        }
+        assertTrue(controller.getDocsPerTx() > 490);
+        assertTrue(controller.getMaxResults() <= 100000 / 490);
+        assertTrue(controller.getMaxResults() >= 100000 / 510);
+
+        for (int i = 0; i < 50; i++)
+        {
+            controller.indexed(1000000, 1);
+        }
+        assertEquals(AdaptiveBatchController.MIN_MAX_RESULTS, controller.getMaxResults());
+    }
+
+    @Test
+    public void batchSizeFollowsQueueDepth()
+    {
+        AdaptiveBatchController controller = controller(true);
+        controller.queueDepth(20);
+        assertEquals(200, controller.getBatchSize());
+        controller.queueDepth(20);
+        controller.queueDepth(20);
+        assertEquals(400, controller.getBatchSize());
+
+        for (int i = 0; i < 10; i++)
+        {
+            controller.queueDepth(0);
+        }
+        assertEquals(25, controller.getBatchSize());
+    }
+}
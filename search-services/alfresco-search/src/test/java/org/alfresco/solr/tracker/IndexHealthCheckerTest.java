@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.alfresco.solr.adapters.IOpenBitSet;
+import org.alfresco.solr.adapters.SolrOpenBitSetAdapter;
+import org.junit.Test;
+
+public class IndexHealthCheckerTest
+{
+    private static final List<Long> DB_IDS = Arrays.asList(1L, 2L, 3L, 5L, 6L, 7L);
+
+    private static IOpenBitSet bits(long... ids)
+    {
+        IOpenBitSet bits = new SolrOpenBitSetAdapter();
+        for (long id : ids)
+        {
+            bits.set(id);
+        }
+        return bits;
+    }
+
+    private static List<Long> dbIds(long fromId, long toId, int maxResults)
+    {
+        assertTrue(toId - fromId <= maxResults);
+        List<Long> ids = new ArrayList<>();
+        for (Long id : DB_IDS)
+        {
+            if (id >= fromId && id < toId)
+            {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    public void reportsEveryProblemAndTheCleanPrefix() throws Exception
+    {
+        IndexHealthChecker checker = new IndexHealthChecker(3, 2);
+        IOpenBitSet idsInDb = new SolrOpenBitSetAdapter();
+        Set<Long> problems = Collections.synchronizedSet(new TreeSet<>());
+
+        long checkpoint = checker.check(1, 7, IndexHealthCheckerTest::dbIds, bits(1, 2, 4, 5, 7), bits(5),
+                                        idsInDb, problems::add);
+
+        // 3 and 6 are missing, 4 is not in the repository and 5 is indexed twice
+        assertEquals(new TreeSet<>(Arrays.asList(3L, 4L, 5L, 6L)), problems);
+        assertEquals(2, checkpoint);
+        assertEquals(DB_IDS.size(), idsInDb.cardinality());
+    }
+
+    @Test
+    public void cleanIndexMovesTheCheckpointToTheEnd() throws Exception
+    {
+        IndexHealthChecker checker = new IndexHealthChecker(2, 4);
+        IOpenBitSet idsInDb = new SolrOpenBitSetAdapter();
+
+        long checkpoint = checker.check(1, 7, IndexHealthCheckerTest::dbIds, bits(1, 2, 3, 5, 6, 7), bits(),
+                                        idsInDb, null);
+
+        assertEquals(7, checkpoint);
+    }
+
+    @Test
+    public void emptyRangeChecksNothing() throws Exception
+    {
+        IndexHealthChecker checker = new IndexHealthChecker(2, 4);
+        long checkpoint = checker.check(8, 7, (from, to, max) -> {
+            throw new AssertionError("No range expected");
+        }, bits(), bits(), new SolrOpenBitSetAdapter(), null);
+
+        assertEquals(7, checkpoint);
+    }
+}
@@ -24,6 +24,7 @@ import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -33,6 +34,7 @@ import org.alfresco.solr.AlfrescoCoreAdminHandler;
 import org.alfresco.solr.InformationServer;
 import org.alfresco.solr.NodeReport;
 import org.alfresco.solr.TrackerState;
+import org.alfresco.solr.adapters.SolrOpenBitSetAdapter;
 import org.alfresco.solr.client.GetNodesParameters;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.SOLRAPIClient;
@@ -118,7 +120,7 @@ public class MetadataTrackerTest
 
         InOrder inOrder = inOrder(srv);
         inOrder.verify(srv).indexNodes(nodes, true, false);
-        inOrder.verify(srv).indexTransaction(tx, true);
+        inOrder.verify(srv).indexTransactions(Collections.singletonList(tx), true);
         inOrder.verify(srv).commit();
     }
 
@@ -197,6 +199,40 @@ public class MetadataTrackerTest
         
         assertSame(nodes4Tx, nodes);
     }
+
+    @Test
+    public void onlyAFixMovesTheHealthCheckpoint() throws Exception
+    {
+        List<Transaction> transactions = new ArrayList<>();
+        for (long id = 1; id <= 3; id++)
+        {
+            Transaction transaction = new Transaction();
+            transaction.setId(id);
+            transaction.setCommitTimeMs(id * 1000);
+            transactions.add(transaction);
+        }
+        Transactions first = mock(Transactions.class);
+        when(first.getTransactions()).thenReturn(transactions.subList(0, 1));
+        when(first.getMaxTxnId()).thenReturn(3L);
+        Transactions range = mock(Transactions.class);
+        when(range.getTransactions()).thenReturn(transactions);
+        when(repositoryClient.getTransactionsUnshared(null, 0L, null, Long.MAX_VALUE, 1)).thenReturn(first);
+        when(repositoryClient.getTransactionsUnshared(eq(null), eq(1L), eq(null), eq(4L), anyInt())).thenReturn(range);
+        when(srv.getOpenBitSetInstance()).thenAnswer(invocation -> new SolrOpenBitSetAdapter());
+        when(srv.getMaxTransactionIdAndCommitTimeInIndex()).thenReturn(transactions.get(2));
+        when(srv.getHealthCheckpoint(anyString())).thenReturn(-1L);
+
+        // Nothing is in the index, so every transaction is a problem
+        this.metadataTracker.checkIndexByIdRange(null, false, null);
+        verify(srv, never()).setHealthCheckpoint(anyString(), anyLong());
+        verify(repositoryClient, never()).getTransactions(any(), any(), any(), any(), anyInt());
+
+        List<Long> problems = new ArrayList<>();
+        this.metadataTracker.checkIndexByIdRange(null, false, problems::add);
+        assertEquals(3, problems.size());
+        verify(srv).setHealthCheckpoint("tx", 0L);
+        verify(srv).setHealthCheckpoint("tx.commitTime", 3000L);
+    }
     
     
 }
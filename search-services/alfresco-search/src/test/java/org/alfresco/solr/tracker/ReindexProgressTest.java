@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+public class ReindexProgressTest
+{
+    @Test
+    public void remainingTimeIsUnknownUntilTheTotalIsKnown()
+    {
+        ReindexProgress progress = new ReindexProgress("SITE:test");
+        assertEquals(-1, progress.getTotal());
+        assertEquals(-1, progress.getRemainingMs());
+        assertFalse(progress.isFinished());
+    }
+
+    @Test
+    public void progressIsReported() throws InterruptedException
+    {
+        ReindexProgress progress = new ReindexProgress("SITE:test");
+        progress.setTotal(1000);
+        Thread.sleep(10);
+        progress.addDone(100);
+        progress.addDone(150);
+
+        assertEquals(250, progress.getDone());
+        assertTrue(progress.getRate() > 0);
+        assertTrue(progress.getRemainingMs() >= 0);
+
+        NamedList<Object> report = progress.getNamedList();
+        assertEquals("SITE:test", report.get("Query"));
+        assertEquals(1000L, report.get("Nodes"));
+        assertEquals(250L, report.get("Nodes reindexed"));
+        assertTrue(report.get("Approx time remaining") != null);
+    }
+
+    @Test
+    public void finishedReindexHasNothingRemaining()
+    {
+        ReindexProgress progress = new ReindexProgress("SITE:test");
+        progress.setTotal(10);
+        progress.addDone(10);
+        progress.setFinished();
+        assertTrue(progress.isFinished());
+        assertEquals(0, progress.getRemainingMs());
+    }
+}
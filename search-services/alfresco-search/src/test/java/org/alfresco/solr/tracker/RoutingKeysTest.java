@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.alfresco.repo.index.shard.ShardMethodEnum;
+import org.alfresco.solr.client.Node;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.solr.common.util.Hash;
+import org.junit.Test;
+
+public class RoutingKeysTest
+{
+    @Test
+    public void idHashMatchesHashOfDecimalString()
+    {
+        List<Long> ids = new ArrayList<>();
+        long[] edges = { 0, 1, -1, 9, 10, 999, 1000, 1234, 12345, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+        for (long id : edges)
+        {
+            ids.add(id);
+        }
+        Random random = new Random(42L);
+        for (int i = 0; i < 10000; i++)
+        {
+            ids.add(random.nextLong() >> random.nextInt(64));
+        }
+
+        for (long id : ids)
+        {
+            String s = Long.toString(id);
+            assertEquals(s, Hash.murmurhash3_x86_32(s, 0, s.length(), 77), RoutingKeys.murmurhash3_x86_32(id, 77));
+        }
+    }
+
+    @Test
+    public void yearMonthMatchesCalendar()
+    {
+        String[] dates = { "2019-01-31T23:30:00.000Z", "2019-02-01T00:30:00.000+01:00", "2016-02-29T12:00:00.000-11:30",
+                    "1999-12-31T23:59:59Z", "2000-03-01T00:00:00.000+14:00", "1600-01-01T00:00:00.000Z",
+                    "1582-10-20T00:00:00.000Z", "1066-10-14T09:00:00.000Z" };
+        String[] zones = { "UTC", "Europe/London", "America/New_York", "Asia/Kolkata", "Pacific/Kiritimati" };
+        for (String zoneId : zones)
+        {
+            TimeZone zone = TimeZone.getTimeZone(zoneId);
+            for (String date : dates)
+            {
+                GregorianCalendar cal = new GregorianCalendar(zone);
+                cal.setTime(ISO8601DateFormat.parse(date));
+                int expected = cal.get(GregorianCalendar.YEAR) * 12 + cal.get(GregorianCalendar.MONTH);
+                assertEquals(zoneId + " " + date, expected, RoutingKeys.yearMonth(date, zone));
+            }
+        }
+    }
+
+    @Test
+    public void batchRoutingMatchesNodeRouting()
+    {
+        Random random = new Random(42L);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+        {
+            Node node = new Node();
+            node.setId(random.nextInt(100000));
+            node.setAclId(random.nextInt(1000));
+            nodes.add(node);
+        }
+
+        List<DocRouter> routers = new ArrayList<>();
+        routers.add(new DBIDRouter());
+        routers.add(new ACLIDMurmurRouter());
+        routers.add(new ACLIDModRouter());
+        routers.add(new DBIDRangeRouter(20000, 50000));
+        routers.add(DocRouterFactory.getRouter(null, ShardMethodEnum.DB_ID));
+        for (DocRouter router : routers)
+        {
+            for (int shardCount : new int[] { 1, 3, 8 })
+            {
+                for (int shardInstance = 0; shardInstance < shardCount; shardInstance++)
+                {
+                    BitSet owned = router.routeNodes(shardCount, shardInstance, nodes);
+                    for (int i = 0; i < nodes.size(); i++)
+                    {
+                        assertEquals(router.routeNode(shardCount, shardInstance, nodes.get(i)), owned.get(i));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.lucene.analysis.minhash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.lucene.analysis.minhash.MinHashFilter.LongPair;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ContextStoreTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LongPair hash(String context)
+    {
+        byte[] bytes = context.getBytes(StandardCharsets.UTF_16LE);
+        LongPair hash = new LongPair();
+        MinHashFilter.murmurhash3_x64_128(bytes, 0, bytes.length, 0, hash);
+        return hash;
+    }
+
+    @Test
+    public void leastRecentlyUsedWordsAreEvicted()
+    {
+        ContextStore store = new ContextStore(2, 8);
+        store.add("one", hash("a"));
+        store.add("two", hash("a"));
+        store.add("one", hash("b"));
+        store.add("three", hash("a"));
+
+        assertEquals(2, store.getWordCount());
+        assertEquals(1, store.getEvictions());
+        assertEquals(2, store.getContexts("one").length);
+        assertEquals(0, store.getContexts("two").length);
+    }
+
+    @Test
+    public void contextsPerWordAreBounded()
+    {
+        ContextStore store = new ContextStore(10, 64);
+        for (int i = 0; i < 10000; i++)
+        {
+            store.add("word", hash("context " + i));
+        }
+        long[] contexts = store.getContexts("word");
+        assertEquals(64, contexts.length);
+        for (int i = 1; i < contexts.length; i++)
+        {
+            assertTrue(contexts[i - 1] < contexts[i]);
+        }
+        double estimate = store.getContextCount("word");
+        assertTrue("Estimate " + estimate, estimate > 5000 && estimate < 20000);
+    }
+
+    @Test
+    public void memoryIsReportedAndBounded()
+    {
+        ContextStore store = new ContextStore(100, 16);
+        long empty = store.ramBytesUsed();
+        for (int i = 0; i < 10000; i++)
+        {
+            store.add("word" + (i % 1000), hash("context " + i));
+        }
+        long full = store.ramBytesUsed();
+        assertTrue(full > empty);
+        for (int i = 0; i < 10000; i++)
+        {
+            store.add("other" + (i % 1000), hash("context " + i));
+        }
+        assertEquals(100, store.getWordCount());
+        assertTrue(store.ramBytesUsed() < full * 2);
+    }
+
+    @Test
+    public void storeRoundTrips() throws IOException
+    {
+        ContextStore store = new ContextStore(10, 4);
+        for (int i = 0; i < 10; i++)
+        {
+            store.add("word", hash("context " + i));
+            store.add("other", hash("context " + i));
+        }
+        File file = folder.newFile("contexts.bin");
+        store.save(file);
+
+        ContextStore loaded = new ContextStore(10, 4);
+        loaded.load(file);
+        assertEquals(2, loaded.getWordCount());
+        assertArrayEquals(store.getContexts("word"), loaded.getContexts("word"));
+        assertEquals(store.ramBytesUsed(), loaded.ramBytesUsed());
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterAdds() throws IOException
+    {
+        ContextStore store = new ContextStore(10, 4);
+        store.add("word", hash("a"));
+        ContextStore.Snapshot snapshot = store.snapshot();
+        store.add("word", hash("b"));
+        store.add("other", hash("a"));
+
+        File file = folder.newFile("snapshot.bin");
+        snapshot.save(file);
+        ContextStore loaded = new ContextStore(10, 4);
+        loaded.load(file);
+        assertEquals(1, loaded.getWordCount());
+        assertEquals(1, loaded.getContexts("word").length);
+    }
+}
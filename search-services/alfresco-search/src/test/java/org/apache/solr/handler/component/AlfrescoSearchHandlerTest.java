@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.solr.handler.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.alfresco.solr.query.AuthoritySetCache;
+import org.apache.solr.common.SolrException;
+import org.junit.Test;
+
+public class AlfrescoSearchHandlerTest
+{
+    private static final String HASH = AuthoritySetCache.hash(Arrays.asList("GROUP_A", "GROUP_B"));
+
+    private static ShardResponse response(ShardRequest sreq, String shard, Throwable exception)
+    {
+        ShardResponse srsp = new ShardResponse();
+        srsp.setShardRequest(sreq);
+        srsp.setShard(shard);
+        srsp.setException(exception);
+        return srsp;
+    }
+
+    private static SolrException lost()
+    {
+        try
+        {
+            new AuthoritySetCache(1000L, 10).get(HASH);
+        }
+        catch (SolrException e)
+        {
+            return e;
+        }
+        throw new AssertionError();
+    }
+
+    @Test
+    public void aLostAuthoritySetIsSentAgain()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(1000L, 10);
+        cache.setSentTo("shard1", HASH, true);
+        ShardRequest sreq = new ShardRequest();
+        sreq.actualShards = new String[] { "shard1", "shard2" };
+        sreq.responses = new ArrayList<>();
+        ShardResponse srsp = response(sreq, "shard1", lost());
+
+        assertEquals(Arrays.asList("shard1"), AlfrescoSearchHandler.takeLostAuthoritySets(srsp, HASH, cache));
+        assertFalse(cache.isSentTo("shard1", HASH));
+        assertTrue(AlfrescoSearchHandler.takeLostAuthoritySets(srsp, null, cache).isEmpty());
+    }
+
+    @Test
+    public void toleratedResponsesAreSentAgainAsWell()
+    {
+        AuthoritySetCache cache = new AuthoritySetCache(1000L, 10);
+        ShardRequest sreq = new ShardRequest();
+        sreq.actualShards = new String[] { "shard1", "shard2", "shard3", "shard4" };
+        sreq.responses = new ArrayList<>();
+        // With shards.tolerant the failures come back with the last response of the request
+        ShardResponse first = response(sreq, "shard1", lost());
+        ShardResponse failed = response(sreq, "shard2", new SolrException(SolrException.ErrorCode.SERVER_ERROR, "down"));
+        ShardResponse second = response(sreq, "shard3", lost());
+        ShardResponse last = response(sreq, "shard4", null);
+        sreq.responses.addAll(Arrays.asList(first, failed, second, last));
+        for (String shard : sreq.actualShards)
+        {
+            cache.setSentTo(shard, HASH, true);
+        }
+
+        List<String> lost = AlfrescoSearchHandler.takeLostAuthoritySets(last, HASH, cache);
+        assertEquals(Arrays.asList("shard1", "shard3"), lost);
+        assertEquals(2, sreq.responses.size());
+        assertSame(failed, sreq.responses.get(0));
+        assertSame(last, sreq.responses.get(1));
+        assertFalse(cache.isSentTo("shard1", HASH));
+        assertTrue(cache.isSentTo("shard2", HASH));
+        assertFalse(cache.isSentTo("shard3", HASH));
+    }
+}
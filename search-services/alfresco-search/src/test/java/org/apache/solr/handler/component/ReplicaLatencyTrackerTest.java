@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.solr.handler.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ReplicaLatencyTrackerTest
+{
+    /**
+     * @return a random that gives these numbers in turn
+     */
+    private static Random choosing(int... choices)
+    {
+        return new Random()
+        {
+            private int next;
+
+            @Override
+            public int nextInt(int bound)
+            {
+                return choices[next++];
+            }
+        };
+    }
+
+    @Test
+    public void fastReplicaFirst()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+        tracker.recordSuccess("slow", 500, 0L);
+        tracker.recordSuccess("fast", 10, 0L);
+        assertEquals(Arrays.asList("fast", "slow"), tracker.order(Arrays.asList("slow", "fast"), 0L, choosing()));
+        // Not measured yet, so it wins any choice it is in
+        assertEquals(Arrays.asList("new", "fast", "slow"), tracker.order(Arrays.asList("slow", "new", "fast"), 0L, choosing(2, 0)));
+    }
+
+    @Test
+    public void firstReplicaIsTheBetterOfTwo()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+        tracker.recordSuccess("a", 10, 0L);
+        tracker.recordSuccess("b", 20, 0L);
+        tracker.recordSuccess("c", 30, 0L);
+        List<String> replicas = Arrays.asList("c", "b", "a");
+        assertEquals(Arrays.asList("a", "b", "c"), tracker.order(replicas, 0L, choosing(0, 1)));
+        // The fastest was not one of the two, so the better of the others goes first
+        assertEquals(Arrays.asList("b", "a", "c"), tracker.order(replicas, 0L, choosing(2, 1)));
+        assertEquals(Arrays.asList("b", "a", "c"), tracker.order(replicas, 0L, choosing(1, 1)));
+    }
+
+    @Test
+    public void unmeasuredReplicasAreTriedAgain()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker(0.2, 1000L);
+        tracker.recordFailure("dead", 0L);
+        tracker.recordSuccess("slow", 500, 0L);
+        tracker.recordSuccess("steady", 50, 0L);
+        assertEquals(Arrays.asList("steady", "slow"), tracker.order(Arrays.asList("slow", "steady"), 0L, choosing()));
+        assertEquals(Arrays.asList("steady", "dead"), tracker.order(Arrays.asList("dead", "steady"), 0L, choosing()));
+
+        // Only the steady replica keeps being asked, so the others' scores decay
+        tracker.recordSuccess("steady", 50, 5000L);
+        assertEquals(Arrays.asList("slow", "steady"), tracker.order(Arrays.asList("slow", "steady"), 5000L, choosing()));
+        assertEquals(Arrays.asList("steady", "dead"), tracker.order(Arrays.asList("dead", "steady"), 5000L, choosing()));
+        tracker.recordSuccess("steady", 50, 8000L);
+        assertEquals(Arrays.asList("dead", "steady"), tracker.order(Arrays.asList("dead", "steady"), 8000L, choosing()));
+    }
+
+    @Test
+    public void averageFollowsLatency()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker(0.5);
+        tracker.recordSuccess("a", 100);
+        assertEquals(100.0, tracker.getAverageLatency("a"), 0.0);
+        tracker.recordSuccess("a", 200);
+        assertEquals(150.0, tracker.getAverageLatency("a"), 0.0);
+    }
+
+    @Test
+    public void errorsPushReplicaBack()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+        tracker.recordSuccess("failing", 10);
+        tracker.recordSuccess("steady", 50);
+        for (int i = 0; i < 5; i++)
+        {
+            tracker.recordFailure("failing");
+        }
+        assertTrue(tracker.getErrorRate("failing") > 0.5);
+        assertEquals(Arrays.asList("steady", "failing"), tracker.order(Arrays.asList("failing", "steady")));
+
+        tracker.recordFailure("dead");
+        assertEquals(Arrays.asList("steady", "dead"), tracker.order(Arrays.asList("dead", "steady")));
+    }
+
+    @Test
+    public void percentiles()
+    {
+        ReplicaLatencyTracker tracker = new ReplicaLatencyTracker();
+        assertEquals(-1L, tracker.getPercentile("a", 95));
+        for (int i = 1; i < ReplicaLatencyTracker.MIN_SAMPLES; i++)
+        {
+            tracker.recordSuccess("a", i);
+        }
+        assertEquals(-1L, tracker.getPercentile("a", 95));
+        for (int i = ReplicaLatencyTracker.MIN_SAMPLES; i <= 100; i++)
+        {
+            tracker.recordSuccess("a", i);
+        }
+        assertEquals(95L, tracker.getPercentile("a", 95));
+        assertEquals(50L, tracker.getPercentile("a", 50));
+        assertEquals(100L, tracker.getPercentile("a", 100));
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2005-2019 Alfresco Software Limited.
+ *
+ * This file is part of Alfresco
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.apache.solr.handler.component;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.alfresco.repo.index.shard.ShardMethodEnum;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.alfresco.solr.query.AuthorityBloomFilter;
+import org.alfresco.solr.query.ReaderAuthoritySummary;
+import org.alfresco.solr.query.SolrAuthoritySetQuery;
+import org.alfresco.solr.query.SolrReaderQuery;
+import org.alfresco.solr.query.SolrReaderSetQuery;
+import org.alfresco.solr.tracker.ShardRouting;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.legacy.LegacyNumericRangeQuery;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.junit.Test;
+
+public class ShardPrunerTest
+{
+    private static final String[] SHARDS = { "host:8983/solr/alfresco-0", "host:8983/solr/alfresco-1", "host:8983/solr/alfresco-2" };
+
+    private static final String NAME = "{http://www.alfresco.org/model/content/1.0}name";
+
+    private static final String CREATED = "{http://www.alfresco.org/model/content/1.0}created";
+
+    private static Query dbids(long min, long max)
+    {
+        return LegacyNumericRangeQuery.newLongRange("DBID", min, max, true, true);
+    }
+
+    private static Query or(Query... queries)
+    {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Query query : queries)
+        {
+            builder.add(query, Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private static Query and(Query... queries)
+    {
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (Query query : queries)
+        {
+            builder.add(query, Occur.MUST);
+        }
+        return builder.build();
+    }
+
+    private static int[] select(ShardPruner pruner, Query... queries)
+    {
+        return pruner.selectShards(SHARDS, Arrays.asList(queries), 0L, new SimpleOrderedMap<>());
+    }
+
+    private static int[] selectByReaders(ShardPruner pruner, Query... queries)
+    {
+        return pruner.selectShards(SHARDS, Arrays.asList(queries), 0L, true, new SimpleOrderedMap<>());
+    }
+
+    private static ShardPruner rangePruner()
+    {
+        ShardPruner pruner = new ShardPruner();
+        for (int i = 0; i < SHARDS.length; i++)
+        {
+            pruner.learn(SHARDS[i], new ShardRouting(ShardMethodEnum.DB_ID_RANGE, i, SHARDS.length, i * 100, (i + 1) * 100, true, 1, null, null), 0L);
+        }
+        return pruner;
+    }
+
+    private static ShardPruner keyPruner(ShardMethodEnum method, String key)
+    {
+        ShardPruner pruner = new ShardPruner();
+        for (int i = 0; i < SHARDS.length; i++)
+        {
+            pruner.learn(SHARDS[i], new ShardRouting(method, i, SHARDS.length, -1, -1, 1, null, key), 0L);
+        }
+        return pruner;
+    }
+
+    @Test
+    public void dbidRangesOnlyGoToOverlappingShards()
+    {
+        ShardPruner pruner = rangePruner();
+        assertArrayEquals(new int[] { 1 }, select(pruner, dbids(150, 160)));
+        assertArrayEquals(new int[] { 0, 1 }, select(pruner, dbids(50, 100)));
+        assertArrayEquals(new int[] { 0, 2 }, select(pruner, or(dbids(5, 5), dbids(250, 250))));
+        assertArrayEquals(new int[] { 2 }, select(pruner, new MatchAllDocsQuery(), dbids(200, 1000)));
+    }
+
+    @Test
+    public void expandableRangesAreAskedBeyondTheirEnd()
+    {
+        ShardPruner pruner = new ShardPruner();
+        for (int i = 0; i < SHARDS.length; i++)
+        {
+            pruner.learn(SHARDS[i], new ShardRouting(ShardMethodEnum.DB_ID_RANGE, i, SHARDS.length, i * 100, (i + 1) * 100, 1, null, null), 0L);
+        }
+        assertArrayEquals(new int[] { 0, 1 }, select(pruner, dbids(150, 160)));
+        assertArrayEquals(new int[] { 0, 1, 2 }, select(pruner, dbids(250, 250)));
+
+        ShardRouting expanded = new ShardRouting(ShardMethodEnum.DB_ID_RANGE, 0, SHARDS.length, 0, 100, true, 1, null, null);
+        NamedList<Object> header = new SimpleOrderedMap<>();
+        header.add(ShardPruner.ROUTING_HEADER, expanded.toNamedList());
+        pruner.learn(SHARDS[0], header, 0L);
+        assertEquals(expanded, pruner.getRouting(SHARDS[0], 0L));
+        assertArrayEquals(new int[] { 1 }, select(pruner, dbids(150, 160)));
+    }
+
+    @Test
+    public void unconstrainedQueriesGoEverywhere()
+    {
+        ShardPruner pruner = rangePruner();
+        Query other = new TermQuery(new Term("TYPE", "{http://www.alfresco.org/model/content/1.0}content"));
+        assertArrayEquals(new int[] { 0, 1, 2 }, select(pruner, other));
+        assertArrayEquals(new int[] { 0, 1, 2 }, select(pruner, or(dbids(150, 160), other)));
+        assertArrayEquals(new int[] { 1 }, select(pruner, and(dbids(150, 160), other)));
+    }
+
+    @Test
+    public void shardsWithUnknownOrStaleRoutingAreAlwaysAsked()
+    {
+        ShardPruner pruner = new ShardPruner(1000L);
+        pruner.learn(SHARDS[0], new ShardRouting(ShardMethodEnum.DB_ID_RANGE, 0, 3, 0, 100, true, 1, null, null), 0L);
+        pruner.learn(SHARDS[1], new ShardRouting(ShardMethodEnum.DB_ID_RANGE, 1, 3, 100, 200, true, 1, null, null), 500L);
+        List<Query> query = Collections.singletonList(dbids(10, 20));
+        assertArrayEquals(new int[] { 0, 2 }, pruner.selectShards(SHARDS, query, 1000L, new SimpleOrderedMap<>()));
+        assertArrayEquals(new int[] { 0, 2 }, pruner.selectShards(SHARDS, query, 1200L, new SimpleOrderedMap<>()));
+        assertArrayEquals(new int[] { 0, 1, 2 }, pruner.selectShards(SHARDS, query, 1600L, new SimpleOrderedMap<>()));
+    }
+
+    @Test
+    public void atLeastOneShardIsAsked()
+    {
+        NamedList<Object> debug = new SimpleOrderedMap<>();
+        int[] selected = rangePruner().selectShards(SHARDS, Collections.singletonList(dbids(1000, 2000)), 0L, debug);
+        assertEquals(1, selected.length);
+        assertEquals(1, debug.get("queried"));
+        assertEquals(2, ((List<?>) debug.get("pruned")).size());
+    }
+
+    @Test
+    public void dbidsAreRoutedThroughTheMurmurRouter()
+    {
+        ShardPruner pruner = keyPruner(ShardMethodEnum.DB_ID, null);
+        assertEquals(1, select(pruner, dbids(42, 42)).length);
+        assertEquals(3, select(pruner, dbids(0, 100000)).length);
+    }
+
+    @Test
+    public void propertyValuesAreRoutedToOneShard()
+    {
+        ShardPruner pruner = keyPruner(ShardMethodEnum.PROPERTY, NAME);
+        assertEquals(1, select(pruner, new TermQuery(new Term("text@s____@" + NAME, "report.pdf"))).length);
+        // Tokenised fields do not hold the property value as it was routed
+        assertEquals(3, select(pruner, new TermQuery(new Term("text@s___t@" + NAME, "report"))).length);
+        assertEquals(3, select(pruner, new TermQuery(new Term("text@s____@{http://www.alfresco.org/model/content/1.0}title", "report.pdf"))).length);
+    }
+
+    @Test
+    public void explicitShardIdsSelectTheirShard()
+    {
+        ShardPruner pruner = keyPruner(ShardMethodEnum.EXPLICIT_ID, NAME);
+        assertArrayEquals(new int[] { 2 }, select(pruner, new TermQuery(new Term("text@s____@" + NAME, "2"))));
+        assertArrayEquals(new int[] { 0, 1, 2 }, select(pruner, new TermQuery(new Term("text@s____@" + NAME, "two"))));
+    }
+
+    @Test
+    public void dateRangesSelectTheShardsOfTheirMonths()
+    {
+        ShardPruner pruner = keyPruner(ShardMethodEnum.DATE, CREATED);
+        long from = new GregorianCalendar(2019, Calendar.MARCH, 3).getTimeInMillis();
+        long to = new GregorianCalendar(2019, Calendar.MARCH, 20).getTimeInMillis();
+        long later = new GregorianCalendar(2019, Calendar.APRIL, 20).getTimeInMillis();
+        long year = new GregorianCalendar(2020, Calendar.MARCH, 20).getTimeInMillis();
+        String field = "datetime@sd@" + CREATED;
+
+        int month = (2019 * 12 + Calendar.MARCH) % SHARDS.length;
+        assertArrayEquals(new int[] { month }, select(pruner, LegacyNumericRangeQuery.newLongRange(field, from, to, true, true)));
+        assertEquals(2, select(pruner, LegacyNumericRangeQuery.newLongRange(field, from, later, true, true)).length);
+        assertEquals(3, select(pruner, LegacyNumericRangeQuery.newLongRange(field, from, year, true, true)).length);
+        assertEquals(3, select(pruner, LegacyNumericRangeQuery.newLongRange(field, from, null, true, true)).length);
+    }
+
+    @Test
+    public void aclShardsWithoutAnyOfTheAuthoritiesAreSkipped()
+    {
+        ShardPruner pruner = new ShardPruner();
+        for (int i = 0; i < SHARDS.length; i++)
+        {
+            AuthorityBloomFilter readers = AuthorityBloomFilter.create(Arrays.asList("GROUP_shard" + i, "owner" + i), 0.01);
+            pruner.learn(SHARDS[i], new ShardRouting(ShardMethodEnum.ACL_ID, i, SHARDS.length, -1, -1, 1, null, null), readers, 7L, 0L);
+        }
+        assertArrayEquals(new int[] { 1 }, selectByReaders(pruner, new SolrAuthoritySetQuery("|GROUP_shard1|GROUP_nowhere")));
+        assertArrayEquals(new int[] { 0, 2 }, selectByReaders(pruner, new SolrAuthoritySetQuery(",owner0,GROUP_shard2")));
+        assertArrayEquals(new int[] { 2 }, selectByReaders(pruner, and(new MatchAllDocsQuery(), new SolrReaderQuery("GROUP_shard2"))));
+        assertArrayEquals(new int[] { 0, 1, 2 }, selectByReaders(pruner, new SolrAuthoritySetQuery("|GROUP_nowhere|" + PermissionService.ADMINISTRATOR_AUTHORITY)));
+        // Readers granted since the summaries were taken are only missed by requests that opt in
+        assertArrayEquals(new int[] { 0, 1, 2 }, select(pruner, new SolrAuthoritySetQuery("|GROUP_shard1|GROUP_nowhere")));
+        assertEquals(7L, pruner.getReadersVersion(SHARDS[0]));
+    }
+
+    @Test
+    public void readersAreOnlySentWhenTheirVersionChanges()
+    {
+        AuthorityBloomFilter readers = AuthorityBloomFilter.create(Arrays.asList("GROUP_A"), 0.01);
+        ReaderAuthoritySummary summary = new ReaderAuthoritySummary(3L, readers);
+        ShardRouting routing = new ShardRouting(ShardMethodEnum.MOD_ACL_ID, 0, 3, -1, -1, 1, null, null);
+        ShardPruner pruner = new ShardPruner();
+
+        NamedList<Object> header = new SimpleOrderedMap<>();
+        header.add(ShardPruner.ROUTING_HEADER, routing.toNamedList());
+        header.add(ShardPruner.READERS_HEADER, summary.toNamedList(pruner.getReadersVersion(SHARDS[0])));
+        pruner.learn(SHARDS[0], header, 0L);
+        assertEquals(3L, pruner.getReadersVersion(SHARDS[0]));
+
+        NamedList<Object> versionOnly = summary.toNamedList(3L);
+        assertNull(versionOnly.get("bits"));
+        header = new SimpleOrderedMap<>();
+        header.add(ShardPruner.ROUTING_HEADER, routing.toNamedList());
+        header.add(ShardPruner.READERS_HEADER, versionOnly);
+        pruner.learn(SHARDS[0], header, 10L);
+        assertEquals(3L, pruner.getReadersVersion(SHARDS[0]));
+        assertArrayEquals(new int[] { 1, 2 }, pruner.selectShards(SHARDS, Collections.singletonList(new SolrReaderSetQuery("|GROUP_B")), 10L, true, new SimpleOrderedMap<>()));
+    }
+
+    @Test
+    public void routingRoundTripsThroughTheResponseHeader()
+    {
+        ShardRouting routing = new ShardRouting(ShardMethodEnum.DATE, 1, 3, -1, -1, 2, null, CREATED);
+        NamedList<Object> header = new SimpleOrderedMap<>();
+        header.add(ShardPruner.ROUTING_HEADER, routing.toNamedList());
+
+        ShardPruner pruner = new ShardPruner();
+        pruner.learn(SHARDS[1], header, 0L);
+        assertEquals(routing, pruner.getRouting(SHARDS[1], 0L));
+        assertNull(pruner.getRouting(SHARDS[0], 0L));
+        assertTrue(routing.isShardKeyField("datetime@sd@" + CREATED));
+    }
+}
@@ -51,6 +51,17 @@ public class GetNodesParameters
     private Set<QName> excludeAspects;
     
     private QName shardProperty;
+
+    /*
+     * Optional routing pushdown. When set, a repository that understands them can return nodes
+     * the requesting shard does not own with status "nu" or "nd" and only id, txnId and tenant.
+     * Repositories that ignore them return all nodes and the shard routes them itself.
+     */
+    private String shardMethod;
+    private Integer shardCount;
+    private Integer shardInstance;
+    private Long shardDbIdRangeStart;
+    private Long shardDbIdRangeEnd;
     
     public boolean getStoreFilter()
     {
@@ -156,6 +167,61 @@ public class GetNodesParameters
     {
         this.shardProperty = shardProperty;
     }
+
+    public boolean getShardFilter()
+    {
+        return (shardMethod != null && shardCount != null && shardInstance != null);
+    }
+
+    public String getShardMethod()
+    {
+        return shardMethod;
+    }
+
+    public void setShardMethod(String shardMethod)
+    {
+        this.shardMethod = shardMethod;
+    }
+
+    public Integer getShardCount()
+    {
+        return shardCount;
+    }
+
+    public void setShardCount(Integer shardCount)
+    {
+        this.shardCount = shardCount;
+    }
+
+    public Integer getShardInstance()
+    {
+        return shardInstance;
+    }
+
+    public void setShardInstance(Integer shardInstance)
+    {
+        this.shardInstance = shardInstance;
+    }
+
+    public Long getShardDbIdRangeStart()
+    {
+        return shardDbIdRangeStart;
+    }
+
+    public void setShardDbIdRangeStart(Long shardDbIdRangeStart)
+    {
+        this.shardDbIdRangeStart = shardDbIdRangeStart;
+    }
+
+    public Long getShardDbIdRangeEnd()
+    {
+        return shardDbIdRangeEnd;
+    }
+
+    public void setShardDbIdRangeEnd(Long shardDbIdRangeEnd)
+    {
+        this.shardDbIdRangeEnd = shardDbIdRangeEnd;
+    }
     
     
 }
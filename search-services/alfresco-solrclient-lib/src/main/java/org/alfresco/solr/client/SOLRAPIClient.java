@@ -38,7 +38,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.httpclient.AlfrescoHttpClient;
@@ -111,6 +112,7 @@ public class SOLRAPIClient
     private DictionaryService dictionaryService;
     private JsonFactory jsonFactory;
     private NamespaceDAO namespaceDAO;
+    private SharedChangeFeed changeFeed = new SharedChangeFeed(0, 0, 0, 0);
 
     public SOLRAPIClient(AlfrescoHttpClient repositoryHttpClient,
             DictionaryService dictionaryService,
@@ -122,6 +124,44 @@ public class SOLRAPIClient
         this.deserializer = new SOLRDeserializer(namespaceDAO);
         this.jsonFactory = new JsonFactory();
     }
+
+    public void setChangeFeed(SharedChangeFeed changeFeed)
+    {
+        this.changeFeed = changeFeed;
+    }
+
+    public SharedChangeFeed getChangeFeed()
+    {
+        return changeFeed;
+    }
+
+    /**
+     * Stop counting the shard as one of the cores sharing the change feed, for example when its core is unloaded.
+     */
+    public void unregisterShard(ShardState shardState)
+    {
+        changeFeed.unregister(getCoreKey(shardState));
+    }
+
+    private static String getCoreKey(ShardState shardState)
+    {
+        return shardState.getShardInstance().getHostName() + ":" + shardState.getShardInstance().getPort() + shardState.getShardInstance().getBaseUrl();
+    }
+
+    /**
+     * Shared pages for commit time windows are fetched with a page size rounded up to a power of two,
+     * so that cores with slightly different batch sizes share them.
+     */
+    private static int getSharedPageSize(int maxResults)
+    {
+        return (maxResults >= (1 << 30)) ? maxResults : Integer.highestOneBit(Math.max(1, maxResults - 1)) << 1;
+    }
+
+    private static boolean isSharedWindow(Long fromCommitTime, Long minId, Long toCommitTime, Long maxId, int maxResults)
+    {
+        return fromCommitTime != null && toCommitTime != null && minId == null && maxId == null
+                    && maxResults > 0 && maxResults != Integer.MAX_VALUE;
+    }
     
     /**
      * Get the ACL ChangeSets
@@ -131,7 +171,55 @@ public class SOLRAPIClient
      * @param maxResults                    the maximum number of results (a reasonable value only)
      * @return                              the ACL ChangeSets in order of commit time and ID
      */
-    public AclChangeSets getAclChangeSets(Long fromCommitTime, Long minAclChangeSetId, Long toCommitTime, Long maxAclChangeSetId, int maxResults)
+    public AclChangeSets getAclChangeSets(final Long fromCommitTime, final Long minAclChangeSetId, final Long toCommitTime, final Long maxAclChangeSetId, final int maxResults)
+             throws AuthenticationException, IOException, JSONException
+    {
+        if (changeFeed.isEnabled() && isSharedWindow(fromCommitTime, minAclChangeSetId, toCommitTime, maxAclChangeSetId, maxResults))
+        {
+            // Fetch the aligned window and take this core's part of it
+            long from = changeFeed.windowStart(fromCommitTime);
+            long to = changeFeed.windowEnd(toCommitTime);
+            int pageSize = getSharedPageSize(maxResults);
+            String key = GET_ACL_CHANGESETS_URL + "?" + from + ",null," + to + ",null," + pageSize;
+            AclChangeSets page = changeFeed.get(key, () -> fetchAclChangeSets(from, null, to, null, pageSize),
+                        value -> value.getAclChangeSets().size());
+            List<AclChangeSet> selected = new ArrayList<>();
+            for (AclChangeSet aclChangeSet : page.getAclChangeSets())
+            {
+                if (selected.size() == maxResults)
+                {
+                    break;
+                }
+                if (aclChangeSet.getCommitTimeMs() >= fromCommitTime && aclChangeSet.getCommitTimeMs() < toCommitTime)
+                {
+                    selected.add(aclChangeSet);
+                }
+            }
+            // A full page may have been cut off before the end of this core's range
+            if (page.getAclChangeSets().size() < pageSize || selected.size() == maxResults)
+            {
+                return new AclChangeSets(selected, page.getMaxChangeSetCommitTime(), page.getMaxChangeSetId());
+            }
+        }
+
+        String key = GET_ACL_CHANGESETS_URL + "?" + fromCommitTime + "," + minAclChangeSetId + "," + toCommitTime + "," + maxAclChangeSetId + "," + maxResults;
+        AclChangeSets aclChangeSets = changeFeed.get(key,
+                    () -> fetchAclChangeSets(fromCommitTime, minAclChangeSetId, toCommitTime, maxAclChangeSetId, maxResults),
+                    value -> value.getAclChangeSets().size());
+        return new AclChangeSets(new ArrayList<>(aclChangeSets.getAclChangeSets()), aclChangeSets.getMaxChangeSetCommitTime(), aclChangeSets.getMaxChangeSetId());
+    }
+
+    /**
+     * Get the ACL ChangeSets straight from the repository, bypassing the shared change feed.
+     * Used by health checks, which need current pages and should not fill the feed.
+     */
+    public AclChangeSets getAclChangeSetsUnshared(Long fromCommitTime, Long minAclChangeSetId, Long toCommitTime, Long maxAclChangeSetId, int maxResults)
+             throws AuthenticationException, IOException, JSONException
+    {
+        return fetchAclChangeSets(fromCommitTime, minAclChangeSetId, toCommitTime, maxAclChangeSetId, maxResults);
+    }
+
+    private AclChangeSets fetchAclChangeSets(Long fromCommitTime, Long minAclChangeSetId, Long toCommitTime, Long maxAclChangeSetId, int maxResults)
              throws AuthenticationException, IOException, JSONException
     {
         StringBuilder url = new StringBuilder(GET_ACL_CHANGESETS_URL);
@@ -225,7 +313,18 @@ public class SOLRAPIClient
      * @param maxResults                    the maximum number of results to retrieve
      * @return                              the ACLs (includes ChangeSet ID)
      */
-    public List<Acl> getAcls(List<AclChangeSet> aclChangeSets, Long minAclId, int maxResults) throws AuthenticationException, IOException, JSONException
+    public List<Acl> getAcls(final List<AclChangeSet> aclChangeSets, final Long minAclId, final int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        StringBuilder key = new StringBuilder(GET_ACLS).append("?");
+        for (AclChangeSet aclChangeSet : aclChangeSets)
+        {
+            key.append(aclChangeSet.getId()).append(",");
+        }
+        key.append(minAclId).append(",").append(maxResults);
+        return new ArrayList<>(changeFeed.get(key.toString(), () -> fetchAcls(aclChangeSets, minAclId, maxResults), List::size));
+    }
+
+    private List<Acl> fetchAcls(List<AclChangeSet> aclChangeSets, Long minAclId, int maxResults) throws AuthenticationException, IOException, JSONException
     {
         StringBuilder url = new StringBuilder(GET_ACLS);
         StringBuilder args = new StringBuilder();
@@ -399,8 +498,75 @@ public class SOLRAPIClient
         }
     }
     
-    public Transactions getTransactions(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults, ShardState shardState) throws AuthenticationException, IOException, JSONException, EncoderException
-    {
+    public Transactions getTransactions(final Long fromCommitTime, final Long minTxnId, final Long toCommitTime, final Long maxTxnId, final int maxResults, ShardState shardState) throws AuthenticationException, IOException, JSONException, EncoderException
+    {
+        if (shardState != null && changeFeed.isEnabled())
+        {
+            // Shared pages do not carry this core's shard state, so it has to register itself now and then
+            if (changeFeed.registrationDue(getCoreKey(shardState)))
+            {
+                return fetchTransactions(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults, shardState);
+            }
+        }
+
+        if (changeFeed.isEnabled() && isSharedWindow(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults))
+        {
+            // Fetch the aligned window and take this core's part of it
+            long from = changeFeed.windowStart(fromCommitTime);
+            long to = changeFeed.windowEnd(toCommitTime);
+            int pageSize = getSharedPageSize(maxResults);
+            String key = GET_TRANSACTIONS_URL + "?" + from + ",null," + to + ",null," + pageSize;
+            Transactions page = changeFeed.get(key, () -> fetchUnregisteredTransactions(from, null, to, null, pageSize),
+                        value -> value.getTransactions().size());
+            List<Transaction> selected = new ArrayList<>();
+            for (Transaction transaction : page.getTransactions())
+            {
+                if (selected.size() == maxResults)
+                {
+                    break;
+                }
+                if (transaction.getCommitTimeMs() >= fromCommitTime && transaction.getCommitTimeMs() < toCommitTime)
+                {
+                    selected.add(transaction);
+                }
+            }
+            // A full page may have been cut off before the end of this core's range
+            if (page.getTransactions().size() < pageSize || selected.size() == maxResults)
+            {
+                return new Transactions(selected, page.getMaxTxnCommitTime(), page.getMaxTxnId());
+            }
+        }
+
+        String key = GET_TRANSACTIONS_URL + "?" + fromCommitTime + "," + minTxnId + "," + toCommitTime + "," + maxTxnId + "," + maxResults;
+        Transactions transactions = changeFeed.get(key, () -> fetchUnregisteredTransactions(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults),
+                    value -> value.getTransactions().size());
+        return new Transactions(new ArrayList<>(transactions.getTransactions()), transactions.getMaxTxnCommitTime(), transactions.getMaxTxnId());
+    }
+
+    /**
+     * Get the transactions straight from the repository, bypassing the shared change feed.
+     * Used by health checks, which need current pages and should not fill the feed.
+     */
+    public Transactions getTransactionsUnshared(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        return fetchUnregisteredTransactions(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults);
+    }
+
+    private Transactions fetchUnregisteredTransactions(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        try
+        {
+            return fetchTransactions(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults, null);
+        }
+        catch (EncoderException e)
+        {
+            // Can not happen without a shard state
+            throw new IOException(e);
+        }
+    }
+
+    private Transactions fetchTransactions(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults, ShardState shardState) throws AuthenticationException, IOException, JSONException, EncoderException
+    {
         log.debug("### get transactions ###");
         URLCodec encoder = new URLCodec();
         
@@ -551,7 +717,42 @@ public class SOLRAPIClient
         return new Transactions(transactions, maxTxnCommitTime, maxTxnIdOnServer);
     }
     
-    public List<Node> getNodes(GetNodesParameters parameters, int maxResults) throws AuthenticationException, IOException, JSONException
+    public List<Node> getNodes(final GetNodesParameters parameters, final int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        return new ArrayList<>(changeFeed.get(getNodesKey(parameters, maxResults), () -> fetchNodes(parameters, maxResults), List::size));
+    }
+
+    private String getNodesKey(GetNodesParameters parameters, int maxResults)
+    {
+        StringBuilder key = new StringBuilder(GET_NODES_URL).append("?");
+        key.append(parameters.getTransactionIds()).append(",");
+        key.append(parameters.getFromNodeId()).append(",").append(parameters.getToNodeId()).append(",");
+        key.append(parameters.getStoreProtocol()).append(",").append(parameters.getStoreIdentifier()).append(",");
+        key.append(sorted(parameters.getIncludeNodeTypes())).append(",").append(sorted(parameters.getExcludeNodeTypes())).append(",");
+        key.append(sorted(parameters.getIncludeAspects())).append(",").append(sorted(parameters.getExcludeAspects())).append(",");
+        key.append(parameters.getShardProperty()).append(",");
+        if (parameters.getShardFilter())
+        {
+            key.append(parameters.getShardMethod()).append(",").append(parameters.getShardCount()).append(",").append(parameters.getShardInstance()).append(",");
+            key.append(parameters.getShardDbIdRangeStart()).append(",").append(parameters.getShardDbIdRangeEnd()).append(",");
+        }
+        return key.append(maxResults).toString();
+    }
+
+    private static Set<String> sorted(Set<QName> qnames)
+    {
+        Set<String> sorted = new TreeSet<>();
+        if (qnames != null)
+        {
+            for (QName qname : qnames)
+            {
+                sorted.add(qname.toString());
+            }
+        }
+        return sorted;
+    }
+
+    private List<Node> fetchNodes(GetNodesParameters parameters, int maxResults) throws AuthenticationException, IOException, JSONException
     {
         StringBuilder url = new StringBuilder(GET_NODES_URL);
 
@@ -610,6 +811,21 @@ public class SOLRAPIClient
         {
             body.put("shardProperty", parameters.getShardProperty().toString());
         }
+
+        if(parameters.getShardFilter())
+        {
+            body.put("shardMethod", parameters.getShardMethod());
+            body.put("shardCount", parameters.getShardCount());
+            body.put("shardInstance", parameters.getShardInstance());
+            if(parameters.getShardDbIdRangeStart() != null)
+            {
+                body.put("shardDbIdRangeStart", parameters.getShardDbIdRangeStart());
+            }
+            if(parameters.getShardDbIdRangeEnd() != null)
+            {
+                body.put("shardDbIdRangeEnd", parameters.getShardDbIdRangeEnd());
+            }
+        }
         
         PostRequest req = new PostRequest(url.toString(), body.toString(), "application/json");
  
@@ -687,6 +903,15 @@ public class SOLRAPIClient
                 {
                     status = Node.SolrApiNodeStatus.DELETED;
                 }
+                else if(statusStr.equals("nu"))
+                {
+                    // Routed away by the repository (see GetNodesParameters.getShardFilter())
+                    status = Node.SolrApiNodeStatus.NON_SHARD_UPDATED;
+                }
+                else if(statusStr.equals("nd"))
+                {
+                    status = Node.SolrApiNodeStatus.NON_SHARD_DELETED;
+                }
                 else
                 {
                     status = Node.SolrApiNodeStatus.UNKNOWN;
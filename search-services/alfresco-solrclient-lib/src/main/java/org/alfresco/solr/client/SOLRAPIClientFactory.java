@@ -174,6 +174,12 @@ public class SOLRAPIClientFactory
             socketTimeout = Integer.parseInt(props.getProperty("alfresco.socketTimeout", "60000"));
 
             client = new SOLRAPIClient(getRepoClient(keyResourceLoader), dictionaryService, namespaceDAO);
+            // The client is shared by every core tracking this repository, so it hosts the shared change feed
+            client.setChangeFeed(new SharedChangeFeed(
+                        Long.parseLong(props.getProperty("alfresco.changeFeed.ttlMs", "5000")),
+                        Long.parseLong(props.getProperty("alfresco.changeFeed.maxEntries", "100000")),
+                        Long.parseLong(props.getProperty("alfresco.changeFeed.windowMs", "60000")),
+                        Long.parseLong(props.getProperty("alfresco.changeFeed.registrationIntervalMs", "60000"))));
             setCachedClient(alfrescoHost, alfrescoPort, alfrescoPortSSL, client);
         }
 
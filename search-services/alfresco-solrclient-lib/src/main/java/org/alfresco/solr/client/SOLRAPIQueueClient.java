@@ -67,6 +67,12 @@ public class SOLRAPIQueueClient extends SOLRAPIClient
         throwException = _throwException;
     }
 
+    public AclChangeSets getAclChangeSetsUnshared(Long fromCommitTime, Long minAclChangeSetId, Long toCommitTime, Long maxAclChangeSetId, int maxResults)
+        throws AuthenticationException, IOException, JSONException
+    {
+        return getAclChangeSets(fromCommitTime, minAclChangeSetId, toCommitTime, maxAclChangeSetId, maxResults);
+    }
+
     public AclChangeSets getAclChangeSets(Long fromCommitTime, Long minAclChangeSetId, Long toCommitTime, Long maxAclChangeSetId, int maxResults)
         throws AuthenticationException, IOException, JSONException
     {
@@ -186,6 +192,11 @@ public class SOLRAPIQueueClient extends SOLRAPIClient
     }
 
 
+    public Transactions getTransactionsUnshared(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults) throws AuthenticationException, IOException, JSONException
+    {
+        return getTransactions(fromCommitTime, minTxnId, toCommitTime, maxTxnId, maxResults);
+    }
+
     public Transactions getTransactions(Long fromCommitTime, Long minTxnId, Long toCommitTime, Long maxTxnId, int maxResults) throws AuthenticationException, IOException, JSONException
     {
         if(throwException) {
@@ -0,0 +1,361 @@
+/*
+ * #%L
+ * Alfresco Solr Client
+ * %%
+ * Copyright (C) 2005 - 2019 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.client;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.httpclient.AuthenticationException;
+import org.json.JSONException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Node level cache of repository change pages shared by every core tracking the same repository.
+ * <p>
+ * The {@link SOLRAPIClient} for a repository is already shared between cores, so identical transaction,
+ * node and ACL page requests issued by the trackers of different cores are answered by a single repository
+ * call. Concurrent identical requests wait for the one in flight and later ones are served from memory until
+ * the page expires. Each core still drives the requests from its own tracker state; commit time windows are
+ * aligned with {@link #windowStart(long)} and {@link #windowEnd(long)} so that cores at slightly different
+ * positions ask for the same page.
+ * <p>
+ * The cache is bounded by the total weight of the pages held (the number of transactions, nodes or ACLs), and
+ * expired pages are dropped as soon as the feed is next used.
+ * 
+ * @author Andy
+ */
+public class SharedChangeFeed
+{
+    protected final static Logger log = LoggerFactory.getLogger(SharedChangeFeed.class);
+
+    /**
+     * A repository call whose result may be shared.
+     */
+    public interface Fetch<T>
+    {
+        T fetch() throws AuthenticationException, IOException, JSONException;
+    }
+
+    /**
+     * The weight of a page against the cache bound, usually the number of entries it holds.
+     */
+    public interface Weigher<T>
+    {
+        int weigh(T value);
+    }
+
+    private final long ttlMs;
+    private final long maxWeight;
+    private final long windowMs;
+    private final long registrationIntervalMs;
+    // Insertion order, which is also expiry order, so expired and evicted pages are found at the head
+    private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>();
+    private long weight;
+    private final Map<String, Long> lastRegistered = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param ttlMs how long a fetched page is shared, 0 disables sharing
+     * @param maxWeight the maximum total weight of the pages held
+     * @param windowMs the commit time window that shared time ranges are aligned to
+     * @param registrationIntervalMs how often each core must reach the repository itself to keep its shard registered
+     */
+    public SharedChangeFeed(long ttlMs, long maxWeight, long windowMs, long registrationIntervalMs)
+    {
+        this.ttlMs = ttlMs;
+        this.maxWeight = maxWeight;
+        this.windowMs = Math.max(1, windowMs);
+        this.registrationIntervalMs = registrationIntervalMs;
+    }
+
+    public boolean isEnabled()
+    {
+        return ttlMs > 0;
+    }
+
+    /**
+     * @return the start of the window holding the time
+     */
+    public long windowStart(long time)
+    {
+        return time - Math.floorMod(time, windowMs);
+    }
+
+    /**
+     * @return the end of the window holding the time, or the time itself if it is on a window boundary
+     */
+    public long windowEnd(long time)
+    {
+        long start = windowStart(time);
+        return (start == time) ? time : start + windowMs;
+    }
+
+    /**
+     * Get a page with a weight of one.
+     */
+    public <T> T get(String key, Fetch<T> fetch) throws AuthenticationException, IOException, JSONException
+    {
+        return get(key, fetch, value -> 1);
+    }
+
+    /**
+     * Get the page for the key, fetching it if no live copy is held or in flight.
+     * Failures are not cached, but are reported to every caller waiting on the failed fetch.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Fetch<T> fetch, Weigher<? super T> weigher) throws AuthenticationException, IOException, JSONException
+    {
+        if (!isEnabled())
+        {
+            return fetch.fetch();
+        }
+
+        Page page;
+        boolean owner = false;
+        synchronized (pages)
+        {
+            long now = System.currentTimeMillis();
+            purgeExpired(now);
+            page = pages.get(key);
+            if (page == null || page.isExpired(now, ttlMs))
+            {
+                if (page != null)
+                {
+                    remove(key);
+                }
+                page = new Page();
+                pages.put(key, page);
+                owner = true;
+            }
+        }
+
+        if (owner)
+        {
+            misses.incrementAndGet();
+            T value;
+            try
+            {
+                value = fetch.fetch();
+            }
+            catch (Exception e)
+            {
+                synchronized (pages)
+                {
+                    if (pages.get(key) == page)
+                    {
+                        remove(key);
+                    }
+                }
+                page.complete(null, e);
+                throw e;
+            }
+            page.complete(value, null);
+            synchronized (pages)
+            {
+                if (pages.get(key) == page)
+                {
+                    page.weight = Math.max(1, weigher.weigh(value));
+                    weight += page.weight;
+                    evict();
+                }
+            }
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        return (T) page.await();
+    }
+
+    private void purgeExpired(long now)
+    {
+        Iterator<Page> it = pages.values().iterator();
+        while (it.hasNext())
+        {
+            Page page = it.next();
+            if (!page.isExpired(now, ttlMs))
+            {
+                break;
+            }
+            weight -= page.weight;
+            it.remove();
+        }
+    }
+
+    /**
+     * Drop the oldest completed pages until the weight bound is met, a page heavier than the bound is not kept at all.
+     */
+    private void evict()
+    {
+        Iterator<Page> it = pages.values().iterator();
+        while (weight > maxWeight && it.hasNext())
+        {
+            Page page = it.next();
+            if (page.weight > 0)
+            {
+                weight -= page.weight;
+                it.remove();
+            }
+        }
+    }
+
+    private void remove(String key)
+    {
+        Page page = pages.remove(key);
+        if (page != null)
+        {
+            weight -= page.weight;
+        }
+    }
+
+    /**
+     * A core registers its shard state with the repository as a side effect of fetching transactions,
+     * so it must bypass shared pages at least once every registration interval.
+     * 
+     * @return true if the core should make its own call now
+     */
+    public boolean registrationDue(String coreKey)
+    {
+        long now = System.currentTimeMillis();
+        Long last = lastRegistered.get(coreKey);
+        if (last == null || now - last >= registrationIntervalMs)
+        {
+            lastRegistered.put(coreKey, now);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forget a core that is no longer tracking, for example because it was unloaded.
+     */
+    public void unregister(String coreKey)
+    {
+        lastRegistered.remove(coreKey);
+    }
+
+    /**
+     * @return the number of cores that have fetched transactions through this feed recently
+     */
+    public int getCoreCount()
+    {
+        long now = System.currentTimeMillis();
+        // A core that has missed two registrations is no longer tracking
+        lastRegistered.values().removeIf(last -> now - last > 2 * registrationIntervalMs);
+        return lastRegistered.size();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the total weight of the pages held
+     */
+    public long getWeight()
+    {
+        synchronized (pages)
+        {
+            return weight;
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (pages)
+        {
+            pages.clear();
+            weight = 0;
+        }
+    }
+
+    private static class Page
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile long completedAt;
+        private volatile Object value;
+        private volatile Exception failure;
+        // Guarded by the pages lock, 0 until the page is complete
+        private long weight;
+
+        void complete(Object value, Exception failure)
+        {
+            this.value = value;
+            this.failure = failure;
+            this.completedAt = System.currentTimeMillis();
+            done.countDown();
+        }
+
+        boolean isExpired(long now, long ttlMs)
+        {
+            return done.getCount() == 0 && (failure != null || now - completedAt > ttlMs);
+        }
+
+        Object await() throws AuthenticationException, IOException, JSONException
+        {
+            try
+            {
+                done.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for a shared repository page", e);
+            }
+
+            if (failure instanceof AuthenticationException)
+            {
+                throw (AuthenticationException) failure;
+            }
+            else if (failure instanceof IOException)
+            {
+                throw (IOException) failure;
+            }
+            else if (failure instanceof JSONException)
+            {
+                throw (JSONException) failure;
+            }
+            else if (failure != null)
+            {
+                throw (RuntimeException) failure;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Alfresco Solr Client
+ * %%
+ * Copyright (C) 2005 - 2019 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, mergeable histogram of non negative long values (HDR style log-linear buckets).
+ * <p>
+ * Values below {@link #SUB_BUCKETS} * 2 are counted exactly, larger values fall in one of {@link #SUB_BUCKETS}
+ * linear sub buckets per power of two so the relative error of a reported value is at most 1/{@link #SUB_BUCKETS}.
+ * Recording a value is a constant time index calculation and an increment, whatever the number of samples.
+ * 
+ * @author Andy
+ */
+public class LatencyHistogram
+{
+    static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value long
+     */
+    public void record(long value)
+    {
+        record(value, 1L);
+    }
+
+    /**
+     * Records the same value a number of times.
+     * 
+     * @param value long
+     * @param times long
+     */
+    public void record(long value, long times)
+    {
+        if (times < 1)
+        {
+            return;
+        }
+        long v = value < 0 ? 0 : value;
+        counts.addAndGet(indexOf(v), times);
+        count.addAndGet(times);
+        if (v > max.get())
+        {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    /**
+     * Adds all the counts of another histogram to this one.
+     * 
+     * @param other LatencyHistogram
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long c = other.counts.get(i);
+            if (c > 0)
+            {
+                counts.addAndGet(i, c);
+            }
+        }
+        count.addAndGet(other.count.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public LatencyHistogram copy()
+    {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * @param percentile double between 0 and 100
+     * @return the highest value equivalent to the value at the given percentile, 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0)
+        {
+            return 0L;
+        }
+        double p = Math.min(Math.max(percentile, 0D), 100D);
+        long target = Math.max(1L, (long) Math.ceil(p / 100D * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += counts.get(i);
+            if (seen >= target)
+            {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the count held in each bucket, indexed as by {@link #indexOf(long)}
+     */
+    public long[] getCounts()
+    {
+        long[] answer = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            answer[i] = counts.get(i);
+        }
+        return answer;
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            counts.set(i, 0L);
+        }
+        count.set(0L);
+        max.set(0L);
+    }
+
+    static int indexOf(long value)
+    {
+        if (value < (SUB_BUCKETS << 1))
+        {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKETS) + (int) (value >>> shift);
+    }
+
+    static long lowestValueAt(int index)
+    {
+        if (index < (SUB_BUCKETS << 1))
+        {
+            return index;
+        }
+        int shift = (index / SUB_BUCKETS) - 1;
+        long sub = index - ((long) shift * SUB_BUCKETS);
+        return sub << shift;
+    }
+
+    static long highestValueAt(int index)
+    {
+        if (index == BUCKET_COUNT - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+        return lowestValueAt(index + 1) - 1;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return "LatencyHistogram [count=" + getCount() + ", max=" + getMax() + ", p50=" + getValueAtPercentile(50) + ", p99="
+                + getValueAtPercentile(99) + "]";
+    }
+}
@@ -31,6 +31,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.solr.InformationServerCollectionProvider;
 import org.alfresco.solr.adapters.ISimpleOrderedMap;
@@ -43,25 +44,67 @@ public class TrackerStats
 {
     public static final int TIME_SCALE = 1000000;
 
-    ConcurrentHashMap<String, IncrementalStats> modelTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats modelTimes = new ThreadStats(TIME_SCALE);
 
-    ConcurrentHashMap<String, IncrementalStats> aclTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats aclTimes = new ThreadStats(TIME_SCALE);
 
-    ConcurrentHashMap<String, IncrementalStats> changeSetAcls = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats changeSetAcls = new ThreadStats(1);
 
-    ConcurrentHashMap<String, IncrementalStats> txDocs = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats txDocs = new ThreadStats(1);
 
-    ConcurrentHashMap<String, IncrementalStats> docTransformationTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats docTransformationTimes = new ThreadStats(TIME_SCALE);
 
-    ConcurrentHashMap<String, IncrementalStats> nodeTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats nodeTimes = new ThreadStats(TIME_SCALE);
     
-    ConcurrentHashMap<String, IncrementalStats> elapsedNodeTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats elapsedNodeTimes = new ThreadStats(TIME_SCALE);
     
-    ConcurrentHashMap<String, IncrementalStats> elapsedAclTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats elapsedAclTimes = new ThreadStats(TIME_SCALE);
     
-    ConcurrentHashMap<String, IncrementalStats> elapsedContentTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    volatile ThreadStats elapsedContentTimes = new ThreadStats(TIME_SCALE);
+
+    // Total ACL documents indexed and the wall time spent indexing them, for the throughput
+    final AtomicLong aclDocsIndexed = new AtomicLong();
+
+    final AtomicLong aclIndexingNanos = new AtomicLong();
 
     private InformationServerCollectionProvider infoSrv;
+
+    /**
+     * The stats of each thread adding samples. Each thread finds its own {@link IncrementalStats} through a thread
+     * local so adding a sample never looks up or contends on a shared map; the map is only used to aggregate.
+     */
+    class ThreadStats
+    {
+        final ConcurrentHashMap<String, IncrementalStats> all = new ConcurrentHashMap<String, IncrementalStats>();
+
+        final ThreadLocal<IncrementalStats> local;
+
+        ThreadStats(final int scale)
+        {
+            local = ThreadLocal.withInitial(() -> register(new IncrementalStats(scale, infoSrv)));
+        }
+
+        private IncrementalStats register(IncrementalStats stats)
+        {
+            Thread thread = Thread.currentThread();
+            if (all.putIfAbsent(thread.getName(), stats) != null)
+            {
+                all.put(thread.getName() + "#" + thread.getId(), stats);
+            }
+            return stats;
+        }
+
+        IncrementalStats get()
+        {
+            return local.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return all.toString();
+        }
+    }
     
     public TrackerStats(InformationServerCollectionProvider server)
     {
@@ -77,17 +120,22 @@ public class TrackerStats
     }
 
     /**
-     * @param all ConcurrentHashMap<String, IncrementalStats>
+     * @param threadStats ThreadStats
      * @return SimpleStats
      */
-    private SimpleStats aggregateResults(ConcurrentHashMap<String, IncrementalStats> all)
+    private SimpleStats aggregateResults(ThreadStats threadStats)
     {
         SimpleStats answer = null;
+        ConcurrentHashMap<String, IncrementalStats> all = threadStats.all;
 
         for (String key : all.keySet())
         {
             IncrementalStats next = all.get(key);
             IncrementalStats stats = next.copy();
+            if (stats.getN() == 0)
+            {
+                continue;
+            }
             if (answer == null)
             {
                 answer = new SimpleStats(stats.scale, this.infoSrv);
@@ -97,6 +145,7 @@ public class TrackerStats
                 answer.moments[2] = stats.moments[2];
                 answer.max = stats.max;
                 answer.min = stats.min;
+                answer.addLatencies(stats.latencies);
                 answer.copies.put(key, stats);
             }
             else
@@ -122,6 +171,9 @@ public class TrackerStats
                 newAnswer.copies.putAll(answer.copies);
                 newAnswer.copies.put(key, stats);
 
+                newAnswer.latencies = answer.latencies;
+                newAnswer.addLatencies(stats.latencies);
+
                 answer = newAnswer;
             }
 
@@ -194,9 +246,18 @@ public class TrackerStats
         return aggregateResults(elapsedContentTimes).getMean();
     }
 
+    /**
+     * @return the ACL documents indexed per second: all the ACL documents indexed over the wall time spent indexing them
+     */
+    public double getAclDocsPerSecond()
+    {
+        long nanos = aclIndexingNanos.get();
+        return nanos > 0 ? aclDocsIndexed.get() * 1e9D / nanos : 0D;
+    }
+
     public double getNodeIndexingThreadCount()
     {
-        return nodeTimes.size();
+        return nodeTimes.all.size();
     }
 
     public double getMeanAclIndexTime()
@@ -233,27 +294,54 @@ public class TrackerStats
         double max = 0D;
 
         Date start = null;
+
+        LatencyHistogram latencies = null;
         
-        synchronized long getN()
+        public synchronized long getN()
         {
             return (long) moments[0];
         }
 
-        synchronized double getMin()
+        public synchronized double getMin()
         {
             return min;
         }
 
-        synchronized double getMax()
+        public synchronized double getMax()
         {
             return max;
         }
 
-        synchronized double getMean()
+        public synchronized double getMean()
         {
             return moments[1];
         }
 
+        /**
+         * @param percentile double between 0 and 100
+         * @return the scaled value at the percentile, NaN if the samples were not recorded in a latency histogram
+         */
+        public synchronized double getPercentile(double percentile)
+        {
+            if ((latencies == null) || (latencies.getCount() == 0))
+            {
+                return Double.NaN;
+            }
+            return (double) latencies.getValueAtPercentile(percentile) / scale;
+        }
+
+        void addLatencies(LatencyHistogram other)
+        {
+            if (other != null)
+            {
+                if (latencies == null)
+                {
+                    latencies = new LatencyHistogram();
+                }
+                latencies.add(other);
+            }
+        }
+
         synchronized double getVarience()
         {
             if (moments[0] > 1)
@@ -281,6 +369,13 @@ public class TrackerStats
             map.add("Mean", getMean());
             map.add("Varience", getVarience());
             map.add("StdDev", getStandardDeviation());
+            if ((latencies != null) && (latencies.getCount() > 0))
+            {
+                map.add("P50", getPercentile(50));
+                map.add("P90", getPercentile(90));
+                map.add("P99", getPercentile(99));
+                map.add("P99.9", getPercentile(99.9));
+            }
             if (incdludeDetail)
             {
                 for (String key : copies.keySet())
@@ -399,9 +494,14 @@ public class TrackerStats
         List<Double> values;
 
         List<Bucket> hist;
+
+        LatencyHistogram latencies;
         
         InformationServerCollectionProvider server;
 
+        /**
+         * Stats with an adaptive histogram of the given number of buckets.
+         */
         public IncrementalStats(int scale, int buckets, InformationServerCollectionProvider infoSrv)
         {
             this.scale = scale;
@@ -411,6 +511,16 @@ public class TrackerStats
             this.server = infoSrv;
         }
 
+        /**
+         * Stats that record the distribution in a fixed memory {@link LatencyHistogram} rather than an adaptive
+         * histogram, so adding a sample is constant time.
+         */
+        public IncrementalStats(int scale, InformationServerCollectionProvider infoSrv)
+        {
+            this(scale, 0, infoSrv);
+            this.latencies = new LatencyHistogram();
+        }
+
         /**
          * @return ISimpleOrderedMap
          */
@@ -427,7 +537,24 @@ public class TrackerStats
             map.add("Skew", getSkew());
             map.add("Kurtosis", getKurtosis());
 
-            if (includeHist)
+            if (includeHist && (latencies != null))
+            {
+                ISimpleOrderedMap<Object> buckets = this.server.getSimpleOrderedMapInstance();
+                long[] counts = latencies.getCounts();
+                long n = latencies.getCount();
+                int i = 0;
+                for (int index = 0; index < counts.length; index++)
+                {
+                    if (counts[index] > 0)
+                    {
+                        double lower = (double) LatencyHistogram.lowestValueAt(index) / scale;
+                        double upper = (double) (LatencyHistogram.highestValueAt(index) + 1) / scale;
+                        buckets.add("" + i++, (lower + upper) / 2.0D + "," + counts[index] / (double) n / (upper - lower));
+                    }
+                }
+                map.add("Buckets", buckets);
+            }
+            else if (includeHist)
             {
                 int i = 0;
                 ISimpleOrderedMap<Object> buckets = this.server.getSimpleOrderedMapInstance();
@@ -476,12 +603,75 @@ public class TrackerStats
             values = new ArrayList<Double>(buckets);
 
             hist = new ArrayList<Bucket>(buckets + 1);
+
+            if (latencies != null)
+            {
+                latencies.reset();
+            }
             
             start = new Date();
         }
 
+        /**
+         * Adds the same sample a number of times in constant time, merging the moments of the repeated sample.
+         * 
+         * @param xUnscaled double
+         * @param count long
+         */
+        public synchronized void add(double xUnscaled, long count)
+        {
+            if (count < 1)
+            {
+                return;
+            }
+            if ((count == 1) || (buckets > 1))
+            {
+                for (long i = 0; i < count; i++)
+                {
+                    add(xUnscaled);
+                }
+                return;
+            }
+            double x = xUnscaled / scale;
+            if ((moments[0] == 0) || (x > max))
+            {
+                max = x;
+            }
+            if ((moments[0] == 0) || (x < min))
+            {
+                min = x;
+            }
+            double na = moments[0];
+            double nb = count;
+            double n = na + nb;
+            double delta = x - moments[1];
+            double delta2 = delta * delta;
+            double m2 = moments[2] * na;
+            double m3 = moments[3] * na;
+            double m4 = moments[4] * na;
+
+            double m4New = m4 + delta2 * delta2 * na * nb * (na * na - na * nb + nb * nb) / (n * n * n) + 6 * delta2 * nb * nb * m2 / (n * n) - 4 * delta * nb * m3 / n;
+            double m3New = m3 + delta2 * delta * na * nb * (na - nb) / (n * n) - 3 * delta * nb * m2 / n;
+            double m2New = m2 + delta2 * na * nb / n;
+
+            moments[4] = m4New / n;
+            moments[3] = m3New / n;
+            moments[2] = m2New / n;
+            moments[1] += delta * nb / n;
+            moments[0] = n;
+
+            if (latencies != null)
+            {
+                latencies.record((long) xUnscaled, count);
+            }
+        }
+
         public synchronized void add(double xUnscaled)
         {
+            if (latencies != null)
+            {
+                latencies.record((long) xUnscaled);
+            }
             double x = xUnscaled / scale;
             if ((moments[0] == 0) || (x > max))
             {
@@ -768,6 +958,10 @@ public class TrackerStats
         synchronized IncrementalStats copy()
         {
             IncrementalStats copy = new IncrementalStats(this.scale, this.buckets, this.server);
+            if (this.latencies != null)
+            {
+                copy.latencies = this.latencies.copy();
+            }
             copy.start = this.start;
             copy.max = this.max;
             copy.min = this.min;
@@ -806,13 +1000,7 @@ public class TrackerStats
      */
     public void addModelTime(long time)
     {
-        IncrementalStats stats = modelTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            modelTimes.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(time);
+        modelTimes.get().add(time);
     }
 
     /**
@@ -820,13 +1008,7 @@ public class TrackerStats
      */
     public void addAclTime(long time)
     {
-        IncrementalStats stats = aclTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            aclTimes.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(time);
+        aclTimes.get().add(time);
     }
 
     /**
@@ -834,13 +1016,7 @@ public class TrackerStats
      */
     public void addNodeTime(long time)
     {
-        IncrementalStats stats = nodeTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            nodeTimes.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(time);
+        nodeTimes.get().add(time);
     }
 
     /**
@@ -853,23 +1029,14 @@ public class TrackerStats
         {
             return;
         }
-        IncrementalStats stats = elapsedNodeTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            elapsedNodeTimes.put(Thread.currentThread().getName(), stats);
-        }
         long meanTime = time / docCount;
-        for(int i = 0; i < docCount; i++)
-        {
-            stats.add(meanTime);
-        }
+        elapsedNodeTimes.get().add(meanTime, docCount);
         
     }
     
     /**
      * @param docCount int
-     * @param time long
+     * @param time long the wall time in nanoseconds
      */
     public void addElapsedAclTime(int docCount, long time)
     {
@@ -877,17 +1044,10 @@ public class TrackerStats
         {
             return;
         }
-        IncrementalStats stats = elapsedAclTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            elapsedAclTimes.put(Thread.currentThread().getName(), stats);
-        }
         long meanTime = time / docCount;
-        for(int i = 0; i < docCount; i++)
-        {
-            stats.add(meanTime);
-        }
+        elapsedAclTimes.get().add(meanTime, docCount);
+        aclDocsIndexed.addAndGet(docCount);
+        aclIndexingNanos.addAndGet(time);
         
     }
     
@@ -901,17 +1061,8 @@ public class TrackerStats
         {
             return;
         }
-        IncrementalStats stats = elapsedContentTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            elapsedContentTimes.put(Thread.currentThread().getName(), stats);
-        }
         long meanTime = time / docCount;
-        for(int i = 0; i < docCount; i++)
-        {
-            stats.add(meanTime);
-        }
+        elapsedContentTimes.get().add(meanTime, docCount);
         
     }
     
@@ -920,13 +1071,7 @@ public class TrackerStats
      */
     public void addTxDocs(int size)
     {
-        IncrementalStats stats = txDocs.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(1, 50, this.infoSrv);
-            txDocs.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(size);
+        txDocs.get().add(size);
     }
 
     /**
@@ -934,13 +1079,7 @@ public class TrackerStats
      */
     public void addChangeSetAcls(int size)
     {
-        IncrementalStats stats = changeSetAcls.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(1, 50, this.infoSrv);
-            changeSetAcls.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(size);
+        changeSetAcls.get().add(size);
     }
 
     /**
@@ -948,13 +1087,7 @@ public class TrackerStats
      */
     public void addDocTransformationTime(long time)
     {
-        IncrementalStats stats = docTransformationTimes.get(Thread.currentThread().getName());
-        if (stats == null)
-        {
-            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
-            docTransformationTimes.put(Thread.currentThread().getName(), stats);
-        }
-        stats.add(time);
+        docTransformationTimes.get().add(time);
     }
 
     /*
@@ -974,12 +1107,14 @@ public class TrackerStats
      */
     public void reset()
     {
-        modelTimes.clear();
-        aclTimes.clear();
-        changeSetAcls.clear();
-        txDocs.clear();
-        docTransformationTimes.clear();
-        nodeTimes.clear();
+        modelTimes = new ThreadStats(TIME_SCALE);
+        aclTimes = new ThreadStats(TIME_SCALE);
+        changeSetAcls = new ThreadStats(1);
+        txDocs = new ThreadStats(1);
+        docTransformationTimes = new ThreadStats(TIME_SCALE);
+        nodeTimes = new ThreadStats(TIME_SCALE);
+        aclDocsIndexed.set(0);
+        aclIndexingNanos.set(0);
     }
 
  
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * Alfresco Solr Client
+ * %%
+ * Copyright (C) 2005 - 2019 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link SharedChangeFeed}.
+ * 
+ * @author Andy
+ */
+public class SharedChangeFeedTest
+{
+    @Test
+    public void identicalRequestsShareOneFetch() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 60000, 60000);
+        AtomicInteger fetches = new AtomicInteger();
+        Object page = new Object();
+
+        assertSame(page, feed.get("a", () -> { fetches.incrementAndGet(); return page; }));
+        assertSame(page, feed.get("a", () -> { fetches.incrementAndGet(); return new Object(); }));
+        assertEquals(1, fetches.get());
+        assertEquals(1, feed.getHits());
+        assertEquals(1, feed.getMisses());
+
+        feed.get("b", () -> { fetches.incrementAndGet(); return page; });
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void concurrentRequestsWaitForTheFetchInFlight() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 60000, 60000);
+        AtomicInteger fetches = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            Future<?>[] results = new Future<?>[4];
+            for (int i = 0; i < results.length; i++)
+            {
+                results[i] = executor.submit(() -> feed.get("tx", () -> {
+                    fetches.incrementAndGet();
+                    try
+                    {
+                        release.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new IOException(e);
+                    }
+                    return "page";
+                }));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<?> result : results)
+            {
+                assertEquals("page", result.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, fetches.get());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 60000, 60000);
+        try
+        {
+            feed.get("a", () -> { throw new IOException("down"); });
+            fail("Expected the fetch failure");
+        }
+        catch (IOException e)
+        {
+            assertEquals("down", e.getMessage());
+        }
+        assertEquals("up", feed.get("a", () -> "up"));
+    }
+
+    @Test
+    public void disabledFeedAlwaysFetches() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(0, 10, 60000, 60000);
+        AtomicInteger fetches = new AtomicInteger();
+        feed.get("a", () -> fetches.incrementAndGet());
+        feed.get("a", () -> fetches.incrementAndGet());
+        assertEquals(2, fetches.get());
+        assertFalse(feed.isEnabled());
+    }
+
+    @Test
+    public void eachCoreRegistersOncePerInterval()
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 60000, 60000);
+        assertTrue(feed.registrationDue("host:8983/solr/alfresco-0"));
+        assertFalse(feed.registrationDue("host:8983/solr/alfresco-0"));
+        assertTrue(feed.registrationDue("host:8983/solr/alfresco-1"));
+        assertEquals(2, feed.getCoreCount());
+
+        feed.unregister("host:8983/solr/alfresco-1");
+        assertEquals(1, feed.getCoreCount());
+    }
+
+    @Test
+    public void pagesAreBoundedByWeight() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 60000, 60000);
+        feed.get("a", () -> "a", value -> 6);
+        feed.get("b", () -> "b", value -> 6);
+        assertEquals(6, feed.getWeight());
+
+        // Too heavy to keep at all
+        feed.get("c", () -> "c", value -> 20);
+        assertEquals(0, feed.getWeight());
+
+        AtomicInteger fetches = new AtomicInteger();
+        feed.get("b", () -> { fetches.incrementAndGet(); return "b"; }, value -> 6);
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void expiredPagesArePurged() throws Exception
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(1, 100, 60000, 60000);
+        feed.get("a", () -> "a", value -> 5);
+        Thread.sleep(10);
+        feed.get("b", () -> "b", value -> 7);
+        assertEquals(7, feed.getWeight());
+    }
+
+    @Test
+    public void windowsAreAligned()
+    {
+        SharedChangeFeed feed = new SharedChangeFeed(60000, 10, 1000, 60000);
+        assertEquals(5000, feed.windowStart(5999));
+        assertEquals(6000, feed.windowEnd(5001));
+        assertEquals(5000, feed.windowEnd(5000));
+    }
+}
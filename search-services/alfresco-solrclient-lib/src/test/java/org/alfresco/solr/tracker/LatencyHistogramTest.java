@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Alfresco Solr Client
+ * %%
+ * Copyright (C) 2005 - 2019 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alfresco.solr.tracker.TrackerStats.IncrementalStats;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LatencyHistogram} and the striped {@link TrackerStats} built on it.
+ * 
+ * @author Andy
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void bucketBoundariesCoverEveryValue()
+    {
+        long[] values = { 0, 1, 63, 64, 65, 1000, 123456789L, Long.MAX_VALUE };
+        for (long value : values)
+        {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKET_COUNT);
+            assertTrue(LatencyHistogram.lowestValueAt(index) <= value);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+        }
+        for (int index = 1; index < LatencyHistogram.BUCKET_COUNT; index++)
+        {
+            assertEquals(LatencyHistogram.highestValueAt(index - 1) + 1, LatencyHistogram.lowestValueAt(index));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100000; i++)
+        {
+            histogram.record(i * 1000);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertWithin(50000000L, histogram.getValueAtPercentile(50));
+        assertWithin(99000000L, histogram.getValueAtPercentile(99));
+        assertEquals(100000000L, histogram.getValueAtPercentile(100));
+        assertEquals(0L, new LatencyHistogram().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void mergedHistogramsMatchASingleHistogram()
+    {
+        LatencyHistogram all = new LatencyHistogram();
+        LatencyHistogram even = new LatencyHistogram();
+        LatencyHistogram odd = new LatencyHistogram();
+        for (long i = 0; i < 10000; i++)
+        {
+            all.record(i * 37);
+            (i % 2 == 0 ? even : odd).record(i * 37);
+        }
+        LatencyHistogram merged = even.copy();
+        merged.add(odd);
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getMax(), merged.getMax());
+        assertEquals(all.getValueAtPercentile(90), merged.getValueAtPercentile(90));
+        assertEquals(all.getValueAtPercentile(99.9), merged.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void repeatedSamplesMatchIndividualSamples()
+    {
+        IncrementalStats bulk = new IncrementalStats(1, null);
+        IncrementalStats single = new IncrementalStats(1, null);
+        long[][] samples = { { 5, 3 }, { 20, 1 }, { 7, 10 }, { 100, 2 } };
+        for (long[] sample : samples)
+        {
+            bulk.add(sample[0], sample[1]);
+            for (int i = 0; i < sample[1]; i++)
+            {
+                single.add(sample[0]);
+            }
+        }
+        assertEquals(single.getN(), bulk.getN());
+        assertEquals(single.getMin(), bulk.getMin(), 0D);
+        assertEquals(single.getMax(), bulk.getMax(), 0D);
+        assertEquals(single.getMean(), bulk.getMean(), 1e-9);
+        assertEquals(single.getVarience(), bulk.getVarience(), 1e-9);
+        assertEquals(single.getSkew(), bulk.getSkew(), 1e-9);
+        assertEquals(single.getKurtosis(), bulk.getKurtosis(), 1e-9);
+    }
+
+    @Test
+    public void threadsAddToTheirOwnStats() throws Exception
+    {
+        final TrackerStats stats = new TrackerStats(null);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++)
+        {
+            final long time = (t + 1) * TrackerStats.TIME_SCALE;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                {
+                    stats.addNodeTime(time);
+                }
+            }, "indexer-" + t);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+
+        assertEquals(4D, stats.getNodeIndexingThreadCount(), 0D);
+        assertEquals(4000, stats.getNodeTimes().getN());
+        assertEquals(2.5D, stats.getMeanNodeIndexTime(), 1e-9);
+        assertEquals(4D, stats.getNodeTimes().getPercentile(99), 0D);
+
+        stats.reset();
+        assertEquals(0D, stats.getNodeIndexingThreadCount(), 0D);
+    }
+
+    private void assertWithin(long expected, long actual)
+    {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}